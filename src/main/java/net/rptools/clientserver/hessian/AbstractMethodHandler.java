@@ -15,11 +15,9 @@
 package net.rptools.clientserver.hessian;
 
 import com.caucho.hessian.io.HessianInput;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 /**
  * @author drice
@@ -34,14 +32,7 @@ public abstract class AbstractMethodHandler implements MethodHandler {
   public void handleMessage(String id, byte[] message) {
     try {
 
-      HessianInput in = null;
-      try {
-        in =
-            HessianUtils.createSafeHessianInput(
-                new GZIPInputStream(new ByteArrayInputStream(message)));
-      } catch (IOException ioe) {
-        in = HessianUtils.createSafeHessianInput(new ByteArrayInputStream(message));
-      }
+      HessianInput in = HessianUtils.createSafeHessianInput(HessianUtils.openMessage(message));
       in.startCall();
       List<Object> arguments = new ArrayList<Object>();
       while (!in.isEnd()) {
@@ -17,14 +17,54 @@
 import com.caucho.hessian.io.HessianFactory;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import net.rptools.clientserver.simple.FrameCodec;
 
-/** @author drice */
+/**
+ * Encoding of method calls.
+ *
+ * <p>There are two wire formats. The legacy one is a GZIP stream of the Hessian call (or the bare
+ * call). The framed format starts with a flag byte: {@link #FRAME_RAW} is followed by the Hessian
+ * call as is, {@link #FRAME_DEFLATE} by the uncompressed length and a raw deflate stream. Neither
+ * flag can start a GZIP stream or a Hessian call, so a receiver can tell all of them apart from the
+ * first byte. The framed format is only sent to peers that asked for {@link #FRAMED_COMPRESSION}
+ * during the handshake.
+ *
+ * @author drice
+ */
 public class HessianUtils {
 
+  /** Name of the framed format, as exchanged during the handshake. */
+  public static final String FRAMED_COMPRESSION = "framed-deflate-1";
+
+  public static final byte FRAME_RAW = 0;
+  public static final byte FRAME_DEFLATE = 1;
+
+  /** Calls smaller than this are not worth compressing. */
+  public static final int COMPRESSION_THRESHOLD = 256;
+
+  /** Calls at least this large (zones, campaigns) are compressed as hard as possible. */
+  public static final int STRONG_COMPRESSION_THRESHOLD = 256 * 1024;
+
+  /** Largest call a deflated frame may inflate to, the same as the largest frame. */
+  public static final int MAX_UNCOMPRESSED_LENGTH = FrameCodec.DEFAULT_MAX_FRAME_LENGTH;
+
+  /** Deflate can't compress better than this, a longer length header is a lie. */
+  private static final int MAX_DEFLATE_RATIO = 1032;
+
+  private static final ThreadLocal<Deflater> deflater =
+      ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+  private static final ThreadLocal<Inflater> inflater =
+      ThreadLocal.withInitial(() -> new Inflater(true));
+
   public static HessianInput createSafeHessianInput(InputStream is) {
     HessianFactory hessianFactory = new HessianFactory();
     HessianSecurity hessianSecurity = new HessianSecurity();
@@ -51,25 +91,168 @@ public static final byte[] methodToBytes(String method, Object... parameters) {
     return bout.toByteArray();
   }
 
-  public static final byte[] methodToBytesGZ(String method, Object... parameters) {
-
+  /**
+   * Encodes a single object the same way it is encoded as a method parameter.
+   *
+   * @param object the object
+   * @return the encoded object
+   */
+  public static byte[] objectToBytes(Object object) {
     ByteArrayOutputStream bout = new ByteArrayOutputStream();
 
+    HessianOutput hout = new HessianOutput(bout);
+    hout.getSerializerFactory().setAllowNonSerializable(true);
+
     try {
+      hout.writeObject(object);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
 
-      ByteArrayOutputStream hessianBytes = new ByteArrayOutputStream();
-      HessianOutput hout = new HessianOutput(hessianBytes);
-      hout.getSerializerFactory().setAllowNonSerializable(true);
-      hout.call(method, parameters);
+    return bout.toByteArray();
+  }
+
+  public static final byte[] methodToBytesGZ(String method, Object... parameters) {
+    return gzip(methodToBytes(method, parameters));
+  }
 
+  /**
+   * Encodes a method call in the framed format.
+   *
+   * @param method the method
+   * @param parameters the parameters of the call
+   * @return the framed call
+   */
+  public static final byte[] methodToFrame(String method, Object... parameters) {
+    return frame(methodToBytes(method, parameters));
+  }
+
+  /**
+   * Wraps an encoded Hessian call in the legacy GZIP format.
+   *
+   * @param call the Hessian call
+   * @return the compressed call
+   */
+  public static byte[] gzip(byte[] call) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try {
       GZIPOutputStream gzip = new GZIPOutputStream(bout);
-      gzip.write(hessianBytes.toByteArray());
+      gzip.write(call);
       gzip.close();
-
     } catch (IOException e) {
       e.printStackTrace();
     }
-
     return bout.toByteArray();
   }
+
+  /**
+   * Wraps an encoded Hessian call in the framed format. Small calls are sent as they are, larger
+   * ones are deflated at a level that depends on their size. A call that doesn't get smaller (e.g.
+   * an already compressed image) is sent as it is.
+   *
+   * @param call the Hessian call
+   * @return the framed call
+   */
+  public static byte[] frame(byte[] call) {
+    if (call.length >= COMPRESSION_THRESHOLD) {
+      Deflater def = deflater.get();
+      def.reset();
+      def.setLevel(
+          call.length >= STRONG_COMPRESSION_THRESHOLD
+              ? Deflater.BEST_COMPRESSION
+              : Deflater.BEST_SPEED);
+      def.setInput(call);
+      def.finish();
+
+      // Only accept the result if it is smaller than the original
+      byte[] out = new byte[call.length];
+      int len = 5;
+      while (!def.finished() && len < out.length) {
+        len += def.deflate(out, len, out.length - len);
+      }
+      boolean compressed = def.finished() && len < call.length;
+      def.reset(); // don't hold on to the input
+      if (compressed) {
+        out[0] = FRAME_DEFLATE;
+        out[1] = (byte) (call.length >>> 24);
+        out[2] = (byte) (call.length >>> 16);
+        out[3] = (byte) (call.length >>> 8);
+        out[4] = (byte) call.length;
+        byte[] ret = new byte[len];
+        System.arraycopy(out, 0, ret, 0, len);
+        return ret;
+      }
+    }
+    return frameRaw(call);
+  }
+
+  /**
+   * Wraps an encoded Hessian call in the framed format without trying to compress it, for calls
+   * that carry data that is already compressed.
+   *
+   * @param call the Hessian call
+   * @return the framed call
+   */
+  public static byte[] frameRaw(byte[] call) {
+    byte[] ret = new byte[call.length + 1];
+    ret[0] = FRAME_RAW;
+    System.arraycopy(call, 0, ret, 1, call.length);
+    return ret;
+  }
+
+  /**
+   * Opens a received message in any of the formats.
+   *
+   * @param message the message as received
+   * @return a stream with the Hessian call
+   * @throws IOException if the message can not be decompressed
+   */
+  public static InputStream openMessage(byte[] message) throws IOException {
+    if (message.length > 0 && message[0] == FRAME_RAW) {
+      return new ByteArrayInputStream(message, 1, message.length - 1);
+    }
+    if (message.length > 4 && message[0] == FRAME_DEFLATE) {
+      return new ByteArrayInputStream(inflate(message));
+    }
+    if (message.length > 1
+        && (message[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+        && (message[1] & 0xff) == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+      return new GZIPInputStream(new ByteArrayInputStream(message));
+    }
+    return new ByteArrayInputStream(message);
+  }
+
+  private static byte[] inflate(byte[] message) throws IOException {
+    int length =
+        ((message[1] & 0xff) << 24)
+            | ((message[2] & 0xff) << 16)
+            | ((message[3] & 0xff) << 8)
+            | (message[4] & 0xff);
+    // The length comes from the peer, check it before allocating
+    if (length < 0
+        || length > MAX_UNCOMPRESSED_LENGTH
+        || length > (long) (message.length - 5) * MAX_DEFLATE_RATIO) {
+      throw new IOException("Invalid uncompressed length " + length);
+    }
+    Inflater inf = inflater.get();
+    inf.reset();
+    inf.setInput(message, 5, message.length - 5);
+
+    byte[] out = new byte[length];
+    int off = 0;
+    try {
+      while (off < length) {
+        int count = inf.inflate(out, off, length - off);
+        if (count == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) {
+          throw new IOException("Truncated message, got " + off + " of " + length + " bytes");
+        }
+        off += count;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inf.reset(); // don't hold on to the input
+    }
+    return out;
+  }
 }
@@ -17,10 +17,14 @@
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.function.Function;
 import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.simple.MessagePriority;
 
 /** @author drice */
 public class ClientConnection extends net.rptools.clientserver.simple.client.ClientConnection {
+  private volatile boolean framedCompression;
+  private volatile Function<String, MessagePriority> methodPriorities = method -> null;
 
   public ClientConnection(String host, int port, String id)
       throws UnknownHostException, IOException {
@@ -31,9 +35,29 @@ public ClientConnection(Socket socket, String id) throws IOException {
     super(socket, id);
   }
 
-  public void callMethod(String method, Object... parameters) {
+  /** @return true if the server agreed to receive the framed format during the handshake. */
+  public boolean isFramedCompression() {
+    return framedCompression;
+  }
+
+  public void setFramedCompression(boolean framedCompression) {
+    this.framedCompression = framedCompression;
+  }
 
-    byte[] message = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(message);
+  /**
+   * Sets the priority each call is queued with.
+   *
+   * @param methodPriorities returns the priority for a method name, null for the default
+   */
+  public void setMethodPriorities(Function<String, MessagePriority> methodPriorities) {
+    this.methodPriorities = methodPriorities;
+  }
+
+  public void callMethod(String method, Object... parameters) {
+    byte[] message =
+        framedCompression
+            ? HessianUtils.methodToFrame(method, parameters)
+            : HessianUtils.methodToBytesGZ(method, parameters);
+    sendMessage(methodPriorities.apply(method), message);
   }
 }
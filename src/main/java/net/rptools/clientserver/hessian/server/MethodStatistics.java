@@ -0,0 +1,73 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Running totals of the server side cost of sending one method. */
+public class MethodStatistics {
+  private final String method;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+  private final LongAdder encodedBytes = new LongAdder();
+  private final LongAdder deliveries = new LongAdder();
+
+  public MethodStatistics(String method) {
+    this.method = method;
+  }
+
+  void record(long cpuNanos, int encodedBytes, int recipients) {
+    this.calls.increment();
+    this.cpuNanos.add(cpuNanos);
+    this.encodedBytes.add(encodedBytes);
+    this.deliveries.add(recipients);
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  /** @return how many times the method was sent, counting a broadcast once. */
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /** @return CPU time spent encoding and queuing the method, in nanoseconds. */
+  public long getCpuNanos() {
+    return cpuNanos.sum();
+  }
+
+  public long getAverageCpuNanos() {
+    long count = getCalls();
+    return count == 0 ? 0 : getCpuNanos() / count;
+  }
+
+  /** @return the size of the encoded messages, counting a broadcast once. */
+  public long getEncodedBytes() {
+    return encodedBytes.sum();
+  }
+
+  /** @return the number of connections the method was queued for. */
+  public long getDeliveries() {
+    return deliveries.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d calls, %d deliveries, %d bytes encoded, %.1f us cpu/call",
+        method, getCalls(), getDeliveries(), getEncodedBytes(), getAverageCpuNanos() / 1000.0);
+  }
+}
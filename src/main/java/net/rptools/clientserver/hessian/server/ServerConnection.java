@@ -15,30 +15,212 @@
 package net.rptools.clientserver.hessian.server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.simple.AbstractConnection;
+import net.rptools.clientserver.simple.MessagePriority;
+import net.rptools.clientserver.simple.client.ClientConnection;
 
-/** @author drice */
+/**
+ * Hessian method calls on top of the simple server. Every call is serialized exactly once,
+ * broadcasts queue a shared encoded frame on all recipients (one per wire format in use) and
+ * recipient filtering only happens while queuing.
+ *
+ * @author drice
+ */
 public class ServerConnection extends net.rptools.clientserver.simple.server.ServerConnection {
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  private final Map<String, MethodStatistics> statistics =
+      new ConcurrentHashMap<String, MethodStatistics>();
+  private final Set<String> framedClients = ConcurrentHashMap.newKeySet();
+  private volatile Function<String, MessagePriority> methodPriorities = method -> null;
+
   public ServerConnection(int port) throws IOException {
     super(port);
   }
 
+  public ServerConnection(int port, boolean useNio) throws IOException {
+    super(port, useNio);
+  }
+
+  /**
+   * Sets the priority calls are queued with when the caller doesn't give one.
+   *
+   * @param methodPriorities returns the priority for a method name, null for the default
+   */
+  public void setMethodPriorities(Function<String, MessagePriority> methodPriorities) {
+    this.methodPriorities = methodPriorities;
+  }
+
   public void broadcastCallMethod(String method, Object... parameters) {
-    broadcastMessage(HessianUtils.methodToBytesGZ(method, parameters));
+    broadcastCallMethod(id -> true, method, parameters);
   }
 
   public void broadcastCallMethod(String[] exclude, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    broadcastMessage(exclude, data);
+    broadcastCallMethod(excluding(exclude), method, parameters);
+  }
+
+  /**
+   * Encodes the method once and queues it for every connection accepted by the filter.
+   *
+   * @param recipients tests the connection id of each client
+   * @param method the method to call
+   * @param parameters the method parameters
+   */
+  public void broadcastCallMethod(
+      Predicate<String> recipients, String method, Object... parameters) {
+    long start = cpuTime();
+    EncodedCall call = new EncodedCall(HessianUtils.methodToBytes(method, parameters));
+    int count =
+        broadcastMessage(
+            methodPriorities.apply(method),
+            null,
+            id -> recipients.test(id) ? call.forConnection(id) : null);
+    record(method, start, call.getEncodedSize(), count);
+  }
+
+  /**
+   * Broadcasts a method call that replaces any unsent call a client still has queued under the same
+   * key, for updates where only the latest value matters.
+   *
+   * @param recipients tests the connection id of each client
+   * @param key identifies what the call is an update for
+   * @param method the method to call
+   * @param parameters the method parameters
+   */
+  public void broadcastCoalescedCallMethod(
+      Predicate<String> recipients, Object key, String method, Object... parameters) {
+    long start = cpuTime();
+    EncodedCall call = new EncodedCall(HessianUtils.methodToBytes(method, parameters));
+    int count =
+        broadcastMessage(
+            methodPriorities.apply(method),
+            key,
+            id -> recipients.test(id) ? call.forConnection(id) : null);
+    record(method, start, call.getEncodedSize(), count);
   }
 
   public void callMethod(String id, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(id, null, data);
+    callMethod(id, null, method, parameters);
+  }
+
+  /**
+   * Calls a method on one client.
+   *
+   * @param id the connection id
+   * @param priority the class of the call, null to use the method's priority
+   * @param method the method to call
+   * @param parameters the method parameters
+   */
+  public void callMethod(
+      String id, MessagePriority priority, String method, Object... parameters) {
+    long start = cpuTime();
+    byte[] data =
+        framedClients.contains(id)
+            ? HessianUtils.methodToFrame(method, parameters)
+            : HessianUtils.methodToBytesGZ(method, parameters);
+    sendMessage(id, priority != null ? priority : methodPriorities.apply(method), data);
+    record(method, start, data.length, 1);
+  }
+
+  /**
+   * Calls a method on one client without compressing the call, for parameters that are already
+   * compressed such as image files. Clients that don't use the framed format get the bare call.
+   *
+   * @param id the connection id
+   * @param method the method to call
+   * @param parameters the method parameters
+   */
+  public void callMethodUncompressed(String id, String method, Object... parameters) {
+    long start = cpuTime();
+    byte[] call = HessianUtils.methodToBytes(method, parameters);
+    byte[] data = framedClients.contains(id) ? HessianUtils.frameRaw(call) : call;
+    sendMessage(id, methodPriorities.apply(method), data);
+    record(method, start, data.length, 1);
+  }
+
+  /**
+   * Records whether a client agreed to receive the framed format during the handshake.
+   *
+   * @param id the connection id
+   * @param framedCompression true if the client understands {@link
+   *     HessianUtils#FRAMED_COMPRESSION}
+   */
+  public void setFramedCompression(String id, boolean framedCompression) {
+    if (framedCompression) {
+      framedClients.add(id);
+    } else {
+      framedClients.remove(id);
+    }
+  }
+
+  @Override
+  public void handleDisconnect(AbstractConnection conn) {
+    if (conn instanceof ClientConnection) {
+      framedClients.remove(((ClientConnection) conn).getId());
+    }
+    super.handleDisconnect(conn);
+  }
+
+  /** @return the cost of each method sent so far. */
+  public Collection<MethodStatistics> getMethodStatistics() {
+    return new ArrayList<MethodStatistics>(statistics.values());
+  }
+
+  public MethodStatistics getMethodStatistics(String method) {
+    return statistics.get(method);
+  }
+
+  public void resetMethodStatistics() {
+    statistics.clear();
+  }
+
+  private void record(String method, long start, int bytes, int recipients) {
+    statistics
+        .computeIfAbsent(method, MethodStatistics::new)
+        .record(cpuTime() - start, bytes, recipients);
+  }
+
+  /** A call encoded once, wrapped in each wire format at most once as recipients need it. */
+  private class EncodedCall {
+    private final byte[] call;
+    private byte[] legacy;
+    private byte[] framed;
+
+    EncodedCall(byte[] call) {
+      this.call = call;
+    }
+
+    byte[] forConnection(String id) {
+      if (framedClients.contains(id)) {
+        if (framed == null) {
+          framed = HessianUtils.frame(call);
+        }
+        return framed;
+      }
+      if (legacy == null) {
+        legacy = HessianUtils.gzip(call);
+      }
+      return legacy;
+    }
+
+    int getEncodedSize() {
+      return (legacy == null ? 0 : legacy.length) + (framed == null ? 0 : framed.length);
+    }
   }
 
-  public void callMethod(String id, Object channel, String method, Object... parameters) {
-    byte[] data = HessianUtils.methodToBytesGZ(method, parameters);
-    sendMessage(id, channel, data);
+  private static long cpuTime() {
+    return threadBean.isCurrentThreadCpuTimeSupported()
+        ? threadBean.getCurrentThreadCpuTime()
+        : System.nanoTime();
   }
 }
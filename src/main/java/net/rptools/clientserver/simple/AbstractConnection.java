@@ -17,12 +17,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import net.rptools.clientserver.ActivityListener;
 import net.rptools.clientserver.ActivityListener.Direction;
@@ -34,14 +29,12 @@
  *     Java - Code Style - Code Templates
  */
 public abstract class AbstractConnection {
-  // We don't need to make each list synchronized since the class is synchronized
-
-  protected Map<Object, List<byte[]>> outQueueMap = new HashMap<Object, List<byte[]>>();
-  protected List<List<byte[]>> outQueueList = new LinkedList<List<byte[]>>();
+  protected final OutboundQueue outQueue = new OutboundQueue();
   protected List<MessageHandler> messageHandlers = new CopyOnWriteArrayList<MessageHandler>();
   protected List<ActivityListener> listeners = new CopyOnWriteArrayList<ActivityListener>();
   protected List<DisconnectHandler> disconnectHandlers =
       new CopyOnWriteArrayList<DisconnectHandler>();
+  protected final FrameCodec frameCodec = new FrameCodec();
 
   public final void addMessageHandler(MessageHandler handler) {
     messageHandlers.add(handler);
@@ -57,46 +50,78 @@ protected final void dispatchMessage(String id, byte[] message) {
     }
   }
 
-  public synchronized void addMessage(byte[] message) {
+  public void addMessage(byte[] message) {
     addMessage(null, message);
   }
 
-  public synchronized void addMessage(Object channel, byte[] message) {
-    List<byte[]> queue = getOutQueue(channel);
-    queue.add(message);
-    // Queue up for sending
-    outQueueList.add(queue);
+  public void addMessage(MessagePriority priority, byte[] message) {
+    addMessage(priority, null, message);
   }
 
-  protected List<byte[]> getOutQueue(Object channel) {
-    // Ordinarily I would synchronize this method, but I imagine the channels will be initialized
-    // once
-    // at the beginning of execution.  Thus get(channel) will only return once right at the
-    // beginning
-    // no sense incurring the cost of synchronizing the method on the class for that.
-    List<byte[]> queue = outQueueMap.get(channel);
-    if (queue == null) {
-      queue = Collections.synchronizedList(new ArrayList<byte[]>());
-      outQueueMap.put(channel, queue);
+  /**
+   * Queues a message, see {@link OutboundQueue#offer}.
+   *
+   * @param priority the class of the message, null for {@link MessagePriority#MODEL}
+   * @param key identifies what the message is an update for, null to always queue
+   * @param message the message
+   */
+  public void addMessage(MessagePriority priority, Object key, byte[] message) {
+    if (!outQueue.offer(priority == null ? MessagePriority.MODEL : priority, key, message)) {
+      handleOverflow();
     }
-    return queue;
   }
 
-  public synchronized boolean hasMoreMessages() {
-    return !outQueueList.isEmpty();
+  /**
+   * Called when a message had to be dropped because the outbound queue is full. The other end
+   * can't be kept consistent after that, by default nothing is done.
+   */
+  protected void handleOverflow() {}
+
+  public boolean hasMoreMessages() {
+    return !outQueue.isEmpty();
   }
 
-  public synchronized byte[] nextMessage() {
-    if (!hasMoreMessages()) {
-      return null;
-    }
-    List<byte[]> queue = outQueueList.remove(0);
+  public byte[] nextMessage() {
+    return outQueue.poll();
+  }
 
-    byte[] message = queue.remove(0);
-    if (!queue.isEmpty()) {
-      outQueueList.add(queue);
-    }
-    return message;
+  /** @return the number of messages waiting to be sent. */
+  public int getQueuedMessageCount() {
+    return outQueue.getQueuedMessageCount();
+  }
+
+  /** @return the size of the messages waiting to be sent. */
+  public long getQueuedBytes() {
+    return outQueue.getQueuedBytes();
+  }
+
+  /** @return how many queued messages were replaced by newer ones before being sent. */
+  public long getSupersededMessageCount() {
+    return outQueue.getSupersededMessageCount();
+  }
+
+  /** @return how many messages were dropped because the outbound queue was full. */
+  public long getDroppedMessageCount() {
+    return outQueue.getDroppedMessageCount();
+  }
+
+  /** @return true while bulk transfers to this connection should wait for the queue to drain. */
+  public boolean isBackedUp() {
+    return outQueue.isBackedUp();
+  }
+
+  /** @return the outbound queue, to read or change its limits. */
+  public OutboundQueue getOutQueue() {
+    return outQueue;
+  }
+
+  /** @return the largest message this connection will accept from the other end. */
+  public int getMaxFrameLength() {
+    return frameCodec.getMaxFrameLength();
+  }
+
+  public void setMaxFrameLength(int maxFrameLength) {
+    frameCodec.setMaxFrameLength(maxFrameLength);
   }
 
   public final void fireDisconnect() {
@@ -132,48 +157,10 @@ protected final void notifyListeners(
   // static helper methods
   ///////////////////////////////////////////////////////////////////////////
   protected final void writeMessage(OutputStream out, byte[] message) throws IOException {
-    int length = message.length;
-
-    notifyListeners(Direction.Outbound, State.Start, length, 0);
-
-    out.write(length >> 24);
-    out.write(length >> 16);
-    out.write(length >> 8);
-    out.write(length);
-
-    for (int i = 0; i < message.length; i++) {
-      out.write(message[i]);
-
-      if (i != 0 && i % ActivityListener.CHUNK_SIZE == 0) {
-        notifyListeners(Direction.Outbound, State.Progress, length, i);
-      }
-    }
-    out.flush();
-    notifyListeners(Direction.Outbound, State.Complete, length, length);
+    frameCodec.writeFrame(out, message, this::notifyListeners);
   }
 
   protected final byte[] readMessage(InputStream in) throws IOException {
-    int b32 = in.read();
-    int b24 = in.read();
-    int b16 = in.read();
-    int b8 = in.read();
-
-    if (b32 < 0) {
-      throw new IOException("Stream closed");
-    }
-    int length = (b32 << 24) + (b24 << 16) + (b16 << 8) + b8;
-
-    notifyListeners(Direction.Inbound, State.Start, length, 0);
-
-    byte[] ret = new byte[length];
-    for (int i = 0; i < length; i++) {
-      ret[i] = (byte) in.read();
-
-      if (i != 0 && i % ActivityListener.CHUNK_SIZE == 0) {
-        notifyListeners(Direction.Inbound, State.Progress, length, i);
-      }
-    }
-    notifyListeners(Direction.Inbound, State.Complete, length, length);
-    return ret;
+    return frameCodec.readFrame(in, this::notifyListeners);
   }
 }
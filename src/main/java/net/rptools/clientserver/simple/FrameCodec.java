@@ -0,0 +1,123 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.rptools.clientserver.ActivityListener;
+import net.rptools.clientserver.ActivityListener.Direction;
+import net.rptools.clientserver.ActivityListener.State;
+
+/**
+ * Reads and writes the length prefixed frames used between client and server. A frame is a 4 byte
+ * big endian length followed by that many bytes of payload.
+ *
+ * <p>Payloads are moved in blocks of {@link ActivityListener#CHUNK_SIZE} so the listener sees the
+ * same progress events as before while the streams only get one call per block.
+ */
+public class FrameCodec {
+  /** Largest frame accepted unless configured otherwise. */
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 512 * 1024 * 1024;
+
+  private volatile int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+
+  public int getMaxFrameLength() {
+    return maxFrameLength;
+  }
+
+  /**
+   * Sets the largest payload {@link #readFrame} will accept. A longer length header is treated as a
+   * corrupt stream rather than allocated.
+   *
+   * @param maxFrameLength the maximum payload length in bytes
+   */
+  public void setMaxFrameLength(int maxFrameLength) {
+    if (maxFrameLength <= 0) {
+      throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+    }
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * Checks a length read from a frame header.
+   *
+   * @param length the length from the header
+   * @throws IOException if the length is negative or larger than the maximum frame length
+   */
+  public void checkFrameLength(int length) throws IOException {
+    if (length < 0 || length > maxFrameLength) {
+      throw new IOException(
+          "Invalid frame length " + length + " (maximum is " + maxFrameLength + ")");
+    }
+  }
+
+  public void writeFrame(OutputStream out, byte[] message, ActivityListener listener)
+      throws IOException {
+    int length = message.length;
+
+    listener.notify(Direction.Outbound, State.Start, length, 0);
+
+    byte[] header = new byte[4];
+    header[0] = (byte) (length >>> 24);
+    header[1] = (byte) (length >>> 16);
+    header[2] = (byte) (length >>> 8);
+    header[3] = (byte) length;
+    out.write(header);
+
+    int offset = 0;
+    while (offset < length) {
+      int count = Math.min(ActivityListener.CHUNK_SIZE, length - offset);
+      out.write(message, offset, count);
+      offset += count;
+      if (offset < length) {
+        listener.notify(Direction.Outbound, State.Progress, length, offset);
+      }
+    }
+    out.flush();
+    listener.notify(Direction.Outbound, State.Complete, length, length);
+  }
+
+  public byte[] readFrame(InputStream in, ActivityListener listener) throws IOException {
+    byte[] header = new byte[4];
+    if (in.readNBytes(header, 0, 4) < 4) {
+      throw new EOFException("Stream closed");
+    }
+    int length =
+        ((header[0] & 0xff) << 24)
+            | ((header[1] & 0xff) << 16)
+            | ((header[2] & 0xff) << 8)
+            | (header[3] & 0xff);
+    checkFrameLength(length);
+
+    listener.notify(Direction.Inbound, State.Start, length, 0);
+
+    byte[] ret = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int count = Math.min(ActivityListener.CHUNK_SIZE, length - offset);
+      if (in.readNBytes(ret, offset, count) < count) {
+        throw new EOFException("Stream closed after " + offset + " of " + length + " bytes");
+      }
+      offset += count;
+      if (offset < length) {
+        listener.notify(Direction.Inbound, State.Progress, length, offset);
+      }
+    }
+    listener.notify(Direction.Inbound, State.Complete, length, length);
+    return ret;
+  }
+}
@@ -12,10 +12,19 @@
  * <http://www.gnu.org/licenses/> and specifically the Affero license
  * text at <http://www.gnu.org/licenses/agpl.html>.
  */
-package net.rptools.maptool.common;
+package net.rptools.clientserver.simple;
 
-public class MapToolConstants {
-  public enum Channel {
-    IMAGE
-  }
+/**
+ * The classes of outbound messages, highest priority first. A connection always sends every queued
+ * message of a class before any message of a lower class, messages within a class keep their order.
+ */
+public enum MessagePriority {
+  /** Connection management and heartbeats, never refused even by a full queue. */
+  CONTROL,
+  /** Changes to the shared state, the default. */
+  MODEL,
+  /** Chat and typing notifications. */
+  CHAT,
+  /** Asset transfers, the bulk of the traffic when a client joins. */
+  ASSET
 }
@@ -0,0 +1,241 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outbound messages of one connection. Any number of threads may queue messages without
+ * locking, a single thread takes them off again in {@link MessagePriority} order.
+ *
+ * <p>The queue holds at most {@link #getCapacity()} messages, only {@link MessagePriority#CONTROL}
+ * messages are accepted beyond that. The capacity is checked without locking, so concurrent
+ * producers may overshoot it by a few messages. Bytes are not bounded, a single message such as a
+ * whole campaign can be far larger than everything else a client ever gets. Instead the queue
+ * reports itself {@link #isBackedUp() backed up} once the queued bytes reach the high watermark and
+ * until they drop to the low watermark again, producers of bulk data are expected to wait for that.
+ */
+public class OutboundQueue {
+  /** Messages queued before further messages are refused, unless configured otherwise. */
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+  /** Queued bytes at which the queue is backed up, unless configured otherwise. */
+  public static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+  /** Queued bytes at which a backed up queue is cleared again, unless configured otherwise. */
+  public static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+
+  private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+
+  private final Queue<Entry>[] queues;
+  // Bumped by every message queued without a key, see offer()
+  private final AtomicLong[] barriers;
+  // Unsent replaceable messages by key
+  private final Map<Object, Entry> replaceable = new ConcurrentHashMap<Object, Entry>();
+
+  private final AtomicInteger queuedMessages = new AtomicInteger();
+  private final AtomicLong queuedBytes = new AtomicLong();
+  private final LongAdder supersededMessages = new LongAdder();
+  private final LongAdder droppedMessages = new LongAdder();
+
+  private volatile int capacity = DEFAULT_CAPACITY;
+  private volatile long lowWatermark = DEFAULT_LOW_WATERMARK;
+  private volatile long highWatermark = DEFAULT_HIGH_WATERMARK;
+  private volatile boolean backedUp;
+  private volatile Runnable drainListener;
+
+  @SuppressWarnings("unchecked")
+  public OutboundQueue() {
+    queues = new Queue[PRIORITIES.length];
+    barriers = new AtomicLong[PRIORITIES.length];
+    for (int i = 0; i < PRIORITIES.length; i++) {
+      queues[i] = new ConcurrentLinkedQueue<Entry>();
+      barriers[i] = new AtomicLong();
+    }
+  }
+
+  /**
+   * Queues a message. A message with a key supersedes an unsent message of the same priority
+   * queued earlier with that key: the new message takes the place of the old one, so a slow
+   * connection never holds more than one message per key. Messages queued without a key act as a
+   * barrier, nothing is replaced across them.
+   *
+   * @param priority the class of the message
+   * @param key identifies what the message is an update for, null to always queue
+   * @param message the message
+   * @return false if the queue is full and the message was dropped
+   */
+  public boolean offer(MessagePriority priority, Object key, byte[] message) {
+    int index = priority.ordinal();
+    long barrier = barriers[index].get();
+    if (key != null) {
+      Entry previous = replaceable.get(key);
+      if (previous != null
+          && previous.priority == priority
+          && previous.barrier == barrier
+          && previous.replace(message)) {
+        supersededMessages.increment();
+        return true;
+      }
+    }
+    if (priority != MessagePriority.CONTROL && queuedMessages.get() >= capacity) {
+      droppedMessages.increment();
+      return false;
+    }
+    if (key == null) {
+      barrier = barriers[index].incrementAndGet();
+    }
+    Entry entry = new Entry(priority, key, barrier, message);
+    queuedMessages.incrementAndGet();
+    updateBackedUp(queuedBytes.addAndGet(message.length));
+    queues[index].add(entry);
+    if (key != null) {
+      replaceable.put(key, entry);
+    }
+    return true;
+  }
+
+  /** @return the next message to send, or null if there is none. Only one thread may call this. */
+  public byte[] poll() {
+    for (Queue<Entry> queue : queues) {
+      Entry entry = queue.poll();
+      if (entry != null) {
+        byte[] message = entry.message.getAndSet(null);
+        if (entry.key != null) {
+          replaceable.remove(entry.key, entry);
+        }
+        queuedMessages.decrementAndGet();
+        updateBackedUp(queuedBytes.addAndGet(-message.length));
+        return message;
+      }
+    }
+    return null;
+  }
+
+  public boolean isEmpty() {
+    return queuedMessages.get() <= 0;
+  }
+
+  /** @return the number of messages waiting to be sent. */
+  public int getQueuedMessageCount() {
+    return Math.max(0, queuedMessages.get());
+  }
+
+  /** @return the size of the messages waiting to be sent. */
+  public long getQueuedBytes() {
+    return Math.max(0, queuedBytes.get());
+  }
+
+  /** @return how many queued messages were replaced by newer ones before being sent. */
+  public long getSupersededMessageCount() {
+    return supersededMessages.sum();
+  }
+
+  /** @return how many messages were refused because the queue was full. */
+  public long getDroppedMessageCount() {
+    return droppedMessages.sum();
+  }
+
+  /** @return true from reaching the high watermark until falling back to the low watermark. */
+  public boolean isBackedUp() {
+    return backedUp;
+  }
+
+  /**
+   * Sets what to do when the queue is no longer backed up. The listener runs on the sending thread
+   * and must return quickly.
+   *
+   * @param drainListener the listener, or null
+   */
+  public void setDrainListener(Runnable drainListener) {
+    this.drainListener = drainListener;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getLowWatermark() {
+    return lowWatermark;
+  }
+
+  public long getHighWatermark() {
+    return highWatermark;
+  }
+
+  /**
+   * @param capacity the number of queued messages beyond which only control messages are accepted
+   * @param lowWatermark the queued bytes at which a backed up queue is cleared again
+   * @param highWatermark the queued bytes at which the queue is backed up
+   */
+  public void setLimits(int capacity, long lowWatermark, long highWatermark) {
+    if (capacity <= 0 || lowWatermark < 0 || highWatermark < lowWatermark) {
+      throw new IllegalArgumentException(
+          "Invalid limits: capacity "
+              + capacity
+              + ", watermarks "
+              + lowWatermark
+              + "-"
+              + highWatermark);
+    }
+    this.capacity = capacity;
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = highWatermark;
+  }
+
+  private void updateBackedUp(long bytes) {
+    if (bytes >= highWatermark) {
+      backedUp = true;
+    } else if (bytes <= lowWatermark && backedUp) {
+      backedUp = false;
+      Runnable listener = drainListener;
+      if (listener != null) {
+        listener.run();
+      }
+    }
+  }
+
+  private class Entry {
+    private final MessagePriority priority;
+    private final Object key;
+    private final long barrier;
+    // Null once the consumer has taken the message
+    private final AtomicReference<byte[]> message;
+
+    Entry(MessagePriority priority, Object key, long barrier, byte[] message) {
+      this.priority = priority;
+      this.key = key;
+      this.barrier = barrier;
+      this.message = new AtomicReference<byte[]>(message);
+    }
+
+    boolean replace(byte[] replacement) {
+      byte[] current;
+      do {
+        current = message.get();
+        if (current == null) {
+          return false;
+        }
+      } while (!message.compareAndSet(current, replacement));
+      updateBackedUp(queuedBytes.addAndGet(replacement.length - current.length));
+      return true;
+    }
+  }
+}
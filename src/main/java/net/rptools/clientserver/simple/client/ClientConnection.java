@@ -14,6 +14,7 @@
  */
 package net.rptools.clientserver.simple.client;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,6 +22,8 @@
 import java.net.Socket;
 import java.net.UnknownHostException;
 import net.rptools.clientserver.simple.AbstractConnection;
+import net.rptools.clientserver.simple.MessagePriority;
+import org.apache.log4j.Logger;
 
 /**
  * @author drice
@@ -28,6 +31,7 @@
  *     Java - Code Style - Code Templates
  */
 public class ClientConnection extends AbstractConnection {
+  private static final Logger log = Logger.getLogger(ClientConnection.class);
   private final Socket socket;
   private SendThread send;
   private ReceiveThread receive;
@@ -66,8 +70,46 @@ public void sendMessage(byte[] message) {
     sendMessage(null, message);
   }
 
-  public void sendMessage(Object channel, byte[] message) {
-    addMessage(channel, message);
+  public void sendMessage(MessagePriority priority, byte[] message) {
+    addMessage(priority, message);
+    messageQueued();
+  }
+
+  /**
+   * Sends a message that replaces any unsent message with the same key.
+   *
+   * @param priority the class of the message, null for {@link MessagePriority#MODEL}
+   * @param key identifies what the message is an update for
+   * @param message the message
+   */
+  public void sendMessage(MessagePriority priority, Object key, byte[] message) {
+    addMessage(priority, key, message);
+    messageQueued();
+  }
+
+  /** A client that has fallen this far behind is disconnected, it will have to join again. */
+  @Override
+  protected void handleOverflow() {
+    if (!isAlive()) {
+      return;
+    }
+    log.warn(
+        "Disconnecting "
+            + id
+            + ", "
+            + getQueuedMessageCount()
+            + " messages ("
+            + getQueuedBytes()
+            + " bytes) are waiting to be sent");
+    try {
+      close();
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+    }
+  }
+
+  /** Called after a message has been queued, to wake up whatever is sending them. */
+  protected void messageQueued() {
     synchronized (send) {
       send.notify();
     }
@@ -103,7 +145,7 @@ private class SendThread extends Thread {
 
     public SendThread(ClientConnection conn, OutputStream out) {
       this.conn = conn;
-      this.out = new BufferedOutputStream(out, 1024);
+      this.out = new BufferedOutputStream(out, 16 * 1024);
     }
 
     public void requestStop() {
@@ -118,19 +160,13 @@ public void run() {
       try {
         while (!stopRequested && conn.isAlive()) {
           try {
-            while (conn.hasMoreMessages()) {
-              try {
-                byte[] message = conn.nextMessage();
-                if (message == null) {
-                  continue;
-                }
-                conn.writeMessage(out, message);
-              } catch (IndexOutOfBoundsException e) {
-                // just ignore and wait
-              }
+            byte[] message;
+            while ((message = conn.nextMessage()) != null) {
+              conn.writeMessage(out, message);
             }
             synchronized (this) {
-              if (!stopRequested) {
+              // Checked while holding the lock so a message queued meanwhile can't be missed
+              if (!stopRequested && !conn.hasMoreMessages()) {
                 this.wait();
               }
             }
@@ -154,7 +190,7 @@ private class ReceiveThread extends Thread {
 
     public ReceiveThread(ClientConnection conn, InputStream in) {
       this.conn = conn;
-      this.in = in;
+      this.in = new BufferedInputStream(in, 8 * 1024);
     }
 
     public void requestStop() {
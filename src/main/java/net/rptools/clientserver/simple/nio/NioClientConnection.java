@@ -0,0 +1,250 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.rptools.clientserver.ActivityListener;
+import net.rptools.clientserver.ActivityListener.Direction;
+import net.rptools.clientserver.ActivityListener.State;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ClientConnection} that is serviced by a shared {@link SelectorLoop} instead of its own
+ * send and receive threads. The handshake still happens in blocking mode on the accepting thread,
+ * after that the channel is switched to non-blocking and handed to the loop.
+ *
+ * <p>The wire format is the same length prefixed frame used by the threaded transport, so either
+ * end can use either implementation.
+ */
+public class NioClientConnection extends ClientConnection {
+  private static final Logger log = Logger.getLogger(NioClientConnection.class);
+
+  private final SocketChannel channel;
+  private final SelectorLoop loop;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final AtomicBoolean writePending = new AtomicBoolean();
+
+  // Inbound messages are handled in order, one connection at a time, on the loop's dispatcher
+  private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicBoolean dispatching = new AtomicBoolean();
+
+  // Everything below is only touched by the selector thread
+  private SelectionKey key;
+  private final ByteBuffer readHeader = ByteBuffer.allocate(4);
+  private ByteBuffer readBody;
+  private int readLastProgress;
+  private final ByteBuffer writeHeader = ByteBuffer.allocate(4);
+  private ByteBuffer writeBody;
+  private int writeLastProgress;
+  private final ByteBuffer[] writeBuffers = new ByteBuffer[2];
+
+  public NioClientConnection(SocketChannel channel, String id, SelectorLoop loop) {
+    super(channel.socket(), id);
+    this.channel = channel;
+    this.loop = loop;
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (sendHandshake(channel.socket())) {
+      channel.configureBlocking(false);
+      loop.register(this);
+    } else {
+      channel.close();
+    }
+  }
+
+  @Override
+  protected void messageQueued() {
+    loop.requestWrite(this);
+  }
+
+  @Override
+  public boolean isAlive() {
+    return !closed.get() && channel.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    shutdown();
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  SelectionKey getKey() {
+    return key;
+  }
+
+  void registered(SelectionKey key) {
+    this.key = key;
+  }
+
+  boolean markWritePending() {
+    return writePending.compareAndSet(false, true);
+  }
+
+  void clearWritePending() {
+    writePending.set(false);
+  }
+
+  void handleFailure(Exception e) {
+    if (!closed.get() && log.isDebugEnabled()) {
+      log.debug("Connection " + getId() + " failed: " + e);
+    }
+    shutdown();
+  }
+
+  /**
+   * Reads whatever is available on the channel and dispatches every frame that has been completed.
+   *
+   * @param scratch the loop's shared read buffer
+   * @throws IOException if the channel has been closed by the peer or the read fails
+   */
+  void handleRead(ByteBuffer scratch) throws IOException {
+    scratch.clear();
+    int count = channel.read(scratch);
+    if (count < 0) {
+      throw new EOFException("Stream closed");
+    }
+    scratch.flip();
+    while (scratch.hasRemaining()) {
+      if (readBody == null) {
+        transfer(scratch, readHeader);
+        if (readHeader.hasRemaining()) {
+          break;
+        }
+        int length = readHeader.getInt(0);
+        frameCodec.checkFrameLength(length);
+        readHeader.clear();
+        readBody = ByteBuffer.allocate(length);
+        readLastProgress = 0;
+        notifyListeners(Direction.Inbound, State.Start, length, 0);
+      }
+      transfer(scratch, readBody);
+      int length = readBody.capacity();
+      int position = readBody.position();
+      if (position - readLastProgress >= ActivityListener.CHUNK_SIZE) {
+        readLastProgress = position;
+        notifyListeners(Direction.Inbound, State.Progress, length, position);
+      }
+      if (!readBody.hasRemaining()) {
+        byte[] message = readBody.array();
+        readBody = null;
+        notifyListeners(Direction.Inbound, State.Complete, length, length);
+        enqueueInbound(() -> dispatchMessage(getId(), message));
+      }
+    }
+  }
+
+  /**
+   * Writes as much of the outbound queue as the socket will take.
+   *
+   * @return true if the queue was drained, false if the socket is full and we need to wait for it
+   *     to become writable again
+   * @throws IOException if the write fails
+   */
+  boolean handleWrite() throws IOException {
+    while (true) {
+      if (writeBody == null) {
+        byte[] message = nextMessage();
+        if (message == null) {
+          return true;
+        }
+        writeHeader.clear();
+        writeHeader.putInt(0, message.length);
+        writeBody = ByteBuffer.wrap(message);
+        writeBuffers[0] = writeHeader;
+        writeBuffers[1] = writeBody;
+        writeLastProgress = 0;
+        notifyListeners(Direction.Outbound, State.Start, message.length, 0);
+      }
+      channel.write(writeBuffers);
+
+      int length = writeBody.capacity();
+      int position = writeBody.position();
+      if (writeBody.hasRemaining()) {
+        if (position - writeLastProgress >= ActivityListener.CHUNK_SIZE) {
+          writeLastProgress = position;
+          notifyListeners(Direction.Outbound, State.Progress, length, position);
+        }
+        return false;
+      }
+      writeBody = null;
+      writeBuffers[1] = null;
+      notifyListeners(Direction.Outbound, State.Complete, length, length);
+    }
+  }
+
+  private void shutdown() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+    }
+    loop.wakeup();
+    // Same as the threaded transport: a closed connection always reports a disconnect, after any
+    // messages that were already received
+    enqueueInbound(this::fireDisconnect);
+  }
+
+  private void enqueueInbound(Runnable task) {
+    inbound.add(task);
+    if (dispatching.compareAndSet(false, true)) {
+      loop.getDispatcher().execute(this::drainInbound);
+    }
+  }
+
+  private void drainInbound() {
+    while (true) {
+      Runnable task;
+      while ((task = inbound.poll()) != null) {
+        try {
+          task.run();
+        } catch (Throwable t) {
+          // don't let a bad message take the dispatcher down
+          log.error(t.getMessage(), t);
+        }
+      }
+      dispatching.set(false);
+      if (inbound.isEmpty() || !dispatching.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  private static void transfer(ByteBuffer src, ByteBuffer dst) {
+    int count = Math.min(src.remaining(), dst.remaining());
+    if (count == 0) {
+      return;
+    }
+    ByteBuffer slice = src.slice();
+    slice.limit(count);
+    dst.put(slice);
+    src.position(src.position() + count);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import org.apache.log4j.Logger;
+
+/**
+ * A single selector thread that services the reads and writes of many {@link NioClientConnection}s.
+ * Connections are registered from other threads and handed over through lock free queues, so the
+ * only thread that ever touches a channel after its handshake is this one.
+ */
+public class SelectorLoop extends Thread {
+  private static final Logger log = Logger.getLogger(SelectorLoop.class);
+
+  /** Size of the scratch buffer shared by every connection of this loop for socket reads. */
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final Selector selector;
+  private final Executor dispatcher;
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private final Queue<NioClientConnection> pendingRegistrations =
+      new ConcurrentLinkedQueue<NioClientConnection>();
+  private final Queue<NioClientConnection> pendingWrites =
+      new ConcurrentLinkedQueue<NioClientConnection>();
+
+  private volatile boolean stopRequested = false;
+
+  SelectorLoop(String name, Executor dispatcher) throws IOException {
+    super(name);
+    this.selector = Selector.open();
+    this.dispatcher = dispatcher;
+    setDaemon(true);
+  }
+
+  /** @return the executor inbound messages of this loop's connections are handed to. */
+  Executor getDispatcher() {
+    return dispatcher;
+  }
+
+  void register(NioClientConnection conn) {
+    pendingRegistrations.add(conn);
+    selector.wakeup();
+  }
+
+  void requestWrite(NioClientConnection conn) {
+    if (conn.markWritePending()) {
+      pendingWrites.add(conn);
+      selector.wakeup();
+    }
+  }
+
+  void wakeup() {
+    selector.wakeup();
+  }
+
+  public void requestStop() {
+    stopRequested = true;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    while (!stopRequested) {
+      try {
+        selector.select();
+        processRegistrations();
+        processWrites();
+
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+          NioClientConnection conn = (NioClientConnection) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) {
+              conn.handleRead(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+              flush(conn);
+            }
+          } catch (IOException | CancelledKeyException e) {
+            conn.handleFailure(e);
+          }
+        }
+      } catch (Throwable t) {
+        // Don't let anything kill this thread, it is shared by many connections
+        log.error(t.getMessage(), t);
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+    }
+  }
+
+  private void processRegistrations() {
+    NioClientConnection conn;
+    while ((conn = pendingRegistrations.poll()) != null) {
+      try {
+        conn.registered(conn.getChannel().register(selector, SelectionKey.OP_READ, conn));
+        // Anything queued between the handshake and now still needs to go out
+        flush(conn);
+      } catch (IOException | CancelledKeyException e) {
+        conn.handleFailure(e);
+      }
+    }
+  }
+
+  private void processWrites() {
+    NioClientConnection conn;
+    while ((conn = pendingWrites.poll()) != null) {
+      conn.clearWritePending();
+      try {
+        flush(conn);
+      } catch (IOException | CancelledKeyException e) {
+        conn.handleFailure(e);
+      }
+    }
+  }
+
+  private void flush(NioClientConnection conn) throws IOException {
+    SelectionKey key = conn.getKey();
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    boolean drained = conn.handleWrite();
+    int ops = drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+    if (key.interestOps() != ops) {
+      key.interestOps(ops);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.nio;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small fixed set of {@link SelectorLoop}s plus the bounded pool that runs message handlers.
+ * Connections are spread across the loops round robin.
+ *
+ * <p>Handlers are not run on the selector threads themselves because server side handlers can take
+ * a while (e.g. applying a <code>putZone</code>) and would otherwise stall every other connection
+ * on the same loop.
+ */
+public class SelectorLoopGroup {
+  private final SelectorLoop[] loops;
+  private final ExecutorService dispatcher;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+
+  public SelectorLoopGroup() throws IOException {
+    this(defaultLoopCount(), defaultDispatchThreads());
+  }
+
+  public SelectorLoopGroup(int loopCount, int dispatchThreads) throws IOException {
+    AtomicInteger threadCount = new AtomicInteger();
+    dispatcher =
+        Executors.newFixedThreadPool(
+            dispatchThreads,
+            r -> {
+              Thread t = new Thread(r, "NioDispatch-" + threadCount.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    loops = new SelectorLoop[loopCount];
+    for (int i = 0; i < loopCount; i++) {
+      loops[i] = new SelectorLoop("NioSelectorLoop-" + i, dispatcher);
+      loops[i].start();
+    }
+  }
+
+  /** @return the loop the next accepted connection should be registered with. */
+  public SelectorLoop next() {
+    return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+  }
+
+  public void shutdown() {
+    for (SelectorLoop loop : loops) {
+      loop.requestStop();
+    }
+    dispatcher.shutdown();
+  }
+
+  public static int defaultLoopCount() {
+    return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  public static int defaultDispatchThreads() {
+    return Math.max(2, Runtime.getRuntime().availableProcessors());
+  }
+}
@@ -15,9 +15,12 @@
 package net.rptools.clientserver.simple.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,10 +28,16 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import net.rptools.clientserver.simple.AbstractConnection;
 import net.rptools.clientserver.simple.DisconnectHandler;
 import net.rptools.clientserver.simple.MessageHandler;
+import net.rptools.clientserver.simple.MessagePriority;
+import net.rptools.clientserver.simple.OutboundQueue;
 import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.nio.NioClientConnection;
+import net.rptools.clientserver.simple.nio.SelectorLoopGroup;
 import org.apache.log4j.Logger;
 
 /** @author drice */
@@ -39,6 +48,7 @@ public class ServerConnection extends AbstractConnection
   private final ServerSocket socket;
   private final ListeningThread listeningThread;
   private final DispatchThread dispatchThread;
+  private final SelectorLoopGroup selectorLoops; // null when using a thread per connection
 
   //    private final ReaperThread reaperThread;
 
@@ -48,7 +58,27 @@ public class ServerConnection extends AbstractConnection
       Collections.synchronizedList(new ArrayList<ServerObserver>());
 
   public ServerConnection(int port) throws IOException {
-    socket = new ServerSocket(port);
+    this(port, false);
+  }
+
+  /**
+   * @param port the port to listen on, 0 for any free port
+   * @param useNio true to service all connections from a few shared selector threads rather than
+   *     starting a send and a receive thread for each client
+   * @throws IOException if the server socket can't be opened
+   */
+  public ServerConnection(int port, boolean useNio) throws IOException {
+    if (useNio) {
+      // Accepting through the channel's socket hands back sockets that have a channel of their
+      // own, so the handshake can stay blocking and the connection switch over afterwards
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(port));
+      socket = serverChannel.socket();
+      selectorLoops = new SelectorLoopGroup();
+    } else {
+      socket = new ServerSocket(port);
+      selectorLoops = null;
+    }
     dispatchThread = new DispatchThread(this);
     dispatchThread.start();
     listeningThread = new ListeningThread(this, socket);
@@ -58,6 +88,11 @@ public ServerConnection(int port) throws IOException {
     // so revert to the old way
   }
 
+  /** @return the port the server is actually listening on. */
+  public int getLocalPort() {
+    return socket.getLocalPort();
+  }
+
   public void addObserver(ServerObserver observer) {
     observerList.add(observer);
   }
@@ -71,34 +106,84 @@ public void handleMessage(String id, byte[] message) {
   }
 
   public void broadcastMessage(byte[] message) {
-    synchronized (clients) {
-      for (ClientConnection conn : clients.values()) {
-        conn.sendMessage(message);
-      }
-    }
+    broadcastMessage(id -> true, message);
   }
 
   public void broadcastMessage(String[] exclude, byte[] message) {
-    Set<String> excludeSet = new HashSet<String>();
-    for (String e : exclude) {
-      excludeSet.add(e);
-    }
+    broadcastMessage(excluding(exclude), message);
+  }
+
+  /**
+   * Queues a message for every client accepted by the filter. The same array is queued on every
+   * connection, so it must not be modified afterwards.
+   *
+   * @param recipients tests the connection id of each client
+   * @param message the encoded message
+   * @return the number of clients the message was queued for
+   */
+  public int broadcastMessage(Predicate<String> recipients, byte[] message) {
+    return broadcastMessage(id -> recipients.test(id) ? message : null);
+  }
+
+  /**
+   * Queues a message for every client, letting the caller pick the encoding per client. Arrays
+   * returned more than once are shared between connections and must not be modified afterwards.
+   *
+   * @param messageFor returns the message for a connection id, or null to skip that client
+   * @return the number of clients a message was queued for
+   */
+  public int broadcastMessage(Function<String, byte[]> messageFor) {
+    return broadcastMessage(null, null, messageFor);
+  }
+
+  /**
+   * Same as {@link #broadcastMessage(Function)}, but with a priority and optionally a key: the
+   * message supersedes any unsent message a client still has queued under the same key.
+   *
+   * @param priority the class of the message, null for {@link MessagePriority#MODEL}
+   * @param key identifies what the message is an update for, null to always queue
+   * @param messageFor returns the message for a connection id, or null to skip that client
+   * @return the number of clients a message was queued for
+   */
+  public int broadcastMessage(
+      MessagePriority priority, Object key, Function<String, byte[]> messageFor) {
+    int count = 0;
     synchronized (clients) {
       for (Map.Entry<String, ClientConnection> entry : clients.entrySet()) {
-        if (!excludeSet.contains(entry.getKey())) {
-          entry.getValue().sendMessage(message);
+        byte[] message = messageFor.apply(entry.getKey());
+        if (message != null) {
+          entry.getValue().sendMessage(priority, key, message);
+          count++;
         }
       }
     }
+    return count;
+  }
+
+  /**
+   * @param exclude the connection ids to leave out
+   * @return a recipient filter that accepts every connection except the excluded ones
+   */
+  public static Predicate<String> excluding(String... exclude) {
+    switch (exclude.length) {
+      case 0:
+        return id -> true;
+      case 1:
+        String single = exclude[0];
+        return id -> !id.equals(single);
+      default:
+        Set<String> excludeSet = new HashSet<String>(Arrays.asList(exclude));
+        return id -> !excludeSet.contains(id);
+    }
   }
 
   public void sendMessage(String id, byte[] message) {
     sendMessage(id, null, message);
   }
 
-  public void sendMessage(String id, Object channel, byte[] message) {
+  public void sendMessage(String id, MessagePriority priority, byte[] message) {
     ClientConnection client = clients.get(id);
-    client.sendMessage(channel, message);
+    client.sendMessage(priority, message);
   }
 
   /**
@@ -112,6 +197,20 @@ public boolean handleConnectionHandshake(String id, Socket socket) {
     return true;
   }
 
+  /**
+   * Creates the connection for a client that has passed the handshake.
+   *
+   * @param socket the accepted socket
+   * @param id the id of the new connection
+   * @return the connection, not yet started
+   */
+  protected ClientConnection createClientConnection(Socket socket, String id) {
+    if (selectorLoops != null) {
+      return new NioClientConnection(socket.getChannel(), id, selectorLoops.next());
+    }
+    return new ClientConnection(socket, id);
+  }
+
   public void close() throws IOException {
     listeningThread.suppressErrors();
     log.debug("Server closing down");
@@ -131,6 +230,9 @@ public void close() throws IOException {
     } catch (InterruptedException e) {
       log.error(e.getMessage(), e);
     }
+    if (selectorLoops != null) {
+      selectorLoops.shutdown();
+    }
     //        reaperThread.requestStop();
     //        try {
     //            reaperThread.join();
@@ -228,7 +330,13 @@ public void run() {
             s.close();
             continue;
           }
-          ClientConnection conn = new ClientConnection(s, id);
+          ClientConnection conn = server.createClientConnection(s, id);
+          // Clients inherit the frame and queue limits configured on the server
+          conn.setMaxFrameLength(server.getMaxFrameLength());
+          OutboundQueue limits = server.getOutQueue();
+          conn.getOutQueue()
+              .setLimits(
+                  limits.getCapacity(), limits.getLowWatermark(), limits.getHighWatermark());
           conn.addMessageHandler(server);
           conn.addDisconnectHandler(server);
           conn.start();
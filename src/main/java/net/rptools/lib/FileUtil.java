@@ -77,7 +77,7 @@ public static byte[] getBytes(File file) throws IOException {
   }
 
   public static Object objFromResource(String res) throws IOException {
-    XStream xs = getConfiguredXStream();
+    XStream xs = XStreamRegistry.getDefault();
     try (InputStream is = FileUtil.class.getClassLoader().getResourceAsStream(res)) {
       return xs.fromXML(new InputStreamReader(is, StandardCharsets.UTF_8));
     }
@@ -0,0 +1,65 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib;
+
+import com.thoughtworks.xstream.XStream;
+import net.rptools.maptool.model.Asset;
+
+/**
+ * Shared {@link XStream} instances. Setting up an XStream and letting it build its caches of
+ * converters and class mappings costs far more than most of the documents we read with it, and a
+ * configured XStream is safe to use from several threads at once, so there is no need for a new one
+ * per call.
+ *
+ * <p>The shared instances must not be configured any further (omitted fields, local converters,
+ * aliases), that would change them for every caller. Use {@link #createForFiles()} or {@link
+ * FileUtil#getConfiguredXStream()} for an instance of your own.
+ */
+public class XStreamRegistry {
+
+  private XStreamRegistry() {}
+
+  private static class DefaultHolder {
+    private static final XStream INSTANCE = FileUtil.getConfiguredXStream();
+  }
+
+  private static class FilesHolder {
+    private static final XStream INSTANCE = createForFiles();
+  }
+
+  /**
+   * @return the shared XStream with the same setup as {@link FileUtil#getConfiguredXStream()}, for
+   *     macros, tables, properties and resources
+   */
+  public static XStream getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  /**
+   * @return the shared XStream for the content of {@link PackedFile}s, which also knows about the
+   *     {@link Asset} annotations and skips elements it does not know
+   */
+  public static XStream getForFiles() {
+    return FilesHolder.INSTANCE;
+  }
+
+  /** @return a new XStream set up the same way as {@link #getForFiles()} */
+  public static XStream createForFiles() {
+    XStream xstream = FileUtil.getConfiguredXStream();
+    xstream.processAnnotations(Asset.class);
+    xstream.ignoreUnknownElements();
+    return xstream;
+  }
+}
@@ -46,6 +46,7 @@
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.FileUtil;
 import net.rptools.lib.ModelVersionManager;
+import net.rptools.lib.XStreamRegistry;
 import net.rptools.maptool.model.GUID;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -101,7 +102,8 @@ public class PackedFile implements AutoCloseable {
   private static File tmpDir =
       new File(System.getProperty("java.io.tmpdir")); // Shared temporary directory
 
-  private final XStream xstream = FileUtil.getConfiguredXStream();
+  // Only set when the file needs an XStream configured differently from the shared one
+  private XStream xstream;
 
   private final File file; // Original zip file
   private final File tmpFile; // Temporary directory where changes are kept
@@ -134,11 +136,26 @@ public void setModelVersionManager(ModelVersionManager versionManager) {
   }
 
   /**
-   * Useful for configuring the xstream for object serialization
+   * Returns the XStream used to read and write the objects in this file. Unless {@link
+   * #getPrivateXStream()} has been called this is the instance shared by all files, see {@link
+   * XStreamRegistry#getForFiles()}, and must not be configured any further.
    *
-   * @return the configured {@link XStream}
+   * @return the {@link XStream} for this file
    */
   public XStream getXStream() {
+    return xstream != null ? xstream : XStreamRegistry.getForFiles();
+  }
+
+  /**
+   * Useful for configuring the xstream for object serialization. Gives this file an XStream of its
+   * own the first time it is called, so changes to it do not leak into other files.
+   *
+   * @return the configured {@link XStream}
+   */
+  public XStream getPrivateXStream() {
+    if (xstream == null) {
+      xstream = XStreamRegistry.createForFiles();
+    }
     return xstream;
   }
 
@@ -237,9 +254,8 @@ public Object getContent(ModelVersionManager versionManager, String fileVersion)
       if (versionManager != null && versionManager.isTransformationRequired(fileVersion)) {
         String xml = IOUtils.toString(r);
         xml = versionManager.transform(xml, fileVersion);
-        xstream.ignoreUnknownElements(); // Jamz: Should we use this? This will ignore new
-        // classes/fields added.
-        return xstream.fromXML(xml);
+        // Unknown elements (new classes/fields added) are ignored, see XStreamRegistry
+        return getXStream().fromXML(xml);
       } else {
         return getFileObject(CONTENT_FILE);
       }
@@ -297,7 +313,7 @@ public void save() throws IOException {
         removeFile(PROPERTY_FILE);
       } else {
         zout.putNextEntry(new ZipEntry(PROPERTY_FILE));
-        xstream.toXML(getPropertyMap(), zout);
+        getXStream().toXML(getPropertyMap(), zout);
         zout.closeEntry();
       }
       saveTimer.stop(PROPERTY_FILE);
@@ -483,7 +499,7 @@ public void putFile(String path, Object obj) throws IOException {
     FileOutputStream fos = new FileOutputStream(explodedFile);
     OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
     try (BufferedWriter bw = new BufferedWriter(osw)) {
-      xstream.toXML(obj, bw);
+      getXStream().toXML(obj, bw);
 
       bw.newLine(); // Not necessary but editing the file looks nicer. ;-)
     }
@@ -546,10 +562,7 @@ public Object getFileObject(String path) throws IOException {
     // (with a separate image file) works on output.
     LineNumberReader r = getFileAsReader(path);
     try (r) {
-      xstream
-          .ignoreUnknownElements(); // Jamz: Should we use this? This will ignore new classes/fields
-      // added.
-      return xstream.fromXML(r);
+      return getXStream().fromXML(r);
     } catch (InstantiationError ie) {
       log.error("Found at line number " + r.getLineNumber());
       log.error("Cannot convert XML to Object", ie);
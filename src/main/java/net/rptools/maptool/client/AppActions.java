@@ -2167,6 +2167,7 @@ protected void executeAction() {
                         serverProps.getPlayerPassword(),
                         serverProps.getPort(),
                         serverProps.getRPToolsName());
+                config.setUseNioTransport(AppPreferences.getUseNioServerTransport());
 
                 // Use the existing campaign
                 Campaign campaign = MapTool.getCampaign();
@@ -92,6 +92,9 @@ public class AppPreferences {
   private static final String KEY_USE_SOFT_FOG_EDGES = "useSoftFog";
   private static final boolean DEFAULT_USE_SOFT_FOG_EDGES = true;
 
+  private static final String KEY_USE_VISIBILITY_POLYGON = "useVisibilityPolygon";
+  private static final boolean DEFAULT_USE_VISIBILITY_POLYGON = false;
+
   private static final String KEY_NEW_MAPS_HAVE_FOW = "newMapsHaveFow";
   private static final boolean DEFAULT_NEW_MAPS_HAVE_FOW = false;
 
@@ -444,6 +447,9 @@ public static int getHaloLineWidth() {
   private static final String KEY_UPNP_DISCOVERY_TIMEOUT = "upnpDiscoveryTimeout";
   private static final int DEFAULT_UPNP_DISCOVERY_TIMEOUT = 5000;
 
+  private static final String KEY_USE_NIO_SERVER_TRANSPORT = "useNioServerTransport";
+  private static final boolean DEFAULT_USE_NIO_SERVER_TRANSPORT = false;
+
   private static final String KEY_FILE_SYNC_PATH = "fileSyncPath";
   private static final String DEFAULT_FILE_SYNC_PATH = "";
 
@@ -708,6 +714,19 @@ public static boolean getUseSoftFogEdges() {
     return prefs.getBoolean(KEY_USE_SOFT_FOG_EDGES, DEFAULT_USE_SOFT_FOG_EDGES);
   }
 
+  public static void setUseVisibilityPolygon(boolean flag) {
+    prefs.putBoolean(KEY_USE_VISIBILITY_POLYGON, flag);
+  }
+
+  /**
+   * @return true if vision is worked out by sweeping over the VBL walls, see {@link
+   *     net.rptools.maptool.client.ui.zone.vbl.VisibilityPolygon}, rather than by subtracting the
+   *     shadow of each wall
+   */
+  public static boolean getUseVisibilityPolygon() {
+    return prefs.getBoolean(KEY_USE_VISIBILITY_POLYGON, DEFAULT_USE_VISIBILITY_POLYGON);
+  }
+
   public static void setNewMapsHaveFOW(boolean flag) {
     prefs.putBoolean(KEY_NEW_MAPS_HAVE_FOW, flag);
   }
@@ -898,6 +917,14 @@ public static int getUpnpDiscoveryTimeout() {
     return prefs.getInt(KEY_UPNP_DISCOVERY_TIMEOUT, DEFAULT_UPNP_DISCOVERY_TIMEOUT);
   }
 
+  public static void setUseNioServerTransport(boolean flag) {
+    prefs.putBoolean(KEY_USE_NIO_SERVER_TRANSPORT, flag);
+  }
+
+  public static boolean getUseNioServerTransport() {
+    return prefs.getBoolean(KEY_USE_NIO_SERVER_TRANSPORT, DEFAULT_USE_NIO_SERVER_TRANSPORT);
+  }
+
   public static String getFileSyncPath() {
     return prefs.get(KEY_FILE_SYNC_PATH, DEFAULT_FILE_SYNC_PATH);
   }
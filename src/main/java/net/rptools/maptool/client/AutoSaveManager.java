@@ -18,6 +18,8 @@
 import javax.swing.*;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.CampaignSnapshot;
+import net.rptools.maptool.util.IncrementalCampaignWriter;
 import net.rptools.maptool.util.PersistenceUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -33,6 +35,12 @@ public class AutoSaveManager {
   private Timer autoSaveTimer;
   private long lastAutoSave = -1;
 
+  /** Keeps the copies of the zones that did not change since the last autosave. */
+  private final CampaignSnapshot snapshot = new CampaignSnapshot();
+
+  /** Carries over the zones that were not copied again from the last autosave file. */
+  private final IncrementalCampaignWriter writer = new IncrementalCampaignWriter(true);
+
   public static final File AUTOSAVE_FILE =
       new File(
           AppUtil.getAppHome("autosave"), // $NON-NLS-1$
@@ -95,14 +103,14 @@ private boolean executeAndContinue() {
     // true?  What about
     // updates coming in on the network?)
     // We need to clone the campaign so that we can save in the background, but
-    // not have concurrency issues with the original model.
-    //
-    // NOTE: This is a cheesy way to clone the campaign, but it makes it so that I
-    // don't have to keep all the various models' clone methods updated on each change.
-    final Campaign campaign = new Campaign(MapTool.getCampaign());
+    // not have concurrency issues with the original model. Only the zones that changed
+    // since the last autosave are copied, the others are shared with the last copy.
+    final Campaign campaign = snapshot.take(MapTool.getCampaign());
     log.info(
         "Time to copy Campaign object (ms): "
-            + (System.currentTimeMillis() - startCopy)); // $NON-NLS-1$
+            + (System.currentTimeMillis() - startCopy)
+            + ", zones copied: "
+            + snapshot.getCopiedCount()); // $NON-NLS-1$
 
     new SaveWorker(campaign).execute();
 
@@ -125,7 +133,7 @@ protected String doInBackground() throws Exception {
       try {
         long startSave = System.currentTimeMillis();
         log.info("Starting autosave..."); // $NON-NLS-1$
-        PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, null);
+        PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, writer);
         String msg =
             I18N.getText(
                 "AutoSaveManager.status.autoSaveComplete", System.currentTimeMillis() - startSave);
@@ -155,6 +163,8 @@ protected void done() {
 
   /** Removes any autosaved files */
   public void purge() {
+    snapshot.clear();
+    writer.clear();
     if (AUTOSAVE_FILE.exists()) {
       AUTOSAVE_FILE.delete();
     }
@@ -14,8 +14,34 @@
  */
 package net.rptools.maptool.client;
 
+import net.rptools.clientserver.simple.MessagePriority;
+
 public class ClientCommand {
 
+  /**
+   * @param method the name of a command
+   * @return the priority the server queues the command with for a client
+   */
+  public static MessagePriority getPriority(String method) {
+    switch (method) {
+      case "bootPlayer":
+      case "setServerPolicy":
+      case "playerConnected":
+      case "playerDisconnected":
+        return MessagePriority.CONTROL;
+      case "message":
+      case "setLiveTypingLabel":
+      case "enforceNotification":
+        return MessagePriority.CHAT;
+      case "startAssetTransfer":
+      case "updateAssetTransfer":
+      case "putAsset":
+        return MessagePriority.ASSET;
+      default:
+        return MessagePriority.MODEL;
+    }
+  }
+
   public enum COMMAND {
     // @formatter:off
     startAssetTransfer,
@@ -28,7 +54,9 @@ public enum COMMAND {
     getAsset,
     removeAsset,
     putToken,
+    putTokens,
     editToken,
+    patchToken,
     updateTokenProperty,
     removeToken,
     removeTokens,
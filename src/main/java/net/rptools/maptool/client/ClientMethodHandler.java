@@ -19,8 +19,15 @@
 import java.awt.geom.Area;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.functions.ExecFunction;
@@ -46,6 +53,8 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenPatch;
+import net.rptools.maptool.model.TokenVersionTracker;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -66,6 +75,14 @@
  * @author drice
  */
 public class ClientMethodHandler extends AbstractMethodHandler {
+  /** Time the EDT may spend on inbound commands in one go, about a frame. */
+  private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+  private final Queue<PendingCommand> pending = new ConcurrentLinkedQueue<PendingCommand>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  // Only used on the EDT
+  private final TokenBatch tokenBatch = new TokenBatch();
+
   public ClientMethodHandler() {}
 
   public void handleMethod(final String id, final String method, final Object... parameters) {
@@ -104,8 +121,10 @@ public void handleMethod(final String id, final String method, final Object... p
         return;
     }
 
-    // Model events need to update on the EDT
-    EventQueue.invokeLater(
+    // Model events need to update on the EDT. They are applied in batches, so a burst of commands
+    // doesn't queue one EDT task (and one repaint) per command.
+    enqueue(
+        cmd,
         () -> {
           GUID zoneGUID;
           GUID tokenGUID;
@@ -228,6 +247,7 @@ public void handleMethod(final String id, final String method, final Object... p
               zone = MapTool.getCampaign().getZone(zoneGUID);
               token = (Token) parameters[1];
               zone.editToken(token);
+              receivedToken(token, parameters);
               MapTool.getFrame().refresh();
               return;
 
@@ -235,8 +255,45 @@ public void handleMethod(final String id, final String method, final Object... p
               zoneGUID = (GUID) parameters[0];
               zone = MapTool.getCampaign().getZone(zoneGUID);
               token = (Token) parameters[1];
-              zone.putToken(token);
-              MapTool.getFrame().refresh();
+              tokenBatch.put(zone, token);
+              receivedToken(token, parameters);
+              return;
+
+            case putTokens:
+              zoneGUID = (GUID) parameters[0];
+              zone = MapTool.getCampaign().getZone(zoneGUID);
+              List<?> putTokens = (List<?>) parameters[1];
+              List<?> putVersions = (List<?>) parameters[2];
+              for (int i = 0; i < putTokens.size(); i++) {
+                token = (Token) putTokens.get(i);
+                tokenBatch.put(zone, token);
+                long version = ((Number) putVersions.get(i)).longValue();
+                MapTool.getTokenVersions().received(token, version);
+              }
+              return;
+
+            case patchToken:
+              zoneGUID = (GUID) parameters[0];
+              zone = MapTool.getCampaign().getZone(zoneGUID);
+              TokenPatch patch = (TokenPatch) parameters[1];
+              token = tokenBatch.getToken(zone, patch.getTokenId());
+              TokenVersionTracker versions = MapTool.getTokenVersions();
+              if (token != null
+                  && versions.getVersion(token.getId()) == patch.getBaseVersion()
+                  && patch.applyTo(token)) {
+                versions.patched(token, patch);
+                if (patch.isEdited()) {
+                  tokenBatch.flush();
+                  zone.editToken(token);
+                  MapTool.getFrame().refresh();
+                } else {
+                  tokenBatch.put(zone, token);
+                }
+              } else {
+                // We missed a version, get the whole token instead
+                versions.setVersion(patch.getTokenId(), TokenPatch.UNKNOWN_VERSION);
+                MapTool.serverCommand().resyncToken(zoneGUID, patch.getTokenId());
+              }
               return;
 
             case putLabel:
@@ -251,10 +308,15 @@ public void handleMethod(final String id, final String method, final Object... p
               zoneGUID = (GUID) parameters[0];
               zone = MapTool.getCampaign().getZone(zoneGUID);
               tokenGUID = (GUID) parameters[1];
+              if (tokenBatch.contains(zone, tokenGUID)) {
+                // The update fires its own events, the token has to be in the zone by then
+                tokenBatch.flush();
+              }
               token = zone.getToken(tokenGUID);
               if (token != null) {
                 Token.Update update = (Token.Update) parameters[2];
-                token.updateProperty(zone, update, (Object[]) parameters[3]);
+                token.applyUpdate(zone, update, (Object[]) parameters[3]);
+                tokenBatch.put(zone, token);
               }
               return;
 
@@ -263,6 +325,7 @@ public void handleMethod(final String id, final String method, final Object... p
               zone = MapTool.getCampaign().getZone(zoneGUID);
               tokenGUID = (GUID) parameters[1];
               zone.removeToken(tokenGUID);
+              MapTool.getTokenVersions().remove(tokenGUID);
               MapTool.getFrame().refresh();
               return;
 
@@ -271,6 +334,7 @@ public void handleMethod(final String id, final String method, final Object... p
               zone = MapTool.getCampaign().getZone(zoneGUID);
               tokenGUIDs = (List<GUID>) parameters[1];
               zone.removeTokens(tokenGUIDs);
+              tokenGUIDs.forEach(MapTool.getTokenVersions()::remove);
               MapTool.getFrame().refresh();
               return;
 
@@ -673,4 +737,108 @@ public void handleMethod(final String id, final String method, final Object... p
           }
         });
   }
+
+  private void enqueue(ClientCommand.COMMAND cmd, Runnable command) {
+    pending.add(new PendingCommand(cmd, command));
+    if (drainScheduled.compareAndSet(false, true)) {
+      EventQueue.invokeLater(this::drainPending);
+    }
+  }
+
+  /**
+   * Applies the pending commands on the EDT until they run out or the frame budget is used up, the
+   * rest is left for another EDT task so painting can get in between.
+   */
+  private void drainPending() {
+    long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+    try {
+      PendingCommand command;
+      while (System.nanoTime() < deadline && (command = pending.poll()) != null) {
+        if (!TokenBatch.MERGED.contains(command.cmd)) {
+          // Everything else has to see the tokens put so far
+          tokenBatch.flush();
+        }
+        command.command.run();
+      }
+    } finally {
+      tokenBatch.flush();
+      drainScheduled.set(false);
+      if (!pending.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+        EventQueue.invokeLater(this::drainPending);
+      }
+    }
+  }
+
+  /**
+   * Records the version a whole token was sent with.
+   *
+   * @param token the token
+   * @param parameters the parameters of the putToken or editToken call
+   */
+  private static void receivedToken(Token token, Object[] parameters) {
+    long version =
+        parameters.length > 2 ? ((Number) parameters[2]).longValue() : TokenPatch.UNKNOWN_VERSION;
+    MapTool.getTokenVersions().received(token, version);
+  }
+
+  private static class PendingCommand {
+    private final ClientCommand.COMMAND cmd;
+    private final Runnable command;
+
+    PendingCommand(ClientCommand.COMMAND cmd, Runnable command) {
+      this.cmd = cmd;
+      this.command = command;
+    }
+  }
+
+  /**
+   * Tokens put on one zone by consecutive commands. They are put with {@link Zone#putTokens} when
+   * another kind of command or zone comes along, or at the end of a drain, so listeners get one
+   * TOKEN_ADDED and one TOKEN_CHANGED event for the lot.
+   */
+  private static class TokenBatch {
+    static final Set<ClientCommand.COMMAND> MERGED =
+        EnumSet.of(
+            ClientCommand.COMMAND.putToken,
+            ClientCommand.COMMAND.putTokens,
+            ClientCommand.COMMAND.patchToken,
+            ClientCommand.COMMAND.updateTokenProperty);
+
+    private Zone zone;
+    private final Map<GUID, Token> tokens = new LinkedHashMap<GUID, Token>();
+
+    boolean contains(Zone zone, GUID tokenId) {
+      return zone == this.zone && tokens.containsKey(tokenId);
+    }
+
+    /** @return the token as it will be once the batch has been put. */
+    Token getToken(Zone zone, GUID tokenId) {
+      Token token = zone == this.zone ? tokens.get(tokenId) : null;
+      return token != null ? token : zone.getToken(tokenId);
+    }
+
+    void put(Zone zone, Token token) {
+      if (zone == null) {
+        // A zone we don't have (any more)
+        return;
+      }
+      if (zone != this.zone) {
+        flush();
+        this.zone = zone;
+      }
+      tokens.put(token.getId(), token);
+    }
+
+    void flush() {
+      if (tokens.isEmpty()) {
+        return;
+      }
+      List<Token> list = new ArrayList<Token>(tokens.values());
+      Zone target = zone;
+      tokens.clear();
+      zone = null;
+      target.putTokens(list);
+      MapTool.getFrame().refresh();
+    }
+  }
 }
@@ -79,6 +79,7 @@
 import net.rptools.maptool.model.ObservableList;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.TokenVersionTracker;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.ZoneFactory;
 import net.rptools.maptool.protocol.syrinscape.SyrinscapeURLStreamHandler;
@@ -147,6 +148,7 @@ public enum PreferencesEvent {
   // runtime
 
   private static Campaign campaign;
+  private static final TokenVersionTracker tokenVersions = new TokenVersionTracker();
 
   private static ObservableList<Player> playerList;
   private static ObservableList<TextMessage> messageList;
@@ -752,6 +754,11 @@ public static ServerCommand serverCommand() {
     return serverCommand;
   }
 
+  /** @return the versions of the tokens as last sent to or received from the server. */
+  public static TokenVersionTracker getTokenVersions() {
+    return tokenVersions;
+  }
+
   /** @return the server, or null if player is a client. */
   public static MapToolServer getServer() {
     return server;
@@ -955,6 +962,7 @@ public static void setCampaign(Campaign campaign) {
   public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
     // Load up the new
     MapTool.campaign = campaign;
+    tokenVersions.clear();
     ZoneRenderer currRenderer = null;
 
     // Clean up
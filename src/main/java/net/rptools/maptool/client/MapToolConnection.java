@@ -25,6 +25,7 @@
 import net.rptools.clientserver.hessian.client.ClientConnection;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.server.Handshake;
+import net.rptools.maptool.server.ServerCommand;
 
 /** @author trevor */
 public class MapToolConnection extends ClientConnection {
@@ -33,11 +34,13 @@ public class MapToolConnection extends ClientConnection {
   public MapToolConnection(String host, int port, Player player) throws IOException {
     super(host, port, null);
     this.player = player;
+    setMethodPriorities(ServerCommand::getPriority);
   }
 
   public MapToolConnection(Socket socket, Player player) throws IOException {
     super(socket, null);
     this.player = player;
+    setMethodPriorities(ServerCommand::getPriority);
   }
 
   /*
@@ -70,7 +73,9 @@ public boolean sendHandshake(Socket s) throws IOException {
     }
     boolean result = response.code == Handshake.Code.OK;
     if (result) {
+      MapTool.getPlayer().setRole(response.role);
       MapTool.setServerPolicy(response.policy);
+      setFramedCompression(response.framedCompression);
     }
     return result;
   }
@@ -1422,8 +1422,7 @@ public Token getTokenMacroLib(String location) throws ParserException {
     if (libTokenName.length() > 0) {
       List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
       for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone().getTokensFiltered(t -> t.getName().equalsIgnoreCase(libTokenName));
+        List<Token> tokenList = zr.getZone().getTokensByName(libTokenName);
 
         for (Token token : tokenList) {
           // If we are not the GM and the token is not visible to players then we don't
@@ -1463,8 +1462,7 @@ public Zone getTokenMacroLibZone(String location) throws ParserException {
     if (libTokenName.length() > 0) {
       List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
       for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone().getTokensFiltered(t -> t.getName().equalsIgnoreCase(libTokenName));
+        List<Token> tokenList = zr.getZone().getTokensByName(libTokenName);
 
         for (Token token : tokenList) {
           // If we are not the GM and the token is not visible to players then we don't
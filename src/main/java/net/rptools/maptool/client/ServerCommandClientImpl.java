@@ -15,6 +15,7 @@
 package net.rptools.maptool.client;
 
 import java.awt.geom.Area;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -33,6 +34,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenPatch;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -132,7 +134,7 @@ public void restoreZoneView(GUID zoneGUID) {
 
   public void editToken(GUID zoneGUID, Token token) {
     MapTool.getCampaign().getZone(zoneGUID).editToken(token);
-    makeServerCall(COMMAND.editToken, zoneGUID, token);
+    sendToken(COMMAND.editToken, zoneGUID, token);
   }
 
   public void putToken(GUID zoneGUID, Token token) {
@@ -140,13 +142,56 @@ public void putToken(GUID zoneGUID, Token token) {
     // after changing the token. But they don't tell the zone about it so classes
     // waiting for the zone change event don't get it.
     MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-    makeServerCall(COMMAND.putToken, zoneGUID, token);
+    sendToken(COMMAND.putToken, zoneGUID, token);
+  }
+
+  public void putTokens(GUID zoneGUID, List<Token> tokens) {
+    // One zone event for the lot, and one call for all the tokens the server doesn't have yet
+    MapTool.getCampaign().getZone(zoneGUID).putTokens(tokens);
+    List<Token> wholeTokens = new ArrayList<Token>(tokens.size());
+    for (Token token : tokens) {
+      TokenPatch patch = MapTool.getTokenVersions().diff(token);
+      if (patch == null) {
+        wholeTokens.add(token);
+      } else if (!patch.isEmpty()) {
+        patchToken(zoneGUID, patch);
+      }
+    }
+    if (!wholeTokens.isEmpty()) {
+      makeServerCall(COMMAND.putTokens, zoneGUID, wholeTokens);
+    }
+  }
+
+  /**
+   * Sends a token the first time it is put, after that only the fields that changed.
+   *
+   * @param command putToken or editToken
+   * @param zoneGUID the GUID of the zone the token is on
+   * @param token the token
+   */
+  private void sendToken(COMMAND command, GUID zoneGUID, Token token) {
+    TokenPatch patch = MapTool.getTokenVersions().diff(token);
+    if (patch == null) {
+      makeServerCall(command, zoneGUID, token);
+    } else if (!patch.isEmpty()) {
+      patch.setEdited(command == COMMAND.editToken);
+      patchToken(zoneGUID, patch);
+    }
+  }
+
+  public void patchToken(GUID zoneGUID, TokenPatch patch) {
+    makeServerCall(COMMAND.patchToken, zoneGUID, patch);
+  }
+
+  public void resyncToken(GUID zoneGUID, GUID tokenGUID) {
+    makeServerCall(COMMAND.resyncToken, zoneGUID, tokenGUID);
   }
 
   @Override
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
     // delete local token immediately
     MapTool.getCampaign().getZone(zoneGUID).removeToken(tokenGUID);
+    MapTool.getTokenVersions().remove(tokenGUID);
     makeServerCall(COMMAND.removeToken, zoneGUID, tokenGUID);
   }
 
@@ -154,6 +199,7 @@ public void removeToken(GUID zoneGUID, GUID tokenGUID) {
   public void removeTokens(GUID zoneGUID, List<GUID> tokenGUIDs) {
     // delete local tokens immediately
     MapTool.getCampaign().getZone(zoneGUID).removeTokens(tokenGUIDs);
+    tokenGUIDs.forEach(MapTool.getTokenVersions()::remove);
     makeServerCall(COMMAND.removeTokens, zoneGUID, tokenGUIDs);
   }
 
@@ -25,6 +25,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
@@ -389,16 +390,23 @@ private static Asset handleImage(URL url, String type, Transferable transferable
 
   private static List<Object> handleURLList(List<URL> list) throws Exception {
     List<Object> assets = new ArrayList<Object>();
+    // Token files are loaded together, so a folder of them doesn't read each shared asset again
+    List<URL> tokenUrls = new ArrayList<URL>();
+    for (URL url : list) {
+      if (!url.getPath().equals("") && Token.isTokenFile(url.getPath())) { // $NON-NLS-1$
+        tokenUrls.add(url);
+      }
+    }
+    // Loading the tokens causes the assets to be added to the AssetManager
+    // so they don't need to be added to our List here. In fact, getAsset()
+    // will strip out anything in the List that isn't an Asset anyway...
+    Iterator<Token> tokens = PersistenceUtil.loadTokens(tokenUrls).iterator();
     for (URL url : list) {
       // A JFileChooser (at least under Linux) sends a couple empty filenames that need to be
       // ignored.
       if (!url.getPath().equals("")) { // $NON-NLS-1$
         if (Token.isTokenFile(url.getPath())) {
-          // Loading the token causes the assets to be added to the AssetManager
-          // so it doesn't need to be added to our List here. In fact, getAsset()
-          // will strip out anything in the List that isn't an Asset anyway...
-          Token token = PersistenceUtil.loadToken(url);
-          assets.add(token);
+          assets.add(tokens.next());
         } else {
           Asset temp = AssetManager.createAsset(url);
           if (temp != null) // `null' means no image available
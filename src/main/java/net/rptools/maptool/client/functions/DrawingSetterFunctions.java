@@ -66,6 +66,7 @@ public Object childEvaluate(
     } else if ("setDrawingProperties".equalsIgnoreCase(functionName)) {
       Pen pen = (Pen) parameters.get(2);
       setPen(functionName, map, guid, pen);
+      map.drawableChanged(guid);
       return "";
     } else if ("setPenColor".equalsIgnoreCase(functionName)) {
       String paint = parameters.get(2).toString();
@@ -75,6 +76,7 @@ public Object childEvaluate(
         getPen(functionName, map, guid).setForegroundMode(Pen.MODE_SOLID);
         getPen(functionName, map, guid).setPaint(paintFromString(paint));
       }
+      map.drawableChanged(guid);
       return "";
     } else if ("setFillColor".equalsIgnoreCase(functionName)) {
       String paint = parameters.get(2).toString();
@@ -84,21 +86,25 @@ public Object childEvaluate(
         getPen(functionName, map, guid).setBackgroundMode(Pen.MODE_SOLID);
         getPen(functionName, map, guid).setBackgroundPaint(paintFromString(paint));
       }
+      map.drawableChanged(guid);
       return "";
     } else if ("setDrawingEraser".equalsIgnoreCase(functionName)) {
       boolean eraser = parseBoolean(functionName, parameters, 2);
       Pen p = getPen(functionName, map, guid);
       p.setEraser(eraser);
+      map.drawableChanged(guid);
       return "";
     } else if ("setPenWidth".equalsIgnoreCase(functionName)) {
       String penWidth = parameters.get(2).toString();
       float pw = getFloat(functionName, penWidth);
       getPen(functionName, map, guid).setThickness(pw);
+      map.drawableChanged(guid);
       return "";
     } else if ("setLineCap".equalsIgnoreCase(functionName)) {
       boolean squareCap = parseBoolean(functionName, parameters, 2);
       Pen p = getPen(functionName, map, guid);
       p.setSquareCap(squareCap);
+      map.drawableChanged(guid);
       return "";
     }
     return null;
@@ -596,8 +596,24 @@ private static Object getTokenList(
       if (range.has("metric")) {
         metric = range.get("metric").getAsString();
       }
+      // Only measure the distance to the tokens the zone has near enough to be in range
+      Set<Token> nearby = null;
+      double cells = useDistancePerCell ? upto / zone.getUnitsPerCell() : upto;
+      if (upto != Integer.MAX_VALUE && cells >= 0 && !Double.isInfinite(cells)) {
+        Grid grid = zone.getGrid();
+        double cellSize =
+            Math.max(grid.getSize(), Math.max(grid.getCellWidth(), grid.getCellHeight()));
+        // Two extra cells for the rounding of token bounds to the cells they occupy
+        int reach = (int) Math.ceil((cells + 2) * cellSize);
+        Rectangle bounds = token.getBounds(zone);
+        bounds.grow(reach, reach);
+        nearby = new HashSet<Token>(zone.getTokensIntersecting(bounds));
+      }
       List<Token> inrange = new LinkedList<Token>();
       for (Token targetToken : tokenList) {
+        if (nearby != null && !nearby.contains(targetToken)) {
+          continue;
+        }
         double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
         if (distance <= upto && distance >= from && token != targetToken) {
           inrange.add(targetToken);
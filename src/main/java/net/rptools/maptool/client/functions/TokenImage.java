@@ -278,8 +278,7 @@ private static Token findImageToken(final String name, String functionName) {
     if (name != null && name.length() > 0) {
       List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
       for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone().getTokensFiltered(t -> t.getName().equalsIgnoreCase(name));
+        List<Token> tokenList = zr.getZone().getTokensByName(name);
         for (Token token : tokenList) {
           // If we are not the GM and the token is not visible to players then we don't
           // let them get functions from it.
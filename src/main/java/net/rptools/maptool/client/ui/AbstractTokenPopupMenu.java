@@ -23,6 +23,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -517,6 +518,8 @@ public void actionPerformed(ActionEvent e) {
         showSaveDialog = true;
       }
 
+      // Token files are saved together once every file has been picked
+      Map<Token, File> tokenFiles = new LinkedHashMap<Token, File>();
       for (GUID tokenGUID : selectedTokenSet) {
         Token token = renderer.getZone().getToken(tokenGUID);
         File tokenSaveFile;
@@ -561,6 +564,8 @@ public void actionPerformed(ActionEvent e) {
           chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 
           if (chooser.showSaveDialog(MapTool.getFrame()) != JFileChooser.APPROVE_OPTION) {
+            // The tokens picked before are saved, as they were when each was saved right away
+            saveTokens(tokenFiles);
             return;
           }
 
@@ -568,7 +573,10 @@ public void actionPerformed(ActionEvent e) {
         } else {
           if (saveDirectory == null) {
             chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-            if (chooser.showSaveDialog(MapTool.getFrame()) != JFileChooser.APPROVE_OPTION) return;
+            if (chooser.showSaveDialog(MapTool.getFrame()) != JFileChooser.APPROVE_OPTION) {
+              saveTokens(tokenFiles);
+              return;
+            }
             if (chooser.getFileFilter() == tokenFilterGM) saveAsGmName = true;
             saveDirectory = chooser.getSelectedFile();
           }
@@ -632,7 +640,7 @@ public void actionPerformed(ActionEvent e) {
                 token.getPortraitImage(),
                 FileUtil.cleanFileName(tokenSaveFile + " [Portrait]", ""));
           } else {
-            PersistenceUtil.saveToken(token, tokenSaveFile);
+            tokenFiles.put(token, tokenSaveFile);
           }
           saveDirectory = tokenSaveFile.getParentFile();
         } catch (IOException ioe) {
@@ -640,10 +648,20 @@ public void actionPerformed(ActionEvent e) {
           MapTool.showError("Could not save token: " + ioe);
         }
       }
+      saveTokens(tokenFiles);
       if (saveDirectory != null) {
         AppPreferences.setTokenSaveDir(saveDirectory);
       }
     }
+
+    private void saveTokens(Map<Token, File> tokenFiles) {
+      try {
+        PersistenceUtil.saveTokens(tokenFiles);
+      } catch (IOException ioe) {
+        ioe.printStackTrace();
+        MapTool.showError("Could not save token: " + ioe);
+      }
+    }
   }
 
   public class SetFacingAction extends AbstractAction {
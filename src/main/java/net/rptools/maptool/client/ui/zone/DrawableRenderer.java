@@ -17,6 +17,7 @@
 import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.util.List;
+import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.drawing.DrawnElement;
 
 /** */
@@ -25,5 +26,14 @@ public interface DrawableRenderer {
   public void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale);
 
+  /**
+   * Renders the drawings of a layer of a zone. Renderers that only draw part of the map at a time
+   * can ask the zone for the drawings of that part instead of going through all of them.
+   */
+  public default void renderDrawables(
+      Graphics g, Zone zone, Zone.Layer layer, Rectangle viewport, double scale) {
+    renderDrawables(g, zone.getDrawnElements(layer), viewport, scale);
+  }
+
   public void flush();
 }
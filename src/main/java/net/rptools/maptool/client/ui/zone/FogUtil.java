@@ -27,6 +27,7 @@
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,10 +41,12 @@
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import net.rptools.lib.CodeTimer;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaOcean;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityPolygon;
 import net.rptools.maptool.client.ui.zone.vbl.VisibleAreaSegment;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
@@ -71,6 +74,74 @@ public class FogUtil {
    * @return the visible area.
    */
   public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+    if (AppPreferences.getUseVisibilityPolygon()) {
+      return calculateVisibilityPolygon(x, y, vision, topology);
+    }
+    return calculateVisibilityShadows(x, y, vision, topology);
+  }
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea, the map VBL and the tokens VBL. The
+   * two are digested apart so that moving a token's VBL doesn't mean digesting the map VBL again.
+   * What can be seen past both is what can be seen past each of them.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea.
+   * @param topology the map VBL topology.
+   * @param tokenTopology the tokens VBL topology, or null if no token has VBL.
+   * @return the visible area, or null if the origin is inside either VBL.
+   */
+  public static Area calculateVisibility(
+      int x, int y, Area vision, AreaTree topology, AreaTree tokenTopology) {
+    Area visible = calculateVisibility(x, y, vision, topology);
+    if (visible == null || tokenTopology == null) {
+      return visible;
+    }
+    Rectangle reach = vision.getBounds();
+    reach.translate(x, y);
+    reach.add(x, y);
+    if (!tokenTopology.getArea().getBounds().intersects(reach)) {
+      return visible;
+    }
+    // Only what is left needs checking against the tokens VBL
+    visible.transform(AffineTransform.getTranslateInstance(-x, -y));
+    return calculateVisibility(x, y, visible, tokenTopology);
+  }
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea and a VBL, by sweeping around the
+   * origin for the nearest wall. See {@link VisibilityPolygon}.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea.
+   * @param topology the VBL topology.
+   * @return the visible area, or null if the origin is inside the VBL.
+   */
+  public static Area calculateVisibilityPolygon(int x, int y, Area vision, AreaTree topology) {
+    vision = new Area(vision);
+    vision.transform(AffineTransform.getTranslateInstance(x, y));
+
+    Point origin = new Point(x, y);
+    AreaOcean ocean = topology.getOceanAt(origin);
+    if (ocean == null) {
+      return null;
+    }
+    return VisibilityPolygon.calculateVisibility(origin, vision, ocean);
+  }
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea and a VBL, by subtracting the shadow
+   * of each wall facing the origin.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea.
+   * @param topology the VBL topology.
+   * @return the visible area, or null if the origin is inside the VBL.
+   */
+  public static Area calculateVisibilityShadows(int x, int y, Area vision, AreaTree topology) {
     CodeTimer timer = new CodeTimer("calculateVisibility");
 
     vision = new Area(vision);
@@ -89,8 +160,11 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
     // -Djava.util.Arrays.useLegacyMergeSort=true
     // http://dertompson.com/2012/11/23/sort-algorithm-changes-in-java-7/
     // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=7075600
+    // Faces outside the vision can't cast a shadow into it
+    Rectangle2D bounds = vision.getBounds2D();
+    bounds.add(origin);
     List<VisibleAreaSegment> segmentList =
-        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
+        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin, bounds));
     Collections.sort(segmentList);
 
     List<Area> clearedAreaList = new LinkedList<>();
@@ -0,0 +1,225 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import net.rptools.maptool.model.Direction;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * A size bounded cache of the areas lit by single light sources, which throws out the least
+ * recently used area first. The areas are not tied to a token, so a light that didn't move is
+ * reused however often other tokens move and whichever player view it is lit for.
+ */
+public class LightAreaCache {
+
+  /**
+   * Everything the area lit by a light source depends on. Light sources are told apart by
+   * identity, as they are replaced whenever the campaign's lights are edited.
+   */
+  static final class Key {
+    private final LightSource lightSource;
+    private final Point origin;
+    private final Rectangle bounds;
+    private final Integer facing;
+    private final Direction direction;
+    private final double multiplier;
+    private final int visionDistance;
+    private final long topologyVersion;
+
+    Key(
+        LightSource lightSource,
+        Point origin,
+        Rectangle bounds,
+        Integer facing,
+        Direction direction,
+        double multiplier,
+        int visionDistance,
+        long topologyVersion) {
+      this.lightSource = lightSource;
+      this.origin = origin;
+      this.bounds = bounds;
+      this.facing = facing;
+      this.direction = direction;
+      this.multiplier = multiplier;
+      this.visionDistance = visionDistance;
+      this.topologyVersion = topologyVersion;
+    }
+
+    /**
+     * @param lightSource the light source
+     * @param token the token holding the light source
+     * @param zone the zone of the token
+     * @param direction where on the token the light source is
+     * @param multiplier the multiplier of the sight the light is seen by
+     * @param topologyVersion the version of the topology the light is seen past
+     * @return the key
+     */
+    static Key of(
+        LightSource lightSource,
+        Token token,
+        Zone zone,
+        Direction direction,
+        double multiplier,
+        long topologyVersion) {
+      return new Key(
+          lightSource,
+          FogUtil.calculateVisionCenter(token, zone),
+          token.getBounds(zone),
+          token.getFacing(),
+          direction,
+          multiplier,
+          zone.getTokenVisionInPixels(),
+          topologyVersion);
+    }
+
+    private Key withTopologyVersion(long topologyVersion) {
+      return new Key(
+          lightSource,
+          origin,
+          bounds,
+          facing,
+          direction,
+          multiplier,
+          visionDistance,
+          topologyVersion);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return lightSource == other.lightSource
+          && origin.equals(other.origin)
+          && bounds.equals(other.bounds)
+          && Objects.equals(facing, other.facing)
+          && direction == other.direction
+          && multiplier == other.multiplier
+          && visionDistance == other.visionDistance
+          && topologyVersion == other.topologyVersion;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          System.identityHashCode(lightSource), origin, facing, direction, topologyVersion);
+    }
+  }
+
+  /** The area lit by a light source, with the colored and bright lights in it. */
+  static final class LitArea {
+    /** The lit area, null if the light source can't be seen at all. Not to be changed. */
+    final Area area;
+
+    final Set<DrawableLight> lights;
+    final Set<Area> brightLights;
+
+    LitArea(Area area, Set<DrawableLight> lights, Set<Area> brightLights) {
+      this.area = area;
+      this.lights = lights;
+      this.brightLights = brightLights;
+    }
+  }
+
+  private final Map<Key, LitArea> litAreas;
+  private long hits;
+  private long misses;
+
+  /** @param maxSize the number of lit areas to keep at most */
+  public LightAreaCache(int maxSize) {
+    litAreas =
+        new LinkedHashMap<Key, LitArea>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, LitArea> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  synchronized LitArea get(Key key) {
+    LitArea litArea = litAreas.get(key);
+    if (litArea == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return litArea;
+  }
+
+  synchronized void put(Key key, LitArea litArea) {
+    litAreas.put(key, litArea);
+  }
+
+  /**
+   * Carries the lit areas over to a new version of the topology, after VBL appeared or went away
+   * in a part of the map. Lights spread out in straight lines from their origin, so the areas that
+   * don't reach that part can't have changed. The others are dropped.
+   *
+   * @param fromVersion the version of the topology before the change
+   * @param toVersion the version after the change
+   * @param changed the part of the map where VBL changed
+   */
+  synchronized void moveOn(long fromVersion, long toVersion, Rectangle changed) {
+    List<Map.Entry<Key, LitArea>> unchanged = new ArrayList<Map.Entry<Key, LitArea>>();
+    for (Iterator<Map.Entry<Key, LitArea>> iter = litAreas.entrySet().iterator();
+        iter.hasNext(); ) {
+      Map.Entry<Key, LitArea> entry = iter.next();
+      if (entry.getKey().topologyVersion != fromVersion) {
+        continue;
+      }
+      iter.remove();
+      Area area = entry.getValue().area;
+      // A light that couldn't be seen at all may be seen now
+      if (area != null && !area.isEmpty() && !area.getBounds().intersects(changed)) {
+        unchanged.add(entry);
+      }
+    }
+    for (Map.Entry<Key, LitArea> entry : unchanged) {
+      litAreas.put(entry.getKey().withTopologyVersion(toVersion), entry.getValue());
+    }
+  }
+
+  public synchronized void clear() {
+    litAreas.clear();
+  }
+
+  /** @return the number of lit areas in the cache. */
+  public synchronized int size() {
+    return litAreas.size();
+  }
+
+  /** @return how often a lit area was found in the cache. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** @return how often a lit area had to be calculated. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -26,8 +26,10 @@
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.*;
+import java.util.function.Function;
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.DrawablesGroup;
 import net.rptools.maptool.model.drawing.DrawnElement;
@@ -71,6 +73,27 @@ public void flush() {
 
   public void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+    renderDrawables(g, drawableList, viewport, scale, chunkBounds -> drawableList);
+  }
+
+  @Override
+  public void renderDrawables(
+      Graphics g, Zone zone, Zone.Layer layer, Rectangle viewport, double scale) {
+    // Each chunk only goes through the drawings that reach into it
+    renderDrawables(
+        g,
+        zone.getDrawnElements(layer),
+        viewport,
+        scale,
+        chunkBounds -> zone.getDrawnElements(layer, chunkBounds));
+  }
+
+  private void renderDrawables(
+      Graphics g,
+      List<DrawnElement> drawableList,
+      Rectangle viewport,
+      double scale,
+      Function<Rectangle, List<DrawnElement>> chunkDrawables) {
     timer = new CodeTimer("Renderer");
     timer.setThreshold(10);
     timer.setEnabled(false);
@@ -115,7 +138,8 @@ public void renderDrawables(
         }
         Tuple chunk = findChunk(chunkList, key);
         if (chunk == null) {
-          chunk = new Tuple(key, createChunk(drawableList, cellX, cellY, scale));
+          List<DrawnElement> drawn = chunkDrawables.apply(getChunkBounds(cellX, cellY, scale));
+          chunk = new Tuple(key, createChunk(drawn, cellX, cellY, scale));
 
           if (chunk.image == null) {
             noImageSet.add(key);
@@ -210,6 +234,7 @@ private BufferedImage createChunk(
     BufferedImage image = null;
     Composite oldComposite = null;
     Graphics2D g = null;
+    Rectangle2D chunkBounds = getChunkBounds(gridx, gridy, scale);
 
     for (DrawnElement element : drawableList) {
       timer.start("createChunk:calculate");
@@ -220,12 +245,6 @@ private BufferedImage createChunk(
       }
 
       Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
-      Rectangle2D chunkBounds =
-          new Rectangle(
-              (int) (gridx * (CHUNK_SIZE / scale)),
-              (int) (gridy * (CHUNK_SIZE / scale)),
-              (int) (CHUNK_SIZE / scale),
-              (int) (CHUNK_SIZE / scale));
 
       // Handle pen size
       Pen pen = element.getPen();
@@ -286,6 +305,15 @@ private BufferedImage createChunk(
     return image;
   }
 
+  /** @return the part of the zone a chunk shows, in zone coordinates. */
+  private static Rectangle getChunkBounds(int gridx, int gridy, double scale) {
+    return new Rectangle(
+        (int) (gridx * (CHUNK_SIZE / scale)),
+        (int) (gridy * (CHUNK_SIZE / scale)),
+        (int) (CHUNK_SIZE / scale),
+        (int) (CHUNK_SIZE / scale));
+  }
+
   private BufferedImage getNewChunk() {
     BufferedImage image = null;
     if (unusedChunkList.size() > 0) {
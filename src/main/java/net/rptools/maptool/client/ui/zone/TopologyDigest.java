@@ -0,0 +1,73 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+
+/**
+ * VBL waiting to be digested into an {@link AreaTree}. Taking it on the EDT only copies the VBL,
+ * which is cheap as an Area copy shares the curves of the original. It is digested by whatever asks
+ * for the tree first, normally the lights pool, and the snapshots taken until the VBL changes share
+ * it so it is only digested once.
+ */
+final class TopologyDigest {
+  /** The VBL to add up and digest, dropped once it is. */
+  private List<Area> parts;
+
+  private volatile AreaTree tree;
+
+  /** @param parts the VBL to add up and digest, not to be changed afterwards. */
+  TopologyDigest(Collection<Area> parts) {
+    this.parts = new ArrayList<Area>(parts);
+  }
+
+  /** @return true if the VBL has been digested, so that {@link #get} returns without waiting. */
+  boolean isDigested() {
+    return tree != null;
+  }
+
+  /**
+   * Get the digested VBL, digesting it first if nothing has yet. Meanwhile anything else asking
+   * for it waits for the same digest.
+   *
+   * @return the AreaTree.
+   */
+  AreaTree get() {
+    AreaTree digested = tree;
+    if (digested != null) {
+      return digested;
+    }
+    synchronized (this) {
+      if (tree == null) {
+        Area topology;
+        if (parts.size() == 1) {
+          topology = parts.get(0);
+        } else {
+          topology = new Area();
+          for (Area part : parts) {
+            topology.add(part);
+          }
+        }
+        tree = new AreaTree(topology);
+        parts = null;
+      }
+      return tree;
+    }
+  }
+}
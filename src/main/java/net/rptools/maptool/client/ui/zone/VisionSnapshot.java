@@ -0,0 +1,136 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * The inputs of vision and lights as of one moment, so that they can be calculated in the
+ * background while the EDT keeps changing the zone. Tokens are copied when the snapshot is taken
+ * (they keep their ids). The topology is taken undigested, see {@link TopologyDigest}, so that it
+ * is digested in the background on first use rather than on the EDT.
+ */
+final class VisionSnapshot {
+  /**
+   * The versions of a snapshot with VBL older than the zone's, as rendered until the new VBL is
+   * digested. Nothing calculated from it is cached.
+   */
+  static final long STALE = -1;
+
+  private final List<Token> sightTokens;
+  private final List<Token> lightSourceTokens;
+  private final TopologyDigest topology;
+  private final TopologyDigest tokenTopology;
+  private final Zone.VisionType visionType;
+  private final long topologyVersion;
+  private final long visionVersion;
+
+  /**
+   * @param sightTokens the tokens to calculate the vision of
+   * @param lightSourceTokens the tokens with normal light sources
+   * @param topology the map VBL
+   * @param tokenTopology the tokens VBL, or null if no token has VBL
+   * @param visionType the vision type of the zone
+   * @param topologyVersion the version of the topology, see {@link ZoneView}, or {@link #STALE}
+   * @param visionVersion the version of the vision, see {@link ZoneView}, or {@link #STALE}
+   * @param copy true to copy the tokens, for a snapshot used away from the EDT
+   */
+  VisionSnapshot(
+      Collection<Token> sightTokens,
+      Collection<Token> lightSourceTokens,
+      TopologyDigest topology,
+      TopologyDigest tokenTopology,
+      Zone.VisionType visionType,
+      long topologyVersion,
+      long visionVersion,
+      boolean copy) {
+    if (copy) {
+      // A token that has both sight and lights is copied once
+      Map<GUID, Token> copies = new HashMap<GUID, Token>();
+      this.sightTokens = copy(sightTokens, copies);
+      this.lightSourceTokens = copy(lightSourceTokens, copies);
+    } else {
+      this.sightTokens = Collections.unmodifiableList(new ArrayList<Token>(sightTokens));
+      this.lightSourceTokens =
+          Collections.unmodifiableList(new ArrayList<Token>(lightSourceTokens));
+    }
+    this.topology = topology;
+    this.tokenTopology = tokenTopology;
+    this.visionType = visionType;
+    this.topologyVersion = topologyVersion;
+    this.visionVersion = visionVersion;
+  }
+
+  private static List<Token> copy(Collection<Token> tokens, Map<GUID, Token> copies) {
+    List<Token> copied = new ArrayList<Token>(tokens.size());
+    for (Token token : tokens) {
+      copied.add(copies.computeIfAbsent(token.getId(), id -> new Token(token, true)));
+    }
+    return Collections.unmodifiableList(copied);
+  }
+
+  /** @return the tokens to calculate the vision of. */
+  List<Token> getSightTokens() {
+    return sightTokens;
+  }
+
+  /** @return the tokens with normal light sources. */
+  List<Token> getLightSourceTokens() {
+    return lightSourceTokens;
+  }
+
+  /** @return the digested map VBL, digested first if it wasn't yet. */
+  AreaTree getTopology() {
+    return topology.get();
+  }
+
+  /** @return the digested tokens VBL, digested first if it wasn't yet. Null if no token has VBL. */
+  AreaTree getTokenTopology() {
+    return tokenTopology == null ? null : tokenTopology.get();
+  }
+
+  /** @return true if the VBL has been digested, so that the topology is there without waiting. */
+  boolean isDigested() {
+    return topology.isDigested() && (tokenTopology == null || tokenTopology.isDigested());
+  }
+
+  /** @return true if the snapshot has older VBL than the zone, see {@link #STALE}. */
+  boolean isStale() {
+    return topologyVersion == STALE;
+  }
+
+  Zone.VisionType getVisionType() {
+    return visionType;
+  }
+
+  /** @return the topology version the snapshot was taken at, lights are cached under it. */
+  long getTopologyVersion() {
+    return topologyVersion;
+  }
+
+  /** @return the vision version the snapshot was taken at, nothing is cached if it moved on. */
+  long getVisionVersion() {
+    return visionVersion;
+  }
+}
@@ -170,6 +170,10 @@ public class ZoneRenderer extends JComponent
   // HashMap<Token,
   // TokenLocation>());
   private final Map<Token, TokenLocation> tokenLocationCache = new HashMap<Token, TokenLocation>();
+  /** Where each token was last drawn this frame, looked up from the tokens the zone finds. */
+  private final Map<Token, TokenLocation> drawnTokenLocations = new HashMap<Token, TokenLocation>();
+  /** The number of token locations drawn this frame, the order they were drawn in. */
+  private int tokenDrawCount;
   private final List<TokenLocation> markerLocationList = new ArrayList<TokenLocation>();
   private GeneralPath facingArrow;
   private final List<Token> showPathList = new ArrayList<Token>();
@@ -773,6 +777,20 @@ public void flushFog() {
     repaintDebouncer.dispatch();
   }
 
+  /**
+   * Called from the background once the zone view has calculated a new visible area, which also
+   * brings new lights, or has digested VBL that changed. Flushes the fog, lights and auras on the
+   * EDT, so that they are rendered again.
+   */
+  private void visibleAreaCalculated() {
+    SwingUtilities.invokeLater(
+        () -> {
+          renderedLightMap = null;
+          renderedAuraMap = null;
+          flushFog();
+        });
+  }
+
   /** @return the Zone */
   public Zone getZone() {
     return zone;
@@ -1151,6 +1169,8 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
     // Clear internal state
     tokenLocationMap.clear();
+    drawnTokenLocations.clear();
+    tokenDrawCount = 0;
     markerLocationList.clear();
     itemRenderList.clear();
 
@@ -1175,7 +1195,7 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
     if (visibleScreenArea == null && zoneView.isUsingVision()) {
       timer.start("ZoneRenderer-getVisibleArea");
-      Area a = zoneView.getVisibleArea(view);
+      Area a = zoneView.getLastVisibleArea(view, this::visibleAreaCalculated);
       timer.stop("ZoneRenderer-getVisibleArea");
 
       timer.start("createTransformedArea");
@@ -1189,7 +1209,7 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
     timer.start("calcs-2");
     {
       // renderMoveSelectionSet() requires exposedFogArea to be properly set
-      exposedFogArea = new Area(zone.getExposedArea());
+      exposedFogArea = zone.getExposedArea(getVisibleZoneBounds());
       if (exposedFogArea != null && zone.hasFog()) {
         if (visibleScreenArea != null && !visibleScreenArea.isEmpty()) {
           exposedFogArea.intersect(visibleScreenArea);
@@ -1220,12 +1240,9 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
       timer.stop("board");
     }
     if (Zone.Layer.BACKGROUND.isEnabled()) {
-      List<DrawnElement> drawables = zone.getBackgroundDrawnElements();
-      // if (!drawables.isEmpty()) {
       timer.start("drawableBackground");
-      renderDrawableOverlay(g2d, backgroundDrawableRenderer, view, drawables);
+      renderDrawableOverlay(g2d, backgroundDrawableRenderer, view, Zone.Layer.BACKGROUND);
       timer.stop("drawableBackground");
-      // }
       List<Token> background = zone.getBackgroundStamps(false);
       if (!background.isEmpty()) {
         timer.start("tokensBackground");
@@ -1235,12 +1252,9 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
     }
     if (Zone.Layer.OBJECT.isEnabled()) {
       // Drawables on the object layer are always below the grid, and...
-      List<DrawnElement> drawables = zone.getObjectDrawnElements();
-      // if (!drawables.isEmpty()) {
       timer.start("drawableObjects");
-      renderDrawableOverlay(g2d, objectDrawableRenderer, view, drawables);
+      renderDrawableOverlay(g2d, objectDrawableRenderer, view, Zone.Layer.OBJECT);
       timer.stop("drawableObjects");
-      // }
     }
     timer.start("grid");
     renderGrid(g2d, view);
@@ -1287,20 +1301,14 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
      * </ol>
      */
     if (Zone.Layer.TOKEN.isEnabled()) {
-      List<DrawnElement> drawables = zone.getDrawnElements();
-      // if (!drawables.isEmpty()) {
       timer.start("drawableTokens");
-      renderDrawableOverlay(g2d, tokenDrawableRenderer, view, drawables);
+      renderDrawableOverlay(g2d, tokenDrawableRenderer, view, Zone.Layer.TOKEN);
       timer.stop("drawableTokens");
-      // }
 
       if (view.isGMView() && Zone.Layer.GM.isEnabled()) {
-        drawables = zone.getGMDrawnElements();
-        // if (!drawables.isEmpty()) {
         timer.start("drawableGM");
-        renderDrawableOverlay(g2d, gmDrawableRenderer, view, drawables);
+        renderDrawableOverlay(g2d, gmDrawableRenderer, view, Zone.Layer.GM);
         timer.stop("drawableGM");
-        // }
         List<Token> stamps = zone.getGMStamps(false);
         if (!stamps.isEmpty()) {
           timer.start("tokensGM");
@@ -1600,7 +1608,8 @@ private void renderAuras(Graphics2D g, PlayerView view) {
 
       timer.start("auras-4");
       Color paintColor = new Color(255, 255, 255, 150);
-      for (DrawableLight light : zoneView.getLights(LightSource.Type.AURA)) {
+      for (DrawableLight light :
+          zoneView.getLights(LightSource.Type.AURA, this::visibleAreaCalculated)) {
         Paint paint = light.getPaint() != null ? light.getPaint().getPaint() : paintColor;
         List<Area> list = colorMap.get(paint);
         if (list == null) {
@@ -1669,7 +1678,8 @@ private void renderGMVisionOverlay(Graphics2D g, PlayerView view) {
    * if there is one.
    */
   private void renderVisionOverlay(Graphics2D g, PlayerView view) {
-    Area currentTokenVisionArea = getVisibleArea(tokenUnderMouse);
+    Area currentTokenVisionArea =
+        zoneView.getLastVisibleArea(tokenUnderMouse, this::visibleAreaCalculated);
     if (currentTokenVisionArea == null) {
       return;
     }
@@ -1872,7 +1882,7 @@ private Area renderFog(Graphics2D g, PlayerView view) {
       buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR));
 
       timer.start("renderFog-visibleArea");
-      Area visibleArea = zoneView.getVisibleArea(view);
+      Area visibleArea = zoneView.getLastVisibleArea(view, this::visibleAreaCalculated);
       timer.stop("renderFog-visibleArea");
 
       String msg = null;
@@ -1881,11 +1891,11 @@ private Area renderFog(Graphics2D g, PlayerView view) {
         msg = "renderFog-combined(" + (list == null ? 0 : list.size()) + ")";
       }
       timer.start(msg);
-      combined = zone.getExposedArea(view);
+      Rectangle2D fogBounds = getVisibleZoneBounds();
+      combined = zone.getExposedArea(view, fogBounds);
       timer.stop(msg);
 
       timer.start("renderFogArea");
-      Area exposedArea = null;
       Area tempArea = new Area();
       boolean combinedView =
           !zoneView.isUsingVision()
@@ -1898,8 +1908,7 @@ private Area renderFog(Graphics2D g, PlayerView view) {
         // we pass the combined exposed area to build the soft FOW and visible area.
         for (Token tok : view.getTokens()) {
           ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
-          exposedArea = meta.getExposedAreaHistory();
-          tempArea.add(new Area(exposedArea));
+          tempArea.add(meta.getExposedAreaHistory(fogBounds));
         }
         if (combinedView) {
           // combined = zone.getExposedArea(view);
@@ -1919,7 +1928,7 @@ private Area renderFog(Graphics2D g, PlayerView view) {
         // exposed area's to build the soft FOW.
         if (combinedView) {
           if (combined.isEmpty()) {
-            combined = zone.getExposedArea();
+            combined = zone.getExposedArea(fogBounds);
           }
           buffG.fill(combined);
           renderFogArea(buffG, view, combined, visibleArea);
@@ -1934,8 +1943,7 @@ private Area renderFog(Graphics2D g, PlayerView view) {
               continue;
             }
             ExposedAreaMetaData meta = zone.getExposedAreaMetaData(tok.getExposedAreaGUID());
-            exposedArea = meta.getExposedAreaHistory();
-            myCombined.add(new Area(exposedArea));
+            myCombined.add(meta.getExposedAreaHistory(fogBounds));
           }
           buffG.fill(myCombined);
           renderFogArea(buffG, view, myCombined, visibleArea);
@@ -1957,6 +1965,16 @@ private Area renderFog(Graphics2D g, PlayerView view) {
     return combined;
   }
 
+  /** @return the part of the zone that is on screen, in zone coordinates. */
+  private Rectangle2D getVisibleZoneBounds() {
+    double scale = getScale();
+    return new Rectangle2D.Double(
+        -zoneScale.getOffsetX() / scale,
+        -zoneScale.getOffsetY() / scale,
+        getSize().width / scale,
+        getSize().height / scale);
+  }
+
   private void renderFogArea(
       final Graphics2D buffG, final PlayerView view, Area softFog, Area visibleArea) {
     if (zoneView.isUsingVision()) {
@@ -2051,14 +2069,11 @@ public boolean isLoading() {
   }
 
   protected void renderDrawableOverlay(
-      Graphics g, DrawableRenderer renderer, PlayerView view, List<DrawnElement> drawnElements) {
+      Graphics g, DrawableRenderer renderer, PlayerView view, Zone.Layer layer) {
     Rectangle viewport =
         new Rectangle(
             zoneScale.getOffsetX(), zoneScale.getOffsetY(), getSize().width, getSize().height);
-    // List<DrawnElement> list = new ArrayList<DrawnElement>();
-    // list.addAll(drawnElements);
-
-    renderer.renderDrawables(g, drawnElements, viewport, getScale());
+    renderer.renderDrawables(g, zone, layer, viewport, getScale());
   }
 
   protected void renderBoard(Graphics2D g, PlayerView view) {
@@ -2383,7 +2398,11 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
                     (int) tokBounds.getWidth(),
                     (int) tokBounds.getHeight());
               }
-              showLabels = showLabels || zoneView.getVisibleArea(view).intersects(tokenRectangle);
+              showLabels =
+                  showLabels
+                      || zoneView
+                          .getLastVisibleArea(view, this::visibleAreaCalculated)
+                          .intersects(tokenRectangle);
             }
           } else {
             boolean hasFog = zone.hasFog();
@@ -2848,11 +2867,18 @@ public void addDistanceText(
   public List<Token> getTokensOnScreen() {
     List<Token> list = new ArrayList<Token>();
 
-    // Always assume tokens, for now
-    List<TokenLocation> tokenLocationListCopy =
-        new ArrayList<TokenLocation>(getTokenLocations(getActiveLayer()));
-    for (TokenLocation location : tokenLocationListCopy) {
-      list.add(location.token);
+    // The zone finds the tokens on the screen, of those only the ones drawn are visible
+    ZonePoint topLeft = new ScreenPoint(0, 0).convertToZone(this);
+    ZonePoint bottomRight = new ScreenPoint(getWidth(), getHeight()).convertToZone(this);
+    Rectangle screen =
+        new Rectangle(
+            topLeft.x, topLeft.y, bottomRight.x - topLeft.x + 1, bottomRight.y - topLeft.y + 1);
+    Zone.Layer activeLayer = getActiveLayer();
+    for (Token token : zone.getTokensIntersecting(screen)) {
+      TokenLocation location = drawnTokenLocations.get(token);
+      if (location != null && location.layer == activeLayer) {
+        list.add(token);
+      }
     }
 
     // Sort by location on screen, top left to bottom right
@@ -3058,20 +3084,7 @@ protected void renderTokens(
       double y = tokenScreenLocation.y;
 
       Rectangle2D origBounds = new Rectangle2D.Double(x, y, scaledWidth, scaledHeight);
-      Area tokenBounds = new Area(origBounds);
-      if (token.hasFacing() && token.getShape() == Token.TokenShape.TOP_DOWN) {
-        double sx = scaledWidth / 2 + x - (token.getAnchor().x * scale);
-        double sy = scaledHeight / 2 + y - (token.getAnchor().y * scale);
-        tokenBounds.transform(
-            AffineTransform.getRotateInstance(
-                Math.toRadians(-token.getFacing() - 90), sx, sy)); // facing
-        // defaults
-        // to
-        // down,
-        // or
-        // -90
-        // degrees
-      }
+      Area tokenBounds = getTokenScreenBounds(token, origBounds, scale);
       timer.stop("tokenlist-1d");
 
       timer.start("tokenlist-1e");
@@ -3149,6 +3162,9 @@ protected void renderTokens(
       if (locationList != null) {
         locationList.add(location);
       }
+      location.layer = layer;
+      location.drawOrder = tokenDrawCount++;
+      drawnTokenLocations.put(token, location);
       timer.stop("renderTokens:Locations");
 
       // Add the token to our visible set.
@@ -4074,15 +4090,54 @@ public Rectangle getLabelBounds(Label label) {
    * @return the token
    */
   public Token getTokenAt(int x, int y) {
-    List<TokenLocation> locationList =
-        new ArrayList<TokenLocation>(getTokenLocations(getActiveLayer()));
-    Collections.reverse(locationList);
-    for (TokenLocation location : locationList) {
-      if (location.bounds.contains(x, y)) {
-        return location.token;
+    // The zone finds the tokens that can cover the point, a turned token's footprint included
+    Rectangle near = getTokenSearchBounds(new ScreenPoint(x, y).convertToZone(this));
+    // Of those, test the bounds they were last drawn with, which is what the user clicks on. The
+    // one drawn last is on top, figures are drawn again after the other tokens.
+    Zone.Layer activeLayer = getActiveLayer();
+    TokenLocation top = null;
+    for (Token token : zone.getTokensIntersecting(near)) {
+      TokenLocation location = drawnTokenLocations.get(token);
+      if (location != null
+          && location.layer == activeLayer
+          && (top == null || location.drawOrder > top.drawOrder)
+          && location.bounds.contains(x, y)) {
+        top = location;
       }
     }
-    return null;
+    return top != null ? top.token : null;
+  }
+
+  /**
+   * Works out where to look for the tokens drawn over a point. The point is rounded down to the
+   * zone, so this allows for a couple of pixels either way.
+   *
+   * @param zp the point, in zone coordinates
+   * @return the bounds to find the tokens in
+   */
+  static Rectangle getTokenSearchBounds(ZonePoint zp) {
+    return new Rectangle(zp.x - 2, zp.y - 2, 5, 5);
+  }
+
+  /**
+   * Works out where a token is drawn, which is also where it can be clicked: its bounds on screen,
+   * turned to its facing for top down tokens.
+   *
+   * @param token the token
+   * @param bounds the bounds of the token on screen
+   * @param scale the scale of the zone
+   * @return the area the token covers on screen
+   */
+  static Area getTokenScreenBounds(Token token, Rectangle2D bounds, double scale) {
+    Area tokenBounds = new Area(bounds);
+    if (token.hasFacing() && token.getShape() == Token.TokenShape.TOP_DOWN) {
+      double sx = bounds.getWidth() / 2 + bounds.getX() - (token.getAnchor().x * scale);
+      double sy = bounds.getHeight() / 2 + bounds.getY() - (token.getAnchor().y * scale);
+      // Facing defaults to down, or -90 degrees
+      tokenBounds.transform(
+          AffineTransform.getRotateInstance(Math.toRadians(-token.getFacing() - 90), sx, sy));
+    }
+    return tokenBounds;
   }
 
   public Token getMarkerAt(int x, int y) {
@@ -4475,6 +4530,8 @@ private class TokenLocation {
     public double y;
     public int offsetX;
     public int offsetY;
+    public Zone.Layer layer;
+    public int drawOrder;
 
     /**
      * Construct a TokenLocation object that caches where images are stored and what their size is
@@ -4584,6 +4641,8 @@ public void addTokens(
     boolean isGM = MapTool.getPlayer().isGM();
     List<String> failedPaste = new ArrayList<String>(tokens.size());
     List<GUID> selectThese = new ArrayList<GUID>(tokens.size());
+    DroppedTokens dropped = new DroppedTokens(zone);
+    Set<MD5Key> uploaded = new HashSet<MD5Key>();
 
     ScreenPoint sp = ScreenPoint.fromZonePoint(this, zp);
     Point dropPoint = new Point((int) sp.x, (int) sp.y);
@@ -4668,6 +4727,10 @@ public void addTokens(
       Token.Type type = token.getType();
       token.setType(type);
 
+      if (dropped.hasName(token.getName())) {
+        // Another of the dropped tokens has the name, it has to be on the zone to be counted
+        dropped.flush();
+      }
       // Token type
       if (isGM) {
         // Check the name (after Token layer is set as name relies on layer)
@@ -4708,6 +4771,9 @@ public void addTokens(
       }
       // Make sure all the assets are transfered
       for (MD5Key id : token.getAllImageAssets()) {
+        if (!uploaded.add(id)) {
+          continue;
+        }
         Asset asset = AssetManager.getAsset(id);
         if (asset == null) {
           log.error("Could not find image for asset: " + id);
@@ -4725,10 +4791,11 @@ public void addTokens(
         }
       }
 
-      // Save the token and tell everybody about it
-      MapTool.serverCommand().putToken(zone.getId(), token);
+      // Save the token and tell everybody about it, together with the others
+      dropped.add(token);
       selectThese.add(token.getId());
     }
+    dropped.flush();
     // For convenience, select them
     clearSelectedTokens();
     selectTokens(selectThese);
@@ -4749,6 +4816,40 @@ public void addTokens(
     updateAfterSelection();
   }
 
+  /**
+   * Tokens dropped on a zone by {@link #addTokens}. They are put on the zone and sent to the server
+   * with one {@link net.rptools.maptool.server.ServerCommand#putTokens} rather than one each.
+   */
+  private static class DroppedTokens {
+    private final Zone zone;
+    private final List<Token> tokens = new ArrayList<Token>();
+    // Lower case, like the zone matches names
+    private final Set<String> names = new HashSet<String>();
+
+    DroppedTokens(Zone zone) {
+      this.zone = zone;
+    }
+
+    boolean hasName(String name) {
+      return name != null && names.contains(name.toLowerCase());
+    }
+
+    void add(Token token) {
+      tokens.add(token);
+      if (token.getName() != null) {
+        names.add(token.getName().toLowerCase());
+      }
+    }
+
+    void flush() {
+      if (!tokens.isEmpty()) {
+        MapTool.serverCommand().putTokens(zone.getId(), new ArrayList<Token>(tokens));
+      }
+      tokens.clear();
+      names.clear();
+    }
+  }
+
   /**
    * Checks to see if token has an image table and references that if the token has a facing
    * otherwise uses basic image
@@ -4823,16 +4924,18 @@ private class ZoneModelChangeListener implements ModelChangeListener {
 
     /**
      * ALL events trigger updateTokenTree and a repaint. Reacts specifically to events
-     * TOPOLOGY_CHANGED, TOKEN_CHANGED, TOKEN_REMOVED, and TOKEN_ADDED.
+     * TOPOLOGY_CHANGED, TOKEN_TOPOLOGY_CHANGED, TOKEN_CHANGED, TOKEN_REMOVED, and TOKEN_ADDED.
      *
      * @param event the event
      */
     public void modelChanged(ModelChangeEvent event) {
       Object evt = event.getEvent();
 
-      if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+      if (evt == Zone.Event.TOPOLOGY_CHANGED || evt == Zone.Event.TOKEN_TOPOLOGY_CHANGED) {
         flushFog();
-        flushLight();
+        // The zone view flushes its own lights, only those the VBL change can reach
+        renderedLightMap = null;
+        renderedAuraMap = null;
       }
       if (evt == Zone.Event.TOKEN_CHANGED
           || evt == Zone.Event.TOKEN_REMOVED
@@ -15,6 +15,7 @@
 package net.rptools.maptool.client.ui.zone;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Path2D;
@@ -23,6 +24,8 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,13 +33,9 @@
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import javax.swing.SwingWorker;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
@@ -54,10 +53,27 @@
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** Responsible for calculating lights and vision. */
+/**
+ * Responsible for calculating lights and vision. The caches are guarded by the ZoneView, the
+ * digested topology by {@link #topologyLock}. Lights and vision are calculated outside of both, so
+ * that they can be worked out in the background while the EDT renders what was cached before. In
+ * the background they are calculated from a {@link VisionSnapshot} taken on the EDT, which only
+ * copies the VBL. The VBL is digested in the background too, and the EDT renders by the VBL
+ * digested before until it is.
+ */
 public class ZoneView implements ModelChangeListener {
   private static final Logger log = LogManager.getLogger(ZoneView.class);
 
+  /** Calculates the lights of all zones, with a thread per core but for one left to the EDT. */
+  private static final ForkJoinPool lightsPool =
+      new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+  /** How many views to keep the last visible area of, see {@link #getLastVisibleArea}. */
+  private static final int MAX_LAST_VISIBLE_AREAS = 8;
+
+  /** How many areas lit by single light sources to keep, see {@link #lightAreaCache}. */
+  private static final int MAX_LIT_AREAS = 1000;
+
   /** The zone of the ZoneView. */
   private final Zone zone;
 
@@ -68,6 +84,8 @@ public class ZoneView implements ModelChangeListener {
   private final Map<GUID, Area> tokenVisionCache = new HashMap<>();
   /** Map lightSourceToken to the areaBySightMap. */
   private final Map<GUID, Map<String, Map<Double, Area>>> lightSourceCache = new HashMap<>();
+  /** The areas lit by single light sources, kept for as long as the lights don't move. */
+  private final LightAreaCache lightAreaCache = new LightAreaCache(MAX_LIT_AREAS);
   /** Map light source type to all tokens with that type. */
   private final Map<LightSource.Type, Set<GUID>> lightSourceMap = new HashMap<>();
   /** Map each token to their map between sightType and set of lights. */
@@ -76,17 +94,44 @@ public class ZoneView implements ModelChangeListener {
   private final Map<GUID, Map<String, Set<Area>>> brightLightCache = new Hashtable<>();
   /** Map the PlayerView to its visible area. */
   private final Map<PlayerView, VisibleAreaMeta> visibleAreaMap = new HashMap<>();
-  /** Hold all of our lights combined by lumens. Used for hard FoW reveal. */
-  private final SortedMap<Double, Area> allLightAreaMap = new ConcurrentSkipListMap<>();
+  /** Map the recently rendered PlayerViews to the last visible area calculated for them. */
+  private final Map<PlayerView, Area> lastVisibleAreaMap =
+      new LinkedHashMap<PlayerView, Area>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PlayerView, Area> eldest) {
+          return size() > MAX_LAST_VISIBLE_AREAS;
+        }
+      };
+  /** The PlayerViews whose visible area is being calculated in the background. */
+  private final Set<PlayerView> pendingViews = new HashSet<>();
+  /** The tokens whose vision is being calculated in the background for the renderer. */
+  private final Set<GUID> pendingTokens = new HashSet<>();
+  /** True while the VBL is being digested in the background for the renderer. */
+  private boolean digesting;
   /** Map each token to their personal bright light source area. */
   private final Map<GUID, Set<Area>> personalBrightLightCache = new HashMap<>();
   /** Map each token to their personal drawable lights. */
   private final Map<GUID, Set<DrawableLight>> personalDrawableLightCache = new HashMap<>();
-
-  /** The digested topology of the map VBL, and possibly tokens VBL. */
-  private AreaTree topologyTree;
-  /** The VBL area of the zone VBL and the tokens VBL. */
-  private Area tokenTopology;
+  /** Moves on whenever VBL changes, so lights calculated against the old VBL aren't cached. */
+  private long topologyVersion;
+  /** Moves on whenever vision is flushed, so vision calculated before the flush isn't cached. */
+  private long visionVersion;
+
+  /** Guards the digested topology, apart from the caches so digesting it doesn't hold them up. */
+  private final Object topologyLock = new Object();
+
+  /** The map VBL, digested on first use. */
+  private TopologyDigest topology;
+  /** The tokens VBL, laid over the map VBL and digested on first use. Null if no token has VBL. */
+  private TopologyDigest tokenTopology;
+  /** The map VBL last digested, rendered by until the map VBL that replaced it is digested. */
+  private TopologyDigest lastDigestedTopology;
+  /** The tokens VBL last digested, rendered by until the tokens VBL that replaced it is. */
+  private TopologyDigest lastDigestedTokenTopology;
+  /** The digested topology of the map VBL and the tokens VBL together. */
+  private TopologyDigest combinedTopology;
+  /** The transformed VBL of each token with VBL, the tokens VBL topology is built from it. */
+  private Map<GUID, Area> tokenVBLMap;
 
   /** Lumen for personal vision (darkvision). */
   private static final double LUMEN_VISION = 100;
@@ -109,10 +154,191 @@ public ZoneView(Zone zone) {
    * @return the visible area
    */
   public Area getVisibleArea(PlayerView view) {
-    calculateVisibleArea(view);
-    ZoneView.VisibleAreaMeta visible = visibleAreaMap.get(view);
+    synchronized (this) {
+      VisibleAreaMeta visible = visibleAreaMap.get(view);
+      if (visible != null && visible.visibleArea.getBounds().getCenterX() != 0.0d) {
+        return visible.visibleArea;
+      }
+    }
+    return getVisibleArea(view, takeSnapshot(getSightTokens(view), false));
+  }
+
+  /**
+   * Calculate the visible area of the view from a snapshot, and cache it unless vision was flushed
+   * after the snapshot was taken.
+   *
+   * @param view the PlayerView
+   * @param snapshot the inputs of the calculation
+   * @return the visible area
+   */
+  private Area getVisibleArea(PlayerView view, VisionSnapshot snapshot) {
+    Area visibleArea = calculateVisibleArea(snapshot);
+    synchronized (this) {
+      if (visionVersion == snapshot.getVisionVersion()) {
+        VisibleAreaMeta meta = new VisibleAreaMeta();
+        meta.visibleArea = visibleArea;
+        visibleAreaMap.put(view, meta);
+      }
+      lastVisibleAreaMap.put(view, visibleArea);
+    }
+    return visibleArea;
+  }
+
+  /**
+   * Get the visible area of the view without waiting for it to be calculated, for the renderer. If
+   * it isn't cached, it is calculated in the background and the last visible area calculated for
+   * the view is returned meanwhile. Until the first visible area of a view is calculated, nothing
+   * is visible; the renderer hides the tokens of others until then rather than wait for it.
+   *
+   * <p>The background calculation only sees a snapshot of the tokens and topology taken here on
+   * the EDT, never the zone itself. The topology is digested there too if it changed.
+   *
+   * @param view the PlayerView
+   * @param onUpdate run from the background once a different visible area has been calculated
+   * @return the visible area, possibly out of date
+   */
+  public Area getLastVisibleArea(PlayerView view, Runnable onUpdate) {
+    final Area returned;
+    synchronized (this) {
+      VisibleAreaMeta visible = visibleAreaMap.get(view);
+      if (visible != null) {
+        return visible.visibleArea;
+      }
+      Area lastVisibleArea = lastVisibleAreaMap.get(view);
+      returned = lastVisibleArea != null ? lastVisibleArea : new Area();
+      if (pendingViews.contains(view)) {
+        return returned;
+      }
+    }
+    VisionSnapshot snapshot = takeSnapshot(getSightTokens(view), true);
+    synchronized (this) {
+      if (!pendingViews.add(view)) {
+        return returned;
+      }
+    }
+    lightsPool.execute(
+        () -> {
+          Area visibleArea;
+          try {
+            visibleArea = getVisibleArea(view, snapshot);
+          } catch (RuntimeException e) {
+            log.error("Could not calculate the visible area", e);
+            return;
+          } finally {
+            synchronized (this) {
+              pendingViews.remove(view);
+            }
+          }
+          if (!visibleArea.equals(returned)) {
+            onUpdate.run();
+          }
+        });
+    return returned;
+  }
+
+  /**
+   * Take a snapshot of what vision and lights are calculated from: the tokens, the light source
+   * tokens and the topology, along with the versions they are at. The topology is only copied, it
+   * is digested by whatever uses the snapshot first.
+   *
+   * @param sightTokens the tokens to calculate the vision of
+   * @param copy true to copy the tokens, for a calculation away from the EDT
+   * @return the snapshot
+   */
+  private VisionSnapshot takeSnapshot(List<Token> sightTokens, boolean copy) {
+    List<Token> lightSourceTokens = new ArrayList<Token>();
+    long snapshotTopologyVersion;
+    long snapshotVisionVersion;
+    synchronized (this) {
+      Set<GUID> lightSourceTokenIds = lightSourceMap.get(LightSource.Type.NORMAL);
+      if (lightSourceTokenIds != null) {
+        for (GUID lightSourceTokenId : lightSourceTokenIds) {
+          Token lightSourceToken = zone.getToken(lightSourceTokenId);
+          // Verify if the token still exists
+          if (lightSourceToken != null) {
+            lightSourceTokens.add(lightSourceToken);
+          }
+        }
+      }
+      snapshotTopologyVersion = topologyVersion;
+      snapshotVisionVersion = visionVersion;
+    }
+    TopologyDigest snapshotTopology;
+    TopologyDigest snapshotTokenTopology;
+    synchronized (topologyLock) {
+      snapshotTopology = getTopology();
+      snapshotTokenTopology = getTokenTopology();
+    }
+    return new VisionSnapshot(
+        sightTokens,
+        lightSourceTokens,
+        snapshotTopology,
+        snapshotTokenTopology,
+        zone.getVisionType(),
+        snapshotTopologyVersion,
+        snapshotVisionVersion,
+        copy);
+  }
 
-    return visible != null ? visible.visibleArea : new Area();
+  /**
+   * Take a snapshot to render by right away, on the EDT. If the VBL changed and isn't digested
+   * yet, it is digested in the background and the snapshot has the VBL digested before instead.
+   * Such a snapshot is {@link VisionSnapshot#STALE}.
+   *
+   * @param onDigested run from the background once the VBL is digested, if it wasn't
+   * @return the snapshot, or null if no VBL of the zone has been digested yet
+   */
+  private VisionSnapshot takeRenderSnapshot(Runnable onDigested) {
+    VisionSnapshot snapshot = takeSnapshot(List.of(), false);
+    if (snapshot.isDigested()) {
+      return snapshot;
+    }
+    synchronized (this) {
+      if (!digesting) {
+        digesting = true;
+        lightsPool.execute(
+            () -> {
+              try {
+                snapshot.getTopology();
+                snapshot.getTokenTopology();
+              } catch (RuntimeException e) {
+                log.error("Could not digest the VBL", e);
+                return;
+              } finally {
+                synchronized (this) {
+                  digesting = false;
+                }
+              }
+              onDigested.run();
+            });
+      }
+    }
+    TopologyDigest staleTopology;
+    TopologyDigest staleTokenTopology;
+    synchronized (topologyLock) {
+      staleTopology = getTopology().isDigested() ? getTopology() : lastDigestedTopology;
+      staleTokenTopology = getTokenTopology();
+      if (staleTokenTopology != null && !staleTokenTopology.isDigested()) {
+        staleTokenTopology = lastDigestedTokenTopology;
+      }
+    }
+    if (staleTopology == null) {
+      return null;
+    }
+    return new VisionSnapshot(
+        List.of(),
+        snapshot.getLightSourceTokens(),
+        staleTopology,
+        staleTokenTopology,
+        snapshot.getVisionType(),
+        VisionSnapshot.STALE,
+        VisionSnapshot.STALE,
+        false);
+  }
+
+  /** @return the cache of the areas lit by single light sources, with its hit and miss counts. */
+  public LightAreaCache getLightAreaCache() {
+    return lightAreaCache;
   }
 
   /**
@@ -125,35 +351,89 @@ public boolean isUsingVision() {
   }
 
   /** @return the current combined VBL (base VBL + TokenVBL) */
-  public synchronized AreaTree getTopologyTree() {
+  public AreaTree getTopologyTree() {
     return getTopologyTree(true);
   }
 
   /**
    * Get the topologyTree. The topologyTree is "cached" and should only regenerate when topologyTree
-   * is null which should happen on flush calls.
+   * is null which should happen on flush calls. It is digested outside of the topologyLock, so that
+   * snapshots can still be taken meanwhile.
    *
-   * @param useTokenVBL using token VBL? If so and topology null, create one from VBL tokens.
+   * @param useTokenVBL using token VBL? If so, digest the map VBL and the tokens VBL together.
    * @return the AreaTree (topologyTree).
    */
-  public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
-    if (tokenTopology == null && useTokenVBL) {
-      log.debug("ZoneView topologyTree is null, generating...");
+  public AreaTree getTopologyTree(boolean useTokenVBL) {
+    TopologyDigest digest;
+    synchronized (topologyLock) {
+      if (!useTokenVBL || getTokenVBLMap().isEmpty()) {
+        digest = getTopology();
+      } else {
+        if (combinedTopology == null) {
+          List<Area> combined = new ArrayList<Area>(tokenVBLMap.values());
+          combined.add(0, new Area(zone.getTopology()));
+          combinedTopology = new TopologyDigest(combined);
+        }
+        digest = combinedTopology;
+      }
+    }
+    return digest.get();
+  }
 
-      tokenTopology = new Area(zone.getTopology());
-      List<Token> vblTokens =
-          MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensWithVBL();
+  /**
+   * Get the map VBL, to be digested on first use. It is taken again after the map VBL changes.
+   *
+   * @return the map VBL.
+   */
+  private TopologyDigest getTopology() {
+    synchronized (topologyLock) {
+      if (topology == null) {
+        // Only copied here, the copy shares the curves of the zone's VBL until that changes
+        topology = new TopologyDigest(List.of(new Area(zone.getTopology())));
+      }
+      return topology;
+    }
+  }
 
-      for (Token vblToken : vblTokens) {
-        tokenTopology.add(vblToken.getTransformedVBL());
+  /**
+   * Get the tokens VBL alone, to be digested on first use. It is digested again after a token's
+   * VBL changes, which is quick as long as there are far fewer VBL tokens than map VBL.
+   *
+   * @return the tokens VBL, or null if no token has VBL.
+   */
+  private TopologyDigest getTokenTopology() {
+    synchronized (topologyLock) {
+      if (tokenTopology == null && !getTokenVBLMap().isEmpty()) {
+        tokenTopology = new TopologyDigest(tokenVBLMap.values());
       }
+      return tokenTopology;
+    }
+  }
 
-      topologyTree = new AreaTree(tokenTopology);
-    } else if (topologyTree == null) {
-      topologyTree = new AreaTree(zone.getTopology());
+  private Map<GUID, Area> getTokenVBLMap() {
+    synchronized (topologyLock) {
+      if (tokenVBLMap == null) {
+        tokenVBLMap = new HashMap<>();
+        for (Token vblToken : zone.getTokensWithVBL()) {
+          tokenVBLMap.put(vblToken.getId(), vblToken.getTransformedVBL());
+        }
+      }
+      return tokenVBLMap;
     }
+  }
 
-    return topologyTree;
+  /**
+   * Return the visible area for an origin and a lightSourceArea, past the map VBL and the tokens
+   * VBL.
+   *
+   * @param p the vision origin.
+   * @param vision the lightSourceArea.
+   * @param snapshot the snapshot holding the topology.
+   * @return the visible area.
+   */
+  private Area calculateVisibility(Point p, Area vision, VisionSnapshot snapshot) {
+    return FogUtil.calculateVisibility(
+        p.x, p.y, vision, snapshot.getTopology(), snapshot.getTokenTopology());
   }
 
   // Jamz: This function and such "AreaData" never seems to get used...either old or future code?
@@ -167,27 +447,32 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
 
   /**
    * Return the lightSourceArea of a lightSourceToken for a given sight type. Fill the
-   * lightSourceCache entry if null.
+   * lightSourceCache entry if null. The cache entry of a token is thrown away whenever the token
+   * changes, and so is the whole cache when the topology changes, so the areas are calculated once
+   * per token position, sight type and topology.
    *
    * @param sightName the name of the sight type for which to get the light source area
    * @param lightSourceToken the token holding the light sources.
-   * @return the lightSourceArea.
+   * @param snapshot the snapshot the token is from.
+   * @return the lightSourceArea. Not to be changed, it may be cached.
    */
-  private Map<Double, Area> getLightSourceArea(String sightName, Token lightSourceToken) {
+  private Map<Double, Area> getLightSourceArea(
+      String sightName, Token lightSourceToken, VisionSnapshot snapshot) {
     GUID tokenId = lightSourceToken.getId();
-    Map<String, Map<Double, Area>> areaBySightMap = lightSourceCache.get(tokenId);
-    if (areaBySightMap != null) {
+    Map<String, Map<Double, Area>> areaBySightMap;
+    synchronized (this) {
+      areaBySightMap = lightSourceCache.computeIfAbsent(tokenId, k -> new HashMap<>());
       Map<Double, Area> lightSourceArea = areaBySightMap.get(sightName);
       if (lightSourceArea != null) {
         return lightSourceArea;
       }
-    } else {
-      areaBySightMap = new HashMap<>();
-      lightSourceCache.put(lightSourceToken.getId(), areaBySightMap);
     }
 
     // Calculate
     TreeMap<Double, Area> lightSourceAreaMap = new TreeMap<Double, Area>();
+    Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
+    Set<Area> brightLightSet = new HashSet<Area>();
+    SightType sight = MapTool.getCampaign().getSightType(sightName);
 
     for (AttachedLightSource attachedLightSource : lightSourceToken.getLightSources()) {
       LightSource lightSource =
@@ -195,124 +480,186 @@ private Map<Double, Area> getLightSourceArea(String sightName, Token lightSource
       if (lightSource == null) {
         continue;
       }
-      SightType sight = MapTool.getCampaign().getSightType(sightName);
       Area visibleArea =
           calculateLightSourceArea(
-              lightSource, lightSourceToken, sight, attachedLightSource.getDirection());
+              lightSource,
+              lightSourceToken,
+              sight,
+              attachedLightSource.getDirection(),
+              lightSet,
+              brightLightSet,
+              snapshot);
 
       if (visibleArea != null && lightSource.getType() == LightSource.Type.NORMAL) {
         double lumens = lightSource.getLumens();
         if (lumens < 0) lumens = Math.abs(lumens) + .5;
 
         // Group all the light area's by lumens so there is only one area per lumen value
-        if (lightSourceAreaMap.containsKey(lumens)) {
-          visibleArea.add(lightSourceAreaMap.get(lumens));
+        Area sameLumens = lightSourceAreaMap.get(lumens);
+        if (sameLumens != null) {
+          // The lit areas are cached, so add them up in a new one
+          visibleArea = new Area(visibleArea);
+          visibleArea.add(sameLumens);
         }
         lightSourceAreaMap.put(lumens, visibleArea);
       }
     }
 
-    // Cache
-    areaBySightMap.put(sightName, lightSourceAreaMap);
+    // Cache, unless the token or the topology changed after the snapshot was taken
+    synchronized (this) {
+      if (lightSourceCache.get(tokenId) == areaBySightMap
+          && topologyVersion == snapshot.getTopologyVersion()
+          && visionVersion == snapshot.getVisionVersion()) {
+        areaBySightMap.put(sightName, lightSourceAreaMap);
+        drawableLightCache.computeIfAbsent(tokenId, k -> new HashMap<>()).put(sightName, lightSet);
+        brightLightCache
+            .computeIfAbsent(tokenId, k -> new HashMap<>())
+            .put(sightName, brightLightSet);
+      }
+    }
     return lightSourceAreaMap;
   }
 
   /**
-   * Calculate the area visible by a sight type for a given light, and put the lights in
-   * drawableLightCache and brightLightCache.
+   * Get the areas lit by the normal light sources of tokens as seen by a sight type, combined by
+   * lumens. The tokens whose light sources aren't cached are calculated in parallel.
    *
-   * @param lightSource the personal light source.
-   * @param lightSourceToken the token holding the light source.
-   * @param sight the sight type.
-   * @param direction the direction of the light source.
-   * @return the area visible.
+   * @param sightName the name of the sight type.
+   * @param lightSourceTokens the tokens holding the light sources.
+   * @param snapshot the snapshot the tokens are from.
+   * @return the areas by lumens, as in {@link #getLightSourceArea}. The map can be changed, the
+   *     areas can not.
    */
-  private Area calculatePersonalLightSourceArea(
-      LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-    return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, true);
+  private SortedMap<Double, Area> getLightAreas(
+      String sightName, List<Token> lightSourceTokens, VisionSnapshot snapshot) {
+    if (lightSourceTokens.isEmpty()) {
+      return new TreeMap<Double, Area>();
+    }
+    CombineLightsTask task =
+        new CombineLightsTask(
+            sightName, lightSourceTokens, snapshot, 0, lightSourceTokens.size());
+    // From the background, the task can split up in whatever pool it is already running in
+    return ForkJoinTask.inForkJoinPool() ? task.invoke() : lightsPool.invoke(task);
   }
 
   /**
-   * Calculate the area visible by a sight type for a given light, and put the lights in
-   * drawableLightCache and brightLightCache.
+   * Calculate the area visible by a sight type for a given lightSource, and collect its colored and
+   * bright lights.
    *
-   * @param lightSource the light source. Not a personal light.
+   * @param lightSource the light source.
    * @param lightSourceToken the token holding the light source.
    * @param sight the sight type.
    * @param direction the direction of the light source.
-   * @return the area visible.
+   * @param lightSet the set to add the colored lights to.
+   * @param brightLightSet the set to add the bright lights to.
+   * @param snapshot the snapshot the token is from.
+   * @return the area visible. Not to be changed, it is cached.
    */
   private Area calculateLightSourceArea(
-      LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-    return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, false);
+      LightSource lightSource,
+      Token lightSourceToken,
+      SightType sight,
+      Direction direction,
+      Set<DrawableLight> lightSet,
+      Set<Area> brightLightSet,
+      VisionSnapshot snapshot) {
+    if (sight == null) {
+      return null;
+    }
+    LightAreaCache.LitArea litArea =
+        getLitArea(lightSource, lightSourceToken, sight.getMultiplier(), direction, snapshot);
+    lightSet.addAll(litArea.lights);
+    brightLightSet.addAll(litArea.brightLights);
+    return litArea.area;
   }
 
   /**
-   * Calculate the area visible by a sight type for a given lightSource, and put the lights in
-   * drawableLightCache and brightLightCache.
+   * Get the area lit by a light source from the lightAreaCache, and calculate it if it isn't there.
    *
-   * @param lightSource the light source. Not a personal light.
+   * @param lightSource the light source.
    * @param lightSourceToken the token holding the light source.
-   * @param sight the sight type.
+   * @param multiplier the multiplier of the sight type the light is seen by.
    * @param direction the direction of the light source.
-   * @param isPersonalLight is the light a personal light?
-   * @return the area visible.
+   * @param snapshot the snapshot the token is from.
+   * @return the lit area.
    */
-  private Area calculateLightSourceArea(
+  private LightAreaCache.LitArea getLitArea(
       LightSource lightSource,
       Token lightSourceToken,
-      SightType sight,
+      double multiplier,
       Direction direction,
-      boolean isPersonalLight) {
-    if (sight == null) {
-      return null;
+      VisionSnapshot snapshot) {
+    LightAreaCache.Key key =
+        LightAreaCache.Key.of(
+            lightSource,
+            lightSourceToken,
+            zone,
+            direction,
+            multiplier,
+            snapshot.getTopologyVersion());
+    LightAreaCache.LitArea litArea = snapshot.isStale() ? null : lightAreaCache.get(key);
+    if (litArea != null) {
+      return litArea;
     }
+
     Point p = FogUtil.calculateVisionCenter(lightSourceToken, zone);
     Area lightSourceArea = lightSource.getArea(lightSourceToken, zone, direction);
 
     // Calculate exposed area
     // Jamz: OK, let not have lowlight vision type multiply darkness radius
-    if (sight.getMultiplier() != 1 && lightSource.getLumens() >= 0) {
-      lightSourceArea.transform(
-          AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
+    if (multiplier != 1 && lightSource.getLumens() >= 0) {
+      lightSourceArea.transform(AffineTransform.getScaleInstance(multiplier, multiplier));
     }
-    Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopologyTree());
+    Area visibleArea = calculateVisibility(p, lightSourceArea, snapshot);
 
+    Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
+    Set<Area> brightLightSet = new HashSet<Area>();
     if (visibleArea != null && lightSource.getType() == LightSource.Type.NORMAL) {
-      addLightSourceToCache(
-          visibleArea, p, lightSource, lightSourceToken, sight, direction, isPersonalLight);
+      collectLights(
+          visibleArea,
+          p,
+          lightSource,
+          lightSourceToken,
+          multiplier,
+          direction,
+          lightSet,
+          brightLightSet);
     }
-    return visibleArea;
+    // A light seen past VBL that changed after the snapshot is cached under the old topology
+    // version, so it is never found again
+    litArea = new LightAreaCache.LitArea(visibleArea, lightSet, brightLightSet);
+    if (!snapshot.isStale()) {
+      lightAreaCache.put(key, litArea);
+    }
+    return litArea;
   }
 
   /**
-   * Adds the light source as seen by a given sight to the corresponding cache. Lights with a color
-   * CSS value are stored in the drawableLightCache, while lights without are stored in
-   * brightLightCache.
+   * Collects the light source as seen by a given sight. Lights with a color CSS value are added to
+   * the lightSet, while lights without are added to the brightLightSet.
    *
    * @param visibleArea the area visible from the light source token
    * @param p the vision center of the light source token
    * @param lightSource the light source
    * @param lightSourceToken the light source token
-   * @param sight the sight
+   * @param multiplier the multiplier of the sight
    * @param direction the direction of the light source
+   * @param lightSet the set to add the colored lights to
+   * @param brightLightSet the set to add the bright lights to
    */
-  private void addLightSourceToCache(
+  private void collectLights(
       Area visibleArea,
       Point p,
       LightSource lightSource,
       Token lightSourceToken,
-      SightType sight,
+      double multiplier,
       Direction direction,
-      boolean isPersonalLight) {
-    // Keep track of colored light
-    Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
-    Set<Area> brightLightSet = new HashSet<Area>();
+      Set<DrawableLight> lightSet,
+      Set<Area> brightLightSet) {
     for (Light light : lightSource.getLightList()) {
       Area lightArea = lightSource.getArea(lightSourceToken, zone, direction, light);
-      if (sight.getMultiplier() != 1) {
-        lightArea.transform(
-            AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
+      if (multiplier != 1) {
+        lightArea.transform(AffineTransform.getScaleInstance(multiplier, multiplier));
       }
       lightArea.transform(AffineTransform.getTranslateInstance(p.x, p.y));
       lightArea.intersect(visibleArea);
@@ -323,55 +670,92 @@ private void addLightSourceToCache(
         brightLightSet.add(lightArea);
       }
     }
-    // FIXME There was a bug report of a ConcurrentModificationException regarding
-    // drawableLightCache.
-    // I don't see how, but perhaps this code -- and the ones in flush() and flush(Token) -- should
-    // be
-    // wrapped in a synchronization block? This method is probably called only on the same thread as
-    // getDrawableLights() but the two flush() methods may be called from different threads. How to
-    // verify this with Eclipse? Maybe the flush() methods should defer modifications to the
-    // EventDispatchingThread?
-    if (isPersonalLight) {
-      personalDrawableLightCache.put(lightSourceToken.getId(), lightSet);
-    } else {
-      Map<String, Set<DrawableLight>> lightMap =
-          drawableLightCache.computeIfAbsent(lightSourceToken.getId(), k -> new HashMap<>());
-      if (lightMap.get(sight.getName()) != null) {
-        lightMap.get(sight.getName()).addAll(lightSet);
-      } else {
-        lightMap.put(sight.getName(), lightSet);
+  }
+
+  /**
+   * Return the token visible area from tokenVisionCache. If null, create it.
+   *
+   * @param token the token to get the visible area of.
+   * @return the visible area of a token, including the effect of other lights.
+   */
+  public Area getVisibleArea(Token token) {
+    // Sanity
+    if (token == null || !token.getHasSight()) {
+      return null;
+    }
+    synchronized (this) {
+      // Cache ?
+      Area tokenVisibleArea = tokenVisionCache.get(token.getId());
+      if (tokenVisibleArea != null) return tokenVisibleArea;
+    }
+    return getVisibleArea(token, takeSnapshot(List.of(token), false));
+  }
+
+  /**
+   * Get the visible area of a token without waiting for it to be calculated, for the renderer. If
+   * it isn't cached, it is calculated in the background from a snapshot and null is returned
+   * meanwhile.
+   *
+   * @param token the token to get the visible area of.
+   * @param onUpdate run from the background once the visible area has been calculated.
+   * @return the visible area of the token, or null if it isn't there yet or the token can't see.
+   */
+  public Area getLastVisibleArea(Token token, Runnable onUpdate) {
+    if (token == null || !token.getHasSight()) {
+      return null;
+    }
+    GUID tokenId = token.getId();
+    synchronized (this) {
+      Area tokenVisibleArea = tokenVisionCache.get(tokenId);
+      if (tokenVisibleArea != null || pendingTokens.contains(tokenId)) {
+        return tokenVisibleArea;
       }
     }
-    if (isPersonalLight) {
-      personalBrightLightCache.put(lightSourceToken.getId(), brightLightSet);
-    } else {
-      Map<String, Set<Area>> brightLightMap =
-          brightLightCache.computeIfAbsent(lightSourceToken.getId(), k -> new HashMap<>());
-      if (brightLightMap.get(sight.getName()) != null) {
-        brightLightMap.get(sight.getName()).addAll(brightLightSet);
-      } else {
-        brightLightMap.put(sight.getName(), brightLightSet);
+    VisionSnapshot snapshot = takeSnapshot(List.of(token), true);
+    synchronized (this) {
+      if (!pendingTokens.add(tokenId)) {
+        return null;
       }
     }
+    lightsPool.execute(
+        () -> {
+          try {
+            getVisibleArea(snapshot.getSightTokens().get(0), snapshot);
+          } catch (RuntimeException e) {
+            log.error("Could not calculate the visible area", e);
+            return;
+          } finally {
+            synchronized (this) {
+              pendingTokens.remove(tokenId);
+            }
+          }
+          onUpdate.run();
+        });
+    return null;
   }
 
   /**
-   * Return the token visible area from tokenVisionCache. If null, create it.
+   * Return the token visible area from tokenVisionCache. If null, create it from a snapshot.
    *
-   * @param token the token to get the visible area of.
+   * @param token the token to get the visible area of, from the snapshot.
+   * @param snapshot the snapshot to calculate the vision from.
    * @return the visible area of a token, including the effect of other lights.
    */
-  public Area getVisibleArea(Token token) {
+  private Area getVisibleArea(Token token, VisionSnapshot snapshot) {
     // Sanity
     if (token == null || !token.getHasSight()) {
       return null;
     }
 
-    // Cache ?
-    Area tokenVisibleArea = tokenVisionCache.get(token.getId());
-    // System.out.println("tokenVisionCache size? " + tokenVisionCache.size());
+    Area tokenVisibleArea;
+    long version = snapshot.getVisionVersion();
+    synchronized (this) {
+      // Cache ?
+      tokenVisibleArea = tokenVisionCache.get(token.getId());
+      if (tokenVisibleArea != null) return tokenVisibleArea;
 
-    if (tokenVisibleArea != null) return tokenVisibleArea;
+      tokenVisibleArea = tokenVisibleAreaCache.get(token.getId());
+    }
 
     SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
     // More sanity checks; maybe sight type removed from campaign after token set?
@@ -381,71 +765,65 @@ public Area getVisibleArea(Token token) {
     }
 
     // Combine the player visible area with the available light sources
-    tokenVisibleArea = tokenVisibleAreaCache.get(token.getId());
     if (tokenVisibleArea == null) {
       Point p = FogUtil.calculateVisionCenter(token, zone);
       Area visibleArea = sight.getVisionShape(token, zone);
-      tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopologyTree());
+      tokenVisibleArea = calculateVisibility(p, visibleArea, snapshot);
 
-      tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+      synchronized (this) {
+        if (visionVersion == version) {
+          tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+        }
+      }
     }
 
-    // Stopwatch stopwatch = Stopwatch.createStarted();
-
     // Combine in the visible light areas
     // Jamz TODO: add condition for daylight and darkness! Currently no darkness in daylight
-    if (tokenVisibleArea != null && zone.getVisionType() == Zone.VisionType.NIGHT) {
+    if (tokenVisibleArea != null && snapshot.getVisionType() == Zone.VisionType.NIGHT) {
       Rectangle2D origBounds = tokenVisibleArea.getBounds();
-      List<Token> lightSourceTokens = new ArrayList<Token>();
-
-      // Add the tokens from the lightSourceMap with normal (not aura) lights
-      if (lightSourceMap.get(LightSource.Type.NORMAL) != null) {
-        for (GUID lightSourceTokenId : lightSourceMap.get(LightSource.Type.NORMAL)) {
-          Token lightSourceToken = zone.getToken(lightSourceTokenId);
-          // Verify if the token still exists
-          if (lightSourceToken != null) {
-            lightSourceTokens.add(lightSourceToken);
-          }
-        }
-      }
+      // The tokens from the lightSourceMap with normal (not aura) lights
+      List<Token> lightSourceTokens = new ArrayList<Token>(snapshot.getLightSourceTokens());
 
       if (token.hasLightSources() && !lightSourceTokens.contains(token)) {
         // This accounts for temporary tokens (such as during an Expose Last Path)
         lightSourceTokens.add(token);
       }
 
-      // stopwatch.reset();
-      // stopwatch.start();
       // Jamz: Iterate through all tokens and combine light areas by lumens
-      CombineLightsSwingWorker workerThread =
-          new CombineLightsSwingWorker(token.getSightType(), lightSourceTokens);
-      workerThread.execute();
-      try {
-        workerThread
-            .get(); // Jamz: We need to wait for this thread (which spawns more threads) to finish
-        // before we go on
-      } catch (InterruptedException | ExecutionException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-
-      // log.info("CombineLightsSwingWorker: \t" + stopwatch);
+      SortedMap<Double, Area> allLightAreaMap =
+          getLightAreas(token.getSightType(), lightSourceTokens, snapshot);
 
       // Check for personal vision and add to overall light map
       if (sight.hasPersonalLightSource()) {
+        Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
+        Set<Area> brightLightSet = new HashSet<Area>();
         Area lightArea =
-            calculatePersonalLightSourceArea(
-                sight.getPersonalLightSource(), token, sight, Direction.CENTER);
+            calculateLightSourceArea(
+                sight.getPersonalLightSource(),
+                token,
+                sight,
+                Direction.CENTER,
+                lightSet,
+                brightLightSet,
+                snapshot);
+        synchronized (this) {
+          if (visionVersion == version) {
+            personalDrawableLightCache.put(token.getId(), lightSet);
+            personalBrightLightCache.put(token.getId(), brightLightSet);
+          }
+        }
         if (lightArea != null) {
           double lumens = sight.getPersonalLightSource().getLumens();
           lumens = (lumens == 0) ? LUMEN_VISION : lumens;
           // maybe some kind of imposed blindness?  Anyway, make sure to handle personal darkness..
           if (lumens < 0) lumens = Math.abs(lumens) + .5;
-          if (allLightAreaMap.containsKey(lumens)) {
-            allLightAreaMap.get(lumens).add(lightArea);
-          } else {
-            allLightAreaMap.put(lumens, lightArea);
+          // Both areas may be cached, so add them up in a new one
+          Area sameLumens = allLightAreaMap.get(lumens);
+          if (sameLumens != null) {
+            lightArea = new Area(lightArea);
+            lightArea.add(sameLumens);
           }
+          allLightAreaMap.put(lumens, lightArea);
         }
       }
 
@@ -473,116 +851,92 @@ public Area getVisibleArea(Token token) {
       tokenVisibleArea = allLightArea;
     }
 
-    allLightAreaMap.clear(); // Dispose of object, only needed for the scope of this method
-    tokenVisionCache.put(token.getId(), tokenVisibleArea);
-
-    // log.info("getVisibleArea: \t\t" + stopwatch);
-
-    return tokenVisibleArea;
-  }
-
-  private class CombineLightsSwingWorker extends SwingWorker<Void, List<Token>> {
-    private final String sightName;
-    private final List<Token> lightSourceTokens;
-    private final ExecutorService lightsThreadPool;
-    private final long startTime = System.currentTimeMillis();
-
-    private CombineLightsSwingWorker(String sightName, List<Token> lightSourceTokens) {
-      this.sightName = sightName;
-      this.lightSourceTokens = lightSourceTokens;
-      lightsThreadPool = Executors.newCachedThreadPool();
-    }
-
-    @Override
-    protected Void doInBackground() throws Exception {
-      for (Token lightSourceToken : lightSourceTokens) {
-        CombineLightsTask task = new CombineLightsTask(sightName, lightSourceToken);
-        lightsThreadPool.submit(task);
+    synchronized (this) {
+      if (visionVersion == version) {
+        tokenVisionCache.put(token.getId(), tokenVisibleArea);
       }
-
-      lightsThreadPool.shutdown();
-      lightsThreadPool.awaitTermination(3, TimeUnit.MINUTES);
-
-      return null;
-    }
-
-    @Override
-    public void done() {
-      lightsThreadPool.shutdown(); // always reclaim resources just in case?
-      // System.out.println("Time to calculated lights for token: " + baseToken.getName() + ", " +
-      // (System.currentTimeMillis() - startTime) + "ms");
-
-      return;
     }
+    return tokenVisibleArea;
   }
 
   /**
-   * @author Jamz
-   *     <p>A Callable task add to the ExecutorCompletionService to combine lights as a threaded
-   *     task
+   * A task to combine the lights of a range of tokens by lumens. It splits up into a task per
+   * token, which run in parallel, and the lights are combined as the tasks join again.
    */
-  private final class CombineLightsTask implements Callable<Map<Double, Area>> {
+  private final class CombineLightsTask extends RecursiveTask<SortedMap<Double, Area>> {
     private final String sightName;
-    private final Token lightSourceToken;
-
-    private CombineLightsTask(String sightName, Token lightSourceToken) {
+    private final List<Token> lightSourceTokens;
+    private final VisionSnapshot snapshot;
+    private final int from;
+    private final int to;
+
+    private CombineLightsTask(
+        String sightName,
+        List<Token> lightSourceTokens,
+        VisionSnapshot snapshot,
+        int from,
+        int to) {
       this.sightName = sightName;
-      this.lightSourceToken = lightSourceToken;
+      this.lightSourceTokens = lightSourceTokens;
+      this.snapshot = snapshot;
+      this.from = from;
+      this.to = to;
     }
 
     @Override
-    public Map<Double, Area> call() {
-      Map<Double, Area> lightArea = getLightSourceArea(sightName, lightSourceToken);
-
-      for (Entry<Double, Area> light : lightArea.entrySet()) {
-        // Area tempArea = light.getValue();
-        Path2D path = new Path2D.Double();
-        path.append(light.getValue().getPathIterator(null, 1), false);
-
-        synchronized (allLightAreaMap) {
-          if (allLightAreaMap.containsKey(light.getKey())) {
-            // Area allLight = allLightAreaMap.get(light.getKey());
-            // tempArea.add(allLight);
-
-            // Path2D is faster than Area it looks like
-            path.append(allLightAreaMap.get(light.getKey()).getPathIterator(null, 1), false);
-          }
-
-          // allLightAreaMap.put(light.getKey(), tempArea);
-          allLightAreaMap.put(light.getKey(), new Area(path));
+    protected SortedMap<Double, Area> compute() {
+      if (to - from == 1) {
+        return new TreeMap<Double, Area>(
+            getLightSourceArea(sightName, lightSourceTokens.get(from), snapshot));
+      }
+      int middle = (from + to) >>> 1;
+      CombineLightsTask first =
+          new CombineLightsTask(sightName, lightSourceTokens, snapshot, from, middle);
+      first.fork();
+      SortedMap<Double, Area> lights =
+          new CombineLightsTask(sightName, lightSourceTokens, snapshot, middle, to).compute();
+      SortedMap<Double, Area> allLights = first.join();
+
+      for (Entry<Double, Area> light : lights.entrySet()) {
+        Area sameLumens = allLights.get(light.getKey());
+        if (sameLumens == null) {
+          allLights.put(light.getKey(), light.getValue());
+        } else {
+          // Path2D is faster than Area it looks like
+          Path2D path = new Path2D.Double();
+          path.append(light.getValue().getPathIterator(null, 1), false);
+          path.append(sameLumens.getPathIterator(null, 1), false);
+          allLights.put(light.getKey(), new Area(path));
         }
       }
-
-      return lightArea;
+      return allLights;
     }
   }
 
   /**
-   * Get the lists of drawable light from lightSourceMap.
+   * Get the lists of drawable light from lightSourceMap, for the renderer. Until VBL that changed
+   * is digested in the background, they are lit past the VBL digested before.
    *
    * @param type the type of lights to get.
+   * @param onUpdate run from the background once the VBL that changed is digested.
    * @return the list of drawable lights of the given type.
    */
-  public List<DrawableLight> getLights(LightSource.Type type) {
+  public List<DrawableLight> getLights(LightSource.Type type, Runnable onUpdate) {
     List<DrawableLight> lightList = new LinkedList<DrawableLight>();
-    if (lightSourceMap.get(type) != null) {
+    VisionSnapshot snapshot = takeRenderSnapshot(onUpdate);
+    if (snapshot != null && lightSourceMap.get(type) != null) {
       for (GUID lightSourceToken : lightSourceMap.get(type)) {
         Token token = zone.getToken(lightSourceToken);
         if (token == null) {
           continue;
         }
-        Point p = FogUtil.calculateVisionCenter(token, zone);
-
         for (AttachedLightSource als : token.getLightSources()) {
           LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
           if (lightSource == null) {
             continue;
           }
           if (lightSource.getType() == type) {
-            // This needs to be cached somehow
-            Area lightSourceArea = lightSource.getArea(token, zone, Direction.CENTER);
-            Area visibleArea =
-                FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopologyTree());
+            Area visibleArea = getLitArea(lightSource, token, 1, Direction.CENTER, snapshot).area;
             if (visibleArea == null) {
               continue;
             }
@@ -616,8 +970,8 @@ public List<DrawableLight> getLights(LightSource.Type type) {
   private void findLightSources() {
     lightSourceMap.clear();
 
-    for (Token token : zone.getAllTokens()) {
-      if (token.hasLightSources() && token.isVisible()) {
+    for (Token token : zone.getTokensWithLights()) {
+      if (token.isVisible()) {
         if (!token.isVisibleOnlyToOwner() || AppUtil.playerOwns(token)) {
           for (AttachedLightSource als : token.getLightSources()) {
             LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
@@ -639,7 +993,7 @@ private void findLightSources() {
    * @param view the player view for which to get the personal bright lights.
    * @return the set of drawable lights.
    */
-  public Set<DrawableLight> getDrawableLights(PlayerView view) {
+  public synchronized Set<DrawableLight> getDrawableLights(PlayerView view) {
     Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
 
     for (Map<String, Set<DrawableLight>> map : drawableLightCache.values()) {
@@ -665,12 +1019,9 @@ public Set<DrawableLight> getDrawableLights(PlayerView view) {
    * @param view the player view for which to get the personal bright lights.
    * @return the set of bright lights.
    */
-  public Set<Area> getBrightLights(PlayerView view) {
+  public synchronized Set<Area> getBrightLights(PlayerView view) {
     Set<Area> lightSet = new HashSet<Area>();
-    // MJ: There seems to be contention for this cache, but that looks inconspicuous enough to
-    // try this easy way out. Better: solve the synchronization issues.
-    List<Map<String, Set<Area>>> copy = new ArrayList<>(brightLightCache.values());
-    for (Map<String, Set<Area>> map : copy) {
+    for (Map<String, Set<Area>> map : brightLightCache.values()) {
       for (Set<Area> set : map.values()) {
         lightSet.addAll(set);
       }
@@ -691,7 +1042,8 @@ public Set<Area> getBrightLights(PlayerView view) {
    * Clear the tokenVisibleAreaCache, tokenVisionCache, lightSourceCache, visibleAreaMap,
    * drawableLightCache, brightLightCache, and personal drawable/bright light caches.
    */
-  public void flush() {
+  public synchronized void flush() {
+    visionVersion++;
     tokenVisibleAreaCache.clear();
     tokenVisionCache.clear();
     lightSourceCache.clear();
@@ -709,9 +1061,10 @@ public void flush() {
    *
    * @param token the token to flush.
    */
-  public void flush(Token token) {
+  public synchronized void flush(Token token) {
     boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
 
+    visionVersion++;
     tokenVisionCache.remove(token.getId());
     tokenVisibleAreaCache.remove(token.getId());
     lightSourceCache.remove(token.getId());
@@ -730,31 +1083,179 @@ public void flush(Token token) {
   }
 
   /**
-   * Construct the visibleAreaMap entry for a player view.
+   * Flush the vision and lights that VBL appearing or going away in a part of the map can change.
+   * Vision and lights spread out in straight lines from their origin, so VBL that doesn't touch
+   * what they reach can neither block nor uncover any of it.
    *
-   * @param view the player view.
+   * @param changed the part of the map where VBL changed.
    */
-  private void calculateVisibleArea(PlayerView view) {
-    if (visibleAreaMap.get(view) != null
-        && visibleAreaMap.get(view).visibleArea.getBounds().getCenterX() != 0.0d) {
-      return;
+  private synchronized void flush(Rectangle changed) {
+    Rectangle region = new Rectangle(changed);
+    // VBL that only touches what is seen still counts
+    region.grow(2, 2);
+
+    // Whatever is being calculated right now may have seen the old VBL
+    long fromVersion = topologyVersion++;
+    visionVersion++;
+    lightAreaCache.moveOn(fromVersion, topologyVersion, region);
+
+    boolean lightsChanged = false;
+    for (Iterator<Entry<GUID, Map<String, Map<Double, Area>>>> iter =
+            lightSourceCache.entrySet().iterator();
+        iter.hasNext(); ) {
+      Entry<GUID, Map<String, Map<Double, Area>>> entry = iter.next();
+      if (reaches(entry.getValue(), region)) {
+        iter.remove();
+        drawableLightCache.remove(entry.getKey());
+        brightLightCache.remove(entry.getKey());
+        lightsChanged = true;
+      }
     }
-    // Cache it
-    VisibleAreaMeta meta = new VisibleAreaMeta();
-    meta.visibleArea = new Area();
 
-    visibleAreaMap.put(view, meta);
+    Set<GUID> visionChanged = new HashSet<GUID>();
+    for (Iterator<Entry<GUID, Area>> iter = tokenVisibleAreaCache.entrySet().iterator();
+        iter.hasNext(); ) {
+      Entry<GUID, Area> entry = iter.next();
+      // A token that couldn't see anything may see something now
+      if (entry.getValue() == null || entry.getValue().getBounds().intersects(region)) {
+        iter.remove();
+        visionChanged.add(entry.getKey());
+      }
+    }
+    for (Entry<GUID, Set<Area>> entry : personalBrightLightCache.entrySet()) {
+      for (Area area : entry.getValue()) {
+        if (area.getBounds().intersects(region)) {
+          visionChanged.add(entry.getKey());
+        }
+      }
+    }
+    for (Entry<GUID, Set<DrawableLight>> entry : personalDrawableLightCache.entrySet()) {
+      for (DrawableLight light : entry.getValue()) {
+        if (light.getArea().getBounds().intersects(region)) {
+          visionChanged.add(entry.getKey());
+        }
+      }
+    }
 
-    // Calculate it
+    if (lightsChanged) {
+      // Any token may see by the lights that changed
+      tokenVisionCache.clear();
+    }
+    for (GUID tokenId : visionChanged) {
+      tokenVisibleAreaCache.remove(tokenId);
+      tokenVisionCache.remove(tokenId);
+      personalBrightLightCache.remove(tokenId);
+      personalDrawableLightCache.remove(tokenId);
+    }
+    if (lightsChanged || !visionChanged.isEmpty()) {
+      visibleAreaMap.clear();
+    }
+  }
+
+  /**
+   * @param lightAreas the light areas of a token by sight type, see {@link #lightSourceCache}
+   * @param region the part of the map
+   * @return true if the lights reach into the region, or if one of them can't be seen at all
+   */
+  private static boolean reaches(Map<String, Map<Double, Area>> lightAreas, Rectangle region) {
+    for (Map<Double, Area> areas : lightAreas.values()) {
+      if (areas.isEmpty()) {
+        return true;
+      }
+      for (Area area : areas.values()) {
+        if (area.getBounds().intersects(region)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Bring the VBL of the tokens up to date after tokens were added, changed or removed. The tokens
+   * VBL topology is digested again on next use if any of it changed.
+   *
+   * @param tokens the tokens to check.
+   * @param removed true if the tokens were removed from the zone.
+   * @return the part of the map where VBL appeared or went away, or null if no VBL changed.
+   */
+  private Rectangle updateTokenVBL(List<Token> tokens, boolean removed) {
+    synchronized (topologyLock) {
+      if (tokenVBLMap == null) {
+        // Nothing has been seen through the tokens VBL yet
+        return null;
+      }
+      Rectangle changed = null;
+      for (Token token : tokens) {
+        Area vbl = !removed && token.hasVBL() ? token.getTransformedVBL() : null;
+        changed = updateTokenVBL(token.getId(), vbl, changed);
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * Bring the VBL of all tokens up to date, for when it isn't known which tokens changed.
+   *
+   * @return the part of the map where VBL appeared or went away, or null if no VBL changed.
+   */
+  private Rectangle updateTokenVBL() {
+    synchronized (topologyLock) {
+      if (tokenVBLMap == null) {
+        return null;
+      }
+      Rectangle changed = null;
+      Set<GUID> gone = new HashSet<GUID>(tokenVBLMap.keySet());
+      for (Token token : zone.getTokensWithVBL()) {
+        gone.remove(token.getId());
+        changed = updateTokenVBL(token.getId(), token.getTransformedVBL(), changed);
+      }
+      for (GUID tokenId : gone) {
+        changed = updateTokenVBL(tokenId, null, changed);
+      }
+      return changed;
+    }
+  }
+
+  private Rectangle updateTokenVBL(GUID tokenId, Area vbl, Rectangle changed) {
+    Area oldVBL = tokenVBLMap.get(tokenId);
+    if (oldVBL == null ? vbl == null : vbl != null && oldVBL.equals(vbl)) {
+      return changed;
+    }
+    for (Area area : new Area[] {oldVBL, vbl}) {
+      if (area != null) {
+        changed = changed == null ? area.getBounds() : changed.union(area.getBounds());
+      }
+    }
+    if (vbl == null) {
+      tokenVBLMap.remove(tokenId);
+    } else {
+      tokenVBLMap.put(tokenId, vbl);
+    }
+    if (tokenTopology != null && tokenTopology.isDigested()) {
+      lastDigestedTokenTopology = tokenTopology;
+    }
+    tokenTopology = null;
+    combinedTopology = null;
+    return changed;
+  }
+
+  /**
+   * Get the tokens whose vision makes up the visible area of a player view.
+   *
+   * @param view the player view.
+   * @return the tokens.
+   */
+  private List<Token> getSightTokens(PlayerView view) {
     final boolean isGMview = view.isGMView();
     final boolean checkOwnership =
         MapTool.getServerPolicy().isUseIndividualViews() || MapTool.isPersonalServer();
     List<Token> tokenList =
         view.isUsingTokenView()
             ? view.getTokens()
-            : zone.getTokensFiltered(
-                t -> t.isToken() && t.getHasSight() && (isGMview || t.isVisible()));
+            : zone.getTokensWithSight(t -> t.isToken() && (isGMview || t.isVisible()));
 
+    List<Token> sightTokens = new ArrayList<Token>(tokenList.size());
     for (Token token : tokenList) {
       boolean weOwnIt = AppUtil.playerOwns(token);
       // Permission
@@ -772,14 +1273,26 @@ private void calculateVisibleArea(PlayerView view) {
       if (token.isVisibleOnlyToOwner() && !weOwnIt) {
         continue;
       }
-      Area tokenVision = getVisibleArea(token);
+      sightTokens.add(token);
+    }
+    return sightTokens;
+  }
+
+  /**
+   * Calculate the visible area of a player view, from the vision of its tokens.
+   *
+   * @param snapshot the snapshot holding the tokens of the view, see {@link #getSightTokens}.
+   * @return the visible area.
+   */
+  private Area calculateVisibleArea(VisionSnapshot snapshot) {
+    Area visibleArea = new Area();
+    for (Token token : snapshot.getSightTokens()) {
+      Area tokenVision = getVisibleArea(token, snapshot);
       if (tokenVision != null) {
-        meta.visibleArea.add(tokenVision);
+        visibleArea.add(tokenVision);
       }
     }
-
-    // System.out.println("calculateVisibleArea: " + (System.currentTimeMillis() - startTime) +
-    // "ms");
+    return visibleArea;
   }
 
   /**
@@ -790,20 +1303,25 @@ private void calculateVisibleArea(PlayerView view) {
   @SuppressWarnings("unchecked")
   public void modelChanged(ModelChangeEvent event) {
     Object evt = event.getEvent();
+    if (evt == Zone.Event.GRID_CHANGED) {
+      // Lights take their shape and range from the grid. The event may come from the grid itself
+      synchronized (this) {
+        // Anything being calculated in the background may have seen the old grid
+        topologyVersion++;
+        visionVersion++;
+        lightAreaCache.clear();
+      }
+    }
     if (event.getModel() instanceof Zone) {
-      boolean tokenChangedVBL = false;
-
       if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
         if (event.getArg() instanceof List<?>) {
           @SuppressWarnings("unchecked")
           List<Token> list = (List<Token>) (event.getArg());
           for (Token token : list) {
-            if (token.hasVBL()) tokenChangedVBL = true;
             flush(token);
           }
         } else {
           final Token token = (Token) event.getArg();
-          if (token.hasVBL()) tokenChangedVBL = true;
           flush(token);
         }
         // Ug, stupid hack here, can't find a bug where if a NPC token is moved before lights are
@@ -821,7 +1339,7 @@ public void modelChanged(ModelChangeEvent event) {
           tokens = (List<Token>) o;
         }
 
-        tokenChangedVBL = processTokenAddChangeEvent(tokens);
+        processTokenAddChangeEvent(tokens);
       }
 
       if (evt == Zone.Event.TOKEN_REMOVED) {
@@ -834,16 +1352,18 @@ public void modelChanged(ModelChangeEvent event) {
           tokens = (List<Token>) o;
         }
 
-        for (Token token : tokens) {
-          if (token.hasVBL()) tokenChangedVBL = true;
-          for (AttachedLightSource als : token.getLightSources()) {
-            LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
-            if (lightSource == null) {
-              continue;
-            }
-            Set<GUID> lightSet = lightSourceMap.get(lightSource.getType());
-            if (lightSet != null) {
-              lightSet.remove(token.getId());
+        synchronized (this) {
+          for (Token token : tokens) {
+            for (AttachedLightSource als : token.getLightSources()) {
+              LightSource lightSource =
+                  MapTool.getCampaign().getLightSource(als.getLightSourceId());
+              if (lightSource == null) {
+                continue;
+              }
+              Set<GUID> lightSet = lightSourceMap.get(lightSource.getType());
+              if (lightSet != null) {
+                lightSet.remove(token.getId());
+              }
             }
           }
         }
@@ -851,18 +1371,45 @@ public void modelChanged(ModelChangeEvent event) {
 
       // Moved this event to the bottom so we can check the other events
       // since if a token that has VBL is added/removed/edited (rotated/moved/etc)
-      // it should also trip a Topology change
-      if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
-        tokenVisionCache.clear();
-        lightSourceCache.clear();
-        brightLightCache.clear();
-        drawableLightCache.clear();
-        personalBrightLightCache.clear();
-        personalDrawableLightCache.clear();
-        visibleAreaMap.clear();
-        topologyTree = null;
-        tokenTopology = null;
-        tokenVisibleAreaCache.clear();
+      // it should also trip a Topology change, but only for what can see or light up
+      // where the token's VBL was or is now
+      if (evt == Zone.Event.TOKEN_ADDED
+          || evt == Zone.Event.TOKEN_CHANGED
+          || evt == Zone.Event.TOKEN_REMOVED) {
+        Object o = event.getArg();
+        List<Token> tokens = o instanceof Token ? List.of((Token) o) : (List<Token>) o;
+        Rectangle changed = updateTokenVBL(tokens, evt == Zone.Event.TOKEN_REMOVED);
+        if (changed != null) {
+          flush(changed);
+        }
+      }
+      if (evt == Zone.Event.TOKEN_TOPOLOGY_CHANGED) {
+        Rectangle changed = updateTokenVBL();
+        if (changed != null) {
+          flush(changed);
+        }
+      }
+      if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+        synchronized (topologyLock) {
+          if (topology != null && topology.isDigested()) {
+            lastDigestedTopology = topology;
+          }
+          topology = null;
+          combinedTopology = null;
+        }
+        synchronized (this) {
+          topologyVersion++;
+          visionVersion++;
+          lightAreaCache.clear();
+          tokenVisionCache.clear();
+          lightSourceCache.clear();
+          brightLightCache.clear();
+          drawableLightCache.clear();
+          personalBrightLightCache.clear();
+          personalDrawableLightCache.clear();
+          visibleAreaMap.clear();
+          tokenVisibleAreaCache.clear();
+        }
 
         // topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
       }
@@ -874,17 +1421,14 @@ public void modelChanged(ModelChangeEvent event) {
    * the tokens has sight.
    *
    * @param tokens the list of tokens
-   * @return if one of the token has VBL or not
    */
-  private boolean processTokenAddChangeEvent(List<Token> tokens) {
+  private synchronized void processTokenAddChangeEvent(List<Token> tokens) {
     boolean hasSight = false;
-    boolean hasVBL = false;
     Campaign c = MapTool.getCampaign();
 
     for (Token token : tokens) {
       boolean hasLightSource =
           token.hasLightSources() && (token.isVisible() || MapTool.getPlayer().isEffectiveGM());
-      if (token.hasVBL()) hasVBL = true;
       for (AttachedLightSource als : token.getLightSources()) {
         LightSource lightSource = c.getLightSource(als.getLightSourceId());
         if (lightSource != null) {
@@ -901,9 +1445,10 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
       hasSight |= token.getHasSight();
     }
 
-    if (hasSight) visibleAreaMap.clear();
-
-    return hasVBL;
+    if (hasSight) {
+      visionVersion++;
+      visibleAreaMap.clear();
+    }
   }
 
   /** Has a single field: the visibleArea area */
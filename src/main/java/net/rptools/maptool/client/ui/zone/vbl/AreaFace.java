@@ -15,7 +15,9 @@
 package net.rptools.maptool.client.ui.zone.vbl;
 
 import java.awt.Point;
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import net.rptools.lib.GeometryUtil;
 
 public class AreaFace {
@@ -46,6 +48,17 @@ public double getFacing() {
     return facing;
   }
 
+  public Line2D getLine() {
+    return new Line2D.Double(p1, p2);
+  }
+
+  /** @return the bounds of the face, they are empty for a face along either axis. */
+  public Rectangle2D getBounds() {
+    Rectangle2D bounds = new Rectangle2D.Double(p1.getX(), p1.getY(), 0, 0);
+    bounds.add(p2);
+    return bounds;
+  }
+
   public Point2D getMidPoint() {
     double x1 = Math.min(p1.getX(), p2.getX());
     double x2 = Math.max(p1.getX(), p2.getX());
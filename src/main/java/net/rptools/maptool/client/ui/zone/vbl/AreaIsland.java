@@ -16,13 +16,17 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaIsland implements AreaContainer {
 
   private AreaMeta meta;
   private Set<AreaOcean> oceanSet = new HashSet<AreaOcean>();
+  // Built on first use
+  private BoundsIndex<AreaOcean> oceanIndex;
 
   public AreaIsland(AreaMeta meta) {
     this.meta = meta;
@@ -33,13 +37,17 @@ public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
     return meta.getVisibleAreas(origin);
   }
 
+  Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin, Rectangle2D bounds) {
+    return meta.getVisibleAreas(origin, bounds);
+  }
+
   public AreaOcean getDeepestOceanAt(Point2D point) {
 
     if (!meta.area.contains(point)) {
       return null;
     }
 
-    for (AreaOcean ocean : oceanSet) {
+    for (AreaOcean ocean : getOceanIndex().query(point.getX(), point.getY())) {
       AreaOcean deepOcean = ocean.getDeepestOceanAt(point);
       if (deepOcean != null) {
         return deepOcean;
@@ -55,8 +63,20 @@ public Set<AreaOcean> getOceans() {
     return new HashSet<AreaOcean>(oceanSet);
   }
 
-  public void addOcean(AreaOcean ocean) {
+  public synchronized void addOcean(AreaOcean ocean) {
     oceanSet.add(ocean);
+    oceanIndex = null;
+  }
+
+  private synchronized BoundsIndex<AreaOcean> getOceanIndex() {
+    if (oceanIndex == null) {
+      oceanIndex = new BoundsIndex<AreaOcean>(oceanSet, ocean -> ocean.getBounds().getBounds2D());
+    }
+    return oceanIndex;
+  }
+
+  List<AreaFace> getFaces() {
+    return meta.faceList;
   }
 
   ////
@@ -17,6 +17,7 @@
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -48,10 +49,26 @@ public Point2D getCenterPoint() {
   }
 
   public Set<VisibleAreaSegment> getVisibleAreas(Point2D origin) {
+    return getVisibleAreas(origin, null);
+  }
+
+  /**
+   * @param origin the point seen from
+   * @param bounds the part of the map to look at, or null for all of it
+   * @return the runs of faces turned towards the origin, leaving out the faces outside the bounds
+   */
+  public Set<VisibleAreaSegment> getVisibleAreas(Point2D origin, Rectangle2D bounds) {
     Set<VisibleAreaSegment> segSet = new HashSet<VisibleAreaSegment>();
 
     VisibleAreaSegment segment = null;
     for (AreaFace face : faceList) {
+      if (bounds != null && !bounds.intersectsLine(face.getLine())) {
+        if (segment != null) {
+          segSet.add(segment);
+          segment = null;
+        }
+        continue;
+      }
       double originAngle = GeometryUtil.getAngle(origin, face.getMidPoint());
       double delta = GeometryUtil.getAngleDelta(originAngle, face.getFacing());
 
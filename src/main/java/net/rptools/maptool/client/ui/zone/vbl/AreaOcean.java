@@ -16,38 +16,56 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaOcean implements AreaContainer {
 
   private AreaMeta meta;
   private Set<AreaIsland> islandSet = new HashSet<AreaIsland>();
+  // Built on first use
+  private BoundsIndex<AreaIsland> islandIndex;
+  private BoundsIndex<AreaFace> faceIndex;
 
   public AreaOcean(AreaMeta meta) {
     this.meta = meta;
   }
 
   public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
+    return getVisibleAreaSegments(origin, null);
+  }
+
+  /**
+   * @param origin the point seen from
+   * @param bounds the part of the map to look at, or null for all of it. It has to hold the
+   *     origin, the faces outside it can't shadow anything inside it then.
+   * @return the runs of faces turned towards the origin
+   */
+  public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin, Rectangle2D bounds) {
 
     Set<VisibleAreaSegment> segSet = new HashSet<VisibleAreaSegment>();
 
     // If an island contains the point, then we're
     // not in this ocean, short circuit out
-    for (AreaIsland island : islandSet) {
+    for (AreaIsland island : getIslandIndex().query(origin.getX(), origin.getY())) {
       if (island.getBounds().contains(origin)) {
         return segSet;
       }
     }
 
     // Inside boundaries
-    for (AreaIsland island : islandSet) {
-      segSet.addAll(island.getVisibleAreaSegments(origin));
+    Collection<AreaIsland> islands = bounds == null ? islandSet : getIslandIndex().query(bounds);
+    for (AreaIsland island : islands) {
+      segSet.addAll(island.getVisibleAreaSegments(origin, bounds));
     }
 
     // Outside boundary
     if (meta != null) {
-      segSet.addAll(meta.getVisibleAreas(origin));
+      segSet.addAll(meta.getVisibleAreas(origin, bounds));
     }
 
     return segSet;
@@ -60,7 +78,7 @@ public AreaOcean getDeepestOceanAt(Point2D point) {
     }
 
     // If the point is in an island, then let the island figure it out
-    for (AreaIsland island : islandSet) {
+    for (AreaIsland island : getIslandIndex().query(point.getX(), point.getY())) {
       if (island.getBounds().contains(point)) {
         return island.getDeepestOceanAt(point);
       }
@@ -73,8 +91,37 @@ public Set<AreaIsland> getIslands() {
     return new HashSet<AreaIsland>(islandSet);
   }
 
-  public void addIsland(AreaIsland island) {
+  public synchronized void addIsland(AreaIsland island) {
     islandSet.add(island);
+    islandIndex = null;
+    faceIndex = null;
+  }
+
+  private synchronized BoundsIndex<AreaIsland> getIslandIndex() {
+    if (islandIndex == null) {
+      islandIndex =
+          new BoundsIndex<AreaIsland>(islandSet, island -> island.getBounds().getBounds2D());
+    }
+    return islandIndex;
+  }
+
+  /**
+   * @param bounds the part of the map to look at
+   * @return the faces of the outline of this ocean and of the islands directly in it that may be
+   *     in the bounds
+   */
+  synchronized List<AreaFace> getFaces(Rectangle2D bounds) {
+    if (faceIndex == null) {
+      List<AreaFace> faces = new ArrayList<AreaFace>();
+      if (meta != null) {
+        faces.addAll(meta.faceList);
+      }
+      for (AreaIsland island : islandSet) {
+        faces.addAll(island.getFaces());
+      }
+      faceIndex = new BoundsIndex<AreaFace>(faces, AreaFace::getBounds);
+    }
+    return faceIndex.query(bounds);
   }
 
   ////
@@ -14,10 +14,13 @@
  */
 package net.rptools.maptool.client.ui.zone.vbl;
 
+import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import net.rptools.maptool.util.GraphicsUtil;
 import org.apache.logging.log4j.LogManager;
@@ -92,8 +95,10 @@ private void digest(Area area) {
     // Start by putting each ocean into the containing island
     // Every ocean should have a containing island. There is only one ocean that doesn't
     // have an explicit island and that's the global scope ocean container
+    BoundsIndex<AreaIsland> islandIndex =
+        new BoundsIndex<AreaIsland>(islandList, island -> island.getBounds().getBounds2D());
     for (AreaOcean ocean : oceanList) {
-      AreaIsland island = findSmallestContainer(ocean, islandList);
+      AreaIsland island = findSmallestContainer(ocean, islandIndex);
       if (island == null) {
         log.warn("Weird, I couldn't find an island for an ocean.  Bad/overlapping VBL?");
         continue;
@@ -101,9 +106,11 @@ private void digest(Area area) {
       island.addOcean(ocean);
     }
     // Now put each island into the containing ocean
+    BoundsIndex<AreaOcean> oceanIndex =
+        new BoundsIndex<AreaOcean>(oceanList, ocean -> ocean.getBounds().getBounds2D());
     List<AreaIsland> globalIslandList = new ArrayList<AreaIsland>();
     for (AreaIsland island : islandList) {
-      AreaOcean ocean = findSmallestContainer(island, oceanList);
+      AreaOcean ocean = findSmallestContainer(island, oceanIndex);
       if (ocean == null) {
         globalIslandList.add(island);
         continue;
@@ -118,31 +125,29 @@ private void digest(Area area) {
     }
   }
 
-  private <T extends AreaContainer> T findSmallestContainer(AreaContainer item, List<T> list) {
-    T smallest = null;
-    for (T container : list) {
-      if (!GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
-        continue;
+  private <T extends AreaContainer> T findSmallestContainer(
+      AreaContainer item, BoundsIndex<T> index) {
+    // Only the containers whose bounds hold the item's bounds can hold the item, try the
+    // smallest of those first
+    Rectangle2D bounds = item.getBounds().getBounds2D();
+    List<T> candidates = new ArrayList<T>();
+    for (T container : index.query(bounds)) {
+      if (container.getBounds().getBounds2D().contains(bounds)) {
+        candidates.add(container);
       }
-      smallest = getSmallest(smallest, container);
-    }
-    return smallest;
-  }
-
-  private <T extends AreaContainer> T getSmallest(T left, T right) {
-    // Something is smaller than nothing, for our purposes
-    if (left == null) {
-      return right;
-    }
-    if (right == null) {
-      return left;
     }
     // Presumably the container with the smaller area will be the contained area
-    double leftSize =
-        left.getBounds().getBounds().getWidth() * left.getBounds().getBounds().getHeight();
-    double rightSize =
-        right.getBounds().getBounds().getWidth() * right.getBounds().getBounds().getHeight();
+    candidates.sort(Comparator.comparingDouble(AreaTree::getSize));
+    for (T container : candidates) {
+      if (GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
+        return container;
+      }
+    }
+    return null;
+  }
 
-    return leftSize < rightSize ? left : right;
+  private static double getSize(AreaContainer container) {
+    Rectangle bounds = container.getBounds().getBounds();
+    return bounds.getWidth() * bounds.getHeight();
   }
 }
@@ -0,0 +1,184 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Finds the parts of a digested VBL by where they are on the map. The map is cut into square
+ * buckets the same way {@link net.rptools.maptool.model.TokenSpatialIndex} does for tokens. The
+ * parts that would span too many buckets are kept in a separate list that every query checks.
+ *
+ * <p>The index is built once and never changes, a handful of parts are only kept in a list.
+ *
+ * @param <T> the type of the parts
+ */
+class BoundsIndex<T> {
+  /** Width and height of a bucket, in zone pixels. */
+  static final int BUCKET_SIZE = 256;
+  /** Parts covering more buckets than this are not put in the buckets. */
+  static final int MAX_BUCKETS = 64;
+  /** Up to this many parts are only kept in a list. */
+  static final int MIN_INDEXED = 16;
+
+  private final List<Entry<T>> entries = new ArrayList<Entry<T>>();
+  private final Map<Long, List<Entry<T>>> buckets = new HashMap<Long, List<Entry<T>>>();
+  private final List<Entry<T>> large = new ArrayList<Entry<T>>();
+
+  private static class Entry<T> {
+    final T value;
+    final double x1, y1, x2, y2;
+    final int minX, minY, maxX, maxY; // buckets covered
+
+    Entry(T value, Rectangle2D bounds) {
+      this.value = value;
+      x1 = bounds.getMinX();
+      y1 = bounds.getMinY();
+      x2 = bounds.getMaxX();
+      y2 = bounds.getMaxY();
+      minX = bucket(x1);
+      minY = bucket(y1);
+      maxX = bucket(x2);
+      maxY = bucket(y2);
+    }
+
+    boolean isLarge() {
+      return (long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_BUCKETS;
+    }
+
+    boolean overlaps(double qx1, double qy1, double qx2, double qy2) {
+      // Touching counts, a point on the edge of an outline can still be inside it
+      return x1 <= qx2 && qx1 <= x2 && y1 <= qy2 && qy1 <= y2;
+    }
+  }
+
+  /**
+   * Builds the index.
+   *
+   * @param values the parts
+   * @param bounds works out the bounds of a part
+   */
+  BoundsIndex(Collection<T> values, Function<T, Rectangle2D> bounds) {
+    for (T value : values) {
+      entries.add(new Entry<T>(value, bounds.apply(value)));
+    }
+    if (entries.size() <= MIN_INDEXED) {
+      return;
+    }
+    for (Entry<T> entry : entries) {
+      if (entry.isLarge()) {
+        large.add(entry);
+        continue;
+      }
+      for (int x = entry.minX; x <= entry.maxX; x++) {
+        for (int y = entry.minY; y <= entry.maxY; y++) {
+          buckets.computeIfAbsent(key(x, y), k -> new ArrayList<Entry<T>>(4)).add(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param x the x of the point
+   * @param y the y of the point
+   * @return the parts whose bounds contain the point
+   */
+  List<T> query(double x, double y) {
+    return query(x, y, x, y);
+  }
+
+  /**
+   * @param area the area, in zone coordinates
+   * @return the parts whose bounds overlap the area, each once
+   */
+  List<T> query(Rectangle2D area) {
+    return query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+  }
+
+  private List<T> query(double x1, double y1, double x2, double y2) {
+    List<T> found = new ArrayList<T>();
+    if (entries.size() <= MIN_INDEXED) {
+      addOverlapping(entries, x1, y1, x2, y2, found);
+      return found;
+    }
+    addOverlapping(large, x1, y1, x2, y2, found);
+    int minX = bucket(x1);
+    int minY = bucket(y1);
+    int maxX = bucket(x2);
+    int maxY = bucket(y2);
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > buckets.size()) {
+      // Fewer buckets in use than the area covers
+      for (Map.Entry<Long, List<Entry<T>>> bucket : buckets.entrySet()) {
+        long key = bucket.getKey();
+        addOverlapping(
+            bucket.getValue(), (int) (key >> 32), (int) key, minX, minY, x1, y1, x2, y2, found);
+      }
+    } else {
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          List<Entry<T>> bucket = buckets.get(key(x, y));
+          if (bucket != null) {
+            addOverlapping(bucket, x, y, minX, minY, x1, y1, x2, y2, found);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  private static <T> void addOverlapping(
+      List<Entry<T>> entries, double x1, double y1, double x2, double y2, List<T> found) {
+    for (Entry<T> entry : entries) {
+      if (entry.overlaps(x1, y1, x2, y2)) {
+        found.add(entry.value);
+      }
+    }
+  }
+
+  private static <T> void addOverlapping(
+      List<Entry<T>> bucket,
+      int x,
+      int y,
+      int minX,
+      int minY,
+      double x1,
+      double y1,
+      double x2,
+      double y2,
+      List<T> found) {
+    for (Entry<T> entry : bucket) {
+      // A part in several buckets is only found in the first one the query covers
+      if (x == Math.max(entry.minX, minX)
+          && y == Math.max(entry.minY, minY)
+          && entry.overlaps(x1, y1, x2, y2)) {
+        found.add(entry.value);
+      }
+    }
+  }
+
+  private static int bucket(double coordinate) {
+    return (int) Math.floor(coordinate / BUCKET_SIZE);
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
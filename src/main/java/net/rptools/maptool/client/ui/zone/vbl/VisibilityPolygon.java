@@ -0,0 +1,259 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Works out what can be seen from a point by sweeping a ray once around it over the faces of an
+ * {@link AreaOcean}. The ray stops at the nearest face, so the faces it stops at make up a single
+ * star shaped polygon, and the vision only has to be clipped to that one polygon instead of having
+ * the shadow of every {@link VisibleAreaSegment} subtracted from it.
+ */
+public class VisibilityPolygon {
+
+  private VisibilityPolygon() {}
+
+  /**
+   * Returns the part of a vision that can be seen from its origin.
+   *
+   * @param origin the point the vision is seen from
+   * @param vision the vision without any VBL, already moved to the origin
+   * @param ocean the ocean the origin is in
+   * @return the visible area
+   */
+  public static Area calculateVisibility(Point2D origin, Area vision, AreaOcean ocean) {
+    Rectangle2D bounds = vision.getBounds2D();
+    if (bounds.isEmpty()) {
+      return new Area();
+    }
+    bounds.add(origin);
+    // Grow the box so the origin is never on its edge
+    Rectangle2D box =
+        new Rectangle2D.Double(
+            bounds.getX() - 1, bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+    Area visible = new Area(vision);
+    visible.intersect(new Area(getPolygon(origin, ocean.getFaces(box), box)));
+    return visible;
+  }
+
+  /**
+   * Returns the polygon that can be seen from a point.
+   *
+   * @param origin the point seen from, inside the box
+   * @param faces the faces that block the view, they may touch but must not cross
+   * @param box the box the polygon is limited to, faces outside it are ignored
+   * @return the polygon
+   */
+  static Path2D getPolygon(Point2D origin, List<AreaFace> faces, Rectangle2D box) {
+    // Everything is worked out relative to the origin, the sweep starts and ends on the negative
+    // x axis
+    double ox = origin.getX();
+    double oy = origin.getY();
+    double[] clip = {
+      box.getMinX() - ox, box.getMinY() - oy, box.getMaxX() - ox, box.getMaxY() - oy
+    };
+    List<Wall> walls = new ArrayList<Wall>(faces.size() + 8);
+    for (AreaFace face : faces) {
+      Point2D p1 = face.getP1();
+      Point2D p2 = face.getP2();
+      addWall(walls, p1.getX() - ox, p1.getY() - oy, p2.getX() - ox, p2.getY() - oy, clip);
+    }
+    // The box stops the rays that don't hit a face
+    addWall(walls, clip[0], clip[1], clip[2], clip[1], clip);
+    addWall(walls, clip[2], clip[1], clip[2], clip[3], clip);
+    addWall(walls, clip[2], clip[3], clip[0], clip[3], clip);
+    addWall(walls, clip[0], clip[3], clip[0], clip[1], clip);
+
+    Wall[] byStart = walls.toArray(new Wall[0]);
+    Arrays.sort(byStart, Comparator.comparingDouble(w -> w.start));
+    Wall[] byEnd = walls.toArray(new Wall[0]);
+    Arrays.sort(byEnd, Comparator.comparingDouble(w -> w.end));
+
+    TreeSet<Wall> active = new TreeSet<Wall>(VisibilityPolygon::compareDistance);
+    Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, walls.size());
+    double[] last = null;
+    int s = 0;
+    int e = 0;
+    while (s < byStart.length || e < byEnd.length) {
+      double angle =
+          Math.min(
+              s < byStart.length ? byStart[s].start : Double.MAX_VALUE,
+              e < byEnd.length ? byEnd[e].end : Double.MAX_VALUE);
+      Wall before = active.isEmpty() ? null : active.first();
+      // Walls that end here go first, they may share the point with the ones that start here
+      while (e < byEnd.length && byEnd[e].end == angle) {
+        active.remove(byEnd[e++]);
+      }
+      while (s < byStart.length && byStart[s].start == angle) {
+        active.add(byStart[s++]);
+      }
+      Wall after = active.isEmpty() ? null : active.first();
+      if (before == after) {
+        // Still looking at the same wall, the polygon edge carries straight on
+        continue;
+      }
+      for (Wall wall : new Wall[] {before, after}) {
+        if (wall == null) {
+          continue;
+        }
+        double[] point = wall.pointAt(angle);
+        if (last == null) {
+          path.moveTo(point[0] + ox, point[1] + oy);
+        } else if (Math.abs(point[0] - last[0]) > 1e-9 || Math.abs(point[1] - last[1]) > 1e-9) {
+          path.lineTo(point[0] + ox, point[1] + oy);
+        } else {
+          continue;
+        }
+        last = point;
+      }
+    }
+    path.closePath();
+    return path;
+  }
+
+  /** Clips a face to the box and adds what is left, split where it crosses the negative x axis. */
+  private static void addWall(
+      List<Wall> walls, double x1, double y1, double x2, double y2, double[] clip) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double t0 = 0;
+    double t1 = 1;
+    double[] p = {-dx, -dy, dx, dy};
+    double[] q = {x1 - clip[0], y1 - clip[1], clip[2] - x1, clip[3] - y1};
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) {
+          return;
+        }
+      } else {
+        double t = q[i] / p[i];
+        if (p[i] < 0) {
+          t0 = Math.max(t0, t);
+        } else {
+          t1 = Math.min(t1, t);
+        }
+      }
+    }
+    if (t0 > t1) {
+      return;
+    }
+    if (t0 > 0 || t1 < 1) {
+      double cx1 = clamp(x1 + t0 * dx, clip[0], clip[2]);
+      double cy1 = clamp(y1 + t0 * dy, clip[1], clip[3]);
+      x2 = clamp(x1 + t1 * dx, clip[0], clip[2]);
+      y2 = clamp(y1 + t1 * dy, clip[1], clip[3]);
+      x1 = cx1;
+      y1 = cy1;
+    }
+    if (x1 * y2 - x2 * y1 == 0) {
+      // In line with the origin, it hides nothing
+      return;
+    }
+    if ((y1 < 0 && y2 > 0) || (y1 > 0 && y2 < 0)) {
+      double x = x1 - y1 * (x2 - x1) / (y2 - y1);
+      if (x < 0) {
+        walls.add(new Wall(walls.size(), x1, y1, x, 0));
+        walls.add(new Wall(walls.size(), x, 0, x2, y2));
+        return;
+      }
+    }
+    walls.add(new Wall(walls.size(), x1, y1, x2, y2));
+  }
+
+  private static double clamp(double value, double min, double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /**
+   * Orders two walls that are both hit by the ray by how far away they are. Walls don't cross, so
+   * any angle they share gives the same order, the middle of their shared angles is the safest.
+   */
+  private static int compareDistance(Wall a, Wall b) {
+    if (a == b) {
+      return 0;
+    }
+    double angle = (Math.max(a.start, b.start) + Math.min(a.end, b.end)) / 2;
+    int result = Double.compare(a.distanceAt(angle), b.distanceAt(angle));
+    return result != 0 ? result : Integer.compare(a.id, b.id);
+  }
+
+  /** A face relative to the origin, with its ends in the order the sweep reaches them. */
+  private static class Wall {
+    final int id;
+    final double sx;
+    final double sy;
+    final double ex;
+    final double ey;
+    final double start;
+    final double end;
+
+    Wall(int id, double x1, double y1, double x2, double y2) {
+      this.id = id;
+      double a1 = angle(x1, y1, y2);
+      double a2 = angle(x2, y2, y1);
+      if (a1 <= a2) {
+        sx = x1;
+        sy = y1;
+        ex = x2;
+        ey = y2;
+        start = a1;
+        end = a2;
+      } else {
+        sx = x2;
+        sy = y2;
+        ex = x1;
+        ey = y1;
+        start = a2;
+        end = a1;
+      }
+    }
+
+    /** @return the angle of a point, a point on the negative x axis takes the side of the other */
+    private static double angle(double x, double y, double otherY) {
+      if (y == 0 && x < 0) {
+        return otherY > 0 ? Math.PI : -Math.PI;
+      }
+      return Math.atan2(y, x);
+    }
+
+    double distanceAt(double angle) {
+      double dx = Math.cos(angle);
+      double dy = Math.sin(angle);
+      double wx = ex - sx;
+      double wy = ey - sy;
+      return (sx * wy - sy * wx) / (dx * wy - dy * wx);
+    }
+
+    double[] pointAt(double angle) {
+      if (angle == start) {
+        return new double[] {sx, sy};
+      }
+      if (angle == end) {
+        return new double[] {ex, ey};
+      }
+      double distance = distanceAt(angle);
+      return new double[] {distance * Math.cos(angle), distance * Math.sin(angle)};
+    }
+  }
+}
@@ -145,7 +145,14 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     // Note: zoneRenderer will be null if map is not visible to players.
     if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
       if (MapTool.getServerPolicy().getVblBlocksMove()) {
-        vbl = MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getTopologyTree().getArea();
+        // A copy, the tree's area may be the zone's own VBL
+        vbl =
+            new Area(
+                MapTool.getFrame()
+                    .getCurrentZoneRenderer()
+                    .getZoneView()
+                    .getTopologyTree()
+                    .getArea());
 
         if (tokenVBL != null) {
           vbl.subtract(tokenVBL);
@@ -83,6 +83,9 @@ public class AssetManager {
 
   private static ExecutorService assetLoaderThreadPool = Executors.newFixedThreadPool(1);
 
+  /** Writes assets to the persistent cache, one after the other in the order they were put. */
+  private static ExecutorService persistentCacheWriter = Executors.newSingleThreadExecutor();
+
   static {
     cacheDir = AppUtil.getAppHome("assetcache");
     usePersistentCache = true;
@@ -524,36 +527,33 @@ private static void putInPersistentCache(final Asset asset) {
       return;
     }
 
-    if (!assetIsInPersistentCache(asset)) {
-
-      final File assetFile = getAssetCacheFile(asset);
-
-      new Thread(
-              () -> {
-                assetFile.getParentFile().mkdirs();
-                try (OutputStream out = new FileOutputStream(assetFile)) {
-                  out.write(asset.getImage());
-                } catch (IOException ioe) {
-                  log.error("Could not persist asset while writing image data", ioe);
-                  return;
-                } catch (NullPointerException npe) {
-                  // Not an issue, will update once th frame is finished loading...
-                  log.warn("Could not update statusbar while MapTool frame is loading.", npe);
-                }
-              })
-          .start();
-    }
-    if (!assetInfoIsInPersistentCache(asset)) {
-
-      File infoFile = getAssetInfoFile(asset);
-      Properties props = new Properties();
-      try (OutputStream out = new FileOutputStream(infoFile)) {
-        props.put(NAME, asset.getName() != null ? asset.getName() : "");
-        props.store(out, "Asset Info");
-      } catch (IOException ioe) {
-        log.error("Could not persist asset while writing image properties", ioe);
-      }
-    }
+    // Bulk imports put hundreds of assets, so the writes are queued rather than each given a
+    // thread. Being one queue, a second put of the same asset finds it written by the first.
+    persistentCacheWriter.execute(
+        () -> {
+          if (!assetIsInPersistentCache(asset)) {
+            File assetFile = getAssetCacheFile(asset);
+            assetFile.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(assetFile)) {
+              out.write(asset.getImage());
+            } catch (IOException ioe) {
+              log.error("Could not persist asset while writing image data", ioe);
+            } catch (NullPointerException npe) {
+              // Not an issue, will update once th frame is finished loading...
+              log.warn("Could not update statusbar while MapTool frame is loading.", npe);
+            }
+          }
+          if (!assetInfoIsInPersistentCache(asset)) {
+            File infoFile = getAssetInfoFile(asset);
+            Properties props = new Properties();
+            try (OutputStream out = new FileOutputStream(infoFile)) {
+              props.put(NAME, asset.getName() != null ? asset.getName() : "");
+              props.store(out, "Asset Info");
+            } catch (IOException ioe) {
+              log.error("Could not persist asset while writing image properties", ioe);
+            }
+          }
+        });
   }
 
   /**
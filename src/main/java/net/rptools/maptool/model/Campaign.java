@@ -25,6 +25,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Function;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.net.Location;
 import net.rptools.maptool.client.MapTool;
@@ -156,6 +157,17 @@ public List<String> getRemoteRepositoryList() {
    * @param campaign The campaign to copy from.
    */
   public Campaign(Campaign campaign) {
+    this(campaign, zone -> new Zone(zone, true));
+  }
+
+  /**
+   * Create a new campaign with an old campaign's properties, getting the copies of the zones from
+   * elsewhere.
+   *
+   * @param campaign The campaign to copy from.
+   * @param zoneCopier Gives the copy to use for each of the old campaign's zones.
+   */
+  Campaign(Campaign campaign, Function<Zone, Zone> zoneCopier) {
     name = campaign.getName();
 
     /*
@@ -169,7 +181,7 @@ public Campaign(Campaign campaign) {
       zonesToCopy = new LinkedHashMap<>(campaign.zones);
     }
     for (Entry<GUID, Zone> entry : zonesToCopy.entrySet()) {
-      Zone copy = new Zone(entry.getValue(), true);
+      Zone copy = zoneCopier.apply(entry.getValue());
       zones.put(copy.getId(), copy);
     }
     campaignProperties = new CampaignProperties(campaign.campaignProperties);
@@ -0,0 +1,114 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Takes copies of a campaign to save in the background while the campaign goes on being changed.
+ * The copies of the zones are kept from one snapshot to the next and a zone is only copied again
+ * when its {@link Zone#getChangeCount()} moved on, so a snapshot costs about as much as the zones
+ * that changed since the last one rather than the whole campaign.
+ *
+ * <p>Since the zone copies are shared between snapshots, a snapshot must not be changed, it is
+ * only good for saving. Every {@link #FULL_COPY_INTERVAL} snapshots all zones are copied again, to
+ * pick up changes the zones were not told about.
+ */
+public class CampaignSnapshot {
+  /** How many snapshots are taken before all zones are copied again. */
+  static final int FULL_COPY_INTERVAL = 10;
+
+  /** The copy of each zone, by the id of the zone it was copied from. */
+  private Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+
+  /** The ids of the zone copies made by the last snapshot. */
+  private final Set<GUID> copiedZones = new HashSet<GUID>();
+
+  private int snapshotCount;
+
+  private static class Entry {
+    // Weak, so a campaign that has been closed is not kept around by its last snapshot
+    private final WeakReference<Zone> source;
+    private final long changeCount;
+    private final Zone copy;
+
+    private Entry(Zone source) {
+      this.source = new WeakReference<Zone>(source);
+      // Read before copying, so a change made meanwhile is copied again next time
+      changeCount = source.getChangeCount();
+      copy = new Zone(source, true);
+    }
+
+    private boolean isCurrent(Zone zone) {
+      return source.get() == zone && changeCount == zone.getChangeCount();
+    }
+  }
+
+  /**
+   * Takes a snapshot of a campaign. Has to be called where nothing else changes the campaign, i.e.
+   * on the event dispatch thread.
+   *
+   * @param campaign the campaign to take the snapshot of
+   * @return a copy of the campaign that shares the zones that did not change with earlier snapshots
+   */
+  public synchronized Campaign take(Campaign campaign) {
+    boolean full = snapshotCount++ % FULL_COPY_INTERVAL == 0;
+    Map<GUID, Entry> previous = entries;
+    Map<GUID, Entry> current = new HashMap<GUID, Entry>();
+    copiedZones.clear();
+    Campaign snapshot =
+        new Campaign(
+            campaign,
+            zone -> {
+              Entry entry = previous.get(zone.getId());
+              if (full || entry == null || !entry.isCurrent(zone)) {
+                entry = new Entry(zone);
+                copiedZones.add(entry.copy.getId());
+              }
+              current.put(zone.getId(), entry);
+              return entry.copy;
+            });
+    // Zones that are gone from the campaign are dropped along with the old map
+    entries = current;
+    return snapshot;
+  }
+
+  /**
+   * Tells whether a zone of the last snapshot was copied for it, rather than carried over from an
+   * earlier snapshot.
+   *
+   * @param zone a zone of the last snapshot
+   * @return true if the zone was changed since the snapshot before
+   */
+  public synchronized boolean isCopied(Zone zone) {
+    return copiedZones.contains(zone.getId());
+  }
+
+  /** @return how many zones the last snapshot had to copy. */
+  public synchronized int getCopiedCount() {
+    return copiedZones.size();
+  }
+
+  /** Forgets all copies, the next snapshot copies every zone. */
+  public synchronized void clear() {
+    entries = new HashMap<GUID, Entry>();
+    copiedZones.clear();
+    snapshotCount = 0;
+  }
+}
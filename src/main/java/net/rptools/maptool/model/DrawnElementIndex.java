@@ -0,0 +1,300 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.maptool.model.drawing.Drawable;
+import net.rptools.maptool.model.drawing.DrawablesGroup;
+import net.rptools.maptool.model.drawing.DrawnElement;
+
+/**
+ * Finds the drawings of a zone by id and by where they are on the map. The drawings of each layer
+ * are kept in square buckets, the same way {@link TokenSpatialIndex} keeps tokens, and each
+ * drawing has a place in the drawing order of its layer so a query can hand them back in the
+ * order they are drawn.
+ *
+ * <p>The zone's lists stay the drawings of record, the index is only told about the changes the
+ * zone makes to them. It knows the drawings inside groups by id, but only the drawings at the top
+ * of a layer by place.
+ */
+class DrawnElementIndex {
+  /** Width and height of a bucket, in zone pixels. */
+  static final int BUCKET_SIZE = 256;
+  /** Drawings covering more buckets than this are not put in the buckets. */
+  static final int MAX_BUCKETS = 64;
+
+  private final Map<GUID, DrawnElement> elements = new HashMap<GUID, DrawnElement>();
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+  private final Map<Zone.Layer, Grid> grids = new EnumMap<Zone.Layer, Grid>(Zone.Layer.class);
+  private boolean duplicates;
+
+  private static class Entry {
+    final DrawnElement element;
+    final Zone.Layer layer;
+    final long order;
+    final Rectangle extent; // null if the drawing has no bounds, it is never drawn then
+    final int minX, minY, maxX, maxY; // buckets covered
+
+    Entry(DrawnElement element, Zone.Layer layer, long order) {
+      this.element = element;
+      this.layer = layer;
+      this.order = order;
+      extent = getExtent(element);
+      Rectangle r = extent != null ? extent : new Rectangle();
+      minX = Math.floorDiv(r.x, BUCKET_SIZE);
+      minY = Math.floorDiv(r.y, BUCKET_SIZE);
+      maxX = Math.floorDiv(r.x + Math.max(r.width, 1) - 1, BUCKET_SIZE);
+      maxY = Math.floorDiv(r.y + Math.max(r.height, 1) - 1, BUCKET_SIZE);
+    }
+
+    boolean isLarge() {
+      return (long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_BUCKETS;
+    }
+  }
+
+  private static class Grid {
+    final Map<Long, List<Entry>> buckets = new HashMap<Long, List<Entry>>();
+    final Set<Entry> large = new HashSet<Entry>();
+    long first;
+    long last = -1;
+  }
+
+  /**
+   * Works out the area of the map a drawing can cover.
+   *
+   * @param element the drawing
+   * @return the bounds of the drawing grown by the pen, or null if the drawing has no bounds
+   */
+  static Rectangle getExtent(DrawnElement element) {
+    Rectangle bounds = element.getDrawable().getBounds();
+    if (bounds == null) {
+      return null;
+    }
+    // At least as much as the renderers allow for the pen, anti-aliasing included
+    int penSize = (int) Math.ceil(element.getPen().getThickness() / 2) + 1;
+    Rectangle extent = new Rectangle(bounds);
+    extent.grow(penSize, penSize);
+    return extent;
+  }
+
+  /**
+   * Builds the index from the drawings of each layer, in drawing order.
+   *
+   * @param layers the drawings of each layer
+   */
+  DrawnElementIndex(Map<Zone.Layer, List<DrawnElement>> layers) {
+    for (Zone.Layer layer : Zone.Layer.values()) {
+      grids.put(layer, new Grid());
+    }
+    for (Map.Entry<Zone.Layer, List<DrawnElement>> layer : layers.entrySet()) {
+      for (DrawnElement element : layer.getValue()) {
+        add(layer.getKey(), element, false);
+      }
+    }
+  }
+
+  /**
+   * Adds a drawing at the front or the back of a layer.
+   *
+   * @param layer the layer
+   * @param element the drawing
+   * @param rear true to add it behind the other drawings of the layer
+   */
+  public void add(Zone.Layer layer, DrawnElement element, boolean rear) {
+    Grid grid = grids.get(layer);
+    Entry entry = new Entry(element, layer, rear ? --grid.first : ++grid.last);
+    if (!addElement(element) || entries.putIfAbsent(element.getDrawable().getId(), entry) != null) {
+      duplicates = true;
+    }
+    link(entry);
+  }
+
+  // Returns false if any of the ids was known already
+  private boolean addElement(DrawnElement element) {
+    boolean added = elements.putIfAbsent(element.getDrawable().getId(), element) == null;
+    Drawable drawable = element.getDrawable();
+    if (drawable instanceof DrawablesGroup) {
+      for (DrawnElement child : ((DrawablesGroup) drawable).getDrawableList()) {
+        added &= addElement(child);
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Removes a drawing from the top of its layer.
+   *
+   * @param id the id of the drawing
+   * @return the drawing removed, or null if there is none with the id at the top of a layer
+   */
+  public DrawnElement remove(GUID id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return null;
+    }
+    removeElement(entry.element);
+    unlink(entry);
+    return entry.element;
+  }
+
+  private void removeElement(DrawnElement element) {
+    elements.remove(element.getDrawable().getId(), element);
+    Drawable drawable = element.getDrawable();
+    if (drawable instanceof DrawablesGroup) {
+      for (DrawnElement child : ((DrawablesGroup) drawable).getDrawableList()) {
+        removeElement(child);
+      }
+    }
+  }
+
+  /**
+   * Files a drawing at the top of a layer under its current bounds and pen, keeping its place in
+   * the drawing order.
+   *
+   * @param id the id of the drawing
+   */
+  public void update(GUID id) {
+    Entry entry = entries.get(id);
+    if (entry != null) {
+      unlink(entry);
+      Entry updated = new Entry(entry.element, entry.layer, entry.order);
+      entries.put(id, updated);
+      link(updated);
+    }
+  }
+
+  private void link(Entry entry) {
+    Grid grid = grids.get(entry.layer);
+    if (entry.extent == null) {
+      return;
+    }
+    if (entry.isLarge()) {
+      grid.large.add(entry);
+      return;
+    }
+    for (int x = entry.minX; x <= entry.maxX; x++) {
+      for (int y = entry.minY; y <= entry.maxY; y++) {
+        grid.buckets.computeIfAbsent(key(x, y), k -> new ArrayList<Entry>(4)).add(entry);
+      }
+    }
+  }
+
+  private void unlink(Entry entry) {
+    Grid grid = grids.get(entry.layer);
+    if (entry.extent == null) {
+      return;
+    }
+    if (entry.isLarge()) {
+      grid.large.remove(entry);
+      return;
+    }
+    for (int x = entry.minX; x <= entry.maxX; x++) {
+      for (int y = entry.minY; y <= entry.maxY; y++) {
+        Long key = key(x, y);
+        List<Entry> bucket = grid.buckets.get(key);
+        if (bucket != null) {
+          bucket.remove(entry);
+          if (bucket.isEmpty()) {
+            grid.buckets.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @param id the id of a drawing
+   * @return the drawing with the id, at the top of a layer or inside a group, or null
+   */
+  public DrawnElement get(GUID id) {
+    return elements.get(id);
+  }
+
+  /**
+   * @param id the id of a drawing
+   * @return the layer the drawing is at the top of, or null if it isn't at the top of a layer
+   */
+  public Zone.Layer getLayer(GUID id) {
+    Entry entry = entries.get(id);
+    return entry != null ? entry.layer : null;
+  }
+
+  /**
+   * @return true if some ids were added more than once. Only the first drawing with an id can be
+   *     found by id then, the index should be built again once one of them is removed.
+   */
+  public boolean hasDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * Finds the drawings at the top of a layer that can cover part of an area.
+   *
+   * @param layer the layer
+   * @param area the area, in zone coordinates
+   * @return the drawings, in drawing order
+   */
+  public List<DrawnElement> query(Zone.Layer layer, Rectangle area) {
+    Grid grid = grids.get(layer);
+    Set<Entry> found = new HashSet<Entry>();
+    addOverlapping(grid.large, area, found);
+    int minX = Math.floorDiv(area.x, BUCKET_SIZE);
+    int minY = Math.floorDiv(area.y, BUCKET_SIZE);
+    int maxX = Math.floorDiv(area.x + Math.max(area.width, 1) - 1, BUCKET_SIZE);
+    int maxY = Math.floorDiv(area.y + Math.max(area.height, 1) - 1, BUCKET_SIZE);
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > grid.buckets.size()) {
+      // Fewer buckets in use than the area covers
+      for (List<Entry> bucket : grid.buckets.values()) {
+        addOverlapping(bucket, area, found);
+      }
+    } else {
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          List<Entry> bucket = grid.buckets.get(key(x, y));
+          if (bucket != null) {
+            addOverlapping(bucket, area, found);
+          }
+        }
+      }
+    }
+    List<Entry> sorted = new ArrayList<Entry>(found);
+    sorted.sort(Comparator.comparingLong(e -> e.order));
+    List<DrawnElement> drawn = new ArrayList<DrawnElement>(sorted.size());
+    for (Entry entry : sorted) {
+      drawn.add(entry.element);
+    }
+    return drawn;
+  }
+
+  private static void addOverlapping(Iterable<Entry> entries, Rectangle area, Set<Entry> found) {
+    for (Entry entry : entries) {
+      if (TokenSpatialIndex.overlaps(entry.extent, area)) {
+        found.add(entry);
+      }
+    }
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
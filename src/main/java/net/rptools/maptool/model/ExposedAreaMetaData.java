@@ -15,40 +15,58 @@
 package net.rptools.maptool.model;
 
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 
 /** Stores the exposed area of a token. */
 public class ExposedAreaMetaData {
   /** Area exposed so far. */
+  private TiledArea exposedTiles;
+
+  /** Area exposed so far, as saved before it was kept in tiles. Only read from older files. */
   private Area exposedAreaHistory;
 
   public ExposedAreaMetaData() {
-    exposedAreaHistory = new Area();
+    exposedTiles = new TiledArea();
   }
 
   public ExposedAreaMetaData(Area area) {
-    exposedAreaHistory = new Area(area);
+    exposedTiles = new TiledArea(area);
   }
 
+  private Object readResolve() {
+    if (exposedTiles == null) {
+      exposedTiles = new TiledArea(exposedAreaHistory);
+      exposedAreaHistory = null;
+    }
+    return this;
+  }
+
+  /** @return the area exposed so far, which must not be changed. */
   public Area getExposedAreaHistory() {
-    // if (exposedAreaHistory == null) {
-    // exposedAreaHistory = new Area();
-    // }
-    return exposedAreaHistory;
+    return exposedTiles.getArea();
+  }
+
+  /**
+   * @param bounds the part of the map that is needed, e.g. the part on screen
+   * @return the area exposed so far, at least where it covers the bounds
+   */
+  public Area getExposedAreaHistory(Rectangle2D bounds) {
+    return exposedTiles.getArea(bounds);
+  }
+
+  public TiledArea getExposedTiles() {
+    return exposedTiles;
   }
 
   public void addToExposedAreaHistory(Area newArea) {
-    if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.add(newArea);
-    }
+    exposedTiles.add(newArea);
   }
 
   public void removeExposedAreaHistory(Area newArea) {
-    if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.subtract(newArea);
-    }
+    exposedTiles.subtract(newArea);
   }
 
   public void clearExposedAreaHistory() {
-    exposedAreaHistory = new Area();
+    exposedTiles = new TiledArea();
   }
 }
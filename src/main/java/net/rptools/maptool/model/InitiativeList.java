@@ -165,6 +165,7 @@ public TokenInitiative insertToken(int index, Token token) {
     }
     TokenInitiative ti = new TokenInitiative(token);
     tokens.add(index, ti);
+    zoneChanged();
     getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
@@ -234,6 +235,7 @@ public Token removeToken(int index) {
 
     TokenInitiative ti = tokens.remove(index);
     Token old = ti.getToken();
+    zoneChanged();
     getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
@@ -262,6 +264,7 @@ public void setCurrent(int aCurrent) {
     if (aCurrent < 0 || aCurrent >= tokens.size()) aCurrent = -1; // Don't allow bad values
     int old = current;
     current = aCurrent;
+    zoneChanged();
     getPCS().firePropertyChange(CURRENT_PROP, old, current);
     finishUnitOfWork();
   }
@@ -327,6 +330,7 @@ public void setRound(int aRound) {
     startUnitOfWork();
     int old = round;
     round = aRound;
+    zoneChanged();
     getPCS().firePropertyChange(ROUND_PROP, old, aRound);
     finishUnitOfWork();
   }
@@ -415,6 +419,7 @@ public void clearModel() {
     if (!tokens.isEmpty()) {
       List<TokenInitiative> old = tokens;
       tokens = new ArrayList<TokenInitiative>();
+      zoneChanged();
       getPCS().firePropertyChange(TOKENS_PROP, old, tokens);
     } // endif
     finishUnitOfWork();
@@ -440,6 +445,7 @@ public void update() {
         if (index <= current) setCurrent(current - 1);
         i.remove();
         updateNeeded = true;
+        zoneChanged();
         getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
       } // endif
     } // endwhile
@@ -507,6 +513,7 @@ public void sort(boolean ascendingOrder) {
           if (one instanceof Double) return -1 * DIRECTION; // Integers are bigger than strings
           return 1 * DIRECTION;
         });
+    zoneChanged();
     getPCS().firePropertyChange(TOKENS_PROP, null, tokens);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
@@ -518,6 +525,14 @@ public Zone getZone() {
     return zone;
   }
 
+  /** Counts a change of the list as a change of its zone, see {@link Zone#getChangeCount()}. */
+  private void zoneChanged() {
+    Zone owner = getZone();
+    if (owner != null) {
+      owner.initiativeListChanged();
+    }
+  }
+
   /** @return Getter for pcs */
   private PropertyChangeSupport getPCS() {
     if (pcs == null) pcs = new PropertyChangeSupport(this);
@@ -551,11 +566,13 @@ public void moveToken(int oldIndex, int index) {
     startUnitOfWork();
     current = -1;
     TokenInitiative ti = tokens.remove(oldIndex);
+    zoneChanged();
     getPCS().fireIndexedPropertyChange(TOKENS_PROP, oldIndex, ti, null);
 
     // Add it at it's new position
     index -= index > oldIndex ? 1 : 0;
     tokens.add(index, ti);
+    zoneChanged();
     getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
 
     // Set/restore proper initiative
@@ -606,6 +623,7 @@ public void setHideNPC(boolean hide) {
     startUnitOfWork();
     boolean old = hideNPC;
     hideNPC = hide;
+    zoneChanged();
     getPCS().firePropertyChange(HIDE_NPCS_PROP, old, hide);
     finishUnitOfWork();
   }
@@ -810,6 +828,7 @@ public void setHolding(boolean isHolding) {
       startUnitOfWork();
       boolean old = holding;
       holding = isHolding;
+      zoneChanged();
       getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
       finishUnitOfWork(this);
     }
@@ -829,6 +848,7 @@ public void setState(String aState) {
       startUnitOfWork();
       String old = state;
       state = aState;
+      zoneChanged();
       getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, aState);
       finishUnitOfWork(this);
     }
@@ -879,6 +899,7 @@ public void update(boolean isHolding, String aState) {
       holding = isHolding;
       String oldState = state;
       state = aState;
+      zoneChanged();
       getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
       getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), oldState, aState);
     }
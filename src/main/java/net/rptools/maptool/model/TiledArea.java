@@ -0,0 +1,257 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An area kept in square tiles, each tile holding the part of the area inside it. Adding to or
+ * taking from the area only works on the tiles the change covers, so an area that keeps growing,
+ * like the fog exposed over a long campaign, does not make every later change slower.
+ *
+ * <p>The area as a whole is put together when it is asked for and kept until a tile changes. The
+ * tiles that changed since are then swapped into it, the others are left as they are.
+ */
+public class TiledArea {
+  /** Width and height of a tile, in zone pixels. */
+  public static final int DEFAULT_TILE_SIZE = 1024;
+
+  private int tileSize;
+  private Map<Long, Area> tiles = new HashMap<Long, Area>();
+
+  // The whole area and the tiles changed since it was put together, null until it is asked for
+  private transient Area combined;
+  private transient Set<Long> dirty;
+
+  public TiledArea() {
+    this(DEFAULT_TILE_SIZE);
+  }
+
+  public TiledArea(int tileSize) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("tileSize: " + tileSize);
+    }
+    this.tileSize = tileSize;
+  }
+
+  public TiledArea(Area area) {
+    this();
+    add(area);
+  }
+
+  public TiledArea(TiledArea other) {
+    this(other.tileSize);
+    for (Map.Entry<Long, Area> entry : other.tiles.entrySet()) {
+      tiles.put(entry.getKey(), new Area(entry.getValue()));
+    }
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /** @return the number of tiles the area reaches into. */
+  public int getTileCount() {
+    return tiles.size();
+  }
+
+  public boolean isEmpty() {
+    // Tiles that become empty are dropped
+    return tiles.isEmpty();
+  }
+
+  public void add(Area area) {
+    if (area == null || area.isEmpty()) {
+      return;
+    }
+    Rectangle bounds = area.getBounds();
+    for (int x = tile(bounds.x); x <= tile(bounds.x + bounds.width); x++) {
+      for (int y = tile(bounds.y); y <= tile(bounds.y + bounds.height); y++) {
+        Area part = clip(area, bounds, getTileBounds(x, y));
+        if (part.isEmpty()) {
+          continue;
+        }
+        Long key = key(x, y);
+        Area tile = tiles.get(key);
+        if (tile == null) {
+          tiles.put(key, part == area ? new Area(area) : part);
+        } else {
+          tile.add(part);
+        }
+        changed(key);
+      }
+    }
+  }
+
+  public void subtract(Area area) {
+    if (area == null || area.isEmpty()) {
+      return;
+    }
+    Rectangle bounds = area.getBounds();
+    for (int x = tile(bounds.x); x <= tile(bounds.x + bounds.width); x++) {
+      for (int y = tile(bounds.y); y <= tile(bounds.y + bounds.height); y++) {
+        Long key = key(x, y);
+        Area tile = tiles.get(key);
+        if (tile == null) {
+          continue;
+        }
+        // Clipping can leave slivers just outside the tile, those go as well
+        Rectangle tileBounds = getTileBounds(x, y);
+        tileBounds.grow(1, 1);
+        tile.subtract(clip(area, bounds, tileBounds));
+        if (tile.isEmpty()) {
+          tiles.remove(key);
+        }
+        changed(key);
+      }
+    }
+  }
+
+  public void reset() {
+    tiles.clear();
+    combined = null;
+    dirty = null;
+  }
+
+  public boolean contains(double x, double y) {
+    Area tile = tiles.get(key(tile(x), tile(y)));
+    return tile != null && tile.contains(x, y);
+  }
+
+  public boolean intersects(Rectangle2D rect) {
+    Rectangle bounds = rect.getBounds();
+    for (int x = tile(bounds.x); x <= tile(bounds.x + bounds.width); x++) {
+      for (int y = tile(bounds.y); y <= tile(bounds.y + bounds.height); y++) {
+        Area tile = tiles.get(key(x, y));
+        if (tile == null) {
+          continue;
+        }
+        // Only inside the tile, what is just outside it is a sliver left over from clipping
+        Rectangle2D part = rect.createIntersection(getTileBounds(x, y));
+        if (!part.isEmpty() && tile.intersects(part)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  public boolean intersects(Area area) {
+    Rectangle bounds = area.getBounds();
+    for (int x = tile(bounds.x); x <= tile(bounds.x + bounds.width); x++) {
+      for (int y = tile(bounds.y); y <= tile(bounds.y + bounds.height); y++) {
+        Area tile = tiles.get(key(x, y));
+        if (tile != null && tile.intersects(bounds)) {
+          Area common = new Area(getTileBounds(x, y));
+          common.intersect(tile);
+          common.intersect(area);
+          if (!common.isEmpty()) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the area as a whole. It is kept for the next call, so it must not be changed.
+   *
+   * @return the area
+   */
+  public Area getArea() {
+    if (combined == null || dirty.size() * 2 > tiles.size()) {
+      // Quicker to put it together from scratch
+      combined = union(tiles.keySet());
+    } else if (!dirty.isEmpty()) {
+      Path2D.Double dirtyTiles = new Path2D.Double();
+      for (Long key : dirty) {
+        dirtyTiles.append(getTileBounds(key), false);
+      }
+      combined.subtract(new Area(dirtyTiles));
+      combined.add(union(dirty));
+    }
+    dirty = new HashSet<Long>();
+    return combined;
+  }
+
+  /**
+   * Returns the part of the area that is needed to cover a rectangle, e.g. the part of the map on
+   * screen. It can reach beyond the rectangle.
+   *
+   * @param rect the rectangle
+   * @return the tiles of the area the rectangle reaches into, put together
+   */
+  public Area getArea(Rectangle2D rect) {
+    Rectangle bounds = rect.getBounds();
+    Set<Long> keys = new HashSet<Long>();
+    for (int x = tile(bounds.x); x <= tile(bounds.x + bounds.width); x++) {
+      for (int y = tile(bounds.y); y <= tile(bounds.y + bounds.height); y++) {
+        keys.add(key(x, y));
+      }
+    }
+    return union(keys);
+  }
+
+  private void changed(Long key) {
+    if (dirty != null) {
+      dirty.add(key);
+    }
+  }
+
+  // The tiles only touch along their edges, so their outlines can go into one path
+  private Area union(Set<Long> keys) {
+    Path2D.Double path = new Path2D.Double();
+    for (Long key : keys) {
+      Area tile = tiles.get(key);
+      if (tile != null) {
+        path.append(tile, false);
+      }
+    }
+    return new Area(path);
+  }
+
+  private static Area clip(Area area, Rectangle bounds, Rectangle tileBounds) {
+    if (tileBounds.contains(bounds)) {
+      return area;
+    }
+    Area part = new Area(tileBounds);
+    part.intersect(area);
+    return part;
+  }
+
+  private Rectangle getTileBounds(Long key) {
+    return getTileBounds((int) (key >> 32), (int) (long) key);
+  }
+
+  private Rectangle getTileBounds(int x, int y) {
+    return new Rectangle(x * tileSize, y * tileSize, tileSize, tileSize);
+  }
+
+  private int tile(double coordinate) {
+    return (int) Math.floor(coordinate / tileSize);
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
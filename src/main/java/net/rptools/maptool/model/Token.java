@@ -586,6 +586,11 @@ public String getGMName() {
     }
   }
 
+  /** @return the GM name whoever is asking, for the lookups of the zone. */
+  String getRawGMName() {
+    return gmName;
+  }
+
   public void setGMName(String name) {
     gmName = name;
   }
@@ -2371,6 +2376,16 @@ protected Object readResolve() {
     return this;
   }
 
+  /**
+   * Drops the values cached from other fields, after those fields have been replaced directly by a
+   * {@link TokenPatch}.
+   */
+  void resetCachedFields() {
+    actualLayer = null;
+    haloColor = null;
+    visionOverlayColor = null;
+  }
+
   /** @param exposedAreaGUID the exposedAreaGUID to set */
   public void setExposedAreaGUID(GUID exposedAreaGUID) {
     this.exposedAreaGUID = exposedAreaGUID;
@@ -2418,6 +2433,19 @@ public void setHeroLabData(HeroLabData heroLabData) {
    * @param parameters An array of parameters
    */
   public void updateProperty(Zone zone, Update update, Object[] parameters) {
+    applyUpdate(zone, update, parameters);
+    zone.tokenChanged(this); // fire Event.TOKEN_CHANGED, which updates topology if token has VBL
+  }
+
+  /**
+   * Same as {@link #updateProperty(Zone, Update, Object[])}, except that TOKEN_CHANGED is left to
+   * the caller, e.g. to fire it once for a batch of tokens.
+   *
+   * @param update The method to be used
+   * @param zone The zone where the token is
+   * @param parameters An array of parameters
+   */
+  public void applyUpdate(Zone zone, Update update, Object[] parameters) {
     boolean lightChanged = false;
     boolean macroChanged = false;
     boolean panelLookChanged = false; // appearance of token in a panel changed
@@ -2473,7 +2501,7 @@ public void updateProperty(Zone zone, Update update, Object[] parameters) {
         break;
       case setZOrder:
         setZOrder((int) parameters[0]);
-        zone.sortZOrder(); // update new ZOrder
+        zone.updateZOrder(Collections.singletonList(this)); // update new ZOrder
         break;
       case setFacing:
         if (hasLightSources()) {
@@ -2635,6 +2663,5 @@ public void updateProperty(Zone zone, Update update, Object[] parameters) {
     if (panelLookChanged) {
       zone.tokenPanelChanged(this);
     }
-    zone.tokenChanged(this); // fire Event.TOKEN_CHANGED, which updates topology if token has VBL
   }
 }
@@ -0,0 +1,214 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookups of the tokens of a zone by name, GM name, owner and a few flags the renderer and the
+ * macro functions ask for, so these don't have to go through every token. Each token is filed
+ * under the values it had when it was last put, a token that changed has to be put again.
+ *
+ * <p>The lookups return the tokens in z-order, the order a scan over all tokens would find them.
+ */
+class TokenLookup {
+  /** The flags tokens can be looked up by. */
+  enum Flag {
+    VBL,
+    SIGHT,
+    LIGHTS,
+    TERRAIN_MODIFIER,
+    LIB
+  }
+
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+  private final Map<String, Set<Token>> byName = new HashMap<String, Set<Token>>();
+  private final Map<String, Set<Token>> byGMName = new HashMap<String, Set<Token>>();
+  private final Map<String, Set<Token>> byOwner = new HashMap<String, Set<Token>>();
+  private final Set<Token> ownedByAll = new HashSet<Token>();
+  private final Map<Flag, Set<Token>> byFlag = new EnumMap<Flag, Set<Token>>(Flag.class);
+
+  /** The values a token was filed under. */
+  private static class Entry {
+    private final Token token;
+    private final String name;
+    private final String gmName;
+    private final Set<String> owners;
+    private final boolean isOwnedByAll;
+    private final Set<Flag> flags = EnumSet.noneOf(Flag.class);
+
+    Entry(Token token) {
+      this.token = token;
+      name = key(token.getName());
+      gmName = token.getRawGMName() != null ? key(token.getRawGMName()) : "";
+      owners = new HashSet<String>(token.getOwners());
+      isOwnedByAll = token.isOwnedByAll();
+      if (token.hasVBL()) {
+        flags.add(Flag.VBL);
+      }
+      if (token.getHasSight()) {
+        flags.add(Flag.SIGHT);
+      }
+      if (token.hasLightSources()) {
+        flags.add(Flag.LIGHTS);
+      }
+      if (token.getTerrainModifierOperation() != TerrainModifierOperation.NONE) {
+        flags.add(Flag.TERRAIN_MODIFIER);
+      }
+      if (name.startsWith("lib:")) {
+        flags.add(Flag.LIB);
+      }
+    }
+  }
+
+  public TokenLookup() {
+    for (Flag flag : Flag.values()) {
+      byFlag.put(flag, new HashSet<Token>());
+    }
+  }
+
+  public TokenLookup(Iterable<Token> tokens) {
+    this();
+    for (Token token : tokens) {
+      put(token);
+    }
+  }
+
+  /**
+   * Files a token under its current values, replacing what it was filed under before.
+   *
+   * @param token the token
+   */
+  public void put(Token token) {
+    remove(token.getId());
+    Entry entry = new Entry(token);
+    entries.put(token.getId(), entry);
+    add(byName, entry.name, token);
+    if (!entry.gmName.isEmpty()) {
+      add(byGMName, entry.gmName, token);
+    }
+    for (String owner : entry.owners) {
+      add(byOwner, owner, token);
+    }
+    if (entry.isOwnedByAll) {
+      ownedByAll.add(token);
+    }
+    for (Flag flag : entry.flags) {
+      byFlag.get(flag).add(token);
+    }
+  }
+
+  /** @param id the id of the token to drop */
+  public void remove(GUID id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return;
+    }
+    Token token = entry.token;
+    discard(byName, entry.name, token);
+    discard(byGMName, entry.gmName, token);
+    for (String owner : entry.owners) {
+      discard(byOwner, owner, token);
+    }
+    ownedByAll.remove(token);
+    for (Flag flag : entry.flags) {
+      byFlag.get(flag).remove(token);
+    }
+  }
+
+  /**
+   * @param name the name, matched case-insensitively
+   * @return the tokens with the name
+   */
+  public List<Token> getByName(String name) {
+    return matching(byName.get(key(name)), name, false);
+  }
+
+  /**
+   * @param name the GM name, matched case-insensitively
+   * @return the tokens with the GM name
+   */
+  public List<Token> getByGMName(String name) {
+    return matching(byGMName.get(key(name)), name, true);
+  }
+
+  /**
+   * @param player the name of the player
+   * @return the tokens the player owns, including those owned by all
+   */
+  public List<Token> getOwnedBy(String player) {
+    Set<Token> owned = new HashSet<Token>(ownedByAll);
+    owned.addAll(byOwner.getOrDefault(player, Collections.emptySet()));
+    return sorted(owned);
+  }
+
+  /**
+   * @param flag the flag
+   * @return the tokens with the flag
+   */
+  public List<Token> getFlagged(Flag flag) {
+    return sorted(byFlag.get(flag));
+  }
+
+  // Keys that are equal exactly when String.equalsIgnoreCase() says the strings are. Matches are
+  // still checked with equalsIgnoreCase() in case the folding is off for some exotic characters.
+  private static String key(String s) {
+    char[] chars = s.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+    }
+    return new String(chars);
+  }
+
+  private static List<Token> matching(Set<Token> tokens, String name, boolean gmName) {
+    if (tokens == null) {
+      return Collections.emptyList();
+    }
+    List<Token> list = new ArrayList<Token>(tokens.size());
+    for (Token token : tokens) {
+      String value = gmName ? token.getRawGMName() : token.getName();
+      if (name.equalsIgnoreCase(value)) {
+        list.add(token);
+      }
+    }
+    list.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+    return list;
+  }
+
+  private static List<Token> sorted(Set<Token> tokens) {
+    List<Token> list = new ArrayList<Token>(tokens);
+    list.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+    return list;
+  }
+
+  private static void add(Map<String, Set<Token>> map, String key, Token token) {
+    map.computeIfAbsent(key, k -> new HashSet<Token>()).add(token);
+  }
+
+  private static void discard(Map<String, Set<Token>> map, String key, Token token) {
+    Set<Token> tokens = map.get(key);
+    if (tokens != null && tokens.remove(token) && tokens.isEmpty()) {
+      map.remove(key);
+    }
+  }
+}
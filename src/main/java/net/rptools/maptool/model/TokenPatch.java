@@ -0,0 +1,377 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The fields of a {@link Token} that changed between two versions, sent instead of the whole token
+ * when a token is put or edited. Maps that tend to get large (properties, macros, states, images)
+ * are patched entry by entry, every other field is replaced as a whole.
+ *
+ * <p>A patch applies to the token version it was made against, see {@link TokenVersionTracker}.
+ */
+public class TokenPatch {
+  private static final Logger log = LogManager.getLogger(TokenPatch.class);
+
+  /** Version of a token whose state is not known to be the same as on the server. */
+  public static final long UNKNOWN_VERSION = -1;
+
+  /** Fields that are patched per entry, they always hold a {@link Map}. */
+  static final Set<String> ENTRY_FIELDS =
+      Set.of("state", "propertyMapCI", "macroPropertiesMap", "imageAssetMap");
+
+  /** The persistent fields of a token, except its id. */
+  static final Map<String, Field> FIELDS;
+
+  static {
+    Map<String, Field> fields = new LinkedHashMap<String, Field>();
+    for (Field field : Token.class.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (Modifier.isStatic(modifiers)
+          || Modifier.isTransient(modifiers)
+          || field.getName().equals("id")) {
+        continue;
+      }
+      field.setAccessible(true);
+      fields.put(field.getName(), field);
+    }
+    FIELDS = Collections.unmodifiableMap(fields);
+  }
+
+  private GUID tokenId;
+  private long baseVersion;
+  private long version;
+  private boolean edited;
+  private Map<String, Object> fields = new HashMap<String, Object>();
+  private Map<String, Map<Object, Object>> putEntries = new HashMap<String, Map<Object, Object>>();
+  private Map<String, Set<Object>> removedEntries = new HashMap<String, Set<Object>>();
+
+  public TokenPatch(GUID tokenId, long baseVersion, long version) {
+    this.tokenId = tokenId;
+    this.baseVersion = baseVersion;
+    this.version = version;
+  }
+
+  public GUID getTokenId() {
+    return tokenId;
+  }
+
+  /** @return the version of the token this patch was made against. */
+  public long getBaseVersion() {
+    return baseVersion;
+  }
+
+  /** @return the version of the token after this patch has been applied. */
+  public long getVersion() {
+    return version;
+  }
+
+  /** @return true if the patch comes from an edit, see {@link Zone#editToken(Token)}. */
+  public boolean isEdited() {
+    return edited;
+  }
+
+  public void setEdited(boolean edited) {
+    this.edited = edited;
+  }
+
+  /**
+   * Returns a copy of this patch for another pair of versions, used by the server when it forwards
+   * a patch.
+   *
+   * @param baseVersion the version the copy applies to
+   * @param version the version after the copy has been applied
+   * @return the copy
+   */
+  public TokenPatch withVersions(long baseVersion, long version) {
+    TokenPatch patch = new TokenPatch(tokenId, baseVersion, version);
+    patch.edited = edited;
+    patch.fields = fields;
+    patch.putEntries = putEntries;
+    patch.removedEntries = removedEntries;
+    return patch;
+  }
+
+  public boolean isEmpty() {
+    return fields.isEmpty() && putEntries.isEmpty() && removedEntries.isEmpty();
+  }
+
+  /** @return the names of the fields that are changed by this patch. */
+  public Set<String> getChangedFields() {
+    Set<String> names = new HashSet<String>(fields.keySet());
+    names.addAll(putEntries.keySet());
+    names.addAll(removedEntries.keySet());
+    return names;
+  }
+
+  void setField(String name, Object value) {
+    fields.put(name, value);
+  }
+
+  void putEntry(String name, Object key, Object value) {
+    putEntries.computeIfAbsent(name, n -> new HashMap<Object, Object>()).put(key, value);
+  }
+
+  void removeEntry(String name, Object key) {
+    removedEntries.computeIfAbsent(name, n -> new HashSet<Object>()).add(key);
+  }
+
+  /**
+   * Applies the patch to a token. The caller is responsible for checking the token is at {@link
+   * #getBaseVersion()} and for firing the zone events.
+   *
+   * <p>Values are converted to the types of their fields first, Hessian decodes them without their
+   * declared type (a float arrives as a Double). The token is left untouched if any of them can't
+   * be converted.
+   *
+   * @param token the token to change
+   * @return false if the token did not have a map the patch has entries for, or the patch does not
+   *     fit the token, the token should be resent in full then
+   */
+  @SuppressWarnings("unchecked")
+  public boolean applyTo(Token token) {
+    Map<Field, Object> values = new HashMap<Field, Object>();
+    Map<Field, Set<Object>> removed = new HashMap<Field, Set<Object>>();
+    Map<Field, Map<Object, Object>> put = new HashMap<Field, Map<Object, Object>>();
+    try {
+      for (String name : getChangedFields()) {
+        Field field = FIELDS.get(name);
+        if (field == null
+            || (!fields.containsKey(name) && field.get(token) == null)
+            || (!fields.containsKey(name) && !ENTRY_FIELDS.contains(name))) {
+          return false;
+        }
+      }
+      for (Map.Entry<String, Object> entry : fields.entrySet()) {
+        Field field = FIELDS.get(entry.getKey());
+        values.put(field, convert(field.getGenericType(), entry.getValue()));
+      }
+      for (Map.Entry<String, Set<Object>> entry : removedEntries.entrySet()) {
+        Field field = FIELDS.get(entry.getKey());
+        Type keyType = typeArgument(field.getGenericType(), Map.class, 0);
+        Set<Object> keys = new HashSet<Object>();
+        for (Object key : entry.getValue()) {
+          keys.add(convert(keyType, key));
+        }
+        removed.put(field, keys);
+      }
+      for (Map.Entry<String, Map<Object, Object>> entry : putEntries.entrySet()) {
+        Field field = FIELDS.get(entry.getKey());
+        Type keyType = typeArgument(field.getGenericType(), Map.class, 0);
+        Type valueType = typeArgument(field.getGenericType(), Map.class, 1);
+        Map<Object, Object> entries = new HashMap<Object, Object>();
+        for (Map.Entry<Object, Object> e : entry.getValue().entrySet()) {
+          entries.put(convert(keyType, e.getKey()), convert(valueType, e.getValue()));
+        }
+        put.put(field, entries);
+      }
+    } catch (IllegalArgumentException e) {
+      log.warn("Patch does not fit its token: " + this, e);
+      return false;
+    } catch (IllegalAccessException e) {
+      // FIELDS are all accessible
+      throw new IllegalStateException(e);
+    }
+
+    // Nothing below can fail any more
+    try {
+      for (Map.Entry<Field, Object> entry : values.entrySet()) {
+        entry.getKey().set(token, entry.getValue());
+      }
+      for (Map.Entry<Field, Set<Object>> entry : removed.entrySet()) {
+        ((Map<Object, Object>) entry.getKey().get(token)).keySet().removeAll(entry.getValue());
+      }
+      for (Map.Entry<Field, Map<Object, Object>> entry : put.entrySet()) {
+        ((Map<Object, Object>) entry.getKey().get(token)).putAll(entry.getValue());
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    token.resetCachedFields();
+    return true;
+  }
+
+  /**
+   * Converts a decoded value to the declared type of a field, or of an element of one.
+   *
+   * @param type the declared type
+   * @param value the decoded value
+   * @return the value, or a converted copy of it
+   * @throws IllegalArgumentException if the value can't be converted
+   */
+  private static Object convert(Type type, Object value) {
+    Class<?> raw = rawType(type);
+    if (value == null) {
+      if (raw.isPrimitive()) {
+        throw new IllegalArgumentException("No value for a " + raw.getName());
+      }
+      return null;
+    }
+    if (value instanceof Collection && Collection.class.isAssignableFrom(raw)) {
+      Type elementType = typeArgument(type, Collection.class, 0);
+      Collection<Object> converted = newInstance(raw, value);
+      boolean changed = !raw.isInstance(value);
+      for (Object element : (Collection<?>) value) {
+        Object c = convert(elementType, element);
+        changed |= c != element;
+        converted.add(c);
+      }
+      return checked(raw, changed ? converted : value);
+    }
+    if (value instanceof Map && Map.class.isAssignableFrom(raw)) {
+      Type keyType = typeArgument(type, Map.class, 0);
+      Type valueType = typeArgument(type, Map.class, 1);
+      Map<Object, Object> converted = newInstance(raw, value);
+      boolean changed = !raw.isInstance(value);
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        Object k = convert(keyType, entry.getKey());
+        Object v = convert(valueType, entry.getValue());
+        changed |= k != entry.getKey() || v != entry.getValue();
+        converted.put(k, v);
+      }
+      return checked(raw, changed ? converted : value);
+    }
+    Class<?> boxed = box(raw);
+    if (value instanceof Number
+        && !boxed.isInstance(value)
+        && Number.class.isAssignableFrom(boxed)) {
+      return convertNumber((Number) value, boxed);
+    }
+    return checked(boxed, value);
+  }
+
+  private static Object checked(Class<?> type, Object value) {
+    if (!type.isInstance(value)) {
+      throw new IllegalArgumentException(
+          value.getClass().getName() + " is not a " + type.getName());
+    }
+    return value;
+  }
+
+  private static Number convertNumber(Number value, Class<?> type) {
+    Number converted;
+    if (type == Float.class) {
+      return value.floatValue();
+    } else if (type == Double.class) {
+      return value.doubleValue();
+    } else if (type == Integer.class) {
+      converted = value.intValue();
+    } else if (type == Long.class) {
+      converted = value.longValue();
+    } else if (type == Short.class) {
+      converted = value.shortValue();
+    } else if (type == Byte.class) {
+      converted = value.byteValue();
+    } else {
+      throw new IllegalArgumentException("Can't convert to " + type.getName());
+    }
+    if (converted.doubleValue() != value.doubleValue()) {
+      throw new IllegalArgumentException(value + " does not fit a " + type.getName());
+    }
+    return converted;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T newInstance(Class<?> type, Object value) {
+    if (type.isInstance(value)) {
+      // Keep the class of the decoded value, e.g. a CaseInsensitiveHashMap
+      type = value.getClass();
+    }
+    try {
+      return (T) type.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // An interface or a class without a default constructor
+    }
+    if (Map.class.isAssignableFrom(type)) {
+      return (T) new HashMap<Object, Object>();
+    } else if (Set.class.isAssignableFrom(type)) {
+      return (T) new HashSet<Object>();
+    }
+    return (T) new ArrayList<Object>();
+  }
+
+  private static Class<?> rawType(Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    } else if (type instanceof ParameterizedType) {
+      return rawType(((ParameterizedType) type).getRawType());
+    }
+    // Type variables and wildcards, anything goes
+    return Object.class;
+  }
+
+  /**
+   * Returns the declared type argument of a map or collection, e.g. the Integer of a {@code
+   * Map<Integer, MacroButtonProperties>}. Subclasses that bind their own parameters, like {@code
+   * CaseInsensitiveHashMap<Object>}, are taken to hold anything.
+   */
+  private static Type typeArgument(Type type, Class<?> of, int index) {
+    if (type instanceof ParameterizedType) {
+      Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+      if (of.getTypeParameters().length == arguments.length) {
+        return arguments[index];
+      }
+    }
+    return Object.class;
+  }
+
+  private static Class<?> box(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return type;
+    } else if (type == int.class) {
+      return Integer.class;
+    } else if (type == long.class) {
+      return Long.class;
+    } else if (type == float.class) {
+      return Float.class;
+    } else if (type == double.class) {
+      return Double.class;
+    } else if (type == boolean.class) {
+      return Boolean.class;
+    } else if (type == short.class) {
+      return Short.class;
+    } else if (type == byte.class) {
+      return Byte.class;
+    }
+    return Character.class;
+  }
+
+  @Override
+  public String toString() {
+    return "TokenPatch["
+        + tokenId
+        + " "
+        + baseVersion
+        + "->"
+        + version
+        + " "
+        + getChangedFields()
+        + "]";
+  }
+}
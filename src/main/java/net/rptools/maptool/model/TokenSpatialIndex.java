@@ -0,0 +1,200 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Finds the tokens of a zone by where they are on the map. The map is cut into square buckets and
+ * each token is kept in the buckets its extent overlaps, tokens that would span too many buckets
+ * (e.g. background maps as stamps) are kept in a separate list that every query checks.
+ *
+ * <p>The extent of a token is its bounds, grown for top-down tokens with a facing so that it
+ * covers the image whichever way it is turned.
+ *
+ * <p>The index only knows where tokens were when they were last put, it has to be told about
+ * every change to a token's position or size.
+ */
+class TokenSpatialIndex {
+  /** Width and height of a bucket, in zone pixels. */
+  static final int BUCKET_SIZE = 256;
+  /** Tokens covering more buckets than this are not put in the buckets. */
+  static final int MAX_BUCKETS = 64;
+
+  private final Map<Long, List<Entry>> buckets = new HashMap<Long, List<Entry>>();
+  private final Set<Entry> large = new HashSet<Entry>();
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+
+  private static class Entry {
+    final Token token;
+    final Rectangle extent;
+    final int minX, minY, maxX, maxY; // buckets covered
+
+    Entry(Token token, Rectangle extent) {
+      this.token = token;
+      this.extent = extent;
+      minX = Math.floorDiv(extent.x, BUCKET_SIZE);
+      minY = Math.floorDiv(extent.y, BUCKET_SIZE);
+      maxX = Math.floorDiv(extent.x + Math.max(extent.width, 1) - 1, BUCKET_SIZE);
+      maxY = Math.floorDiv(extent.y + Math.max(extent.height, 1) - 1, BUCKET_SIZE);
+    }
+
+    boolean isLarge() {
+      return (long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_BUCKETS;
+    }
+  }
+
+  /**
+   * Works out the area of the map a token can cover.
+   *
+   * @param token the token
+   * @param zone the zone the token is on
+   * @return the extent of the token, in zone coordinates
+   */
+  static Rectangle getExtent(Token token, Zone zone) {
+    Rectangle bounds = token.getBounds(zone);
+    if (token.hasFacing() && token.getShape() == Token.TokenShape.TOP_DOWN) {
+      // The image turns around the middle of the unanchored bounds, see ZoneRenderer
+      Point anchor = token.getAnchor();
+      double halfWidth = bounds.width / 2.0 + Math.abs(anchor.x);
+      double halfHeight = bounds.height / 2.0 + Math.abs(anchor.y);
+      int radius = (int) Math.ceil(Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight));
+      int centerX = bounds.x + bounds.width / 2 - anchor.x;
+      int centerY = bounds.y + bounds.height / 2 - anchor.y;
+      bounds.add(new Rectangle(centerX - radius, centerY - radius, 2 * radius, 2 * radius));
+    }
+    return bounds;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Adds a token, or moves it to where it is now.
+   *
+   * @param token the token
+   * @param zone the zone the token is on
+   */
+  public void put(Token token, Zone zone) {
+    remove(token.getId());
+    Entry entry = new Entry(token, getExtent(token, zone));
+    entries.put(token.getId(), entry);
+    if (entry.isLarge()) {
+      large.add(entry);
+      return;
+    }
+    for (int x = entry.minX; x <= entry.maxX; x++) {
+      for (int y = entry.minY; y <= entry.maxY; y++) {
+        buckets.computeIfAbsent(key(x, y), k -> new ArrayList<Entry>(4)).add(entry);
+      }
+    }
+  }
+
+  public void remove(GUID tokenId) {
+    Entry entry = entries.remove(tokenId);
+    if (entry == null) {
+      return;
+    }
+    if (entry.isLarge()) {
+      large.remove(entry);
+      return;
+    }
+    for (int x = entry.minX; x <= entry.maxX; x++) {
+      for (int y = entry.minY; y <= entry.maxY; y++) {
+        Long key = key(x, y);
+        List<Entry> bucket = buckets.get(key);
+        if (bucket != null) {
+          bucket.remove(entry);
+          if (bucket.isEmpty()) {
+            buckets.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    buckets.clear();
+    large.clear();
+    entries.clear();
+  }
+
+  /**
+   * Finds the tokens with an extent that intersects an area and passes a test.
+   *
+   * @param area the area to look in, in zone coordinates
+   * @param test further test of the extent of each token found in the area
+   * @return the tokens, in no particular order
+   */
+  public List<Token> query(Rectangle area, Predicate<Rectangle> test) {
+    Set<Entry> found = new HashSet<Entry>();
+    addOverlapping(large, area, found);
+    int minX = Math.floorDiv(area.x, BUCKET_SIZE);
+    int minY = Math.floorDiv(area.y, BUCKET_SIZE);
+    int maxX = Math.floorDiv(area.x + Math.max(area.width, 1) - 1, BUCKET_SIZE);
+    int maxY = Math.floorDiv(area.y + Math.max(area.height, 1) - 1, BUCKET_SIZE);
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > buckets.size()) {
+      // Fewer buckets in use than the area covers
+      for (List<Entry> bucket : buckets.values()) {
+        addOverlapping(bucket, area, found);
+      }
+    } else {
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          List<Entry> bucket = buckets.get(key(x, y));
+          if (bucket != null) {
+            addOverlapping(bucket, area, found);
+          }
+        }
+      }
+    }
+    List<Token> tokens = new ArrayList<Token>(found.size());
+    for (Entry entry : found) {
+      if (test.test(entry.extent)) {
+        tokens.add(entry.token);
+      }
+    }
+    return tokens;
+  }
+
+  private static void addOverlapping(Iterable<Entry> entries, Rectangle area, Set<Entry> found) {
+    for (Entry entry : entries) {
+      if (overlaps(entry.extent, area)) {
+        found.add(entry);
+      }
+    }
+  }
+
+  // Unlike Rectangle.intersects(), an empty rectangle still overlaps what it is on
+  static boolean overlaps(Rectangle a, Rectangle b) {
+    return a.x < b.x + Math.max(b.width, 1)
+        && b.x < a.x + Math.max(a.width, 1)
+        && a.y < b.y + Math.max(b.height, 1)
+        && b.y < a.y + Math.max(a.height, 1);
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
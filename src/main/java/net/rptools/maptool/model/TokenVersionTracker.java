@@ -0,0 +1,196 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import net.rptools.clientserver.hessian.HessianUtils;
+
+/**
+ * Keeps the version of each token and, for tokens that have been changed locally, the encoded state
+ * of the token as of that version. The server only uses the versions, it bumps them for every
+ * change it forwards. Clients use the encoded state to work out a {@link TokenPatch} when a token
+ * is put again.
+ *
+ * <p>Tokens the tracker has not seen are at version 0, the version every token starts with on the
+ * server.
+ */
+public class TokenVersionTracker {
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+
+  private static class Entry {
+    long version;
+    // Field name to the encoded field, or to a map of key to encoded value for the ENTRY_FIELDS.
+    // Null until the token has been put locally.
+    Map<String, Object> snapshot;
+  }
+
+  public synchronized long getVersion(GUID tokenId) {
+    Entry entry = entries.get(tokenId);
+    return entry == null ? 0 : entry.version;
+  }
+
+  public synchronized void setVersion(GUID tokenId, long version) {
+    entries.computeIfAbsent(tokenId, id -> new Entry()).version = version;
+  }
+
+  /**
+   * Moves a token to its next version.
+   *
+   * @param tokenId the id of the token
+   * @return the new version
+   */
+  public synchronized long nextVersion(GUID tokenId) {
+    return ++entries.computeIfAbsent(tokenId, id -> new Entry()).version;
+  }
+
+  /**
+   * Works out what changed in a token since it was last put, sent or received. The token is then
+   * taken to be at the version of the returned patch.
+   *
+   * @param token the token that is about to be sent to the server
+   * @return the patch to send, empty if nothing changed, or null if the token has not been put
+   *     before and has to be sent whole
+   */
+  public synchronized TokenPatch diff(Token token) {
+    Entry entry = entries.computeIfAbsent(token.getId(), id -> new Entry());
+    if (entry.snapshot == null) {
+      entry.snapshot = snapshot(token);
+      // The server moves the token to its next version when it gets the whole token
+      entry.version = nextVersion(entry.version);
+      return null;
+    }
+    long baseVersion = entry.version;
+    entry.version = nextVersion(baseVersion);
+    TokenPatch patch = new TokenPatch(token.getId(), baseVersion, entry.version);
+    for (Field field : TokenPatch.FIELDS.values()) {
+      String name = field.getName();
+      Object value = get(field, token);
+      Object base = entry.snapshot.get(name);
+      if (value instanceof Map && base instanceof Map) {
+        @SuppressWarnings("unchecked")
+        Map<Object, byte[]> baseEntries = (Map<Object, byte[]>) base;
+        Map<Object, byte[]> encoded = encodeEntries((Map<?, ?>) value);
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+          if (!Arrays.equals(encoded.get(e.getKey()), baseEntries.get(e.getKey()))) {
+            patch.putEntry(name, e.getKey(), e.getValue());
+          }
+        }
+        for (Object key : baseEntries.keySet()) {
+          if (!encoded.containsKey(key)) {
+            patch.removeEntry(name, key);
+          }
+        }
+        entry.snapshot.put(name, encoded);
+      } else {
+        Object encoded = encode(name, value);
+        if (!sameEncoding(encoded, base)) {
+          patch.setField(name, value);
+        }
+        entry.snapshot.put(name, encoded);
+      }
+    }
+    if (patch.isEmpty()) {
+      // Nothing to send, so the server won't move to the next version either
+      entry.version = baseVersion;
+    }
+    return patch;
+  }
+
+  /**
+   * Records that a whole token has been received.
+   *
+   * @param token the token
+   * @param version its version
+   */
+  public synchronized void received(Token token, long version) {
+    Entry entry = entries.computeIfAbsent(token.getId(), id -> new Entry());
+    entry.version = version;
+    if (entry.snapshot != null) {
+      entry.snapshot = snapshot(token);
+    }
+  }
+
+  /**
+   * Records that a patch has been applied to a token.
+   *
+   * @param token the token after the patch
+   * @param patch the patch
+   */
+  public synchronized void patched(Token token, TokenPatch patch) {
+    Entry entry = entries.computeIfAbsent(token.getId(), id -> new Entry());
+    entry.version = patch.getVersion();
+    if (entry.snapshot != null) {
+      for (String name : patch.getChangedFields()) {
+        Object value = get(TokenPatch.FIELDS.get(name), token);
+        entry.snapshot.put(name, encode(name, value));
+      }
+    }
+  }
+
+  public synchronized void remove(GUID tokenId) {
+    entries.remove(tokenId);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private static long nextVersion(long version) {
+    return version == TokenPatch.UNKNOWN_VERSION ? version : version + 1;
+  }
+
+  private static Map<String, Object> snapshot(Token token) {
+    Map<String, Object> snapshot = new HashMap<String, Object>();
+    for (Field field : TokenPatch.FIELDS.values()) {
+      snapshot.put(field.getName(), encode(field.getName(), get(field, token)));
+    }
+    return snapshot;
+  }
+
+  private static Object encode(String name, Object value) {
+    if (TokenPatch.ENTRY_FIELDS.contains(name) && value != null) {
+      return encodeEntries((Map<?, ?>) value);
+    }
+    return HessianUtils.objectToBytes(value);
+  }
+
+  private static Map<Object, byte[]> encodeEntries(Map<?, ?> map) {
+    Map<Object, byte[]> encoded = new HashMap<Object, byte[]>();
+    for (Map.Entry<?, ?> e : map.entrySet()) {
+      encoded.put(e.getKey(), HessianUtils.objectToBytes(e.getValue()));
+    }
+    return encoded;
+  }
+
+  private static boolean sameEncoding(Object encoded, Object base) {
+    if (encoded instanceof byte[] && base instanceof byte[]) {
+      return Arrays.equals((byte[]) encoded, (byte[]) base);
+    }
+    // An entry field that was or became null
+    return false;
+  }
+
+  private static Object get(Field field, Token token) {
+    try {
+      return field.get(token);
+    } catch (IllegalAccessException e) {
+      // TokenPatch.FIELDS are all accessible
+      throw new IllegalStateException(e);
+    }
+  }
+}
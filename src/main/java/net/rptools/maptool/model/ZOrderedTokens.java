@@ -0,0 +1,147 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The tokens of a zone in z-order, with the tokens of each layer kept apart as well. A token is
+ * filed under the z-order and layer it had when it was last put, so a token whose z-order or layer
+ * was changed is moved to its new place by putting it again. Putting and removing a token takes
+ * O(log n).
+ *
+ * <p>The lists handed out are unmodifiable snapshots, made again only after a change.
+ */
+class ZOrderedTokens {
+  private final NavigableMap<Key, Token> tokens = new TreeMap<Key, Token>();
+  private final Map<GUID, Key> keys = new HashMap<GUID, Key>();
+  private final Map<Zone.Layer, NavigableMap<Key, Token>> layers =
+      new EnumMap<Zone.Layer, NavigableMap<Key, Token>>(Zone.Layer.class);
+
+  private List<Token> snapshot;
+  private final Map<Zone.Layer, List<Token>> layerSnapshots =
+      new EnumMap<Zone.Layer, List<Token>>(Zone.Layer.class);
+
+  /** Where a token is filed, the same order as {@link Zone#TOKEN_Z_ORDER_COMPARATOR}. */
+  private static class Key implements Comparable<Key> {
+    private final int zOrder;
+    private final GUID id;
+    private final Zone.Layer layer;
+
+    Key(Token token) {
+      zOrder = token.getZOrder();
+      id = token.getId();
+      layer = token.getLayer();
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      int result = Integer.compare(zOrder, other.zOrder);
+      return result != 0 ? result : id.compareTo(other.id);
+    }
+  }
+
+  public ZOrderedTokens() {
+    for (Zone.Layer layer : Zone.Layer.values()) {
+      layers.put(layer, new TreeMap<Key, Token>());
+    }
+  }
+
+  public ZOrderedTokens(Collection<Token> tokens) {
+    this();
+    for (Token token : tokens) {
+      put(token);
+    }
+  }
+
+  /**
+   * Adds a token, or moves it to its current place in the z-order.
+   *
+   * @param token the token
+   */
+  public void put(Token token) {
+    remove(token.getId());
+    Key key = new Key(token);
+    keys.put(key.id, key);
+    tokens.put(key, token);
+    layers.get(key.layer).put(key, token);
+    changed(key.layer);
+  }
+
+  /**
+   * @param id the id of the token
+   * @return the token that was removed, or null
+   */
+  public Token remove(GUID id) {
+    Key key = keys.remove(id);
+    if (key == null) {
+      return null;
+    }
+    layers.get(key.layer).remove(key);
+    changed(key.layer);
+    return tokens.remove(key);
+  }
+
+  public int size() {
+    return tokens.size();
+  }
+
+  public boolean isEmpty() {
+    return tokens.isEmpty();
+  }
+
+  /** @return the token at the bottom, or null if there are no tokens. */
+  public Token first() {
+    return tokens.isEmpty() ? null : tokens.firstEntry().getValue();
+  }
+
+  /** @return the token at the top, or null if there are no tokens. */
+  public Token last() {
+    return tokens.isEmpty() ? null : tokens.lastEntry().getValue();
+  }
+
+  /** @return all tokens from bottom to top, for iterating without taking a snapshot. */
+  public Collection<Token> values() {
+    return Collections.unmodifiableCollection(tokens.values());
+  }
+
+  /** @return all tokens from bottom to top. */
+  public List<Token> getAll() {
+    if (snapshot == null) {
+      snapshot = List.copyOf(tokens.values());
+    }
+    return snapshot;
+  }
+
+  /**
+   * @param layer the layer
+   * @return the tokens on the layer from bottom to top
+   */
+  public List<Token> getLayer(Zone.Layer layer) {
+    return layerSnapshots.computeIfAbsent(layer, l -> List.copyOf(layers.get(l).values()));
+  }
+
+  private void changed(Zone.Layer layer) {
+    snapshot = null;
+    layerSnapshots.remove(layer);
+  }
+}
@@ -18,7 +18,9 @@
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
+import javax.swing.SwingUtilities;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
@@ -49,7 +51,7 @@
  * {@link #imported()}, {@link #optimize()}, and {@link #readResolve()} to ensure they are properly
  * initialized for maximum compatibility.
  */
-public class Zone extends BaseModel {
+public class Zone extends BaseModel implements Cloneable {
 
   private static final Logger log = LogManager.getLogger(Zone.class);
 
@@ -73,6 +75,7 @@ public enum Event {
     LABEL_REMOVED,
     LABEL_CHANGED,
     TOPOLOGY_CHANGED,
+    TOKEN_TOPOLOGY_CHANGED, // the VBL of some tokens changed
     INITIATIVE_LIST_CHANGED,
     BOARD_CHANGED,
     TOKEN_EDITED, // the token was edited
@@ -171,13 +174,32 @@ public enum TopologyMode {
   /** Map each token GUID to its exposed area metadata */
   private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
 
-  /** Token list ordered by Z. */
-  private final List<Token> tokenOrderedList = new LinkedList<Token>();
+  /**
+   * Token list ordered by Z. The tokens are kept in order in {@link #tokensByZOrder} now, the list
+   * is only filled in on the copy of the zone that is written, for older versions which fail to
+   * load a zone without it. See {@link #writeReplace()}.
+   */
+  private List<Token> tokenOrderedList;
+
+  /** The tokens in z-order, built from the token map when first needed. */
+  private transient ZOrderedTokens tokensByZOrder;
+
+  /** Where the tokens are on the map, built when first needed. */
+  private transient TokenSpatialIndex tokenIndex;
+
+  /** The tokens by name, owner and flags, built when first needed and kept up by the events. */
+  private transient TokenLookup tokenLookup;
+
+  /** The drawings by id and by where they are on the map, built when first needed. */
+  private transient DrawnElementIndex drawableIndex;
 
   private InitiativeList initiativeList = new InitiativeList(this);
 
   /** The global exposed area. */
-  private Area exposedArea = new Area();
+  private TiledArea exposedTiles = new TiledArea();
+
+  /** The global exposed area, as saved before it was kept in tiles. Only read from older files. */
+  private Area exposedArea;
 
   private boolean hasFog;
   private DrawablePaint fogPaint;
@@ -218,6 +240,9 @@ public enum TopologyMode {
 
   private transient Map<String, Integer> tokenNumberCache;
 
+  /** Counts the changes made to the zone since it was loaded, see {@link #getChangeCount()}. */
+  private transient long changeCount;
+
   /**
    * Note: When adding new fields to this class, make sure to update all constructors, {@link
    * #imported()}, {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -230,6 +255,7 @@ public Zone() {
   }
 
   public void setBackgroundPaint(DrawablePaint paint) {
+    changeCount++;
     backgroundPaint = paint;
   }
 
@@ -240,11 +266,13 @@ public MD5Key getBackgroundAsset() {
   }
 
   public void setMapAsset(MD5Key id) {
+    changeCount++;
     mapAsset = id;
     boardChanged = true;
   }
 
   public void setTokenVisionDistance(int units) {
+    changeCount++;
     tokenVisionDistance = units;
   }
 
@@ -257,6 +285,7 @@ public VisionType getVisionType() {
   }
 
   public void setVisionType(VisionType visionType) {
+    changeCount++;
     this.visionType = visionType;
   }
 
@@ -265,6 +294,7 @@ public TokenSelection getTokenSelection() {
   }
 
   public void setTokenSelection(TokenSelection tokenSelection) {
+    changeCount++;
     this.tokenSelection = tokenSelection;
   }
 
@@ -278,6 +308,7 @@ public int getTokenVisionInPixels() {
   }
 
   public void setFogPaint(DrawablePaint paint) {
+    changeCount++;
     fogPaint = paint;
   }
 
@@ -292,6 +323,7 @@ public String getName() {
   }
 
   public void setName(String name) {
+    changeCount++;
     this.name = name;
   }
 
@@ -429,7 +461,7 @@ public Zone(Zone zone, boolean keepIds) {
     initiativeList.setHideNPC(zone.initiativeList.isHideNPC());
 
     boardPosition = (Point) zone.boardPosition.clone();
-    exposedArea = (Area) zone.exposedArea.clone();
+    exposedTiles = new TiledArea(zone.exposedTiles);
     topology = (Area) zone.topology.clone();
     topologyTerrain = (Area) zone.topologyTerrain.clone();
     aStarRounding = zone.aStarRounding;
@@ -460,6 +492,7 @@ public int getHeight() {
   }
 
   public void setHeight(int height) {
+    changeCount++;
     this.height = height;
   }
 
@@ -468,6 +501,7 @@ public int getWidth() {
   }
 
   public void setWidth(int width) {
+    changeCount++;
     this.width = width;
   }
 
@@ -476,6 +510,7 @@ public boolean isVisible() {
   }
 
   public void setVisible(boolean isVisible) {
+    changeCount++;
     this.isVisible = isVisible;
   }
 
@@ -490,11 +525,70 @@ public Grid getGrid() {
     return grid;
   }
 
+  /**
+   * Returns a count that goes up whenever the zone is changed through its setters or with a model
+   * change event, and whenever its initiative list changes. Used to tell whether a copy of the zone
+   * is still current, see {@link CampaignSnapshot}. Tokens and drawings changed in place are not
+   * counted until the zone is told about them, e.g. with {@link #tokenChanged(Token)} or {@link
+   * #drawableChanged(GUID)}.
+   *
+   * @return the change count
+   */
+  public long getChangeCount() {
+    return changeCount;
+  }
+
+  /** Counts a change of the initiative list, which has no model change event of its own. */
+  void initiativeListChanged() {
+    changeCount++;
+  }
+
+  @Override
+  protected void fireModelChangeEvent(ModelChangeEvent event) {
+    changeCount++;
+    if (event.getEvent() == Event.GRID_CHANGED) {
+      // Token bounds depend on the grid
+      tokenIndex = null;
+    }
+    if (tokenLookup != null) {
+      updateTokenLookup(event);
+    }
+    super.fireModelChangeEvent(event);
+  }
+
+  private void updateTokenLookup(ModelChangeEvent event) {
+    Object type = event.getEvent();
+    if (type != Event.TOKEN_ADDED && type != Event.TOKEN_CHANGED && type != Event.TOKEN_REMOVED) {
+      return;
+    }
+    // The events carry either a token or a list of tokens
+    List<?> tokens =
+        event.getArg() instanceof List
+            ? (List<?>) event.getArg()
+            : Collections.singletonList(event.getArg());
+    for (Object o : tokens) {
+      Token token = (Token) o;
+      if (type == Event.TOKEN_REMOVED) {
+        tokenLookup.remove(token.getId());
+      } else {
+        tokenLookup.put(token);
+      }
+    }
+  }
+
+  private TokenLookup getTokenLookup() {
+    if (tokenLookup == null) {
+      tokenLookup = new TokenLookup(tokenMap.values());
+    }
+    return tokenLookup;
+  }
+
   public int getGridColor() {
     return gridColor;
   }
 
   public void setGridColor(int color) {
+    changeCount++;
     gridColor = color;
   }
 
@@ -544,6 +638,7 @@ public boolean drawBoard() {
   }
 
   public void setDrawBoard(boolean draw) {
+    changeCount++;
     drawBoard = draw;
   }
 
@@ -556,6 +651,7 @@ public float getImageScaleX() {
   }
 
   public void setImageScaleX(float imageScaleX) {
+    changeCount++;
     this.imageScaleX = imageScaleX;
   }
 
@@ -564,6 +660,7 @@ public float getImageScaleY() {
   }
 
   public void setImageScaleY(float imageScaleY) {
+    changeCount++;
     this.imageScaleY = imageScaleY;
   }
 
@@ -600,21 +697,21 @@ public boolean isPointVisible(ZonePoint point, PlayerView view) {
     if (!hasFog() || view.isGMView()) {
       return true;
     }
+    if (exposedTiles.contains(point.x, point.y)) {
+      return true;
+    }
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
-      Area combined = new Area(exposedArea);
       List<Token> toks = view.getTokens(); // only owned and HasSight tokens are returned
       if (toks != null && !toks.isEmpty()) {
         for (Token tok : toks) {
           ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
-          if (meta != null) {
-            combined.add(meta.getExposedAreaHistory());
+          if (meta != null && meta.getExposedTiles().contains(point.x, point.y)) {
+            return true;
           }
         }
       }
-      return combined.contains(point.x, point.y);
-    } else {
-      return exposedArea.contains(point.x, point.y);
     }
+    return false;
   }
 
   public boolean isEmpty() {
@@ -623,7 +720,7 @@ public boolean isEmpty() {
         && (gmDrawables == null || gmDrawables.isEmpty())
         && (objectDrawables == null || objectDrawables.isEmpty())
         && (backgroundDrawables == null || backgroundDrawables.isEmpty())
-        && (tokenOrderedList == null || tokenOrderedList.isEmpty())
+        && tokenMap.isEmpty()
         && (labels == null || labels.isEmpty());
     // @formatter:on
   }
@@ -665,7 +762,9 @@ public boolean isTokenVisible(Token token) {
 
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
-    Area combined = new Area(exposedArea);
+    if (exposedTiles.intersects(tokenSize)) {
+      return true;
+    }
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
       List<Token> toks = view.getTokens();
@@ -676,13 +775,14 @@ public boolean isTokenVisible(Token token) {
           if (!AppUtil.playerOwns(tok)) {
             continue;
           }
-          if (exposedAreaMeta.containsKey(tok.getExposedAreaGUID())) {
-            combined.add(exposedAreaMeta.get(tok.getExposedAreaGUID()).getExposedAreaHistory());
+          ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+          if (meta != null && meta.getExposedTiles().intersects(tokenSize)) {
+            return true;
           }
         }
       }
     }
-    return combined.intersects(tokenSize);
+    return false;
   }
 
   public boolean isTokenFootprintVisible(Token token) {
@@ -703,7 +803,9 @@ public boolean isTokenFootprintVisible(Token token) {
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
     Area tokenFootprint = getGrid().getTokenCellArea(tokenSize);
-    Area combined = new Area(exposedArea);
+    if (exposedTiles.intersects(tokenFootprint)) {
+      return true;
+    }
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
       List<Token> toks = view.getTokens();
@@ -713,15 +815,14 @@ public boolean isTokenFootprintVisible(Token token) {
           if (!AppUtil.playerOwns(tok)) {
             continue;
           }
-          if (exposedAreaMeta.containsKey(tok.getExposedAreaGUID())) {
-            combined.add(exposedAreaMeta.get(tok.getExposedAreaGUID()).getExposedAreaHistory());
+          ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+          if (meta != null && meta.getExposedTiles().intersects(tokenFootprint)) {
+            return true;
           }
         }
       }
     }
-    combined.intersect(tokenFootprint);
-    return !combined.isEmpty();
-    // return combined.intersects(tokenSize);
+    return false;
   }
 
   public void clearTopology() {
@@ -783,9 +884,9 @@ public void removeTopology(Area area) {
     removeTopology(area, getTopologyMode());
   }
 
-  /** Fire the event TOPOLOGY_CHANGED. */
+  /** Fire the event TOKEN_TOPOLOGY_CHANGED. */
   public void tokenTopologyChanged() {
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_TOPOLOGY_CHANGED));
   }
 
   /** @return the topology of the zone */
@@ -804,6 +905,8 @@ public Area getTopologyTerrain() {
    * @param token the token that changed
    */
   public void tokenChanged(Token token) {
+    updateZOrder(Collections.singletonList(token));
+    indexToken(token);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_CHANGED, token));
   }
 
@@ -831,7 +934,7 @@ public void tokenPanelChanged(Token token) {
    * @param globalOnly should the exposed area of all tokens be also cleared?
    */
   public void clearExposedArea(boolean globalOnly) {
-    exposedArea = new Area();
+    exposedTiles = new TiledArea();
     if (!globalOnly) {
       exposedAreaMeta.clear();
     }
@@ -895,7 +998,7 @@ public void exposeArea(Area area, Token tok) {
         return; // FJE Added so that TEA isn't added to the GEA, below.
       }
     }
-    exposedArea.add(area);
+    exposedTiles.add(area);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
 
@@ -914,7 +1017,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       // Why is this done here and then again below???
       // And just because Vision==Off doesn't mean we aren't doing IF...
       // Jamz: if this exposedArea isn't done then it breaks getExposedTokens when vision is off...
-      exposedArea.add(area);
+      exposedTiles.add(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -945,7 +1048,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       }
     } else {
       // Not using IF so add the EA to the GEA instead of a TEA.
-      exposedArea.add(area);
+      exposedTiles.add(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -982,8 +1085,8 @@ public void setFogArea(Area area, Set<GUID> selectedToks) {
         putToken(tok);
       }
     } else {
-      exposedArea.reset();
-      exposedArea.add(area);
+      exposedTiles.reset();
+      exposedTiles.add(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -993,7 +1096,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
       return;
     }
     if (getVisionType() == VisionType.OFF) {
-      exposedArea.subtract(area);
+      exposedTiles.subtract(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -1020,7 +1123,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
         putToken(tok);
       }
     } else {
-      exposedArea.subtract(area);
+      exposedTiles.subtract(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -1043,7 +1146,21 @@ public ZonePoint getNearestVertex(ZonePoint point) {
    * @return the exposed area
    */
   public Area getExposedArea(PlayerView view) {
-    Area combined = new Area(exposedArea);
+    return getExposedArea(view, null);
+  }
+
+  /**
+   * Returns the Area of the exposed fog for the current tokens, like {@link
+   * #getExposedArea(PlayerView)}, but only puts together the parts of it that are needed to cover
+   * some bounds.
+   *
+   * @param view holds whether or not tokens are selected
+   * @param bounds the part of the map that is needed, e.g. the part on screen, or null for all
+   * @return the exposed area, at least where it covers the bounds
+   */
+  public Area getExposedArea(PlayerView view, Rectangle2D bounds) {
+    Area combined =
+        bounds != null ? exposedTiles.getArea(bounds) : new Area(exposedTiles.getArea());
 
     List<Token> toks = view.getTokens();
     // Don't need to worry about StrictTokenOwnership since the PlayerView only contains tokens we
@@ -1060,7 +1177,8 @@ public Area getExposedArea(PlayerView view) {
       // }
       ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
       if (meta != null) {
-        combined.add(meta.getExposedAreaHistory());
+        combined.add(
+            bounds != null ? meta.getExposedAreaHistory(bounds) : meta.getExposedAreaHistory());
       }
     }
     return combined;
@@ -1069,10 +1187,19 @@ public Area getExposedArea(PlayerView view) {
   /**
    * This is the Global Exposed Area (GEA) discussed so much on the dev-team mailing list. :)
    *
-   * @return Area object representing exposed fog area visible to all tokens
+   * @return Area object representing exposed fog area visible to all tokens, which must not be
+   *     changed
    */
   public Area getExposedArea() {
-    return exposedArea;
+    return exposedTiles.getArea();
+  }
+
+  /**
+   * @param bounds the part of the map that is needed, e.g. the part on screen
+   * @return a copy of the global exposed area, at least where it covers the bounds
+   */
+  public Area getExposedArea(Rectangle2D bounds) {
+    return exposedTiles.getArea(bounds);
   }
 
   public double getUnitsPerCell() {
@@ -1080,6 +1207,7 @@ public double getUnitsPerCell() {
   }
 
   public void setUnitsPerCell(double unitsPerCell) {
+    changeCount++;
     this.unitsPerCell = unitsPerCell;
   }
 
@@ -1092,6 +1220,7 @@ public AStarRoundingOptions getAStarRounding() {
   }
 
   public void setAStarRounding(AStarRoundingOptions aStarRounding) {
+    changeCount++;
     this.aStarRounding = aStarRounding;
   }
 
@@ -1104,22 +1233,49 @@ public TopologyMode getTopologyMode() {
   }
 
   public void setTopologyMode(TopologyMode topologyMode) {
+    changeCount++;
     this.topologyMode = topologyMode;
   }
 
   public int getLargestZOrder() {
-    return tokenOrderedList.size() > 0
-        ? tokenOrderedList.get(tokenOrderedList.size() - 1).getZOrder()
-        : 0;
+    Token top = getTokensByZOrder().last();
+    return top != null ? top.getZOrder() : 0;
   }
 
   public int getSmallestZOrder() {
-    return tokenOrderedList.size() > 0 ? tokenOrderedList.get(0).getZOrder() : 0;
+    Token bottom = getTokensByZOrder().first();
+    return bottom != null ? bottom.getZOrder() : 0;
   }
 
   /** Sort the tokens by their ZOrder */
   public void sortZOrder() {
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    // The z-order of the tokens was changed in place
+    changeCount++;
+    tokensByZOrder = null;
+  }
+
+  /**
+   * Moves tokens whose z-order was changed in place to their new position, without firing any
+   * events. Cheaper than {@link #sortZOrder()} when only a few tokens changed.
+   *
+   * @param tokens the tokens that changed
+   */
+  public void updateZOrder(Collection<Token> tokens) {
+    changeCount++;
+    if (tokensByZOrder != null) {
+      for (Token token : tokens) {
+        if (tokenMap.get(token.getId()) == token) {
+          tokensByZOrder.put(token);
+        }
+      }
+    }
+  }
+
+  private ZOrderedTokens getTokensByZOrder() {
+    if (tokensByZOrder == null) {
+      tokensByZOrder = new ZOrderedTokens(tokenMap.values());
+    }
+    return tokensByZOrder;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -1165,28 +1321,40 @@ public void addDrawable(DrawnElement drawnElement) {
       default:
         drawables.add(drawnElement);
     }
+    if (drawableIndex != null) {
+      drawableIndex.add(drawnElement.getDrawable().getLayer(), drawnElement, false);
+    }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_ADDED, drawnElement));
   }
 
   public void updateDrawable(DrawnElement drawnElement, Pen pen) {
-    if (drawnElement.getDrawable().getLayer() == Layer.OBJECT) {
-      updatePen(objectDrawables, drawnElement, pen);
-    } else if (drawnElement.getDrawable().getLayer() == Layer.BACKGROUND) {
-      updatePen(backgroundDrawables, drawnElement, pen);
-    } else if (drawnElement.getDrawable().getLayer() == Layer.GM) {
-      updatePen(gmDrawables, drawnElement, pen);
-    } else {
-      updatePen(drawables, drawnElement, pen);
+    GUID id = drawnElement.getDrawable().getId();
+    DrawnElementIndex index = getDrawableIndex();
+    // Only drawings at the top of the layer they say they are on
+    if (index.getLayer(id) == drawnElement.getDrawable().getLayer()) {
+      index.get(id).setPen(new Pen(pen));
+      // The pen width is part of where the drawing is
+      index.update(id);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_ADDED, drawnElement));
   }
 
-  private void updatePen(List<DrawnElement> elementList, DrawnElement drawnElement, Pen pen) {
-    for (DrawnElement de : elementList) {
-      if (de.getDrawable().getId().equals(drawnElement.getDrawable().getId())) {
-        de.setPen(new Pen(pen));
-        break;
-      }
+  /**
+   * Tells the zone the pen of a drawing was changed in place, so it can find the drawing where it
+   * now reaches to.
+   *
+   * @param drawableId the id of the drawing
+   */
+  public void drawableChanged(GUID drawableId) {
+    changeCount++;
+    if (drawableIndex == null) {
+      return;
+    }
+    if (drawableIndex.getLayer(drawableId) != null) {
+      drawableIndex.update(drawableId);
+    } else if (drawableIndex.get(drawableId) != null) {
+      // Inside a group, the group reaches further now
+      drawableIndex = null;
     }
   }
 
@@ -1206,6 +1374,9 @@ public void addDrawableRear(DrawnElement drawnElement) {
       default:
         ((LinkedList<DrawnElement>) drawables).addFirst(drawnElement);
     }
+    if (drawableIndex != null) {
+      drawableIndex.add(drawnElement.getDrawable().getLayer(), drawnElement, true);
+    }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_ADDED, drawnElement));
   }
 
@@ -1238,7 +1409,44 @@ public List<DrawnElement> getDrawnElements(Zone.Layer layer) {
     }
   }
 
+  /**
+   * Finds the drawings of a layer that can cover part of an area, e.g. to draw only what is on
+   * screen. Drawings inside groups are found through their group.
+   *
+   * @param layer the layer
+   * @param area the area, in zone coordinates
+   * @return the drawings whose bounds grown by the pen overlap the area, in drawing order
+   */
+  public List<DrawnElement> getDrawnElements(Zone.Layer layer, Rectangle area) {
+    return getDrawableIndex().query(layer, area);
+  }
+
+  private DrawnElementIndex getDrawableIndex() {
+    if (drawableIndex == null) {
+      // Same order as getAllDrawnElements(), the first drawing with an id is the one found
+      Map<Layer, List<DrawnElement>> layers = new LinkedHashMap<Layer, List<DrawnElement>>();
+      for (Layer layer : new Layer[] {Layer.TOKEN, Layer.OBJECT, Layer.BACKGROUND, Layer.GM}) {
+        layers.put(layer, getDrawnElements(layer));
+      }
+      drawableIndex = new DrawnElementIndex(layers);
+    }
+    return drawableIndex;
+  }
+
   public void removeDrawable(GUID drawableId) {
+    DrawnElementIndex index = getDrawableIndex();
+    Layer layer = index.getLayer(drawableId);
+    if (layer != null && !index.hasDuplicates()) {
+      DrawnElement drawable = index.remove(drawableId);
+      getDrawnElements(layer).remove(drawable);
+      fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_REMOVED, drawable));
+      return;
+    }
+    if (index.get(drawableId) == null) {
+      return;
+    }
+    // Inside a group, or there is more than one with the id
+    drawableIndex = null;
     // Since we don't know anything about the drawable, look through all the layers
     // Do we need to remove it from the Undo manager as well? Probably. Perhaps some
     // UndoPerZone method that searches and deletes the drawable ID?
@@ -1269,6 +1477,7 @@ public void clearDrawables(List<DrawnElement> drawableList) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_REMOVED, drawable));
     }
     drawableList.clear();
+    drawableIndex = null;
     undo.clear(); // clears the *entire* undo queue, but finer grained control isn't available
   }
 
@@ -1308,10 +1517,8 @@ public void putToken(Token token) {
 
     tokenMap.put(token.getId(), token);
 
-    // LATER: optimize this
-    tokenOrderedList.remove(token);
-    tokenOrderedList.add(token);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    getTokensByZOrder().put(token);
+    indexToken(token);
 
     if (newToken) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -1333,31 +1540,25 @@ public void editToken(Token token) {
    * Same as {@link #putToken(Token)} but optimizes map updates by accepting a list of Tokens. Note
    * that this method fires a single <code>ModelChangeEvent</code> using <code> Event.TOKEN_ADDED
    * </code> and passes the list of added tokens as a parameter. Ditto for <code>Event.TOKEN_CHANGED
-   * </code>.
+   * </code>. Listeners of those events have to accept both a token and a list of tokens.
    *
-   * <p>Not currently invoked by other code, but event handling changes for multiple tokens has been
-   * made. Marked as deprecated to prevent use until the rest of the integration is completed.
-   *
-   * @param tokens List of Tokens to be added to this zone
+   * @param tokens List of distinct Tokens to be added to this zone
    */
-  @Deprecated
   public void putTokens(List<Token> tokens) {
-    // System.out.println("putToken() called with list of " + tokens.size() + " tokens.");
-
-    Collection<Token> values = tokenMap.values();
-
-    List<Token> addedTokens = new LinkedList<Token>(tokens);
-    addedTokens.removeAll(values);
-
-    List<Token> changedTokens = new LinkedList<Token>(tokens);
-    changedTokens.retainAll(values);
-
+    List<Token> addedTokens = new ArrayList<Token>();
+    List<Token> changedTokens = new ArrayList<Token>();
     for (Token t : tokens) {
-      tokenMap.put(t.getId(), t);
+      if (tokenMap.put(t.getId(), t) == null) {
+        addedTokens.add(t);
+      } else {
+        changedTokens.add(t);
+      }
+    }
+    ZOrderedTokens ordered = getTokensByZOrder();
+    for (Token t : tokens) {
+      ordered.put(t);
+      indexToken(t);
     }
-    tokenOrderedList.removeAll(tokens);
-    tokenOrderedList.addAll(tokens);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
 
     if (!addedTokens.isEmpty()) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -1375,7 +1576,12 @@ public void putTokens(List<Token> tokens) {
   public void removeToken(GUID id) {
     Token token = tokenMap.remove(id);
     if (token != null) {
-      tokenOrderedList.remove(token);
+      if (tokensByZOrder != null) {
+        tokensByZOrder.remove(id);
+      }
+      if (tokenIndex != null) {
+        tokenIndex.remove(id);
+      }
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
     }
   }
@@ -1391,7 +1597,12 @@ public void removeTokens(List<GUID> ids) {
       for (GUID id : ids) {
         Token token = tokenMap.remove(id);
         if (token != null) {
-          tokenOrderedList.remove(token);
+          if (tokensByZOrder != null) {
+            tokensByZOrder.remove(id);
+          }
+          if (tokenIndex != null) {
+            tokenIndex.remove(id);
+          }
           removedTokens.add(token);
         }
       }
@@ -1405,17 +1616,122 @@ public Token getToken(GUID id) {
     return tokenMap.get(id);
   }
 
+  /**
+   * Finds the tokens that cover part of an area of the map. A token covers its bounds, a top-down
+   * token with a facing covers whatever its image can cover when turned.
+   *
+   * @param bounds the area, in zone coordinates
+   * @return the tokens, in z-order
+   */
+  public List<Token> getTokensIntersecting(Rectangle bounds) {
+    return sortedByZOrder(getTokenIndex().query(bounds, extent -> true));
+  }
+
+  /**
+   * Finds the tokens that cover part of an area of the map, see {@link
+   * #getTokensIntersecting(Rectangle)}.
+   *
+   * @param area the area, in zone coordinates
+   * @return the tokens, in z-order
+   */
+  public List<Token> getTokensIntersecting(Area area) {
+    return sortedByZOrder(getTokenIndex().query(area.getBounds(), area::intersects));
+  }
+
+  /**
+   * Finds the tokens that cover a point of the map, see {@link #getTokensIntersecting(Rectangle)}.
+   *
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @return the tokens, in z-order
+   */
+  public List<Token> getTokensAt(int x, int y) {
+    return getTokensIntersecting(new Rectangle(x, y, 1, 1));
+  }
+
+  /**
+   * Finds the tokens that cover part of a circle on the map, see {@link
+   * #getTokensIntersecting(Rectangle)}.
+   *
+   * @param x the x coordinate of the center
+   * @param y the y coordinate of the center
+   * @param radius the radius, in zone pixels
+   * @return the tokens, in z-order
+   */
+  public List<Token> getTokensWithin(int x, int y, double radius) {
+    int r = (int) Math.ceil(radius);
+    Rectangle square = new Rectangle(x - r, y - r, 2 * r + 1, 2 * r + 1);
+    return sortedByZOrder(
+        getTokenIndex()
+            .query(
+                square,
+                extent -> {
+                  double dx = Math.max(0, Math.max(extent.x - x, x - extent.getMaxX()));
+                  double dy = Math.max(0, Math.max(extent.y - y, y - extent.getMaxY()));
+                  return dx * dx + dy * dy <= radius * radius;
+                }));
+  }
+
+  private TokenSpatialIndex getTokenIndex() {
+    if (tokenIndex == null) {
+      TokenSpatialIndex index = new TokenSpatialIndex();
+      for (Token token : tokenMap.values()) {
+        index.put(token, this);
+      }
+      tokenIndex = index;
+    }
+    return tokenIndex;
+  }
+
+  private void indexToken(Token token) {
+    if (tokenIndex != null) {
+      tokenIndex.put(token, this);
+    }
+  }
+
+  private static List<Token> sortedByZOrder(List<Token> tokens) {
+    tokens.sort(TOKEN_Z_ORDER_COMPARATOR);
+    return tokens;
+  }
+
   /**
    * @param name the name of the token.
    * @return the first token with a given name. The name is matched case-insensitively.
    */
   public Token getTokenByName(String name) {
-    for (Token token : getAllTokens()) {
-      if (name.equalsIgnoreCase(token.getName())) {
-        return token;
-      }
-    }
-    return null;
+    List<Token> tokens = getTokenLookup().getByName(name);
+    return tokens.isEmpty() ? null : tokens.get(0);
+  }
+
+  /**
+   * @param name the name of the tokens, matched case-insensitively
+   * @return the tokens with the name, in z-order
+   */
+  public List<Token> getTokensByName(String name) {
+    return Collections.unmodifiableList(getTokenLookup().getByName(name));
+  }
+
+  /** @return the lib: tokens of the zone, in z-order */
+  public List<Token> getLibTokens() {
+    return Collections.unmodifiableList(getTokenLookup().getFlagged(TokenLookup.Flag.LIB));
+  }
+
+  /**
+   * @param playerName the name of the player
+   * @return the tokens the player is an owner of, including those owned by all, in z-order
+   */
+  public List<Token> getTokensOwnedBy(String playerName) {
+    return Collections.unmodifiableList(getTokenLookup().getOwnedBy(playerName));
+  }
+
+  /** @return the tokens with sight, in z-order */
+  public List<Token> getTokensWithSight() {
+    return Collections.unmodifiableList(getTokenLookup().getFlagged(TokenLookup.Flag.SIGHT));
+  }
+
+  /** @return the tokens with light sources attached, in z-order */
+  public List<Token> getTokensWithLights() {
+    return Collections.unmodifiableList(getTokenLookup().getFlagged(TokenLookup.Flag.LIGHTS));
   }
 
   /**
@@ -1448,7 +1764,8 @@ public Token resolveToken(String identifier) {
    * @return the first token with a given GM name. The name is matched case-insensitively.
    */
   public Token getTokenByGMName(String name) {
-    for (Token token : getAllTokens()) {
+    for (Token token : getTokenLookup().getByGMName(name)) {
+      // Only there if the player is allowed to see GM names
       if (StringUtil.isEmpty(token.getGMName())) {
         continue;
       }
@@ -1471,32 +1788,15 @@ public List<DrawnElement> getAllDrawnElements() {
   }
 
   public DrawnElement getDrawnElement(GUID id) {
-    DrawnElement result = findDrawnElement(getAllDrawnElements(), id);
-    return result;
-  }
-
-  private DrawnElement findDrawnElement(List<DrawnElement> list, GUID id) {
-    for (DrawnElement de : list) {
-      if (de.getDrawable().getId() == id) {
-        return de;
-      }
-      if (de.getDrawable() instanceof DrawablesGroup) {
-        DrawnElement result =
-            findDrawnElement(((DrawablesGroup) de.getDrawable()).getDrawableList(), id);
-        if (result != null) {
-          return result;
-        }
-      }
-    }
-    return null;
+    return getDrawableIndex().get(id);
   }
 
   public int getTokenCount() {
-    return tokenOrderedList.size();
+    return tokenMap.size();
   }
 
   public List<Token> getAllTokens() {
-    return List.copyOf(tokenOrderedList);
+    return getTokensByZOrder().getAll();
   }
 
   public Set<MD5Key> getAllAssetIds() {
@@ -1536,7 +1836,7 @@ public Set<MD5Key> getAllAssetIds() {
   public List<Token> getTokensFiltered(Filter filter) {
     ArrayList<Token> copy = new ArrayList<Token>(getTokenCount());
 
-    for (Token token : tokenOrderedList) {
+    for (Token token : getTokensByZOrder().values()) {
       if (filter.matchToken(token)) {
         copy.add(token);
       }
@@ -1557,14 +1857,7 @@ public List<Token> getTokens() {
   }
 
   public List<Token> getTokens(boolean getAlwaysVisible) {
-    return getTokensFiltered(
-        t -> {
-          if (getAlwaysVisible) {
-            return !t.isStamp();
-          } else {
-            return !t.isStamp() && !t.isAlwaysVisible();
-          }
-        });
+    return getLayerTokens(Layer.TOKEN, getAlwaysVisible);
   }
 
   public List<Token> getGMStamps() {
@@ -1572,14 +1865,7 @@ public List<Token> getGMStamps() {
   }
 
   public List<Token> getGMStamps(boolean getAlwaysVisible) {
-    return getTokensFiltered(
-        t -> {
-          if (getAlwaysVisible) {
-            return t.isGMStamp();
-          } else {
-            return t.isGMStamp() && !t.isAlwaysVisible();
-          }
-        });
+    return getLayerTokens(Layer.GM, getAlwaysVisible);
   }
 
   public List<Token> getStampTokens() {
@@ -1587,14 +1873,7 @@ public List<Token> getStampTokens() {
   }
 
   public List<Token> getStampTokens(boolean getAlwaysVisible) {
-    return getTokensFiltered(
-        t -> {
-          if (getAlwaysVisible) {
-            return t.isObjectStamp();
-          } else {
-            return t.isObjectStamp() && !t.isAlwaysVisible();
-          }
-        });
+    return getLayerTokens(Layer.OBJECT, getAlwaysVisible);
   }
 
   public List<Token> getBackgroundStamps() {
@@ -1602,14 +1881,21 @@ public List<Token> getBackgroundStamps() {
   }
 
   public List<Token> getBackgroundStamps(boolean getAlwaysVisible) {
-    return getTokensFiltered(
-        t -> {
-          if (getAlwaysVisible) {
-            return t.isBackgroundStamp();
-          } else {
-            return t.isBackgroundStamp() && !t.isAlwaysVisible();
-          }
-        });
+    return getLayerTokens(Layer.BACKGROUND, getAlwaysVisible);
+  }
+
+  private List<Token> getLayerTokens(Layer layer, boolean getAlwaysVisible) {
+    List<Token> tokens = getTokensByZOrder().getLayer(layer);
+    if (getAlwaysVisible) {
+      return tokens;
+    }
+    List<Token> copy = new ArrayList<Token>(tokens.size());
+    for (Token token : tokens) {
+      if (!token.isAlwaysVisible()) {
+        copy.add(token);
+      }
+    }
+    return Collections.unmodifiableList(copy);
   }
 
   public List<Token> getPlayerTokens() {
@@ -1625,12 +1911,24 @@ public List<Token> getTokensAlwaysVisible() {
   }
 
   public List<Token> getTokensWithVBL() {
-    return getTokensFiltered(Token::hasVBL);
+    return Collections.unmodifiableList(getTokenLookup().getFlagged(TokenLookup.Flag.VBL));
   }
 
   public List<Token> getTokensWithTerrainModifiers() {
-    return getTokensFiltered(
-        t -> !t.getTerrainModifierOperation().equals(TerrainModifierOperation.NONE));
+    return Collections.unmodifiableList(
+        getTokenLookup().getFlagged(TokenLookup.Flag.TERRAIN_MODIFIER));
+  }
+
+  /**
+   * Same as {@link #getTokensFiltered(Filter)}, but only looks at the tokens with sight.
+   *
+   * @param filter the filter
+   * @return the tokens with sight that match the filter, in z-order
+   */
+  public List<Token> getTokensWithSight(Filter filter) {
+    List<Token> tokens = getTokenLookup().getFlagged(TokenLookup.Flag.SIGHT);
+    tokens.removeIf(t -> !filter.matchToken(t));
+    return Collections.unmodifiableList(tokens);
   }
 
   /**
@@ -1644,7 +1942,7 @@ public List<Token> getTokensWithTerrainModifiers() {
    * @since updated 1.4.1.0
    */
   public List<Token> getOwnedTokensWithSight(Player p) {
-    return getTokensFiltered(
+    return getTokensWithSight(
         t -> {
           // System.out.println("isOwnedByAll(): " + t.getName() + ":" + t.isOwnedByAll());
           // System.out.println("AppUtil.playerOwns(t): " + t.getName() + ":" +
@@ -1677,7 +1975,7 @@ public List<Token> getOwnedTokensWithSight(Player p) {
 
   /** @return list of PCs tokens with sight. For FogUtil.exposePCArea to skip sight test. */
   public List<Token> getPlayerTokensWithSight() {
-    return getTokensFiltered(t -> t.getType() == Token.Type.PC && t.getHasSight());
+    return getTokensWithSight(t -> t.getType() == Token.Type.PC && t.getHasSight());
   }
 
   /**
@@ -1688,7 +1986,7 @@ public List<Token> getPlayerTokensWithSight() {
    */
   public List<Token> getTokensOwnedByAllWithSight() {
     // String playerId = MapTool.getPlayer().getName();
-    return getTokensFiltered(
+    return getTokensWithSight(
         t ->
             (t.getHasSight()
                 && (t.getType() == Token.Type.PC && (t.isOwnedByAll() || AppUtil.playerOwns(t)))));
@@ -1698,7 +1996,7 @@ public List<Token> getTokensOwnedByAllWithSight() {
   // All",
   // or "Owned" by the current player; in theory, NPC tokens the Player control.
   public List<Token> getTokensOwnedByAllWithSight(Player p) {
-    return getTokensFiltered(
+    return getTokensWithSight(
         new Filter() {
           String playerId = MapTool.getPlayer().getName();
 
@@ -1710,7 +2008,7 @@ public boolean matchToken(Token t) {
   }
 
   public List<Token> getPlayerOwnedTokensWithSight(Player p) {
-    return getTokensFiltered(
+    return getTokensWithSight(
         t -> t.getType() == Token.Type.PC && t.getHasSight() && AppUtil.playerOwns(t));
   }
 
@@ -1851,7 +2149,9 @@ public void setInitiativeList(InitiativeList initiativeList) {
 
   public void optimize() {
     log.debug("Optimizing Map " + getName());
-    MapTool.getFrame().setStatusMessage(I18N.getText("Zone.status.optimizing", getName()));
+    // Zones are optimized on the load pool, several at once
+    String message = I18N.getText("Zone.status.optimizing", getName());
+    SwingUtilities.invokeLater(() -> MapTool.getFrame().setStatusMessage(message));
     collapseDrawables();
   }
 
@@ -1910,6 +2210,28 @@ private void collapseDrawableLayer(List<DrawnElement> layer) {
 
   ////
   // Backward compatibility
+  /**
+   * Writes a shallow copy of the zone with the z-ordered token list filled in (XStream and Hessian
+   * both call this), so that campaign files and zones sent over the network can still be read by
+   * older versions. The zone itself is left alone, it may be in use on the EDT while it is written.
+   *
+   * @return the copy to write in place of this zone
+   */
+  protected Object writeReplace() {
+    if (tokenOrderedList != null) {
+      // Already the copy, Hessian asks it again
+      return this;
+    }
+    try {
+      Zone written = (Zone) clone();
+      written.tokenOrderedList = new LinkedList<Token>(getTokensByZOrder().getAll());
+      return written;
+    } catch (CloneNotSupportedException e) {
+      // this shouldn't happen, since we are Cloneable
+      throw new InternalError(e);
+    }
+  }
+
   @Override
   protected Object readResolve() {
     super.readResolve();
@@ -1919,6 +2241,11 @@ protected Object readResolve() {
     if (exposedAreaMeta == null) {
       exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
     }
+    // The global exposed area is kept in tiles
+    if (exposedTiles == null) {
+      exposedTiles = new TiledArea(exposedArea);
+      exposedArea = null;
+    }
     // 1.3b70 -> 1.3b71
     // These two variables were added
     if (drawBoard == false) {
@@ -1935,7 +2262,7 @@ protected Object readResolve() {
 
     // 1.3b47 -> 1.3b48
     if (visionType == null) {
-      if (getTokensFiltered(Token::hasLightSources).size() > 0) {
+      if (!getTokensWithLights().isEmpty()) {
         visionType = VisionType.NIGHT;
       } else if (topology != null && !topology.isEmpty()) {
         visionType = VisionType.DAY;
@@ -1945,9 +2272,13 @@ protected Object readResolve() {
       }
     }
     // Look for the bizarre z-ordering disappearing trick
+    // The list is only there to be read by older versions, see writeReplace()
+    List<Token> ordered =
+        tokenOrderedList != null ? tokenOrderedList : getTokensByZOrder().getAll();
+    tokenOrderedList = null;
     boolean foundZero = false;
     boolean fixZOrder = false;
-    for (Token token : tokenOrderedList) {
+    for (Token token : ordered) {
       if (token.getZOrder() == 0) {
         if (foundZero) {
           fixZOrder = true;
@@ -1958,10 +2289,11 @@ protected Object readResolve() {
     }
     if (fixZOrder) {
       int z = 0;
-      for (Token token : tokenOrderedList) {
+      for (Token token : ordered) {
         token.setZOrder(z++);
       }
     }
+    tokensByZOrder = null;
     // Transient "undo" field added in 1.3.b88
     // This will be true; it's just in case we decide to make it persistent in the future
     if (undo == null) {
@@ -2028,6 +2360,7 @@ public boolean getWaypointExposureToggle() {
    * @param toggle toggle for exposure method
    */
   public void setWaypointExposureToggle(boolean toggle) {
+    changeCount++;
     exposeFogAtWaypoints = toggle;
   }
 }
@@ -0,0 +1,182 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import net.rptools.clientserver.hessian.server.ServerConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects high frequency updates where only the latest value matters (pointer moves, token drags,
+ * live typing) and forwards them on a fixed tick instead of once per call. Each sender has one
+ * slot per key, a newer update simply overwrites the pending one.
+ *
+ * <p>The forwarded calls are also queued with their key on each client connection, so a slow
+ * client that has not sent the last tick yet gets the newer value in place of the old one rather
+ * than a growing backlog.
+ *
+ * <p>Callers must {@link #flush(String)} a sender before forwarding any other command from it, so
+ * that e.g. the last <code>updateTokenMove</code> still arrives before <code>stopTokenMove</code>.
+ */
+public class CommandCoalescer {
+  private static final Logger log = LogManager.getLogger(CommandCoalescer.class);
+
+  /** Default time between flushes, a bit faster than clients send token moves. */
+  public static final long DEFAULT_TICK_MILLIS = 50;
+
+  private final ServerConnection connection;
+  private final Map<String, Slots> pending = new ConcurrentHashMap<String, Slots>();
+  private final ScheduledExecutorService timer;
+  private final LongAdder received = new LongAdder();
+  private final LongAdder forwarded = new LongAdder();
+
+  public CommandCoalescer(ServerConnection connection) {
+    this(connection, DEFAULT_TICK_MILLIS);
+  }
+
+  public CommandCoalescer(ServerConnection connection, long tickMillis) {
+    this.connection = connection;
+    timer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "CommandCoalescer");
+              t.setDaemon(true);
+              return t;
+            });
+    timer.scheduleAtFixedRate(this::flushAll, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues a call to be forwarded on the next tick, replacing any pending call from the same sender
+   * with the same key.
+   *
+   * @param senderId the connection id of the client that sent the update
+   * @param includeSender whether the sender gets the call as well
+   * @param key identifies what is being updated, e.g. the method plus token id
+   * @param method the client method to call
+   * @param parameters the method parameters
+   */
+  public void enqueue(
+      String senderId, boolean includeSender, Object key, String method, Object... parameters) {
+    received.increment();
+    pending
+        .computeIfAbsent(senderId, id -> new Slots())
+        .put(key, new PendingCall(senderId, includeSender, key, method, parameters));
+  }
+
+  /**
+   * Forwards everything pending for a sender right away.
+   *
+   * @param senderId the connection id of the client
+   */
+  public void flush(String senderId) {
+    Slots slots = pending.get(senderId);
+    if (slots != null) {
+      slots.flush();
+    }
+  }
+
+  public void flushAll() {
+    try {
+      for (Slots slots : pending.values()) {
+        slots.flush();
+      }
+    } catch (Throwable t) {
+      // Keep the timer alive
+      log.error(t.getMessage(), t);
+    }
+  }
+
+  /**
+   * Drops anything pending for a client that has gone away.
+   *
+   * @param senderId the connection id of the client
+   */
+  public void discard(String senderId) {
+    pending.remove(senderId);
+  }
+
+  /** @return the number of updates handed to {@link #enqueue}. */
+  public long getReceivedCount() {
+    return received.sum();
+  }
+
+  /** @return the number of updates actually forwarded to the clients. */
+  public long getForwardedCount() {
+    return forwarded.sum();
+  }
+
+  public void shutdown() {
+    timer.shutdown();
+    flushAll();
+  }
+
+  private class Slots {
+    private final Map<Object, PendingCall> calls = new LinkedHashMap<Object, PendingCall>();
+
+    synchronized void put(Object key, PendingCall call) {
+      calls.put(key, call);
+    }
+
+    // Broadcasts while holding the lock, a concurrent flush from the sender's own thread must not
+    // return before these calls have been queued
+    synchronized void flush() {
+      if (calls.isEmpty()) {
+        return;
+      }
+      List<PendingCall> list = new ArrayList<PendingCall>(calls.values());
+      calls.clear();
+      for (PendingCall call : list) {
+        call.send();
+      }
+    }
+  }
+
+  private class PendingCall {
+    private final String senderId;
+    private final boolean includeSender;
+    private final Object key;
+    private final String method;
+    private final Object[] parameters;
+
+    PendingCall(
+        String senderId, boolean includeSender, Object key, String method, Object[] parameters) {
+      this.senderId = senderId;
+      this.includeSender = includeSender;
+      this.key = key;
+      this.method = method;
+      this.parameters = parameters;
+    }
+
+    void send() {
+      Predicate<String> recipients = includeSender ? id -> true : id -> !id.equals(senderId);
+      // The sender is part of the key, otherwise two clients moving the same token would replace
+      // each other's queued updates
+      connection.broadcastCoalescedCallMethod(
+          recipients, senderId + ":" + key, method, parameters);
+      forwarded.increment();
+    }
+  }
+}
@@ -46,6 +46,7 @@ public interface Code {
 
   private static String USERNAME_FIELD = "username:";
   private static String VERSION_FIELD = "version:";
+  private static String COMPRESSION_FIELD = "compression:";
 
   /** Instance used for log messages. */
   private static final Logger log = LogManager.getLogger(MapToolServerConnection.class);
@@ -55,12 +56,13 @@ public interface Code {
    *
    * @param server the MapTool server instance
    * @param s the server socket
+   * @param connectionId the id of the connection being established
    * @throws IOException if an I/O error occurs when creating the input stream, the socket is
    *     closed, the socket is not connected, or the socket input has been shutdown using
    * @return A player structure for the connected player or null on issues
    * @throws IOException if there is a problem reading from the socket.
    */
-  public static Player receiveHandshake(MapToolServer server, Socket s)
+  public static Player receiveHandshake(MapToolServer server, Socket s, String connectionId)
       throws IOException, InvalidKeySpecException, NoSuchAlgorithmException {
 
     DataOutputStream dos = new DataOutputStream(s.getOutputStream());
@@ -105,8 +107,8 @@ public static Player receiveHandshake(MapToolServer server, Socket s)
       HandshakeChallenge handshakeChallenge = new HandshakeChallenge();
       String passwordToUse =
           player.isGM()
-              ? MapTool.getServer().getConfig().getGmPassword()
-              : MapTool.getServer().getConfig().getPlayerPassword();
+              ? server.getConfig().getGmPassword()
+              : server.getConfig().getPlayerPassword();
 
       byte[] salt = CipherUtil.getInstance().createSalt();
       SecretKeySpec passwordKey = CipherUtil.getInstance().createSecretKeySpec(passwordToUse, salt);
@@ -146,6 +148,9 @@ public static Player receiveHandshake(MapToolServer server, Socket s)
       if (handshakeChallenge.getExpectedResponse().equals(challengeResponse)) {
         response.policy = server.getPolicy();
         response.role = player.getRole();
+        // Older clients don't send the field and ignore the one in the response
+        response.framedCompression = HessianUtils.FRAMED_COMPRESSION.equals(request.compression);
+        server.getConnection().setFramedCompression(connectionId, response.framedCompression);
       } else {
         response.message = I18N.getText("Handshake.msg.badChallengeResponse", player.getName());
         response.code = Code.ERROR;
@@ -196,6 +201,8 @@ private static Request extractRequestDetails(byte[] bytes, Role role) {
         request.name = line.replace(USERNAME_FIELD, "");
       } else if (line.startsWith(VERSION_FIELD)) {
         request.version = line.replace(VERSION_FIELD, "");
+      } else if (line.startsWith(COMPRESSION_FIELD)) {
+        request.compression = line.replace(COMPRESSION_FIELD, "");
       }
     }
 
@@ -360,9 +367,7 @@ public static Response sendHandshake(Request request, Socket s)
 
     // If we are here the handshake succeeded so wait for the server policy
     HessianInput input = HessianUtils.createSafeHessianInput(s.getInputStream());
-    Response response = (Response) input.readObject();
-    MapTool.getPlayer().setRole(response.role);
-    return response;
+    return (Response) input.readObject();
   }
 
   private static byte[] buildRequest(Request request, byte[] macSalt)
@@ -375,6 +380,11 @@ private static byte[] buildRequest(Request request, byte[] macSalt)
     sb.append(VERSION_FIELD);
     sb.append(request.version);
     sb.append("\n");
+    if (request.compression != null) {
+      sb.append(COMPRESSION_FIELD);
+      sb.append(request.compression);
+      sb.append("\n");
+    }
 
     byte[] salt = CipherUtil.getInstance().createSalt();
     Cipher cipher = CipherUtil.getInstance().createEncryptor(request.password, salt);
@@ -401,6 +411,8 @@ public static class Request {
     public String role;
     public String password;
     public String version;
+    /** The wire format the client would like to use, null for the legacy GZIP format. */
+    public String compression;
 
     public Request() {
       // for serialization
@@ -411,6 +423,7 @@ public Request(String name, String password, Player.Role role, String version) {
       this.password = password;
       this.role = role.name();
       this.version = version;
+      this.compression = HessianUtils.FRAMED_COMPRESSION;
     }
   }
 
@@ -419,6 +432,8 @@ public static class Response {
     public String message;
     public ServerPolicy policy;
     public Role role;
+    /** True if both ends use the framed format from {@link HessianUtils}. */
+    public boolean framedCompression;
   }
 
   private static class HandshakeChallenge {
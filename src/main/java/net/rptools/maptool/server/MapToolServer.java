@@ -14,9 +14,12 @@
  */
 package net.rptools.maptool.server;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
@@ -27,10 +30,10 @@
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolRegistry;
 import net.rptools.maptool.client.ui.ConnectionInfoDialog;
-import net.rptools.maptool.common.MapToolConstants;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.TokenVersionTracker;
 import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetProducer;
 import net.rptools.maptool.transfer.AssetTransferManager;
@@ -40,11 +43,12 @@
 /** @author drice */
 public class MapToolServer {
   private static final Logger log = LogManager.getLogger(MapToolServer.class);
-  private static final int ASSET_CHUNK_SIZE = 5 * 1024;
 
   private final MapToolServerConnection conn;
   private final ServerMethodHandler handler;
   private final ServerConfig config;
+  private final CommandCoalescer coalescer;
+  private final TokenVersionTracker tokenVersions = new TokenVersionTracker();
 
   private final Map<String, AssetTransferManager> assetManagerMap =
       Collections.synchronizedMap(new HashMap<String, AssetTransferManager>());
@@ -55,11 +59,23 @@ public class MapToolServer {
   private Campaign campaign;
   private ServerPolicy policy;
   private HeartbeatThread heartbeatThread;
+  private TrafficRecorder trafficRecorder;
 
   public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOException {
     handler = new ServerMethodHandler(this);
-    conn = new MapToolServerConnection(this, config.getPort());
+    conn = new MapToolServerConnection(this, config.getPort(), config.isUseNioTransport());
+    String recordFile = System.getProperty(TrafficRecorder.RECORD_PROPERTY);
+    if (recordFile != null) {
+      // Ahead of the handler, so the time recorded is when the message arrived
+      try {
+        trafficRecorder = new TrafficRecorder(new File(recordFile));
+        conn.addMessageHandler(trafficRecorder);
+      } catch (IOException e) {
+        log.error("Could not record traffic to " + recordFile, e);
+      }
+    }
     conn.addMessageHandler(handler);
+    coalescer = new CommandCoalescer(conn);
 
     campaign = new Campaign();
 
@@ -80,6 +96,7 @@ public void configureClientConnection(ClientConnection connection) {
     String id = connection.getId();
     assetManagerMap.put(id, new AssetTransferManager());
     connectionMap.put(id, connection);
+    connection.getOutQueue().setDrainListener(assetProducerThread::wakeUp);
   }
 
   public ClientConnection getClientConnection(String id) {
@@ -104,13 +121,18 @@ public void releaseClientConnection(String id) {
         log.error("Could not release connection: " + id, e);
       }
     }
-    assetManagerMap.remove(id);
+    AssetTransferManager manager = assetManagerMap.remove(id);
+    if (manager != null) {
+      manager.flush();
+    }
     connectionMap.remove(id);
+    coalescer.discard(id);
   }
 
   public void addAssetProducer(String connectionId, AssetProducer producer) {
     AssetTransferManager manager = assetManagerMap.get(connectionId);
     manager.addProducer(producer);
+    assetProducerThread.wakeUp();
   }
 
   public void addObserver(ServerObserver observer) {
@@ -141,6 +163,7 @@ public void setCampaign(Campaign campaign) {
       campaign = new Campaign();
     }
     this.campaign = campaign;
+    tokenVersions.clear();
   }
 
   public Campaign getCampaign() {
@@ -155,6 +178,15 @@ public void updateServerPolicy(ServerPolicy policy) {
     this.policy = policy;
   }
 
+  /** @return the version of each token, bumped for every change forwarded to the clients. */
+  public TokenVersionTracker getTokenVersions() {
+    return tokenVersions;
+  }
+
+  public CommandCoalescer getCoalescer() {
+    return coalescer;
+  }
+
   public ServerMethodHandler getMethodHandler() {
     return handler;
   }
@@ -164,6 +196,15 @@ public ServerConfig getConfig() {
   }
 
   public void stop() {
+    if (log.isDebugEnabled()) {
+      conn.getMethodStatistics().forEach(stats -> log.debug(stats.toString()));
+      log.debug(
+          "Coalesced "
+              + coalescer.getReceivedCount()
+              + " updates into "
+              + coalescer.getForwardedCount());
+    }
+    coalescer.shutdown();
     try {
       conn.close();
       if (heartbeatThread != null) {
@@ -172,6 +213,9 @@ public void stop() {
       if (assetProducerThread != null) {
         assetProducerThread.shutdown();
       }
+      if (trafficRecorder != null) {
+        trafficRecorder.close();
+      }
     } catch (IOException e) {
       // Not too concerned about this
       log.info("Couldn't close connection", e);
@@ -261,43 +305,66 @@ public void shutdown() {
   ////
   // CLASSES
   private class AssetProducerThread extends Thread {
-    private boolean stop = false;
+    private volatile boolean stop = false;
+    private boolean woken = false;
 
     @Override
     public void run() {
       while (!stop) {
-        Entry<String, AssetTransferManager> entryForException = null;
+        String idForException = null;
         try {
           boolean lookForMore = false;
-          for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-            entryForException = entry;
-            AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
+          List<Entry<String, AssetTransferManager>> entries;
+          synchronized (assetManagerMap) {
+            entries =
+                new ArrayList<Entry<String, AssetTransferManager>>(assetManagerMap.entrySet());
+          }
+          for (Entry<String, AssetTransferManager> entry : entries) {
+            idForException = entry.getKey();
+            // Leave clients that are behind alone until their queue has drained, rather than
+            // piling chunks up in memory. The drain wakes us up again.
+            ClientConnection connection = connectionMap.get(entry.getKey());
+            if (connection != null && connection.isBackedUp()) {
+              continue;
+            }
+            AssetTransferManager manager = entry.getValue();
+            AssetChunk chunk = manager.nextChunk();
             if (chunk != null) {
               lookForMore = true;
+              // Assets are mostly compressed images, trying to compress them again is wasted time
               getConnection()
-                  .callMethod(
-                      entry.getKey(),
-                      MapToolConstants.Channel.IMAGE,
-                      ClientCommand.COMMAND.updateAssetTransfer.name(),
-                      chunk);
+                  .callMethodUncompressed(
+                      entry.getKey(), ClientCommand.COMMAND.updateAssetTransfer.name(), chunk);
+              if (connection != null && connection.isBackedUp()) {
+                manager.backOff();
+              }
             }
           }
           if (lookForMore) {
             continue;
           }
-          // Sleep for a bit
           synchronized (this) {
-            Thread.sleep(500);
+            while (!woken && !stop) {
+              wait();
+            }
+            woken = false;
           }
         } catch (Exception e) {
-          log.info("Couldn't retrieve AssetChunk for " + entryForException.getKey(), e);
+          log.info("Couldn't retrieve AssetChunk for " + idForException, e);
           // keep on going
         }
       }
     }
 
+    /** Makes the thread look for chunks again, after a producer was added or a client caught up. */
+    public synchronized void wakeUp() {
+      woken = true;
+      notify();
+    }
+
     public void shutdown() {
       stop = true;
+      wakeUp();
     }
   }
 
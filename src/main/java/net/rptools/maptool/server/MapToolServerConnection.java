@@ -20,6 +20,7 @@
 import java.security.spec.InvalidKeySpecException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 import net.rptools.clientserver.hessian.server.ServerConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
 import net.rptools.maptool.client.ClientCommand;
@@ -34,8 +35,14 @@ public class MapToolServerConnection extends ServerConnection implements ServerO
   private final MapToolServer server;
 
   public MapToolServerConnection(MapToolServer server, int port) throws IOException {
-    super(port);
+    this(server, port, false);
+  }
+
+  public MapToolServerConnection(MapToolServer server, int port, boolean useNio)
+      throws IOException {
+    super(port, useNio);
     this.server = server;
+    setMethodPriorities(ClientCommand::getPriority);
     addObserver(this);
   }
 
@@ -47,7 +54,7 @@ public MapToolServerConnection(MapToolServer server, int port) throws IOExceptio
   @Override
   public boolean handleConnectionHandshake(String id, Socket socket) {
     try {
-      Player player = Handshake.receiveHandshake(server, socket);
+      Player player = Handshake.receiveHandshake(server, socket, id);
 
       if (player != null) {
         playerMap.put(id.toUpperCase(), player);
@@ -70,6 +77,17 @@ public Player getPlayer(String id) {
     return null;
   }
 
+  /**
+   * @param filter the players that should receive a message
+   * @return a recipient filter on connection ids for use with broadcastCallMethod
+   */
+  public Predicate<String> playersMatching(Predicate<Player> filter) {
+    return id -> {
+      Player player = playerMap.get(id.toUpperCase());
+      return player != null && filter.test(player);
+    };
+  }
+
   public String getConnectionId(String playerId) {
     for (Map.Entry<String, Player> entry : playerMap.entrySet()) {
       if (entry.getValue().getName().equalsIgnoreCase(playerId)) {
@@ -17,6 +17,7 @@
 import java.awt.geom.Area;
 import java.util.List;
 import java.util.Set;
+import net.rptools.clientserver.simple.MessagePriority;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.Campaign;
@@ -29,6 +30,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenPatch;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -50,7 +52,10 @@ public enum COMMAND {
     getAsset,
     removeAsset,
     putToken,
+    putTokens,
     editToken,
+    patchToken,
+    resyncToken,
     removeToken,
     removeTokens,
     updateTokenProperty,
@@ -104,6 +109,26 @@ public enum COMMAND {
     // @formatter:on
   };
 
+  /**
+   * @param method the name of a command
+   * @return the priority a client queues the command with for the server
+   */
+  public static MessagePriority getPriority(String method) {
+    switch (method) {
+      case "heartbeat":
+      case "bootPlayer":
+      case "setServerPolicy":
+        return MessagePriority.CONTROL;
+      case "message":
+      case "setLiveTypingLabel":
+      case "enforceNotification":
+        return MessagePriority.CHAT;
+      default:
+        // Including putAsset, the server has to have an asset before the tokens that use it
+        return MessagePriority.MODEL;
+    }
+  }
+
   public void bootPlayer(String player);
 
   public void setZoneHasFoW(GUID zoneGUID, boolean hasFog);
@@ -144,6 +169,30 @@ public enum COMMAND {
 
   public void putToken(GUID zoneGUID, Token token);
 
+  /**
+   * Puts several tokens on a zone at once, such as a folder of tokens dropped on a map.
+   *
+   * @param zoneGUID the ID of the zone
+   * @param tokens the tokens
+   */
+  public void putTokens(GUID zoneGUID, List<Token> tokens);
+
+  /**
+   * Updates a token with only the fields that changed since the version the patch was made against.
+   *
+   * @param zoneGUID the ID of the zone
+   * @param patch the changed fields
+   */
+  public void patchToken(GUID zoneGUID, TokenPatch patch);
+
+  /**
+   * Asks the server for the whole token, after a patch for it could not be applied.
+   *
+   * @param zoneGUID the ID of the zone
+   * @param tokenGUID the ID of the token
+   */
+  public void resyncToken(GUID zoneGUID, GUID tokenGUID);
+
   /**
    * Removes a token from a zone.
    *
@@ -47,6 +47,7 @@ public class ServerConfig {
   private String playerPassword;
   private boolean personalServer;
   private String serverName;
+  private boolean useNioTransport;
 
   public static String getPersonalServerGMPassword() {
     return personalServerGMPassword;
@@ -98,6 +99,15 @@ public int getPort() {
     return port;
   }
 
+  /** @return true if client connections are serviced by selector threads (java.nio). */
+  public boolean isUseNioTransport() {
+    return useNioTransport;
+  }
+
+  public void setUseNioTransport(boolean useNioTransport) {
+    this.useNioTransport = useNioTransport;
+  }
+
   public static ServerConfig createPersonalServerConfig() {
     ServerConfig config = new ServerConfig();
     config.personalServer = true;
@@ -16,6 +16,7 @@
 
 import java.awt.geom.Area;
 import java.util.*;
+import java.util.function.Predicate;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.ClientCommand;
@@ -24,7 +25,6 @@
 import net.rptools.maptool.client.ServerCommandClientImpl;
 import net.rptools.maptool.client.ui.zone.FogUtil;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
-import net.rptools.maptool.common.MapToolConstants;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Campaign;
@@ -36,9 +36,12 @@
 import net.rptools.maptool.model.InitiativeList.TokenInitiative;
 import net.rptools.maptool.model.Label;
 import net.rptools.maptool.model.MacroButtonProperties;
+import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenPatch;
+import net.rptools.maptool.model.TokenVersionTracker;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -73,6 +76,10 @@ public void handleMethod(String id, String method, Object... parameters) {
     try {
       RPCContext context = new RPCContext(id, method, parameters);
       RPCContext.setCurrent(context);
+      if (!isCoalesced(cmd)) {
+        // Pending updates from this client have to go out before anything else it sent
+        server.getCoalescer().flush(id);
+      }
       switch (cmd) {
         case bootPlayer:
           bootPlayer(context.getString(0));
@@ -149,9 +156,18 @@ public void handleMethod(String id, String method, Object... parameters) {
         case putToken:
           putToken(context.getGUID(0), (Token) context.get(1));
           break;
+        case putTokens:
+          putTokens(context.getGUID(0), (List<Token>) context.get(1));
+          break;
         case editToken:
           editToken(context.getGUID(0), (Token) context.get(1));
           break;
+        case patchToken:
+          patchToken(context.getGUID(0), (TokenPatch) context.get(1));
+          break;
+        case resyncToken:
+          resyncToken(context.getGUID(0), context.getGUID(1));
+          break;
         case putZone:
           putZone((Zone) context.get(0));
           break;
@@ -288,6 +304,36 @@ public void handleMethod(String id, String method, Object... parameters) {
     }
   }
 
+  private static boolean isCoalesced(ServerCommand.COMMAND cmd) {
+    switch (cmd) {
+      case movePointer:
+      case updateTokenMove:
+      case setLiveTypingLabel:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Hand the current call to the coalescer, which forwards only the latest call per key once per
+   * tick.
+   *
+   * @param includeSender whether the sender gets the call as well
+   * @param key identifies what is being updated
+   */
+  private void forwardCoalesced(boolean includeSender, Object key) {
+    RPCContext context = RPCContext.getCurrent();
+    server
+        .getCoalescer()
+        .enqueue(
+            context.id,
+            includeSender,
+            context.method + ":" + key,
+            context.method,
+            context.parameters);
+  }
+
   /** Send the current call to all other clients except for the sender */
   private void forwardToClients() {
     server
@@ -384,9 +430,10 @@ public void bringTokensToFront(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
-        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+        long version = server.getTokenVersions().nextVersion(token.getId());
+        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token, version);
       }
-      zone.sortZOrder(); // update new ZOrder on server zone
+      zone.updateZOrder(tokenList); // update new ZOrder on server zone
     }
   }
 
@@ -451,7 +498,6 @@ public void getAsset(MD5Key assetID) {
           .getConnection()
           .callMethod(
               RPCContext.getCurrent().id,
-              MapToolConstants.Channel.IMAGE,
               ClientCommand.COMMAND.startAssetTransfer.name(),
               producer.getHeader());
       server.addAssetProducer(RPCContext.getCurrent().id, producer);
@@ -500,7 +546,7 @@ public void hidePointer(String player) {
   }
 
   public void movePointer(String player, int x, int y) {
-    forwardToAllClients();
+    forwardCoalesced(true, player);
   }
 
   public void updateInitiative(InitiativeList list, Boolean ownerPermission) {
@@ -541,7 +587,25 @@ public void renameZone(GUID zoneGUID, String name) {
   }
 
   public void message(TextMessage message) {
-    forwardToClients();
+    // Clients filter messages too, but there is no point sending them what they will drop
+    Predicate<Player> audience;
+    if (message.isGM() || message.isGmMe()) {
+      audience = Player::isGM;
+    } else if (message.isNotGm() || message.isNotGmMe()) {
+      audience = player -> !player.isGM();
+    } else if (message.isWhisper()) {
+      audience = player -> player.getName().equalsIgnoreCase(message.getTarget());
+    } else {
+      forwardToClients();
+      return;
+    }
+    String sender = RPCContext.getCurrent().id;
+    server
+        .getConnection()
+        .broadcastCallMethod(
+            server.getConnection().playersMatching(audience).and(id -> !id.equals(sender)),
+            RPCContext.getCurrent().method,
+            RPCContext.getCurrent().parameters);
   }
 
   @Override
@@ -580,6 +644,11 @@ public void putToken(GUID zoneGUID, Token token) {
         token.setZOrder(zOrder);
       }
       zone.putToken(token);
+
+      // Versions have to go out in order, so this is broadcast while holding the lock
+      long version = server.getTokenVersions().nextVersion(token.getId());
+      broadcastToClients(
+          RPCContext.getCurrent().id, RPCContext.getCurrent().method, zoneGUID, token, version);
     }
     if (newToken) {
       // don't send whole token back to sender, instead just send new ZOrder
@@ -589,7 +658,90 @@ public void putToken(GUID zoneGUID, Token token) {
       broadcastToClient(
           RPCContext.getCurrent().id, ClientCommand.COMMAND.updateTokenProperty.name(), parameters);
     }
-    forwardToClients();
+  }
+
+  public void putTokens(GUID zoneGUID, List<Token> tokens) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    String sender = RPCContext.getCurrent().id;
+
+    List<Token> newTokens = new ArrayList<Token>(tokens.size());
+    synchronized (MUTEX) {
+      // Set z-order for new tokens
+      int zOrder = zone.getLargestZOrder();
+      for (Token token : tokens) {
+        if (zone.getToken(token.getId()) == null) {
+          token.setZOrder(++zOrder);
+          newTokens.add(token);
+        }
+      }
+      zone.putTokens(tokens);
+
+      // Versions have to go out in order, so this is broadcast while holding the lock
+      List<Long> versions = new ArrayList<Long>(tokens.size());
+      for (Token token : tokens) {
+        versions.add(server.getTokenVersions().nextVersion(token.getId()));
+      }
+      broadcastToClients(
+          sender, ClientCommand.COMMAND.putTokens.name(), zoneGUID, tokens, versions);
+    }
+    // don't send the whole tokens back to sender, instead just send the new ZOrders
+    for (Token token : newTokens) {
+      Object[] parameters = {
+        zoneGUID, token.getId(), Token.Update.setZOrder, new Object[] {token.getZOrder()}
+      };
+      broadcastToClient(sender, ClientCommand.COMMAND.updateTokenProperty.name(), parameters);
+    }
+  }
+
+  public void patchToken(GUID zoneGUID, TokenPatch patch) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    String sender = RPCContext.getCurrent().id;
+    synchronized (MUTEX) {
+      Token token = zone.getToken(patch.getTokenId());
+      if (token == null) {
+        // Removed in the meantime
+        return;
+      }
+      TokenVersionTracker versions = server.getTokenVersions();
+      long baseVersion = versions.getVersion(token.getId());
+      if (!patch.applyTo(token)) {
+        // The sender's token doesn't match ours, let it start over
+        broadcastToClient(
+            sender, ClientCommand.COMMAND.putToken.name(), zoneGUID, token, baseVersion);
+        return;
+      }
+      if (patch.isEdited()) {
+        zone.editToken(token);
+      } else {
+        zone.putToken(token);
+      }
+      long version = versions.nextVersion(token.getId());
+      broadcastToClients(
+          sender,
+          ClientCommand.COMMAND.patchToken.name(),
+          zoneGUID,
+          patch.withVersions(baseVersion, version));
+      if (patch.getBaseVersion() != baseVersion) {
+        // Someone else changed the token after the sender's version, the fields the sender didn't
+        // touch may be out of date on its side
+        broadcastToClient(sender, ClientCommand.COMMAND.putToken.name(), zoneGUID, token, version);
+      }
+    }
+  }
+
+  public void resyncToken(GUID zoneGUID, GUID tokenGUID) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    synchronized (MUTEX) {
+      Token token = zone.getToken(tokenGUID);
+      if (token != null) {
+        broadcastToClient(
+            RPCContext.getCurrent().id,
+            ClientCommand.COMMAND.putToken.name(),
+            zoneGUID,
+            token,
+            server.getTokenVersions().getVersion(tokenGUID));
+      }
+    }
   }
 
   public void putZone(Zone zone) {
@@ -620,6 +772,7 @@ public void removeLabel(GUID zoneGUID, GUID labelGUID) {
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.removeToken(tokenGUID); // remove server tokens
+    server.getTokenVersions().remove(tokenGUID);
     forwardToClients();
   }
 
@@ -627,6 +780,7 @@ public void removeToken(GUID zoneGUID, GUID tokenGUID) {
   public void removeTokens(GUID zoneGUID, List<GUID> tokenGUIDs) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.removeTokens(tokenGUIDs); // remove server tokens
+    tokenGUIDs.forEach(server.getTokenVersions()::remove);
     forwardToClients();
   }
 
@@ -669,9 +823,10 @@ public void sendTokensToBack(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
-        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+        long version = server.getTokenVersions().nextVersion(token.getId());
+        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token, version);
       }
-      zone.sortZOrder(); // update new ZOrder on server zone
+      zone.updateZOrder(tokenList); // update new ZOrder on server zone
     }
   }
 
@@ -722,7 +877,7 @@ public void showPointer(String player, Pointer pointer) {
   }
 
   public void setLiveTypingLabel(String label, boolean show) {
-    forwardToClients();
+    forwardCoalesced(false, label);
   }
 
   public void enforceNotification(Boolean enforce) {
@@ -770,7 +925,7 @@ public void undoDraw(GUID zoneGUID, GUID drawableGUID) {
   }
 
   public void updateTokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-    forwardToClients();
+    forwardCoalesced(false, tokenGUID);
   }
 
   public void setTokenLocation(GUID zoneGUID, GUID tokenGUID, int x, int y) {
@@ -0,0 +1,181 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import com.caucho.hessian.io.HessianInput;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.simple.MessageHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes every message the server receives to a file, as it came off the wire, so a session can be
+ * replayed later to measure the network layer. The server records when the <code>
+ * MAPTOOL_RECORD_TRAFFIC</code> system property names the file to write.
+ *
+ * <p>The file holds a header followed by one entry per message: the time since recording started
+ * in nanoseconds, the sender's connection id, the method name and the message bytes.
+ */
+public class TrafficRecorder implements MessageHandler, Closeable {
+  private static final Logger log = LogManager.getLogger(TrafficRecorder.class);
+
+  /** System property naming the file to record the server's inbound traffic to. */
+  public static final String RECORD_PROPERTY = "MAPTOOL_RECORD_TRAFFIC";
+
+  private static final int MAGIC = 0x4D545246; // MTRF
+  private static final int VERSION = 1;
+
+  private final DataOutputStream out;
+  private final long start = System.nanoTime();
+  private boolean failed;
+
+  public TrafficRecorder(File file) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  public void handleMessage(String id, byte[] message) {
+    long offset = System.nanoTime() - start;
+    String method;
+    try {
+      method = readMethod(message);
+    } catch (IOException e) {
+      method = "";
+    }
+    synchronized (out) {
+      if (failed) {
+        return;
+      }
+      try {
+        out.writeLong(offset);
+        out.writeUTF(id);
+        out.writeUTF(method);
+        out.writeInt(message.length);
+        out.write(message);
+      } catch (IOException e) {
+        // Stop recording rather than leave a truncated entry in the middle of the file
+        failed = true;
+        log.error("Could not record traffic", e);
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    synchronized (out) {
+      failed = true;
+      out.close();
+    }
+  }
+
+  /**
+   * Reads a recording.
+   *
+   * @param file the file written by a recorder
+   * @return the recorded messages in the order they were received
+   * @throws IOException if the file can't be read or is not a recording
+   */
+  public static List<Entry> read(File file) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a traffic recording: " + file);
+      }
+      while (true) {
+        long offset;
+        try {
+          offset = in.readLong();
+        } catch (EOFException e) {
+          break;
+        }
+        String id = in.readUTF();
+        String method = in.readUTF();
+        byte[] message = new byte[in.readInt()];
+        in.readFully(message);
+        entries.add(new Entry(offset, id, method, message));
+      }
+    }
+    return entries;
+  }
+
+  private static String readMethod(byte[] message) throws IOException {
+    HessianInput in = HessianUtils.createSafeHessianInput(HessianUtils.openMessage(message));
+    in.startCall();
+    return in.getMethod();
+  }
+
+  /** One recorded message. */
+  public static class Entry {
+    private final long offsetNanos;
+    private final String connectionId;
+    private final String method;
+    private final byte[] message;
+
+    Entry(long offsetNanos, String connectionId, String method, byte[] message) {
+      this.offsetNanos = offsetNanos;
+      this.connectionId = connectionId;
+      this.method = method;
+      this.message = message;
+    }
+
+    /** @return the time the message was received, in nanoseconds since recording started. */
+    public long getOffsetNanos() {
+      return offsetNanos;
+    }
+
+    public String getConnectionId() {
+      return connectionId;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    /** @return the message as received, in whatever wire format the client used. */
+    public byte[] getMessage() {
+      return message;
+    }
+
+    /**
+     * Decodes the parameters of the call.
+     *
+     * @return the parameters
+     * @throws IOException if the message can't be decoded
+     */
+    public Object[] getParameters() throws IOException {
+      HessianInput in = HessianUtils.createSafeHessianInput(HessianUtils.openMessage(message));
+      in.startCall();
+      List<Object> parameters = new ArrayList<Object>();
+      while (!in.isEnd()) {
+        parameters.add(in.readObject());
+      }
+      in.completeCall();
+      return parameters.toArray();
+    }
+  }
+}
@@ -15,12 +15,15 @@
 package net.rptools.maptool.transfer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
- * Receiving end of AssetProducer
+ * Receiving end of AssetProducer. The file is kept open from the first chunk until the last one
+ * has been written or the consumer is closed.
  *
  * @author trevor
  */
@@ -28,6 +31,7 @@ public class AssetConsumer {
   private File destinationDir;
   private AssetHeader header;
   private long currentPosition;
+  private FileChannel channel;
 
   /**
    * Create a new asset consumer, it will prepare a place to receive the incoming data chunks. When
@@ -72,12 +76,34 @@ public String getName() {
    *     exist but cannot be created, or cannot be opened for any other reason
    */
   public void update(AssetChunk chunk) throws IOException {
-    File file = getFilename();
-    byte[] data = chunk.getData();
-    try (FileOutputStream out = new FileOutputStream(file, true)) {
-      out.write(data);
+    if (channel == null) {
+      channel =
+          FileChannel.open(
+              getFilename().toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+    }
+    ByteBuffer data = ByteBuffer.wrap(chunk.getData());
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+    currentPosition += data.capacity();
+    if (isComplete()) {
+      close();
+    }
+  }
+
+  /**
+   * Releases the file. Done automatically once the last chunk has been written.
+   *
+   * @throws IOException if the file can't be closed
+   */
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
     }
-    currentPosition += data.length;
   }
 
   /**
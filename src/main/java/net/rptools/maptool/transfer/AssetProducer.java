@@ -14,14 +14,18 @@
  */
 package net.rptools.maptool.transfer;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Creates data chunks for transferring binary data. Assumes large datasets (otherwise it would be a
- * direct transfer) so expects the data to be streamed from a file
+ * direct transfer) so expects the data to be streamed from a file. The file is kept open from the
+ * first chunk until the last one has been read or the producer is closed.
  *
  * @author trevor
  */
@@ -31,6 +35,7 @@ public class AssetProducer {
   private File assetFile;
   private long length;
   private long currentPosition = 0;
+  private FileChannel channel;
 
   public AssetProducer(Serializable id, String name, File assetFile) {
     if (!assetFile.exists() || assetFile.isDirectory()) {
@@ -58,15 +63,36 @@ public AssetChunk nextChunk(int size) throws IOException {
     if (currentPosition + size > length) {
       size = (int) (length - currentPosition);
     }
+    if (channel == null) {
+      channel = FileChannel.open(assetFile.toPath(), StandardOpenOption.READ);
+    }
     byte[] data = new byte[size];
-    try (FileInputStream in = new FileInputStream(assetFile)) {
-      in.skip(currentPosition);
-      in.read(data, 0, size);
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, currentPosition + buffer.position()) < 0) {
+        close();
+        throw new EOFException(assetFile + " is shorter than " + length + " bytes");
+      }
     }
     currentPosition += size;
+    if (isComplete()) {
+      close();
+    }
     return new AssetChunk(id, data);
   }
 
+  /**
+   * Releases the file. Done automatically once the last chunk has been read.
+   *
+   * @throws IOException if the file can't be closed
+   */
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
   /**
    * Whether all the data has been transferred
    *
@@ -22,15 +22,41 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class AssetTransferManager {
+  private static final Logger log = LogManager.getLogger(AssetTransferManager.class);
+
+  /** Smallest chunk {@link #nextChunk()} backs off to. */
+  public static final int MIN_CHUNK_SIZE = 16 * 1024;
+  /** Largest chunk {@link #nextChunk()} grows to. */
+  public static final int MAX_CHUNK_SIZE = 512 * 1024;
+  /** Size of the first chunk {@link #nextChunk()} produces. */
+  public static final int INITIAL_CHUNK_SIZE = 64 * 1024;
+
   private Map<Serializable, AssetConsumer> consumerMap = new HashMap<Serializable, AssetConsumer>();
   private List<ConsumerListener> consumerListenerList =
       new CopyOnWriteArrayList<ConsumerListener>();
   private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
+  private int chunkSize = INITIAL_CHUNK_SIZE;
 
   /** Clear out all existing consumers and producers */
   public synchronized void flush() {
+    for (AssetConsumer consumer : consumerMap.values()) {
+      try {
+        consumer.close();
+      } catch (IOException e) {
+        log.warn("Could not close " + consumer.getFilename(), e);
+      }
+    }
+    for (AssetProducer producer : producerList) {
+      try {
+        producer.close();
+      } catch (IOException e) {
+        log.warn("Could not close asset " + producer.getHeader().getId(), e);
+      }
+    }
     consumerMap.clear();
     producerList.clear();
   }
@@ -64,6 +90,31 @@ public synchronized AssetChunk nextChunk(int size) throws IOException {
     return chunk;
   }
 
+  /**
+   * Get the next chunk from the available producers, in the current chunk size. Every chunk doubles
+   * the size up to {@link #MAX_CHUNK_SIZE}, call {@link #backOff()} when the receiver is falling
+   * behind.
+   *
+   * @throws IOException if an I/O error occurs or current position in the file is wrong
+   * @return an {@link AssetChunk} with the next data, or null if there is nothing to send
+   */
+  public synchronized AssetChunk nextChunk() throws IOException {
+    AssetChunk chunk = nextChunk(chunkSize);
+    if (chunk != null) {
+      chunkSize = Math.min(MAX_CHUNK_SIZE, chunkSize * 2);
+    }
+    return chunk;
+  }
+
+  /** Halves the size of the chunks returned by {@link #nextChunk()}, down to the minimum. */
+  public synchronized void backOff() {
+    chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+  }
+
+  public synchronized int getChunkSize() {
+    return chunkSize;
+  }
+
   /**
    * Add the corresponding consumer that is expecting to receive chunks. Add a ConsumerListener to
    * know when the asset is complete
@@ -23,9 +23,11 @@
 import net.rptools.lib.io.PackedFile;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.language.I18N;
+import net.rptools.maptool.model.ExposedAreaMetaData;
 import net.rptools.maptool.model.LightSource;
 import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.SightType;
+import net.rptools.maptool.model.TiledArea;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.util.PersistenceUtil.PersistedCampaign;
@@ -71,30 +73,34 @@ public static PackedFile stripContent(
       return pakFile;
     }
 
+    // Exposed areas are kept in tiles now, all versions exported to read them as a single area
+    saveAsArea(pakFile, Zone.class, "exposedTiles", "exposedArea");
+    saveAsArea(pakFile, ExposedAreaMetaData.class, "exposedTiles", "exposedAreaHistory");
+
     // Check Major version for sanity's sake...
     if (VERSION_MAJOR == 1 && VERSION_MINOR <= 4) {
       // Lumens, tokenSelection, & several Token class fields were introduced in 1.4.1.x
       if (VERSION_RELEASE == 0) {
-        pakFile.getXStream().omitField(LightSource.class, "lumens");
-        pakFile.getXStream().omitField(LightSource.class, "scaleWithToken");
-        pakFile.getXStream().omitField(SightType.class, "scaleWithToken");
-        pakFile.getXStream().omitField(Zone.class, "tokenSelection");
-        pakFile.getXStream().omitField(Token.class, "vbl");
-        pakFile.getXStream().omitField(Token.class, "isoWidth");
-        pakFile.getXStream().omitField(Token.class, "isoHeight");
-        pakFile.getXStream().omitField(Token.class, "vblAlphaSensitivity");
-        pakFile.getXStream().omitField(Token.class, "isAlwaysVisible");
-        pakFile.getXStream().omitField(Token.class, "alwaysVisibleTolerance");
-        pakFile.getXStream().omitField(Token.class, "tokenOpacity");
-        pakFile.getXStream().omitField(Token.class, "heroLabData");
-        pakFile.getXStream().omitField(MacroButtonProperties.class, "macroUUID");
+        pakFile.getPrivateXStream().omitField(LightSource.class, "lumens");
+        pakFile.getPrivateXStream().omitField(LightSource.class, "scaleWithToken");
+        pakFile.getPrivateXStream().omitField(SightType.class, "scaleWithToken");
+        pakFile.getPrivateXStream().omitField(Zone.class, "tokenSelection");
+        pakFile.getPrivateXStream().omitField(Token.class, "vbl");
+        pakFile.getPrivateXStream().omitField(Token.class, "isoWidth");
+        pakFile.getPrivateXStream().omitField(Token.class, "isoHeight");
+        pakFile.getPrivateXStream().omitField(Token.class, "vblAlphaSensitivity");
+        pakFile.getPrivateXStream().omitField(Token.class, "isAlwaysVisible");
+        pakFile.getPrivateXStream().omitField(Token.class, "alwaysVisibleTolerance");
+        pakFile.getPrivateXStream().omitField(Token.class, "tokenOpacity");
+        pakFile.getPrivateXStream().omitField(Token.class, "heroLabData");
+        pakFile.getPrivateXStream().omitField(MacroButtonProperties.class, "macroUUID");
 
         if (VERSION_BUILD == 0) {
-          // pakFile.getXStream().registerConverter(new DrawablesGroupConverter());
-          pakFile.getXStream().omitField(Zone.class, "drawables");
-          pakFile.getXStream().omitField(Zone.class, "gmDrawables");
-          pakFile.getXStream().omitField(Zone.class, "objectDrawables");
-          pakFile.getXStream().omitField(Zone.class, "backgroundDrawables");
+          // pakFile.getPrivateXStream().registerConverter(new DrawablesGroupConverter());
+          pakFile.getPrivateXStream().omitField(Zone.class, "drawables");
+          pakFile.getPrivateXStream().omitField(Zone.class, "gmDrawables");
+          pakFile.getPrivateXStream().omitField(Zone.class, "objectDrawables");
+          pakFile.getPrivateXStream().omitField(Zone.class, "backgroundDrawables");
         }
       }
     }
@@ -103,7 +109,7 @@ public static PackedFile stripContent(
     if ((VERSION_MAJOR == 1 && VERSION_MINOR <= 4)
         || (VERSION_MAJOR == 1 && VERSION_MINOR == 5 && VERSION_RELEASE < 1)) {
       pakFile
-          .getXStream()
+          .getPrivateXStream()
           .registerLocalConverter(
               Zone.class,
               "unitsPerCell",
@@ -142,6 +148,45 @@ public void marshal(
     return pakFile;
   }
 
+  /**
+   * Saves a {@link TiledArea} field as the {@link java.awt.geom.Area} field it replaced.
+   *
+   * @param pakFile the packed file to save
+   * @param definedIn the class declaring the fields
+   * @param field the name of the tiled field
+   * @param oldField the name of the field older versions read the area from
+   */
+  private static void saveAsArea(
+      PackedFile pakFile, Class<?> definedIn, String field, String oldField) {
+    // The old field is always null by now, it must not clash with the alias
+    pakFile.getPrivateXStream().omitField(definedIn, oldField);
+    pakFile.getPrivateXStream().aliasField(oldField, definedIn, field);
+    pakFile
+        .getPrivateXStream()
+        .registerLocalConverter(
+            definedIn,
+            field,
+            new Converter() {
+
+              @Override
+              public boolean canConvert(@SuppressWarnings("rawtypes") Class type) {
+                return TiledArea.class.equals(type);
+              }
+
+              @Override
+              public Object unmarshal(
+                  HierarchicalStreamReader reader, UnmarshallingContext context) {
+                return null;
+              }
+
+              @Override
+              public void marshal(
+                  Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+                context.convertAnother(((TiledArea) source).getArea());
+              }
+            });
+  }
+
   /**
    * A convenience method to break up the version number string into it's component version
    * identifiers. Version string is expected in the format of w.x.y.z eg 1.4.1.5
@@ -52,8 +52,7 @@ public static List<Token> getEventMacroTokens(final String macroCallback) {
     List<Token> found = new ArrayList<>();
     List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
     for (ZoneRenderer zr : zrenderers) {
-      List<Token> tokenList =
-          zr.getZone().getTokensFiltered(t -> t.getName().toLowerCase().startsWith("lib:"));
+      List<Token> tokenList = zr.getZone().getLibTokens();
       for (Token token : tokenList) {
         // If the token is not owned by everyone and all owners are GMs
         // then we are in
@@ -0,0 +1,433 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import net.rptools.lib.CodeTimer;
+import net.rptools.lib.MD5Key;
+import net.rptools.lib.ModelVersionManager;
+import net.rptools.lib.XStreamRegistry;
+import net.rptools.lib.io.PackedFile;
+import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.PersistenceUtil.PersistedCampaign;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a campaign file with each zone in an entry of its own, so that saving again mostly comes
+ * down to carrying over what is already in the file. The file is still read by {@link PackedFile},
+ * it differs from the files it writes in that:
+ *
+ * <ul>
+ *   <li>The zones of the campaign in <code>content.xml</code> are the names of their entries, see
+ *       {@link #readZoneEntries(PackedFile, ModelVersionManager, String, ExecutorService,
+ *       PhaseTimings)}.
+ *   <li>Each zone is in a <code>zones/</code> entry named after the MD5 of its content. The XML is
+ *       gzipped and the entry is stored as is, so the next save can copy it byte for byte.
+ *   <li>Asset images are stored without compressing them again, they are compressed images already.
+ *       Assets that are in the old file are copied over from there.
+ *   <li>The file is written next to the old one and then moved over it.
+ * </ul>
+ *
+ * <p>A writer remembers which entry each zone went to. When the zones it is given are copies that
+ * never change once taken, see {@link net.rptools.maptool.model.CampaignSnapshot}, a zone that was
+ * written before is not serialized again at all.
+ */
+public class IncrementalCampaignWriter {
+  private static final Logger log = LogManager.getLogger(IncrementalCampaignWriter.class);
+
+  /** Property set on files that keep their zones in entries of their own. */
+  public static final String PROP_ZONE_ENTRIES = "zoneEntries"; // $NON-NLS-1$
+
+  private static final String PROPERTY_FILE = "properties.xml"; // $NON-NLS-1$
+  private static final String CONTENT_FILE = "content.xml"; // $NON-NLS-1$
+  private static final String ZONE_DIR = "zones/"; // $NON-NLS-1$
+  private static final String ZONE_SUFFIX = ".xml.gz"; // $NON-NLS-1$
+
+  /** True if the zones written are copies that are not changed after they have been written. */
+  private final boolean snapshots;
+
+  /** The entry each zone was written to by the last save. */
+  private final Map<Zone, String> zoneEntries = new WeakHashMap<Zone, String>();
+
+  /**
+   * @param snapshots true if the zones of the campaigns written are copies that are not changed
+   *     afterwards, so a zone that was written before can be carried over without looking at it
+   */
+  public IncrementalCampaignWriter(boolean snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  /** Forgets where the zones were written to, the next save writes all of them. */
+  public synchronized void clear() {
+    zoneEntries.clear();
+  }
+
+  /**
+   * Writes a campaign, carrying over what did not change from the file that is there.
+   *
+   * @param persistedCampaign the campaign and the ids of its assets
+   * @param campaignFile the file to write to
+   * @throws IOException if the file could not be written, the old file is left alone then
+   */
+  public synchronized void write(PersistedCampaign persistedCampaign, File campaignFile)
+      throws IOException {
+    CodeTimer timer = new CodeTimer("IncrementalCampaignWriter");
+    timer.setEnabled(log.isDebugEnabled());
+
+    // Its own instance, the converter for the zones below only applies to this write
+    XStream xstream = XStreamRegistry.createForFiles(); // Does not write the asset images
+    File newFile =
+        File.createTempFile(
+            campaignFile.getName(), ".tmp", campaignFile.getAbsoluteFile().getParentFile());
+    ZipFile oldFile = openOldFile(campaignFile);
+    Map<Zone, String> written = new IdentityHashMap<Zone, String>();
+    int carriedZones = 0;
+    try {
+      try (ZipOutputStream zout =
+          new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+        timer.start("zones");
+        Set<String> names = new HashSet<String>();
+        for (Zone zone : persistedCampaign.campaign.getZones()) {
+          String name = snapshots ? zoneEntries.get(zone) : null;
+          ZipEntry entry = name != null && oldFile != null ? oldFile.getEntry(name) : null;
+          if (entry != null && names.add(name)) {
+            copyEntry(oldFile, entry, zout, true);
+            carriedZones++;
+          } else {
+            name = writeZone(xstream, zone, zout, names);
+          }
+          written.put(zone, name);
+        }
+        timer.stop("zones");
+
+        timer.start("content");
+        xstream.registerLocalConverter(Campaign.class, "zones", new ZoneEntryConverter(written));
+        zout.putNextEntry(new ZipEntry(CONTENT_FILE));
+        writeXml(xstream, persistedCampaign, zout);
+        zout.closeEntry();
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(PersistenceUtil.PROP_CAMPAIGN_VERSION, PersistenceUtil.CAMPAIGN_VERSION);
+        properties.put(PersistenceUtil.PROP_VERSION, MapTool.getVersion());
+        properties.put(PROP_ZONE_ENTRIES, Boolean.TRUE);
+        zout.putNextEntry(new ZipEntry(PROPERTY_FILE));
+        writeXml(xstream, properties, zout);
+        zout.closeEntry();
+        timer.stop("content");
+
+        timer.start("assets");
+        for (MD5Key assetId : persistedCampaign.assetMap.keySet()) {
+          writeAsset(xstream, assetId, oldFile, zout);
+        }
+        timer.stop("assets");
+      }
+      if (oldFile != null) {
+        // Has to be closed before the file can be replaced on some OSes
+        oldFile.close();
+        oldFile = null;
+      }
+
+      timer.start("move");
+      try {
+        Files.move(
+            newFile.toPath(),
+            campaignFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(newFile.toPath(), campaignFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      timer.stop("move");
+
+      zoneEntries.clear();
+      zoneEntries.putAll(written);
+    } finally {
+      if (oldFile != null) {
+        oldFile.close();
+      }
+      newFile.delete();
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Carried over " + carriedZones + " of " + written.size() + " zones\n" + timer);
+    }
+  }
+
+  private static ZipFile openOldFile(File campaignFile) {
+    if (!campaignFile.exists()) {
+      return null;
+    }
+    try {
+      return new ZipFile(campaignFile);
+    } catch (IOException e) {
+      // Nothing to carry over then, it is replaced all the same
+      log.warn("Could not read " + campaignFile + ", writing it anew", e);
+      return null;
+    }
+  }
+
+  private static String writeZone(
+      XStream xstream, Zone zone, ZipOutputStream zout, Set<String> names) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GZIPOutputStream(data)) {
+      writeXml(xstream, zone, gzip);
+    }
+    byte[] bytes = data.toByteArray();
+    // Java writes no time stamp into the gzip header, so the same zone gives the same name
+    String name = ZONE_DIR + new MD5Key(bytes) + ZONE_SUFFIX;
+    if (names.add(name)) {
+      ZipEntry entry = new ZipEntry(name);
+      setStored(entry, bytes.length, crc(bytes));
+      zout.putNextEntry(entry);
+      zout.write(bytes);
+      zout.closeEntry();
+    }
+    return name;
+  }
+
+  private static void writeAsset(
+      XStream xstream, MD5Key assetId, ZipFile oldFile, ZipOutputStream zout) throws IOException {
+    if (assetId == null) {
+      return;
+    }
+    Asset asset = AssetManager.getAsset(assetId);
+    if (asset == null) {
+      log.error("AssetId " + assetId + " not found while saving?!");
+      return;
+    }
+    String name = PersistenceUtil.ASSET_DIR + assetId;
+    String imageName = name + "." + asset.getImageExtension();
+    ZipEntry entry = oldFile != null ? oldFile.getEntry(name) : null;
+    ZipEntry imageEntry = oldFile != null ? oldFile.getEntry(imageName) : null;
+    if (entry != null && imageEntry != null) {
+      // Assets never change, their name is the MD5 of the image
+      copyEntry(oldFile, entry, zout, false);
+      copyEntry(oldFile, imageEntry, zout, true);
+      return;
+    }
+    zout.putNextEntry(new ZipEntry(name));
+    writeXml(xstream, asset, zout);
+    zout.closeEntry();
+
+    byte[] image = asset.getImage();
+    entry = new ZipEntry(imageName);
+    setStored(entry, image.length, crc(image));
+    zout.putNextEntry(entry);
+    zout.write(image);
+    zout.closeEntry();
+  }
+
+  /**
+   * Copies an entry of the old file. Entries that are stored are copied byte for byte, without
+   * inflating and deflating them again.
+   */
+  private static void copyEntry(
+      ZipFile oldFile, ZipEntry entry, ZipOutputStream zout, boolean store) throws IOException {
+    ZipEntry copy = new ZipEntry(entry.getName());
+    if (store || entry.getMethod() == ZipEntry.STORED) {
+      // Size and CRC are those of the uncompressed data, so they hold for the stored copy
+      setStored(copy, entry.getSize(), entry.getCrc());
+    }
+    zout.putNextEntry(copy);
+    try (InputStream is = oldFile.getInputStream(entry)) {
+      IOUtils.copy(is, zout);
+    }
+    zout.closeEntry();
+  }
+
+  private static void setStored(ZipEntry entry, long size, long crc) {
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(size);
+    entry.setCompressedSize(size);
+    entry.setCrc(crc);
+  }
+
+  private static long crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  private static void writeXml(XStream xstream, Object object, OutputStream out)
+      throws IOException {
+    // Not closed, that would close the zip as well
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    xstream.toXML(object, writer);
+    writer.flush();
+  }
+
+  /**
+   * Sets up a campaign file written by this class to be read. Has to be called before the content
+   * of the file is read. The zones are then read on a pool, each zone entry being a document of its
+   * own, so the transforms for older versions are applied to each of them like to <code>
+   * content.xml</code>.
+   *
+   * @param pakFile the campaign file
+   * @param versionManager the transforms to apply to the zones of older files
+   * @param fileVersion the campaign version of the file
+   * @param pool where to read the zones
+   * @param timings where to record how long reading the zones took
+   * @throws IOException if the properties of the file could not be read
+   */
+  public static void readZoneEntries(
+      PackedFile pakFile,
+      ModelVersionManager versionManager,
+      String fileVersion,
+      ExecutorService pool,
+      PhaseTimings timings)
+      throws IOException {
+    if (Boolean.TRUE.equals(pakFile.getProperty(PROP_ZONE_ENTRIES))) {
+      pakFile
+          .getPrivateXStream()
+          .registerLocalConverter(
+              Campaign.class,
+              "zones",
+              new ZoneEntryConverter(pakFile, versionManager, fileVersion, pool, timings));
+    }
+  }
+
+  /** Writes the zones of a campaign as the names of their entries, and reads them back. */
+  private static class ZoneEntryConverter implements Converter {
+    private final Map<Zone, String> entries;
+    private final PackedFile pakFile;
+    private final ModelVersionManager versionManager;
+    private final String fileVersion;
+    private final ExecutorService pool;
+    private final PhaseTimings timings;
+
+    private ZoneEntryConverter(Map<Zone, String> entries) {
+      this.entries = entries;
+      this.pakFile = null;
+      this.versionManager = null;
+      this.fileVersion = null;
+      this.pool = null;
+      this.timings = null;
+    }
+
+    private ZoneEntryConverter(
+        PackedFile pakFile,
+        ModelVersionManager versionManager,
+        String fileVersion,
+        ExecutorService pool,
+        PhaseTimings timings) {
+      this.entries = null;
+      this.pakFile = pakFile;
+      this.versionManager = versionManager;
+      this.fileVersion = fileVersion;
+      this.pool = pool;
+      this.timings = timings;
+    }
+
+    @Override
+    public boolean canConvert(@SuppressWarnings("rawtypes") Class type) {
+      return Map.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void marshal(
+        Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+      Map<?, ?> zones = (Map<?, ?>) source;
+      List<Object> values;
+      synchronized (zones) {
+        values = new ArrayList<Object>(zones.values());
+      }
+      for (Object zone : values) {
+        writer.startNode("zone");
+        writer.setValue(entries.get(zone));
+        writer.endNode();
+      }
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+      long start = System.nanoTime();
+      List<Callable<Zone>> reads = new ArrayList<Callable<Zone>>();
+      while (reader.hasMoreChildren()) {
+        reader.moveDown();
+        String name = reader.getValue();
+        reads.add(() -> readZone(name));
+        reader.moveUp();
+      }
+      Map<GUID, Zone> zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+      try {
+        for (Zone zone : PersistenceUtil.invokeAll(pool, reads)) {
+          zones.put(zone.getId(), zone);
+        }
+      } catch (IOException e) {
+        throw new ConversionException("Could not read the zones", e);
+      }
+      timings.record("Read zones", start, reads.size());
+      return zones;
+    }
+
+    private Zone readZone(String name) throws IOException {
+      try (Reader reader =
+          new InputStreamReader(
+              new GZIPInputStream(pakFile.getFileAsInputStream(name)), StandardCharsets.UTF_8)) {
+        if (versionManager != null && versionManager.isTransformationRequired(fileVersion)) {
+          String xml = versionManager.transform(IOUtils.toString(reader), fileVersion);
+          return (Zone) pakFile.getXStream().fromXML(xml);
+        }
+        return (Zone) pakFile.getXStream().fromXML(reader);
+      }
+    }
+  }
+}
@@ -27,6 +27,8 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
@@ -37,11 +39,17 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.FileUtil;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.ModelVersionManager;
+import net.rptools.lib.XStreamRegistry;
 import net.rptools.lib.image.ImageUtil;
 import net.rptools.lib.io.PackedFile;
 import net.rptools.lib.swing.SwingUtil;
@@ -76,10 +84,10 @@ public class PersistenceUtil {
 
   public static final String PROP_VERSION = "version"; // $NON-NLS-1$
   public static final String PROP_CAMPAIGN_VERSION = "campaignVersion"; // $NON-NLS-1$
-  private static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
+  static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
   public static final String HERO_LAB = "herolab"; // $NON-NLS-1$
 
-  private static final String CAMPAIGN_VERSION = "1.4.1";
+  static final String CAMPAIGN_VERSION = "1.4.2";
 
   // Please add a single note regarding why the campaign version number has been updated:
   // 1.3.70 ownerOnly added to model.Light (not backward compatible)
@@ -90,6 +98,14 @@ public class PersistenceUtil {
   // how to implement?)
   // 1.4.0 Added lumens to LightSource class, old versions will not load unless saved as b89
   // compatible
+  // 1.4.2 Zones saved in zones/ entries of their own (IncrementalCampaignWriter) and exposed areas
+  // saved as tiles (Zone.exposedTiles), old versions will not load unless saved for their version
+
+  /** How many threads read the zones and assets of a campaign while it is loaded. */
+  private static final int LOAD_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private static volatile PhaseTimings lastLoadTimings;
 
   private static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
   private static final ModelVersionManager assetnameVersionManager = new ModelVersionManager();
@@ -128,6 +144,9 @@ public class PersistenceUtil {
     campaignVersionManager.registerTransformation("1.3.75", new ExportInfoTransform());
     campaignVersionManager.registerTransformation(
         "1.3.78", new TokenPropertyMapTransform()); // FJE 2010-12-29
+    // 1.4.2 needs no transform, older files are read as they are: their zones are in content.xml
+    // and Zone.readResolve() turns their exposedArea into tiles. The transforms above are applied
+    // to the zone entries as well, see IncrementalCampaignWriter.readZoneEntries().
 
     // For a short time, assets were stored separately in files ending with ".dat". As of 1.3.64,
     // they are
@@ -249,8 +268,22 @@ private static String fixupZoneName(String n) {
     return n;
   }
 
+  /**
+   * Saves a campaign. Unless it is saved for an older version, each zone goes into an entry of its
+   * own, see {@link IncrementalCampaignWriter}.
+   *
+   * @param campaign the campaign to save
+   * @param campaignFile the file to save it to
+   * @param campaignVersion the version to save it for, or null for the current version
+   * @throws IOException if the campaign could not be saved
+   */
   public static void saveCampaign(Campaign campaign, File campaignFile, String campaignVersion)
       throws IOException {
+    if (campaignVersion == null) {
+      saveCampaign(campaign, campaignFile, new IncrementalCampaignWriter(false));
+      return;
+    }
+    // Older versions only read the campaign from a single content.xml
     CodeTimer saveTimer; // FJE Previously this was 'private static' -- why?
     saveTimer = new CodeTimer("CampaignSave");
     saveTimer.setThreshold(5);
@@ -267,28 +300,11 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     try {
       pakFile = new PackedFile(tmpFile);
       // Configure the meta file (this is for legacy support)
-      PersistedCampaign persistedCampaign = new PersistedCampaign();
-
-      persistedCampaign.campaign = campaign;
-
-      // Keep track of the current view
-      ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
-      if (currentZoneRenderer != null) {
-        persistedCampaign.currentZoneId = currentZoneRenderer.getZone().getId();
-        persistedCampaign.currentView = currentZoneRenderer.getZoneScale();
-      }
-      // Save all assets in active use (consolidate duplicates between maps)
-      saveTimer.start("Collect all assets");
-      Set<MD5Key> allAssetIds = campaign.getAllAssetIds();
-      for (MD5Key key : allAssetIds) {
-        // Put in a placeholder; all we really care about is the MD5Key for now...
-        persistedCampaign.assetMap.put(key, null);
-      }
-      saveTimer.stop("Collect all assets");
+      PersistedCampaign persistedCampaign = createPersistedCampaign(campaign, saveTimer);
 
       // And store the asset elsewhere
       saveTimer.start("Save assets");
-      saveAssets(allAssetIds, pakFile);
+      saveAssets(persistedCampaign.assetMap.keySet(), pakFile);
       saveTimer.stop("Save assets");
 
       try {
@@ -369,6 +385,62 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     }
   }
 
+  /**
+   * Saves a campaign with each zone in an entry of its own.
+   *
+   * @param campaign the campaign to save
+   * @param campaignFile the file to save it to
+   * @param writer the writer, which knows what is in the file already
+   * @throws IOException if the campaign could not be saved
+   */
+  public static void saveCampaign(
+      Campaign campaign, File campaignFile, IncrementalCampaignWriter writer) throws IOException {
+    CodeTimer saveTimer = new CodeTimer("CampaignSave");
+    saveTimer.setThreshold(5);
+    saveTimer.setEnabled(log.isDebugEnabled());
+
+    PersistedCampaign persistedCampaign = createPersistedCampaign(campaign, saveTimer);
+    try {
+      saveTimer.start("Write");
+      writer.write(persistedCampaign, campaignFile);
+      saveTimer.stop("Write");
+    } catch (OutOfMemoryError oom) {
+      // See saveCampaign(Campaign, File, String), the old file is left as it was
+      MapTool.showError("msg.error.failedSaveCampaignOOM");
+      return;
+    }
+
+    saveTimer.start("Thumbnail");
+    saveCampaignThumbnail(campaignFile.getName());
+    saveTimer.stop("Thumbnail");
+
+    if (log.isDebugEnabled()) {
+      log.debug(saveTimer);
+    }
+  }
+
+  private static PersistedCampaign createPersistedCampaign(Campaign campaign, CodeTimer saveTimer) {
+    PersistedCampaign persistedCampaign = new PersistedCampaign();
+
+    persistedCampaign.campaign = campaign;
+
+    // Keep track of the current view
+    ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+    if (currentZoneRenderer != null) {
+      persistedCampaign.currentZoneId = currentZoneRenderer.getZone().getId();
+      persistedCampaign.currentView = currentZoneRenderer.getZoneScale();
+    }
+    // Save all assets in active use (consolidate duplicates between maps)
+    saveTimer.start("Collect all assets");
+    Set<MD5Key> allAssetIds = campaign.getAllAssetIds();
+    for (MD5Key key : allAssetIds) {
+      // Put in a placeholder; all we really care about is the MD5Key for now...
+      persistedCampaign.assetMap.put(key, null);
+    }
+    saveTimer.stop("Collect all assets");
+    return persistedCampaign;
+  }
+
   /*
    * A public function because I think it should be called when a campaign is opened as well so if it is opened then closed without saving, there is still a preview created; however, the rendering
    * of the campaign appears to complete after AppActions.loadCampaign returns, causing the preview to always appear as black if this method is called from within loadCampaign. Either need to find
@@ -406,12 +478,21 @@ public static File getCampaignThumbnailFile(String fileName) {
     return new File(AppUtil.getAppHome("campaignthumbs"), fileName + ".jpg");
   }
 
+  /** @return how long the phases of the last campaign load took, or null before the first load. */
+  public static PhaseTimings getLastLoadTimings() {
+    return lastLoadTimings;
+  }
+
   public static PersistedCampaign loadCampaign(File campaignFile) throws IOException {
     PersistedCampaign persistedCampaign = null;
+    PhaseTimings timings = new PhaseTimings("Load " + campaignFile.getName());
+    // Zones and assets are read from the file in parallel
+    ExecutorService loadPool = Executors.newFixedThreadPool(LOAD_THREADS);
 
     // Try the new way first
     PackedFile pakFile = null;
     try {
+      long start = System.nanoTime();
       pakFile = new PackedFile(campaignFile);
       pakFile.setModelVersionManager(campaignVersionManager);
 
@@ -422,9 +503,14 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
       String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
       // This is where the campaignVersion was added
       campaignVersion = campaignVersion == null ? "1.3.50" : campaignVersion;
+      IncrementalCampaignWriter.readZoneEntries(
+          pakFile, campaignVersionManager, campaignVersion, loadPool, timings);
+      timings.record("Read properties", start, 0);
 
       try {
+        start = System.nanoTime();
         persistedCampaign = (PersistedCampaign) pakFile.getContent(campaignVersion);
+        timings.record("Read content", start, 0);
       } catch (ConversionException ce) {
         // Ignore the exception and check for "campaign == null" below...
         MapTool.showError("PersistenceUtil.error.campaignVersion", ce);
@@ -432,11 +518,22 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
       if (persistedCampaign != null) {
         // Now load up any images that we need
         // Note that the values are all placeholders
+        start = System.nanoTime();
         Set<MD5Key> allAssetIds = persistedCampaign.assetMap.keySet();
-        loadAssets(allAssetIds, pakFile);
+        loadAssets(allAssetIds, pakFile, loadPool);
+        timings.record("Load assets", start, allAssetIds.size());
+
+        start = System.nanoTime();
+        List<Callable<Zone>> optimizations = new ArrayList<Callable<Zone>>();
         for (Zone zone : persistedCampaign.campaign.getZones()) {
-          zone.optimize();
+          optimizations.add(
+              () -> {
+                zone.optimize();
+                return zone;
+              });
         }
+        invokeAll(loadPool, optimizations);
+        timings.record("Optimize zones", start, optimizations.size());
 
         // for (Entry<String, Map<GUID, LightSource>> entry :
         // persistedCampaign.campaign.getLightSourcesMap().entrySet()) {
@@ -464,6 +561,10 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
       MapTool.showError("PersistenceUtil.error.unknown", e);
     } finally {
       if (pakFile != null) pakFile.close();
+      loadPool.shutdownNow();
+      timings.finish();
+      lastLoadTimings = timings;
+      log.info(timings);
     }
 
     // No longer try to load a legacy (very early 1.3 and before) campaign
@@ -583,6 +684,50 @@ public static void saveToken(Token token, File file, boolean doWait) throws IOEx
     }
   }
 
+  /**
+   * Saves several tokens at once, each to its own file. The tokens are saved on a pool of threads.
+   *
+   * @param files the tokens and the files to save them to
+   * @throws IOException the first failure once every token has been tried, with the others
+   *     suppressed by it
+   */
+  public static void saveTokens(Map<Token, File> files) throws IOException {
+    if (files.isEmpty()) {
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(LOAD_THREADS, files.size()));
+    try {
+      List<Callable<IOException>> saves = new ArrayList<Callable<IOException>>(files.size());
+      for (Map.Entry<Token, File> entry : files.entrySet()) {
+        saves.add(
+            () -> {
+              try {
+                saveToken(entry.getKey(), entry.getValue());
+                return null;
+              } catch (IOException ioe) {
+                return ioe;
+              }
+            });
+      }
+      IOException failure = null;
+      for (IOException ioe : invokeAll(pool, saves)) {
+        if (ioe == null) {
+          continue;
+        }
+        if (failure == null) {
+          failure = ioe;
+        } else {
+          failure.addSuppressed(ioe);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   public static Token loadToken(File file) {
     Token token = null;
     try (PackedFile pakFile = new PackedFile(file)) {
@@ -611,71 +756,180 @@ public static Token loadToken(URL url) throws IOException {
     return token;
   }
 
+  /**
+   * Loads several token files at once, such as a folder of tokens dropped on a map. The files are
+   * read on a pool of threads, and an asset that several of the tokens use is only read once.
+   *
+   * @param urls the token files
+   * @return the tokens in the order of the files, null for those that could not be loaded
+   */
+  public static List<Token> loadTokens(List<URL> urls) {
+    List<Token> tokens = new ArrayList<Token>(urls.size());
+    if (urls.isEmpty()) {
+      return tokens;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(LOAD_THREADS, urls.size()));
+    List<TokenFile> tokenFiles = new ArrayList<TokenFile>(urls.size());
+    try {
+      List<Callable<TokenFile>> reads = new ArrayList<Callable<TokenFile>>(urls.size());
+      for (URL url : urls) {
+        reads.add(() -> TokenFile.read(url));
+      }
+      tokenFiles.addAll(invokeAll(pool, reads));
+
+      // The version check and the errors need the user, so they are done here rather than on the
+      // pool
+      List<Callable<Asset>> assetReads = new ArrayList<Callable<Asset>>();
+      Set<MD5Key> queued = new HashSet<MD5Key>();
+      for (TokenFile tokenFile : tokenFiles) {
+        Token token = null;
+        if (versionCheck(tokenFile.progVersion)) {
+          if (tokenFile.error != null) {
+            MapTool.showError(tokenFile.errorKey, tokenFile.error);
+          } else {
+            token = tokenFile.token;
+            addAssetReads(assetReads, token.getAllImageAssets(), tokenFile.pakFile, queued);
+          }
+        }
+        tokens.add(token);
+      }
+      putAssets(invokeAll(pool, assetReads));
+    } catch (IOException ioe) {
+      MapTool.showError("PersistenceUtil.error.tokenRead", ioe);
+    } finally {
+      pool.shutdown();
+      for (TokenFile tokenFile : tokenFiles) {
+        tokenFile.close();
+      }
+    }
+    while (tokens.size() < urls.size()) {
+      tokens.add(null);
+    }
+    return tokens;
+  }
+
+  /** A token file read by {@link #loadTokens(List)}, kept open until its assets are read. */
+  private static class TokenFile {
+    private File tmpFile;
+    private PackedFile pakFile;
+    private String progVersion;
+    private Token token;
+    private String errorKey;
+    private Exception error;
+
+    /**
+     * Reads the token of a file. Does not throw, so the files read by the other threads are still
+     * closed when one of them fails.
+     */
+    static TokenFile read(URL url) {
+      TokenFile tokenFile = new TokenFile();
+      try {
+        tokenFile.tmpFile = new File(PackedFile.getTmpDir(), new GUID() + ".url");
+        FileUtils.copyURLToFile(url, tokenFile.tmpFile);
+        tokenFile.pakFile = new PackedFile(tokenFile.tmpFile);
+        tokenFile.pakFile.setModelVersionManager(tokenVersionManager);
+        tokenFile.progVersion = (String) tokenFile.pakFile.getProperty(PROP_VERSION);
+        tokenFile.token = (Token) tokenFile.pakFile.getContent(tokenFile.progVersion);
+      } catch (ConversionException ce) {
+        tokenFile.errorKey = "PersistenceUtil.error.tokenVersion";
+        tokenFile.error = ce;
+      } catch (IOException ioe) {
+        tokenFile.errorKey = "PersistenceUtil.error.tokenRead";
+        tokenFile.error = ioe;
+      }
+      return tokenFile;
+    }
+
+    void close() {
+      if (pakFile != null) {
+        pakFile.close();
+      }
+      if (tmpFile != null) {
+        tmpFile.delete();
+      }
+    }
+  }
+
   private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
+    loadAssets(assetIds, pakFile, null);
+  }
+
+  /**
+   * Loads the assets of a packed file that are not loaded yet.
+   *
+   * @param assetIds the ids of the assets
+   * @param pakFile the file to load them from
+   * @param pool where to read the assets, or null to read them one after the other
+   * @throws IOException if reading the assets was interrupted
+   */
+  private static void loadAssets(
+      Collection<MD5Key> assetIds, PackedFile pakFile, ExecutorService pool) throws IOException {
+    List<Callable<Asset>> reads = new ArrayList<Callable<Asset>>(assetIds.size());
+    addAssetReads(reads, assetIds, pakFile, new HashSet<MD5Key>());
+    List<Asset> assets;
+    if (pool != null) {
+      assets = invokeAll(pool, reads);
+    } else {
+      assets = new ArrayList<Asset>(reads.size());
+      for (Callable<Asset> read : reads) {
+        assets.add(call(read));
+      }
+    }
+    putAssets(assets);
+  }
+
+  /**
+   * Adds a read for each asset of a packed file that is not loaded yet and not read from another
+   * file already.
+   *
+   * @param reads the reads, the new ones are added to the end
+   * @param assetIds the ids of the assets
+   * @param pakFile the file to read them from
+   * @param queued the ids of the assets read so far, the new ones are added
+   * @throws IOException if the properties of the file could not be read
+   */
+  private static void addAssetReads(
+      List<Callable<Asset>> reads,
+      Collection<MD5Key> assetIds,
+      PackedFile pakFile,
+      Set<MD5Key> queued)
+      throws IOException {
     // Special handling of assets: XML file to describe the Asset, but binary file for the image
-    // data
-    pakFile.getXStream().processAnnotations(Asset.class);
+    // data. The XStream of the file knows about the Asset annotations, see XStreamRegistry.
 
     String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
     String progVersion = (String) pakFile.getProperty(PROP_VERSION);
-    List<Asset> addToServer = new ArrayList<Asset>(assetIds.size());
 
     // FJE: Ugly fix for a bug I introduced in b64. :(
     boolean fixRequired = "1.3.b64".equals(progVersion);
 
     for (MD5Key key : assetIds) {
-      if (key == null) continue;
-
-      if (!AssetManager.hasAsset(key)) {
-        String pathname = ASSET_DIR + key;
-        Asset asset = null;
-        if (fixRequired) {
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
-          } catch (FileNotFoundException fnf) {
-            // Doesn't need to be reported, since that's handled below.
-          } catch (Exception e) {
-            log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
-          }
-        } else {
-          try {
-            asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
-          } catch (Exception e) {
-            // Do nothing. The asset will be 'null' and it'll be handled below.
-            log.info("Exception while handling asset '" + pathname + "'", e);
-          }
-        }
-        if (asset == null) { // Referenced asset not included in PackedFile??
-          log.error("Referenced asset '" + pathname + "' not found while loading?!");
-          continue;
-        }
-        // If the asset was marked as "broken" then ignore it completely. The end
-        // result is that MT will attempt to load it from a repository again, as normal.
-        if ("broken".equals(asset.getName())) {
-          log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
-          ImageManager.flushImage(asset);
-          continue;
-        }
-        // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
-        // New XStreamConverter creates empty byte[] for image.
-        if (asset.getImage() == null || asset.getImage().length < 4) {
-          String ext = asset.getImageExtension();
-          pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
-          pathname = assetnameVersionManager.transform(pathname, campaignVersion);
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset.setImage(IOUtils.toByteArray(is));
-          } catch (FileNotFoundException fnf) {
-            log.error("Image data for '" + pathname + "' not found?!", fnf);
-            continue;
-          } catch (Exception e) {
-            log.error("While reading image data for '" + pathname + "'", e);
-            continue;
-          }
-        }
-        AssetManager.putAsset(asset);
-        addToServer.add(asset);
+      if (key != null && !AssetManager.hasAsset(key) && queued.add(key)) {
+        reads.add(() -> readAsset(key, pakFile, campaignVersion, fixRequired));
+      }
+    }
+  }
+
+  /**
+   * Puts the assets that were read into the {@link AssetManager}, on the calling thread.
+   *
+   * @param assets the assets, null for those that could not be read
+   */
+  private static void putAssets(List<Asset> assets) {
+    List<Asset> addToServer = new ArrayList<Asset>(assets.size());
+    for (Asset asset : assets) {
+      if (asset == null) {
+        continue;
+      }
+      // If the asset was marked as "broken" then ignore it completely. The end
+      // result is that MT will attempt to load it from a repository again, as normal.
+      if ("broken".equals(asset.getName())) {
+        ImageManager.flushImage(asset);
+        continue;
       }
+      AssetManager.putAsset(asset);
+      addToServer.add(asset);
     }
     if (!addToServer.isEmpty()) {
       // Isn't this the same as (MapTool.getServer() == null) ? And won't there always
@@ -697,11 +951,103 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     }
   }
 
+  /**
+   * Reads an asset and its image from a packed file. May be called from several threads at once.
+   *
+   * @return the asset, or null if it could not be read
+   */
+  private static Asset readAsset(
+      MD5Key key, PackedFile pakFile, String campaignVersion, boolean fixRequired) {
+    String pathname = ASSET_DIR + key;
+    Asset asset = null;
+    if (fixRequired) {
+      try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
+        asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
+      } catch (FileNotFoundException fnf) {
+        // Doesn't need to be reported, since that's handled below.
+      } catch (Exception e) {
+        log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
+      }
+    } else {
+      try (Reader reader = pakFile.getFileAsReader(pathname)) {
+        asset = (Asset) pakFile.getXStream().fromXML(reader); // XML deserialization
+      } catch (Exception e) {
+        // Do nothing. The asset will be 'null' and it'll be handled below.
+        log.info("Exception while handling asset '" + pathname + "'", e);
+      }
+    }
+    if (asset == null) { // Referenced asset not included in PackedFile??
+      log.error("Referenced asset '" + pathname + "' not found while loading?!");
+      return null;
+    }
+    if ("broken".equals(asset.getName())) {
+      log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
+      return asset;
+    }
+    // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
+    // New XStreamConverter creates empty byte[] for image.
+    if (asset.getImage() == null || asset.getImage().length < 4) {
+      String ext = asset.getImageExtension();
+      pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
+      pathname = assetnameVersionManager.transform(pathname, campaignVersion);
+      try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
+        asset.setImage(IOUtils.toByteArray(is));
+      } catch (FileNotFoundException fnf) {
+        log.error("Image data for '" + pathname + "' not found?!", fnf);
+        return null;
+      } catch (Exception e) {
+        log.error("While reading image data for '" + pathname + "'", e);
+        return null;
+      }
+    }
+    return asset;
+  }
+
+  /**
+   * Runs tasks on a pool and waits for all of them.
+   *
+   * @param pool the pool to run the tasks on
+   * @param tasks the tasks
+   * @return the results of the tasks, in the order of the tasks
+   * @throws IOException if a task failed with one, or the wait was interrupted
+   */
+  static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+    List<T> results = new ArrayList<T>(tasks.size());
+    try {
+      for (Future<T> future : pool.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    return results;
+  }
+
+  private static <T> T call(Callable<T> task) throws IOException {
+    try {
+      return task.call();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
   private static void saveAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
     // Special handling of assets: XML file to describe the Asset, but binary file for the image
-    // data
-    pakFile.getXStream().processAnnotations(Asset.class);
+    // data. The XStream of the file knows about the Asset annotations, see XStreamRegistry.
 
     for (MD5Key assetId : assetIds) {
       if (assetId == null) continue;
@@ -744,7 +1090,7 @@ public static CampaignProperties loadCampaignProperties(InputStream in) {
     try {
       props =
           (CampaignProperties)
-              FileUtil.getConfiguredXStream()
+              XStreamRegistry.getDefault()
                   .fromXML(new InputStreamReader(in, StandardCharsets.UTF_8));
     } catch (ConversionException ce) {
       MapTool.showError("PersistenceUtil.error.campaignPropertiesVersion", ce);
@@ -839,7 +1185,7 @@ public static MacroButtonProperties loadMacro(InputStream in) {
     try {
       mbProps =
           asMacro(
-              FileUtil.getConfiguredXStream()
+              XStreamRegistry.getDefault()
                   .fromXML(new InputStreamReader(in, StandardCharsets.UTF_8)));
     } catch (ConversionException ce) {
       MapTool.showError("PersistenceUtil.error.macroVersion", ce);
@@ -932,7 +1278,7 @@ public static List<MacroButtonProperties> loadMacroSet(InputStream in) {
     try {
       macroButtonSet =
           asMacroSet(
-              FileUtil.getConfiguredXStream()
+              XStreamRegistry.getDefault()
                   .fromXML(new InputStreamReader(in, StandardCharsets.UTF_8)));
     } catch (ConversionException ce) {
       MapTool.showError("PersistenceUtil.error.macrosetVersion", ce);
@@ -989,7 +1335,7 @@ public static LookupTable loadTable(InputStream in) {
     try {
       table =
           (LookupTable)
-              FileUtil.getConfiguredXStream()
+              XStreamRegistry.getDefault()
                   .fromXML(new InputStreamReader(in, StandardCharsets.UTF_8));
     } catch (ConversionException ce) {
       MapTool.showError("PersistenceUtil.error.tableVersion", ce);
@@ -0,0 +1,98 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of a longer task, such as loading a campaign, took and how many items it went
+ * through. Unlike {@link net.rptools.lib.CodeTimer} it is always on and can be recorded into from
+ * any thread, so the timings can be logged and looked at after the fact, see {@link
+ * PersistenceUtil#getLastLoadTimings()}.
+ */
+public class PhaseTimings {
+  private final String name;
+  private final long started = System.nanoTime();
+  private long finished = -1;
+  private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+  /** The time and item count of one phase. */
+  public static class Phase {
+    private long nanos;
+    private int count;
+
+    public long getMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** @return how many items the phase went through, 0 if it does not count them. */
+    public int getCount() {
+      return count;
+    }
+  }
+
+  public PhaseTimings(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Adds the time taken since a start time to a phase.
+   *
+   * @param phase the name of the phase
+   * @param startNanos when the phase started, from {@link System#nanoTime()}
+   * @param count how many items the phase went through
+   */
+  public synchronized void record(String phase, long startNanos, int count) {
+    Phase p = phases.computeIfAbsent(phase, n -> new Phase());
+    p.nanos += System.nanoTime() - startNanos;
+    p.count += count;
+  }
+
+  /** @return the phases in the order they were first recorded. */
+  public synchronized Map<String, Phase> getPhases() {
+    return Collections.unmodifiableMap(new LinkedHashMap<String, Phase>(phases));
+  }
+
+  /** Marks the task as done, the elapsed time stops there. */
+  public synchronized void finish() {
+    finished = System.nanoTime();
+  }
+
+  /** @return the time from when these timings were created until the task finished, or now. */
+  public synchronized long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis((finished < 0 ? System.nanoTime() : finished) - started);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder(name);
+    builder.append(" (").append(getElapsedMillis()).append(" ms)");
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      builder.append(String.format("%n  %6d ms  %s", phase.getMillis(), entry.getKey()));
+      if (phase.count > 0) {
+        builder.append(" (").append(phase.count).append(")");
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -52,19 +52,24 @@ private void addTokenChangeListeners() {
             zone,
             event -> {
               System.out.println("DEBUG: Event " + event.eventType);
-              if (event.eventType == Zone.Event.TOKEN_CHANGED) {
-                tokenChanged((Token) event.getArg());
-              } else if (event.eventType == Zone.Event.TOKEN_ADDED) {
-                tokenAdded((Token) event.getArg());
-              } else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
-                if (event.getArg() instanceof List<?>) {
-                  @SuppressWarnings("unchecked")
-                  List<Token> list = (List<Token>) (event.getArg());
-                  for (Token token : list) {
-                    tokenRemoved(token);
-                  }
-                } else {
-                  tokenRemoved((Token) event.getArg());
+              // Tokens put in one go arrive as a list
+              List<Token> tokens;
+              if (event.getArg() instanceof List<?>) {
+                @SuppressWarnings("unchecked")
+                List<Token> list = (List<Token>) (event.getArg());
+                tokens = list;
+              } else if (event.getArg() instanceof Token) {
+                tokens = Collections.singletonList((Token) event.getArg());
+              } else {
+                tokens = Collections.emptyList();
+              }
+              for (Token token : tokens) {
+                if (event.eventType == Zone.Event.TOKEN_CHANGED) {
+                  tokenChanged(token);
+                } else if (event.eventType == Zone.Event.TOKEN_ADDED) {
+                  tokenAdded(token);
+                } else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
+                  tokenRemoved(token);
                 }
               }
             });
@@ -0,0 +1,101 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class HessianUtilsTest {
+
+  @Test
+  @DisplayName("Test small calls are framed without compression.")
+  void testSmallCall() throws Exception {
+    byte[] call = HessianUtils.methodToBytes("movePointer", "player", 10, 20);
+    byte[] frame = HessianUtils.frame(call);
+
+    assertEquals(HessianUtils.FRAME_RAW, frame[0]);
+    assertEquals(call.length + 1, frame.length);
+    assertArrayEquals(call, HessianUtils.openMessage(frame).readAllBytes());
+  }
+
+  @Test
+  @DisplayName("Test larger calls are deflated and inflate back.")
+  void testCompressedCall() throws Exception {
+    StringBuilder notes = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      notes.append("The goblin has ").append(i % 7).append(" hit points left. ");
+    }
+    for (String text : new String[] {notes.substring(0, 4000), notes.toString()}) {
+      byte[] call = HessianUtils.methodToBytes("message", text);
+      byte[] frame = HessianUtils.frame(call);
+
+      assertEquals(HessianUtils.FRAME_DEFLATE, frame[0]);
+      assertTrue(frame.length < call.length);
+      assertArrayEquals(call, HessianUtils.openMessage(frame).readAllBytes());
+    }
+  }
+
+  @Test
+  @DisplayName("Test incompressible calls are sent as they are.")
+  void testIncompressibleCall() throws Exception {
+    byte[] image = new byte[64 * 1024];
+    new Random(3).nextBytes(image);
+    byte[] call = HessianUtils.methodToBytes("updateAssetTransfer", (Object) image);
+    byte[] frame = HessianUtils.frame(call);
+
+    assertEquals(HessianUtils.FRAME_RAW, frame[0]);
+    assertArrayEquals(call, HessianUtils.openMessage(frame).readAllBytes());
+  }
+
+  @Test
+  @DisplayName("Test the legacy formats are still recognized.")
+  void testLegacyFormats() throws Exception {
+    byte[] call = HessianUtils.methodToBytes("heartbeat", "player");
+
+    byte[] gzip = HessianUtils.methodToBytesGZ("heartbeat", "player");
+    assertArrayEquals(call, HessianUtils.openMessage(gzip).readAllBytes());
+    assertArrayEquals(call, HessianUtils.openMessage(call).readAllBytes());
+  }
+
+  @Test
+  @DisplayName("Test a length header larger than any frame is rejected before allocating.")
+  void testOversizedLength() throws Exception {
+    byte[] frame = HessianUtils.frame(HessianUtils.methodToBytes("message", "x".repeat(4000)));
+    assertEquals(HessianUtils.FRAME_DEFLATE, frame[0]);
+
+    for (int length : new int[] {Integer.MAX_VALUE, HessianUtils.MAX_UNCOMPRESSED_LENGTH + 1}) {
+      byte[] forged = frame.clone();
+      forged[1] = (byte) (length >>> 24);
+      forged[2] = (byte) (length >>> 16);
+      forged[3] = (byte) (length >>> 8);
+      forged[4] = (byte) length;
+      IOException e = assertThrows(IOException.class, () -> HessianUtils.openMessage(forged));
+      assertTrue(e.getMessage().contains("Invalid uncompressed length"));
+    }
+
+    // Within the maximum frame, but more than the deflated bytes could ever hold
+    byte[] forged = frame.clone();
+    int length = (frame.length - 5) * 1033;
+    forged[1] = (byte) (length >>> 24);
+    forged[2] = (byte) (length >>> 16);
+    forged[3] = (byte) (length >>> 8);
+    forged[4] = (byte) length;
+    assertThrows(IOException.class, () -> HessianUtils.openMessage(forged));
+  }
+}
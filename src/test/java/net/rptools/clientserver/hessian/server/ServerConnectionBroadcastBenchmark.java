@@ -0,0 +1,109 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian.server;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.server.ServerObserver;
+
+/**
+ * Compares the server CPU spent per command when each recipient gets its own encoding against the
+ * encode-once broadcast, with 20 connected players. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class ServerConnectionBroadcastBenchmark {
+
+  private static final int PLAYERS = 20;
+  private static final int COMMANDS = 200;
+
+  public static void run(PrintStream out) throws Exception {
+    ServerConnection server = new ServerConnection(0);
+    CountDownLatch connected = new CountDownLatch(PLAYERS);
+    List<String> ids = new ArrayList<String>();
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            synchronized (ids) {
+              ids.add(conn.getId());
+            }
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+
+    // Per recipient encode then encode once, for two commands and a warm up round
+    CountDownLatch received = new CountDownLatch(2 * 2 * 2 * COMMANDS * PLAYERS);
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    try {
+      for (int i = 0; i < PLAYERS; i++) {
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "player-" + i);
+        client.addMessageHandler((id, message) -> received.countDown());
+        client.start();
+        clients.add(client);
+      }
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Players did not connect");
+      }
+
+      Object[] move = {"zone-guid", "token-guid", 1234, 5678};
+      List<Integer> points = new ArrayList<Integer>();
+      for (int i = 0; i < 500; i++) {
+        points.add(i * 7);
+      }
+      Object[] draw = {"zone-guid", "pen", points};
+
+      for (int round = 0; round < 2; round++) {
+        for (Object[] parameters : List.of(move, draw)) {
+          String method = parameters == move ? "updateTokenMove" : "draw";
+
+          server.resetMethodStatistics();
+          for (int c = 0; c < COMMANDS; c++) {
+            for (String id : ids) {
+              server.callMethod(id, method, parameters);
+            }
+          }
+          long perRecipient = server.getMethodStatistics(method).getCpuNanos() / COMMANDS;
+
+          server.resetMethodStatistics();
+          for (int c = 0; c < COMMANDS; c++) {
+            server.broadcastCallMethod(method, parameters);
+          }
+          MethodStatistics stats = server.getMethodStatistics(method);
+
+          // The first round warms up
+          if (round == 1) {
+            out.printf(
+                "%s with %d players: %.1f us cpu/command per recipient encoding,"
+                    + " %.1f us encoded once%n",
+                method, PLAYERS, perRecipient / 1000.0, stats.getAverageCpuNanos() / 1000.0);
+          }
+        }
+      }
+      if (!received.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Not all messages were delivered");
+      }
+    } finally {
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+}
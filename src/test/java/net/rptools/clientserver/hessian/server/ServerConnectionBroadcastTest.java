@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.hessian.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.server.ServerObserver;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the encode-once broadcast reaches every connected player, or every player but the
+ * excluded ones, with 20 connected players.
+ */
+class ServerConnectionBroadcastTest {
+
+  private static final int PLAYERS = 20;
+  private static final int COMMANDS = 200;
+
+  @Test
+  @DisplayName("Test broadcasts are encoded once and filtered per recipient.")
+  void testBroadcast() throws Exception {
+    ServerConnection server = new ServerConnection(0);
+    CountDownLatch connected = new CountDownLatch(PLAYERS);
+    List<String> ids = new ArrayList<String>();
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            synchronized (ids) {
+              ids.add(conn.getId());
+            }
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+
+    // Two commands for everyone, then one for everyone but the first player
+    int expected = COMMANDS * PLAYERS * 2 + COMMANDS * (PLAYERS - 1);
+    CountDownLatch received = new CountDownLatch(expected);
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    try {
+      for (int i = 0; i < PLAYERS; i++) {
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "player-" + i);
+        client.addMessageHandler((id, message) -> received.countDown());
+        client.start();
+        clients.add(client);
+      }
+      assertTrue(connected.await(30, TimeUnit.SECONDS), "players did not connect");
+
+      Object[] move = {"zone-guid", "token-guid", 1234, 5678};
+      List<Integer> points = new ArrayList<Integer>();
+      for (int i = 0; i < 500; i++) {
+        points.add(i * 7);
+      }
+      Object[] draw = {"zone-guid", "pen", points};
+
+      for (Object[] parameters : List.of(move, draw)) {
+        String method = parameters == move ? "updateTokenMove" : "draw";
+
+        server.resetMethodStatistics();
+        for (int c = 0; c < COMMANDS; c++) {
+          server.broadcastCallMethod(method, parameters);
+        }
+        MethodStatistics stats = server.getMethodStatistics(method);
+        assertEquals(COMMANDS, stats.getCalls());
+        assertEquals(COMMANDS * PLAYERS, stats.getDeliveries());
+      }
+
+      server.resetMethodStatistics();
+      String excluded = ids.get(0);
+      for (int c = 0; c < COMMANDS; c++) {
+        server.broadcastCallMethod(new String[] {excluded}, "movePointer", "player", 1, 2);
+      }
+      assertEquals(
+          COMMANDS * (PLAYERS - 1), server.getMethodStatistics("movePointer").getDeliveries());
+
+      assertTrue(received.await(30, TimeUnit.SECONDS), "not all messages were delivered");
+    } finally {
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Compares writing and reading a 20 MB frame, the size of a large campaign, with {@link
+ * FrameCodec} and with the old byte at a time framing. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class FrameCodecBenchmark {
+  private static final int ROUNDS = 3;
+
+  public static void run(PrintStream out) throws Exception {
+    byte[] data = new byte[20 * 1024 * 1024];
+    new Random(2).nextBytes(data);
+    FrameCodec codec = new FrameCodec();
+
+    // The rounds before the last warm up
+    double legacyWrite = 0, legacyRead = 0, bulkWrite = 0, bulkRead = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length + 4);
+      long start = System.nanoTime();
+      FrameCodecTest.legacyWriteFrame(new BufferedOutputStream(bout, 1024), data);
+      legacyWrite = mbPerSecond(data.length, System.nanoTime() - start);
+      byte[] frame = bout.toByteArray();
+
+      start = System.nanoTime();
+      FrameCodecTest.legacyReadFrame(new ByteArrayInputStream(frame));
+      legacyRead = mbPerSecond(data.length, System.nanoTime() - start);
+
+      bout = new ByteArrayOutputStream(data.length + 4);
+      start = System.nanoTime();
+      codec.writeFrame(new BufferedOutputStream(bout, 16 * 1024), data, FrameCodecTest.NO_OP);
+      bulkWrite = mbPerSecond(data.length, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      codec.readFrame(new ByteArrayInputStream(bout.toByteArray()), FrameCodecTest.NO_OP);
+      bulkRead = mbPerSecond(data.length, System.nanoTime() - start);
+    }
+    out.printf(
+        "20 MB frame: write %.0f -> %.0f MB/s, read %.0f -> %.0f MB/s%n",
+        legacyWrite, bulkWrite, legacyRead, bulkRead);
+  }
+
+  private static double mbPerSecond(int bytes, long nanos) {
+    return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.rptools.clientserver.ActivityListener;
+import net.rptools.clientserver.ActivityListener.State;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FrameCodecTest {
+
+  static final ActivityListener NO_OP = (direction, state, total, current) -> {};
+
+  @Test
+  @DisplayName("Test frame round trip and progress events.")
+  void testRoundTrip() throws Exception {
+    byte[] data = new byte[3 * ActivityListener.CHUNK_SIZE + 17];
+    new Random(1).nextBytes(data);
+
+    FrameCodec codec = new FrameCodec();
+    List<Integer> progress = new ArrayList<Integer>();
+    ActivityListener listener =
+        (direction, state, total, current) -> {
+          if (state == State.Progress) {
+            progress.add(current);
+          }
+        };
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    codec.writeFrame(bout, data, listener);
+    assertEquals(data.length + 4, bout.size());
+    assertEquals(List.of(4096, 8192, 12288), progress);
+
+    progress.clear();
+    byte[] read = codec.readFrame(new ByteArrayInputStream(bout.toByteArray()), listener);
+    assertArrayEquals(data, read);
+    assertEquals(List.of(4096, 8192, 12288), progress);
+  }
+
+  @Test
+  @DisplayName("Test frames longer than the maximum are rejected before allocating.")
+  void testMaxFrameLength() throws Exception {
+    FrameCodec codec = new FrameCodec();
+    codec.setMaxFrameLength(1024);
+
+    byte[] header = {0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+    assertThrows(
+        IOException.class, () -> codec.readFrame(new ByteArrayInputStream(header), NO_OP));
+
+    byte[] negative = {(byte) 0xff, 0, 0, 0};
+    assertThrows(
+        IOException.class, () -> codec.readFrame(new ByteArrayInputStream(negative), NO_OP));
+  }
+
+  @Test
+  @DisplayName("Test a truncated frame reports the stream as closed.")
+  void testTruncatedFrame() throws Exception {
+    FrameCodec codec = new FrameCodec();
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    codec.writeFrame(bout, new byte[100], NO_OP);
+    byte[] truncated = new byte[50];
+    System.arraycopy(bout.toByteArray(), 0, truncated, 0, truncated.length);
+
+    assertThrows(
+        EOFException.class, () -> codec.readFrame(new ByteArrayInputStream(truncated), NO_OP));
+    assertThrows(
+        EOFException.class, () -> codec.readFrame(new ByteArrayInputStream(new byte[0]), NO_OP));
+  }
+
+  @Test
+  @DisplayName("Test frames are the same on the wire as the old byte at a time framing.")
+  void testLegacyFraming() throws Exception {
+    byte[] data = new byte[5 * ActivityListener.CHUNK_SIZE + 3];
+    new Random(2).nextBytes(data);
+    FrameCodec codec = new FrameCodec();
+
+    ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+    legacyWriteFrame(new BufferedOutputStream(legacy, 1024), data);
+    ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+    codec.writeFrame(new BufferedOutputStream(bulk, 16 * 1024), data, NO_OP);
+    assertArrayEquals(legacy.toByteArray(), bulk.toByteArray());
+
+    assertArrayEquals(data, legacyReadFrame(new ByteArrayInputStream(bulk.toByteArray())));
+    assertArrayEquals(data, codec.readFrame(new ByteArrayInputStream(legacy.toByteArray()), NO_OP));
+  }
+
+  /** The framing as it was before FrameCodec, kept for comparison. */
+  static void legacyWriteFrame(OutputStream out, byte[] message) throws IOException {
+    int length = message.length;
+    out.write(length >> 24);
+    out.write(length >> 16);
+    out.write(length >> 8);
+    out.write(length);
+    for (int i = 0; i < message.length; i++) {
+      out.write(message[i]);
+      if (i != 0 && i % ActivityListener.CHUNK_SIZE == 0) {
+        NO_OP.notify(ActivityListener.Direction.Outbound, State.Progress, length, i);
+      }
+    }
+    out.flush();
+  }
+
+  static byte[] legacyReadFrame(InputStream in) throws IOException {
+    int length = (in.read() << 24) + (in.read() << 16) + (in.read() << 8) + in.read();
+    byte[] ret = new byte[length];
+    for (int i = 0; i < length; i++) {
+      ret[i] = (byte) in.read();
+      if (i != 0 && i % ActivityListener.CHUNK_SIZE == 0) {
+        NO_OP.notify(ActivityListener.Direction.Inbound, State.Progress, length, i);
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+  @Test
+  @DisplayName("Test messages come out by priority, in order within a priority.")
+  void testPriorityOrder() {
+    OutboundQueue queue = new OutboundQueue();
+    byte[] asset1 = {1};
+    byte[] asset2 = {2};
+    byte[] chat = {3};
+    byte[] model1 = {4};
+    byte[] model2 = {5};
+    byte[] control = {6};
+    queue.offer(MessagePriority.ASSET, null, asset1);
+    queue.offer(MessagePriority.ASSET, null, asset2);
+    queue.offer(MessagePriority.CHAT, null, chat);
+    queue.offer(MessagePriority.MODEL, null, model1);
+    queue.offer(MessagePriority.MODEL, null, model2);
+    queue.offer(MessagePriority.CONTROL, null, control);
+
+    assertEquals(6, queue.getQueuedMessageCount());
+    assertSame(control, queue.poll());
+    assertSame(model1, queue.poll());
+    assertSame(model2, queue.poll());
+    assertSame(chat, queue.poll());
+    assertSame(asset1, queue.poll());
+    assertSame(asset2, queue.poll());
+    assertNull(queue.poll());
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.getQueuedBytes());
+  }
+
+  @Test
+  @DisplayName("Test keyed messages replace unsent ones, but not across a plain message.")
+  void testReplace() {
+    OutboundQueue queue = new OutboundQueue();
+    byte[] first = {1};
+    byte[] second = {2, 2};
+    byte[] plain = {3};
+    byte[] third = {4};
+    queue.offer(MessagePriority.MODEL, "token", first);
+    queue.offer(MessagePriority.MODEL, "token", second);
+    assertEquals(1, queue.getQueuedMessageCount());
+    assertEquals(2, queue.getQueuedBytes());
+    assertEquals(1, queue.getSupersededMessageCount());
+
+    queue.offer(MessagePriority.MODEL, null, plain);
+    queue.offer(MessagePriority.MODEL, "token", third);
+    assertEquals(3, queue.getQueuedMessageCount());
+
+    assertSame(second, queue.poll());
+    assertSame(plain, queue.poll());
+    assertSame(third, queue.poll());
+    // Sent messages can't be replaced any more
+    queue.offer(MessagePriority.MODEL, "token", first);
+    assertSame(first, queue.poll());
+    assertEquals(1, queue.getSupersededMessageCount());
+  }
+
+  @Test
+  @DisplayName("Test a full queue only accepts control messages.")
+  void testCapacity() {
+    OutboundQueue queue = new OutboundQueue();
+    queue.setLimits(2, 0, 1024);
+    assertTrue(queue.offer(MessagePriority.MODEL, null, new byte[1]));
+    assertTrue(queue.offer(MessagePriority.ASSET, null, new byte[1]));
+    assertFalse(queue.offer(MessagePriority.MODEL, null, new byte[1]));
+    assertFalse(queue.offer(MessagePriority.CHAT, null, new byte[1]));
+    assertTrue(queue.offer(MessagePriority.CONTROL, null, new byte[1]));
+    assertEquals(3, queue.getQueuedMessageCount());
+    assertEquals(2, queue.getDroppedMessageCount());
+  }
+
+  @Test
+  @DisplayName("Test the queue is backed up between the high and the low watermark.")
+  void testWatermarks() {
+    OutboundQueue queue = new OutboundQueue();
+    queue.setLimits(100, 100, 300);
+    AtomicInteger drained = new AtomicInteger();
+    queue.setDrainListener(drained::incrementAndGet);
+    for (int i = 0; i < 3; i++) {
+      assertFalse(queue.isBackedUp());
+      queue.offer(MessagePriority.ASSET, null, new byte[100]);
+    }
+    assertTrue(queue.isBackedUp());
+    queue.poll();
+    // Still above the low watermark
+    assertTrue(queue.isBackedUp());
+    assertEquals(0, drained.get());
+    queue.poll();
+    assertFalse(queue.isBackedUp());
+    assertEquals(1, drained.get());
+    queue.poll();
+    assertEquals(1, drained.get());
+  }
+}
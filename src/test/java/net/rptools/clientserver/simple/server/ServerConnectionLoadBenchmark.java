@@ -0,0 +1,114 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.server;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.rptools.clientserver.simple.client.ClientConnection;
+
+/**
+ * Echo load on the server transports. Every simulated client sends a burst of time stamped
+ * messages that the server sends straight back, and the round trip times are collected to report
+ * throughput and the 50th and 99th percentile latency. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class ServerConnectionLoadBenchmark {
+
+  private static final int CLIENTS = 50;
+  private static final int MESSAGES_PER_CLIENT = 100;
+  private static final int MESSAGE_SIZE = 512;
+
+  public static void run(PrintStream out) throws Exception {
+    // The first round of each warms up
+    for (boolean useNio : new boolean[] {false, true}) {
+      runLoad(useNio, null);
+      runLoad(useNio, out);
+    }
+  }
+
+  private static void runLoad(boolean useNio, PrintStream out) throws Exception {
+    ServerConnection server = new ServerConnection(0, useNio);
+    CountDownLatch connected = new CountDownLatch(CLIENTS);
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+    server.addMessageHandler((id, message) -> server.sendMessage(id, message));
+
+    int total = CLIENTS * MESSAGES_PER_CLIENT;
+    long[] latencies = new long[total];
+    AtomicInteger received = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(total);
+
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    try {
+      for (int i = 0; i < CLIENTS; i++) {
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "client-" + i);
+        client.addMessageHandler(
+            (id, message) -> {
+              long sent = ByteBuffer.wrap(message).getLong();
+              latencies[received.getAndIncrement()] = System.nanoTime() - sent;
+              done.countDown();
+            });
+        client.start();
+        clients.add(client);
+      }
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Clients did not connect");
+      }
+
+      long start = System.nanoTime();
+      for (int m = 0; m < MESSAGES_PER_CLIENT; m++) {
+        for (ClientConnection client : clients) {
+          byte[] message = new byte[MESSAGE_SIZE];
+          ByteBuffer.wrap(message).putLong(System.nanoTime());
+          client.sendMessage(message);
+        }
+      }
+      if (!done.await(60, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Not all messages were echoed");
+      }
+      long elapsed = System.nanoTime() - start;
+
+      if (out != null) {
+        Arrays.sort(latencies);
+        double seconds = elapsed / 1e9;
+        out.printf(
+            "%s transport: %d clients, %.0f msg/s, %.2f MB/s, p50 %.2f ms, p99 %.2f ms%n",
+            useNio ? "nio" : "threaded",
+            CLIENTS,
+            total / seconds,
+            2.0 * total * MESSAGE_SIZE / seconds / (1024 * 1024),
+            latencies[total / 2] / 1e6,
+            latencies[(int) (total * 0.99)] / 1e6);
+      }
+    } finally {
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.clientserver.simple.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Echo load test for the server transports. Every simulated client sends a burst of numbered
+ * messages that the server sends straight back, and each client must get all of its own messages
+ * back whole and in order.
+ */
+class ServerConnectionLoadTest {
+
+  private static final int CLIENTS = 50;
+  private static final int MESSAGES_PER_CLIENT = 100;
+  private static final int MESSAGE_SIZE = 512;
+
+  @Test
+  @DisplayName("Echo load with 50 clients on the threaded transport.")
+  void testThreadedTransport() throws Exception {
+    runLoad(false);
+  }
+
+  @Test
+  @DisplayName("Echo load with 50 clients on the selector (nio) transport.")
+  void testNioTransport() throws Exception {
+    runLoad(true);
+  }
+
+  private static byte[] createMessage(int client, int sequence) {
+    byte[] message = new byte[MESSAGE_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(message).putInt(client).putInt(sequence);
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) (client + sequence + buffer.position()));
+    }
+    return message;
+  }
+
+  private void runLoad(boolean useNio) throws Exception {
+    ServerConnection server = new ServerConnection(0, useNio);
+    CountDownLatch connected = new CountDownLatch(CLIENTS);
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+    server.addMessageHandler((id, message) -> server.sendMessage(id, message));
+
+    int total = CLIENTS * MESSAGES_PER_CLIENT;
+    List<List<byte[]>> received = new ArrayList<List<byte[]>>();
+    CountDownLatch done = new CountDownLatch(total);
+
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    try {
+      for (int i = 0; i < CLIENTS; i++) {
+        List<byte[]> messages = Collections.synchronizedList(new ArrayList<byte[]>());
+        received.add(messages);
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "client-" + i);
+        client.addMessageHandler(
+            (id, message) -> {
+              messages.add(message);
+              done.countDown();
+            });
+        client.start();
+        clients.add(client);
+      }
+      assertTrue(connected.await(30, TimeUnit.SECONDS), "clients did not connect");
+
+      for (int m = 0; m < MESSAGES_PER_CLIENT; m++) {
+        for (int i = 0; i < CLIENTS; i++) {
+          clients.get(i).sendMessage(createMessage(i, m));
+        }
+      }
+      assertTrue(done.await(60, TimeUnit.SECONDS), "not all messages were echoed");
+
+      for (int i = 0; i < CLIENTS; i++) {
+        List<byte[]> messages = received.get(i);
+        assertEquals(MESSAGES_PER_CLIENT, messages.size());
+        for (int m = 0; m < MESSAGES_PER_CLIENT; m++) {
+          assertArrayEquals(createMessage(i, m), messages.get(m));
+        }
+      }
+    } finally {
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+}
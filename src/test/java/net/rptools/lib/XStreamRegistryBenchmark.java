@@ -0,0 +1,61 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Compares importing tokens and macro sets with a new XStream for each file with using the ones
+ * shared by the {@link XStreamRegistry}. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class XStreamRegistryBenchmark {
+
+  public static void run(PrintStream out) {
+    List<String> tokens = XStreamRegistryTest.createTokenXml();
+    List<String> macroSets = XStreamRegistryTest.createMacroSetXml();
+    // Warm up the JIT and the shared instances, so only the per call setup is compared
+    read(tokens, macroSets, false);
+    read(tokens, macroSets, true);
+
+    long start = System.nanoTime();
+    read(tokens, macroSets, false);
+    long perCall = System.nanoTime() - start;
+    start = System.nanoTime();
+    read(tokens, macroSets, true);
+    long shared = System.nanoTime() - start;
+
+    int files = 2 * XStreamRegistryTest.TOKENS;
+    out.printf(
+        "New XStream per file: %.0f files/s, shared XStream: %.0f files/s%n",
+        files / (perCall / 1e9), files / (shared / 1e9));
+  }
+
+  private static void read(List<String> tokens, List<String> macroSets, boolean shared) {
+    for (String xml : tokens) {
+      XStream xstream = shared ? XStreamRegistry.getForFiles() : XStreamRegistry.createForFiles();
+      if (xstream.fromXML(xml) == null) {
+        throw new IllegalStateException("No token read from " + xml);
+      }
+    }
+    for (String xml : macroSets) {
+      XStream xstream = shared ? XStreamRegistry.getDefault() : FileUtil.getConfiguredXStream();
+      if (((List<?>) xstream.fromXML(xml)).size() != 10) {
+        throw new IllegalStateException("Not all the macros read from " + xml);
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.thoughtworks.xstream.XStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.rptools.maptool.model.MacroButtonProperties;
+import net.rptools.maptool.model.Token;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class XStreamRegistryTest {
+
+  static final int TOKENS = 500;
+
+  /** The content of a token file, as written by a library token with a few macros. */
+  static List<String> createTokenXml() {
+    XStream xstream = XStreamRegistry.getForFiles();
+    List<String> documents = new ArrayList<String>();
+    for (int i = 0; i < TOKENS; i++) {
+      Token token = new Token("Token " + i, null);
+      for (int p = 0; p < 30; p++) {
+        token.setProperty("Prop" + p, "value " + p);
+      }
+      token.setNotes("Notes for token " + i);
+      documents.add(xstream.toXML(token));
+    }
+    return documents;
+  }
+
+  static List<String> createMacroSetXml() {
+    XStream xstream = XStreamRegistry.getDefault();
+    List<String> documents = new ArrayList<String>();
+    for (int i = 0; i < TOKENS; i++) {
+      List<MacroButtonProperties> macros = new ArrayList<MacroButtonProperties>();
+      for (int m = 0; m < 10; m++) {
+        MacroButtonProperties macro = new MacroButtonProperties(m);
+        macro.setLabel("Macro " + m);
+        macro.setCommand("[h: x = " + m + "]");
+        macros.add(macro);
+      }
+      documents.add(xstream.toXML(macros));
+    }
+    return documents;
+  }
+
+  @Test
+  @DisplayName("Test the shared instances read what they wrote, from several threads at once.")
+  void testConcurrentReads() throws Exception {
+    List<String> documents = createTokenXml();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Callable<Token>> reads = new ArrayList<Callable<Token>>();
+      for (String xml : documents) {
+        reads.add(() -> (Token) XStreamRegistry.getForFiles().fromXML(xml));
+      }
+      List<Future<Token>> tokens = pool.invokeAll(reads);
+      for (int i = 0; i < TOKENS; i++) {
+        Token token = tokens.get(i).get();
+        assertEquals("Token " + i, token.getName());
+        assertEquals("value 7", token.getProperty("Prop7"));
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertSame(XStreamRegistry.getForFiles(), XStreamRegistry.getForFiles());
+    assertNotSame(XStreamRegistry.getForFiles(), XStreamRegistry.createForFiles());
+  }
+
+  @Test
+  @DisplayName("Test the shared instances read tokens and macro sets as a new XStream does.")
+  void testSameAsNew() {
+    for (String xml : createTokenXml()) {
+      Token shared = (Token) XStreamRegistry.getForFiles().fromXML(xml);
+      Token created = (Token) XStreamRegistry.createForFiles().fromXML(xml);
+      assertEquals(created.getName(), shared.getName());
+      assertEquals(created.getNotes(), shared.getNotes());
+      assertEquals(created.getProperty("Prop29"), shared.getProperty("Prop29"));
+    }
+    for (String xml : createMacroSetXml()) {
+      List<?> shared = (List<?>) XStreamRegistry.getDefault().fromXML(xml);
+      List<?> created = (List<?>) FileUtil.getConfiguredXStream().fromXML(xml);
+      assertEquals(10, shared.size());
+      for (int m = 0; m < shared.size(); m++) {
+        MacroButtonProperties macro = (MacroButtonProperties) shared.get(m);
+        assertEquals(((MacroButtonProperties) created.get(m)).getLabel(), macro.getLabel());
+        assertEquals(((MacroButtonProperties) created.get(m)).getCommand(), macro.getCommand());
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.rptools.clientserver.hessian.server.ServerConnectionBroadcastBenchmark;
+import net.rptools.clientserver.simple.FrameCodecBenchmark;
+import net.rptools.clientserver.simple.server.ServerConnectionLoadBenchmark;
+import net.rptools.lib.XStreamRegistryBenchmark;
+import net.rptools.maptool.client.ui.zone.FogUtilBenchmark;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTreeBenchmark;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityPolygonBenchmark;
+import net.rptools.maptool.model.DrawnElementIndexBenchmark;
+import net.rptools.maptool.model.TiledAreaBenchmark;
+import net.rptools.maptool.model.TokenSpatialIndexBenchmark;
+import net.rptools.maptool.model.ZOrderedTokensBenchmark;
+import net.rptools.maptool.server.CommandCoalescerBenchmark;
+
+/**
+ * Runs the benchmarks kept with the tests. They are too slow and their figures too noisy to be
+ * tests, so they print what they measured instead of asserting on it.
+ *
+ * <p>Run through <code>gradlew benchmark -Pbenchmark=name</code> with the name of one of them, or
+ * without a name to run them all.
+ */
+public class Benchmarks {
+
+  /** A benchmark, printing what it measured. */
+  public interface Benchmark {
+    void run(PrintStream out) throws Exception;
+  }
+
+  private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<String, Benchmark>();
+
+  static {
+    BENCHMARKS.put("echoLoad", ServerConnectionLoadBenchmark::run);
+    BENCHMARKS.put("frameCodec", FrameCodecBenchmark::run);
+    BENCHMARKS.put("broadcast", ServerConnectionBroadcastBenchmark::run);
+    BENCHMARKS.put("coalescer", CommandCoalescerBenchmark::run);
+    BENCHMARKS.put("tokenIndex", TokenSpatialIndexBenchmark::run);
+    BENCHMARKS.put("zOrder", ZOrderedTokensBenchmark::run);
+    BENCHMARKS.put("drawings", DrawnElementIndexBenchmark::run);
+    BENCHMARKS.put("tiledFog", TiledAreaBenchmark::run);
+    BENCHMARKS.put("xstream", XStreamRegistryBenchmark::run);
+    BENCHMARKS.put("visibility", VisibilityPolygonBenchmark::run);
+    BENCHMARKS.put("areaTree", AreaTreeBenchmark::run);
+    BENCHMARKS.put("moveDoor", FogUtilBenchmark::run);
+  }
+
+  public static void main(String[] args) throws Exception {
+    String name = args.length > 0 ? args[0] : "";
+    if (!name.isEmpty() && !BENCHMARKS.containsKey(name)) {
+      System.err.println("No benchmark " + name + ", there are " + BENCHMARKS.keySet());
+      System.exit(1);
+    }
+    for (Map.Entry<String, Benchmark> entry : BENCHMARKS.entrySet()) {
+      if (name.isEmpty() || name.equals(entry.getKey())) {
+        System.out.println("== " + entry.getKey());
+        entry.getValue().run(System.out);
+      }
+    }
+    // The network benchmarks leave dispatch threads behind
+    System.exit(0);
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.geom.Area;
+import java.io.PrintStream;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+
+/**
+ * Compares what moving a door costs when all the VBL is digested again with digesting only the
+ * tokens VBL. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class FogUtilBenchmark {
+  private static final int ROUNDS = 3;
+
+  public static void run(PrintStream out) {
+    Random random = new Random(8);
+    Area topology = FogUtilTest.createTopology(random);
+    Area doors = FogUtilTest.createDoors(random);
+
+    // The rounds before the last warm up
+    for (int round = 1; round <= ROUNDS; round++) {
+      long start = System.nanoTime();
+      new AreaTree(FogUtilTest.union(topology, doors));
+      long all = System.nanoTime() - start;
+      start = System.nanoTime();
+      new AreaTree(new Area(doors));
+      long tokens = System.nanoTime() - start;
+
+      if (round == ROUNDS) {
+        out.printf(
+            "Moving a door: %.1f ms to digest the map and tokens VBL, %.2f ms for the tokens VBL%n",
+            all / 1e6, tokens / 1e6);
+      }
+    }
+  }
+}
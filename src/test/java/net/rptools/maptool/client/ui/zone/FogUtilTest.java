@@ -0,0 +1,145 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FogUtilTest {
+
+  private static final int MAP_SIZE = 6000;
+  private static final Area VISION = new Area(new Ellipse2D.Double(-800, -800, 1600, 1600));
+
+  /** A walled map with pillars and a clearing in the middle. */
+  static Area createTopology(Random random) {
+    Area vbl = new Area(new Rectangle(-20, -20, MAP_SIZE + 40, MAP_SIZE + 40));
+    vbl.subtract(new Area(new Rectangle(0, 0, MAP_SIZE, MAP_SIZE)));
+    Path2D pillars = new Path2D.Double();
+    for (int i = 0; i < 4000; i++) {
+      int size = 10 + random.nextInt(30);
+      pillars.append(
+          new Rectangle(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), size, size), false);
+    }
+    vbl.add(new Area(pillars));
+    vbl.subtract(new Area(new Rectangle(2900, 2900, 300, 300)));
+    return vbl;
+  }
+
+  /** Doors, i.e. tokens with VBL, one of them in the clearing. */
+  static Area createDoors(Random random) {
+    Area doors = new Area(new Rectangle(3000, 3000, 100, 10));
+    for (int i = 0; i < 20; i++) {
+      int x = random.nextInt(MAP_SIZE);
+      int y = random.nextInt(MAP_SIZE);
+      doors.add(new Area(i % 2 == 0 ? new Rectangle(x, y, 100, 10) : new Rectangle(x, y, 10, 100)));
+    }
+    return doors;
+  }
+
+  static Area union(Area topology, Area doors) {
+    Area union = new Area(topology);
+    union.add(doors);
+    return union;
+  }
+
+  private static void assertSameArea(Area expected, Area actual, int x, int y) {
+    if (expected == null || actual == null) {
+      assertEquals(expected, actual, "from " + x + "," + y);
+      return;
+    }
+    double size = measure(expected);
+    Area difference = new Area(expected);
+    difference.exclusiveOr(actual);
+    assertTrue(measure(difference) < Math.max(1, size / 1000), "difference from " + x + "," + y);
+  }
+
+  /** @return the size of an area, in square pixels. */
+  private static double measure(Area area) {
+    double size = 0;
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.1); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          size += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        default:
+          size += lastX * startY - startX * lastY;
+          lastX = startX;
+          lastY = startY;
+      }
+    }
+    return Math.abs(size / 2);
+  }
+
+  @Test
+  @DisplayName("Test seeing past the map VBL and the tokens VBL apart is the same as together.")
+  void testTokenTopology() {
+    Random random = new Random(23);
+    Area topology = createTopology(random);
+    Area doors = createDoors(random);
+    AreaTree mapTree = new AreaTree(topology);
+    AreaTree doorTree = new AreaTree(doors);
+    AreaTree unionTree = new AreaTree(union(topology, doors));
+    for (int i = 0; i < 100; i++) {
+      int x = random.nextInt(MAP_SIZE);
+      int y = random.nextInt(MAP_SIZE);
+      Area expected = FogUtil.calculateVisibilityShadows(x, y, VISION, unionTree);
+      Area actual = FogUtil.calculateVisibility(x, y, VISION, mapTree, doorTree);
+      assertSameArea(expected, actual, x, y);
+    }
+    // Nothing can be seen from inside a door
+    assertNotNull(FogUtil.calculateVisibility(3050, 2950, VISION, mapTree, doorTree));
+    assertNull(FogUtil.calculateVisibility(3050, 3005, VISION, mapTree, doorTree));
+  }
+
+  @Test
+  @DisplayName("Test moving a door only needs the tokens VBL digested again.")
+  void testMoveDoor() {
+    Random random = new Random(8);
+    Area topology = createTopology(random);
+    Area doors = createDoors(random);
+    AreaTree mapTree = new AreaTree(topology);
+    AreaTree doorTree = new AreaTree(doors);
+    Area visible = FogUtil.calculateVisibility(3050, 2950, VISION, mapTree, doorTree);
+    assertFalse(visible.contains(3050, 3100), "seen through the door");
+
+    // Open the door in the clearing by moving it aside
+    Area moved = new Area(doors);
+    moved.subtract(new Area(new Rectangle(3000, 3000, 100, 10)));
+    moved.add(new Area(new Rectangle(3150, 3000, 10, 100)));
+    AreaTree movedTree = new AreaTree(moved);
+    visible = FogUtil.calculateVisibility(3050, 2950, VISION, mapTree, movedTree);
+    assertTrue(visible.contains(3050, 3100), "not seen past the open door");
+    AreaTree unionTree = new AreaTree(union(topology, moved));
+    assertSameArea(
+        FogUtil.calculateVisibilityShadows(3050, 2950, VISION, unionTree), visible, 3050, 2950);
+  }
+}
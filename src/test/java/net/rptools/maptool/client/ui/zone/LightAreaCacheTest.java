@@ -0,0 +1,114 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.Set;
+import net.rptools.maptool.model.Direction;
+import net.rptools.maptool.model.LightSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LightAreaCacheTest {
+
+  private static LightAreaCache.Key createKey(LightSource lightSource, int x, int y, long version) {
+    return new LightAreaCache.Key(
+        lightSource,
+        new Point(x, y),
+        new Rectangle(x - 25, y - 25, 50, 50),
+        null,
+        Direction.CENTER,
+        1,
+        1000,
+        version);
+  }
+
+  private static LightAreaCache.LitArea createLitArea(int x, int y) {
+    Area area = new Area(new Rectangle(x - 100, y - 100, 200, 200));
+    return new LightAreaCache.LitArea(area, Set.of(), Set.of(area));
+  }
+
+  @Test
+  @DisplayName("Test lit areas are found again for the same light source, position and facing.")
+  void testKey() {
+    LightSource torch = new LightSource("Torch");
+    LightAreaCache cache = new LightAreaCache(10);
+    LightAreaCache.LitArea litArea = createLitArea(100, 100);
+    cache.put(createKey(torch, 100, 100, 0), litArea);
+
+    assertSame(litArea, cache.get(createKey(torch, 100, 100, 0)));
+    assertNull(cache.get(createKey(torch, 150, 100, 0)));
+    assertNull(cache.get(createKey(torch, 100, 100, 1)));
+    // Edited light sources are new objects, even if they keep their id
+    assertNull(cache.get(createKey(new LightSource("Torch"), 100, 100, 0)));
+    LightAreaCache.Key faced =
+        new LightAreaCache.Key(
+            torch,
+            new Point(100, 100),
+            new Rectangle(75, 75, 50, 50),
+            90,
+            Direction.CENTER,
+            1,
+            1000,
+            0);
+    assertNull(cache.get(faced));
+
+    assertEquals(1, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  @DisplayName("Test the least recently used lit area is thrown out first.")
+  void testLeastRecentlyUsed() {
+    LightSource torch = new LightSource("Torch");
+    LightAreaCache cache = new LightAreaCache(3);
+    for (int i = 0; i < 3; i++) {
+      cache.put(createKey(torch, i * 1000, 0, 0), createLitArea(i * 1000, 0));
+    }
+    assertNotNull(cache.get(createKey(torch, 0, 0, 0)));
+    cache.put(createKey(torch, 3000, 0, 0), createLitArea(3000, 0));
+
+    assertEquals(3, cache.size());
+    assertNotNull(cache.get(createKey(torch, 0, 0, 0)));
+    assertNull(cache.get(createKey(torch, 1000, 0, 0)));
+    assertNotNull(cache.get(createKey(torch, 2000, 0, 0)));
+    assertNotNull(cache.get(createKey(torch, 3000, 0, 0)));
+  }
+
+  @Test
+  @DisplayName("Test only the lit areas a VBL change can't reach are kept for the new topology.")
+  void testMoveOn() {
+    LightSource torch = new LightSource("Torch");
+    LightAreaCache cache = new LightAreaCache(10);
+    LightAreaCache.LitArea near = createLitArea(0, 0);
+    LightAreaCache.LitArea far = createLitArea(1000, 0);
+    LightAreaCache.LitArea dark = new LightAreaCache.LitArea(null, Set.of(), Set.of());
+    cache.put(createKey(torch, 0, 0, 0), near);
+    cache.put(createKey(torch, 1000, 0, 0), far);
+    cache.put(createKey(torch, 2000, 0, 0), dark);
+
+    cache.moveOn(0, 1, new Rectangle(50, 50, 10, 10));
+
+    assertEquals(1, cache.size());
+    assertSame(far, cache.get(createKey(torch, 1000, 0, 1)));
+    assertNull(cache.get(createKey(torch, 1000, 0, 0)));
+    assertNull(cache.get(createKey(torch, 0, 0, 1)));
+    assertNull(cache.get(createKey(torch, 2000, 0, 1)));
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.model.Direction;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class VisionSnapshotTest {
+
+  private static final int MAP_SIZE = 2000;
+  private static final Area VISION = new Area(new Ellipse2D.Double(-300, -300, 600, 600));
+
+  private static Token createToken(Random random) {
+    Token token = new Token("Goblin", null);
+    token.setX(random.nextInt(MAP_SIZE));
+    token.setY(random.nextInt(MAP_SIZE));
+    token.setHasSight(true);
+    token.setSnapToGrid(false);
+    token.addLightSource(new LightSource("Torch"), Direction.CENTER);
+    return token;
+  }
+
+  private static TopologyDigest createTopology(Random random) {
+    Area vbl = new Area();
+    for (int i = 0; i < 200; i++) {
+      vbl.add(new Area(new Rectangle(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), 20, 20)));
+    }
+    return new TopologyDigest(List.of(vbl));
+  }
+
+  @Test
+  @DisplayName("Test vision is calculated from a snapshot while the zone keeps changing.")
+  void testZoneChanging() throws Exception {
+    Random random = new Random(7);
+    Zone zone = new Zone();
+    for (int i = 0; i < 200; i++) {
+      zone.putToken(createToken(random));
+    }
+    VisionSnapshot snapshot =
+        new VisionSnapshot(
+            zone.getTokensWithSight(),
+            zone.getTokensWithLights(),
+            createTopology(random),
+            null,
+            zone.getVisionType(),
+            0,
+            0,
+            true);
+    Map<GUID, Point> positions = new HashMap<GUID, Point>();
+    for (Token token : snapshot.getSightTokens()) {
+      positions.put(token.getId(), new Point(token.getX(), token.getY()));
+    }
+
+    // The calculation, as it runs in the background
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Area> visibleAreas = new ArrayList<Area>();
+    Thread background =
+        new Thread(
+            () -> {
+              try {
+                while (!done.get()) {
+                  visibleAreas.clear();
+                  for (Token token : snapshot.getSightTokens()) {
+                    Point p = FogUtil.calculateVisionCenter(token, zone);
+                    visibleAreas.add(
+                        FogUtil.calculateVisibility(
+                            p.x,
+                            p.y,
+                            VISION,
+                            snapshot.getTopology(),
+                            snapshot.getTokenTopology()));
+                  }
+                  for (Token token : snapshot.getLightSourceTokens()) {
+                    assertFalse(token.getLightSources().isEmpty());
+                  }
+                }
+              } catch (Throwable t) {
+                failure.set(t);
+              }
+            });
+    background.start();
+
+    // The EDT moving, adding and removing tokens meanwhile
+    for (int i = 0; i < 2000 && background.isAlive(); i++) {
+      List<Token> tokens = zone.getTokensWithSight();
+      Token token = tokens.get(random.nextInt(tokens.size()));
+      switch (random.nextInt(4)) {
+        case 0:
+          zone.removeToken(token.getId());
+          zone.putToken(createToken(random));
+          break;
+        case 1:
+          token.clearLightSources();
+          zone.putToken(token);
+          break;
+        default:
+          token.setX(random.nextInt(MAP_SIZE));
+          token.setY(random.nextInt(MAP_SIZE));
+          zone.putToken(token);
+      }
+    }
+    done.set(true);
+    background.join();
+
+    assertNull(failure.get());
+    assertEquals(200, visibleAreas.size());
+    for (Token token : snapshot.getSightTokens()) {
+      assertEquals(positions.get(token.getId()), new Point(token.getX(), token.getY()));
+      assertNotSame(zone.getToken(token.getId()), token);
+    }
+  }
+
+  @Test
+  @DisplayName("Test a token with sight and lights is copied once.")
+  void testCopiedOnce() {
+    Token token = createToken(new Random(1));
+    VisionSnapshot snapshot =
+        new VisionSnapshot(
+            List.of(token), List.of(token), null, null, Zone.VisionType.NIGHT, 1, 2, true);
+
+    assertNotSame(token, snapshot.getSightTokens().get(0));
+    assertEquals(token.getId(), snapshot.getSightTokens().get(0).getId());
+    assertSame(snapshot.getSightTokens().get(0), snapshot.getLightSourceTokens().get(0));
+    assertEquals(1, snapshot.getTopologyVersion());
+    assertEquals(2, snapshot.getVisionVersion());
+
+    snapshot =
+        new VisionSnapshot(
+            List.of(token), List.of(token), null, null, Zone.VisionType.NIGHT, 1, 2, false);
+    assertSame(token, snapshot.getSightTokens().get(0));
+  }
+
+  @Test
+  @DisplayName("Test the VBL is digested once, on first use, as it was when taken.")
+  void testDigestedOnUse() throws Exception {
+    Area vbl = new Area(new Rectangle(100, 100, 20, 20));
+    TopologyDigest digest =
+        new TopologyDigest(List.of(new Area(vbl), new Area(new Rectangle(300, 300, 20, 20))));
+    VisionSnapshot first =
+        new VisionSnapshot(List.of(), List.of(), digest, null, Zone.VisionType.NIGHT, 1, 2, false);
+    VisionSnapshot second =
+        new VisionSnapshot(List.of(), List.of(), digest, null, Zone.VisionType.NIGHT, 1, 2, false);
+    assertFalse(first.isDigested());
+
+    // The VBL of the zone changing after the snapshot was taken
+    vbl.add(new Area(new Rectangle(500, 500, 20, 20)));
+
+    AtomicReference<AreaTree> digested = new AtomicReference<AreaTree>();
+    Thread background = new Thread(() -> digested.set(first.getTopology()));
+    background.start();
+    background.join();
+    assertTrue(first.isDigested());
+    assertTrue(second.isDigested());
+    assertSame(digested.get(), second.getTopology());
+    assertTrue(digested.get().getArea().contains(110, 110));
+    assertTrue(digested.get().getArea().contains(310, 310));
+    assertFalse(digested.get().getArea().contains(510, 510));
+    assertNull(first.getTokenTopology());
+    assertFalse(first.isStale());
+
+    VisionSnapshot stale =
+        new VisionSnapshot(
+            List.of(),
+            List.of(),
+            digest,
+            null,
+            Zone.VisionType.NIGHT,
+            VisionSnapshot.STALE,
+            VisionSnapshot.STALE,
+            false);
+    assertTrue(stale.isStale());
+  }
+}
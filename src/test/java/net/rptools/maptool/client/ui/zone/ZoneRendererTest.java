@@ -0,0 +1,106 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZoneRendererTest {
+
+  @Test
+  @DisplayName("Test a token can be clicked where it is drawn, also outside of its bounds.")
+  void testTokenScreenBounds() {
+    Token token = new Token("Arrow", null);
+    Rectangle2D bounds = new Rectangle2D.Double(100, 100, 200, 50);
+
+    // Not turned
+    Area area = ZoneRenderer.getTokenScreenBounds(token, bounds, 1);
+    assertEquals(bounds, area.getBounds2D());
+
+    // Facing, but only top down tokens are turned
+    token.setFacing(0);
+    token.setShape(Token.TokenShape.CIRCLE);
+    assertEquals(bounds, ZoneRenderer.getTokenScreenBounds(token, bounds, 1).getBounds2D());
+
+    // Turned upright about its middle
+    token.setShape(Token.TokenShape.TOP_DOWN);
+    area = ZoneRenderer.getTokenScreenBounds(token, bounds, 1);
+    Point above = new Point(200, 60);
+    assertFalse(bounds.contains(above));
+    assertTrue(area.contains(above));
+    assertFalse(area.contains(110, 125));
+    assertEquals(new Rectangle2D.Double(175, 25, 50, 200), area.getBounds2D());
+
+    // Turned about the anchor, which is scaled with the zone
+    token.setAnchor(20, 0);
+    area = ZoneRenderer.getTokenScreenBounds(token, bounds, 0.5);
+    assertEquals(new Rectangle2D.Double(165, 15, 50, 200), area.getBounds2D());
+  }
+
+  @Test
+  @DisplayName("Test the zone finds a token wherever it is drawn, turned and at any scale.")
+  void testTokenSearchBounds() {
+    Random random = new Random(11);
+    Zone zone = new Zone();
+    zone.setGrid(new SquareGrid());
+    for (int i = 0; i < 200; i++) {
+      Token token = new Token("Token " + i, null);
+      token.setX(random.nextInt(4000) - 2000);
+      token.setY(random.nextInt(4000) - 2000);
+      token.setSnapToScale(false);
+      token.setWidth(1 + random.nextInt(400));
+      token.setHeight(1 + random.nextInt(400));
+      token.setShape(Token.TokenShape.TOP_DOWN);
+      token.setFacing(random.nextInt(360));
+      token.setAnchor(random.nextInt(81) - 40, random.nextInt(81) - 40);
+      zone.putToken(token);
+    }
+    for (double scale : new double[] {0.13, 0.5, 1, 2.5}) {
+      for (Token token : zone.getAllTokens()) {
+        // Drawn as the renderer does, with no view offset
+        Rectangle footprint = token.getBounds(zone);
+        Rectangle2D bounds =
+            new Rectangle2D.Double(
+                footprint.x * scale,
+                footprint.y * scale,
+                footprint.width * scale,
+                footprint.height * scale);
+        Area area = ZoneRenderer.getTokenScreenBounds(token, bounds, scale);
+        Rectangle drawn = area.getBounds();
+        for (int i = 0; i < 20; i++) {
+          int x = drawn.x + random.nextInt(drawn.width + 1);
+          int y = drawn.y + random.nextInt(drawn.height + 1);
+          if (area.contains(x, y)) {
+            ZonePoint zp = new ZonePoint((int) Math.floor(x / scale), (int) Math.floor(y / scale));
+            assertTrue(
+                zone.getTokensIntersecting(ZoneRenderer.getTokenSearchBounds(zp)).contains(token),
+                token.getName() + " at " + x + "," + y + " scale " + scale);
+          }
+        }
+      }
+    }
+  }
+}
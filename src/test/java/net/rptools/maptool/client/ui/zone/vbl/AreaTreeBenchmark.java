@@ -0,0 +1,94 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Measures digesting a large VBL into an {@link AreaTree} and finding what a token sees in it, over
+ * the whole map and within the bounds of its vision. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class AreaTreeBenchmark {
+
+  public static void run(PrintStream out) {
+    int size = AreaTreeTest.MAP_SIZE;
+    Random random = new Random(3);
+    Area vbl = AreaTreeTest.createTopology(random, 6000, 60);
+    // Warm up on a smaller map
+    new AreaTree(AreaTreeTest.createTopology(new Random(4), 500, 5));
+
+    long start = System.nanoTime();
+    AreaTree tree = new AreaTree(vbl);
+    long digest = System.nanoTime() - start;
+
+    Point2D[] points = new Point2D[10000];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = new Point2D.Double(random.nextInt(size), random.nextInt(size));
+    }
+    start = System.nanoTime();
+    int found = 0;
+    for (Point2D point : points) {
+      found += tree.getOceanAt(point) != null ? 1 : 0;
+    }
+    long oceanAt = System.nanoTime() - start;
+    if (found == 0) {
+      throw new IllegalStateException("No ocean found at any of the points");
+    }
+
+    int segments = 0;
+    int limitedSegments = 0;
+    long all = 0;
+    long limited = 0;
+    for (int i = 0; i < 20; i++) {
+      Point2D point = points[i];
+      AreaOcean at = tree.getOceanAt(point);
+      if (at == null) {
+        continue;
+      }
+      start = System.nanoTime();
+      segments += at.getVisibleAreaSegments(point).size();
+      all += System.nanoTime() - start;
+      start = System.nanoTime();
+      Rectangle2D bounds =
+          new Rectangle2D.Double(point.getX() - 1000, point.getY() - 1000, 2000, 2000);
+      limitedSegments += at.getVisibleAreaSegments(point, bounds).size();
+      limited += System.nanoTime() - start;
+    }
+
+    out.printf(
+        "%d faces: digested in %.0f ms, %.1f us per ocean lookup, segments for the whole map "
+            + "%.2f ms (%d), within 1000 px %.2f ms (%d)%n",
+        countFaces(vbl),
+        digest / 1e6,
+        oceanAt / 1e3 / points.length,
+        all / 1e6 / 20,
+        segments,
+        limited / 1e6 / 20,
+        limitedSegments);
+  }
+
+  private static int countFaces(Area area) {
+    int count = 0;
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      count++;
+    }
+    return count;
+  }
+}
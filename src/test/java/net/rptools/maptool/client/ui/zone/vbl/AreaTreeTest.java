@@ -0,0 +1,145 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AreaTreeTest {
+
+  static final int MAP_SIZE = 8000;
+
+  /**
+   * A walled map with pillars and vaults. Each vault has a pillar inside it, and every other vault
+   * a smaller vault in it too.
+   */
+  static Area createTopology(Random random, int pillars, int vaults) {
+    Area vbl = new Area(new Rectangle(-20, -20, MAP_SIZE + 40, MAP_SIZE + 40));
+    vbl.subtract(new Area(new Rectangle(0, 0, MAP_SIZE, MAP_SIZE)));
+    // One path for all of them, adding them one by one takes far longer
+    Path2D pillarPath = new Path2D.Double();
+    for (int i = 0; i < pillars; i++) {
+      int size = 10 + random.nextInt(30);
+      pillarPath.append(
+          new Rectangle(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), size, size), false);
+    }
+    vbl.add(new Area(pillarPath));
+    Area clearings = new Area();
+    Area vaultAreas = new Area();
+    for (int i = 0; i < vaults; i++) {
+      int x = random.nextInt(MAP_SIZE - 400);
+      int y = random.nextInt(MAP_SIZE - 400);
+      clearings.add(new Area(new Rectangle(x - 20, y - 20, 440, 440)));
+      vaultAreas.add(vault(x, y, 400));
+      if (i % 2 == 0) {
+        vaultAreas.add(vault(x + 100, y + 100, 200));
+      }
+    }
+    vbl.subtract(clearings);
+    vbl.add(vaultAreas);
+    return vbl;
+  }
+
+  private static Area vault(int x, int y, int size) {
+    Area vault = new Area(new Rectangle(x, y, size, size));
+    vault.subtract(new Area(new Rectangle(x + 20, y + 20, size - 40, size - 40)));
+    vault.add(new Area(new Rectangle(x + size / 2 - 10, y + size / 2 - 10, 20, 20)));
+    return vault;
+  }
+
+  @Test
+  @DisplayName("Test the ocean found for a point is the innermost one holding it.")
+  void testOceanAt() {
+    Random random = new Random(22);
+    Area vbl = createTopology(random, 2000, 20);
+    AreaTree tree = new AreaTree(vbl);
+    for (int i = 0; i < 5000; i++) {
+      // Off the whole pixels, so never on an edge
+      Point2D point =
+          new Point2D.Double(random.nextInt(MAP_SIZE + 100) - 50.5, random.nextInt(MAP_SIZE) + 0.5);
+      AreaOcean ocean = tree.getOceanAt(point);
+      assertEquals(vbl.contains(point), ocean == null, "ocean at " + point);
+      if (ocean == null) {
+        continue;
+      }
+      if (ocean.getBounds() != null) {
+        assertTrue(ocean.getBounds().contains(point), "bounds of the ocean at " + point);
+      }
+      for (AreaIsland island : ocean.getIslands()) {
+        assertFalse(island.getBounds().contains(point), "island of the ocean at " + point);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test the faces found for a part of the map are all the faces in it.")
+  void testFacesInBounds() {
+    Random random = new Random(7);
+    AreaTree tree = new AreaTree(createTopology(random, 2000, 20));
+    AreaOcean ocean = tree.getOceanAt(new Point2D.Double(MAP_SIZE / 2.0, MAP_SIZE / 2.0));
+    Rectangle2D everything = new Rectangle2D.Double(-100, -100, MAP_SIZE + 200, MAP_SIZE + 200);
+    List<AreaFace> all = ocean.getFaces(everything);
+    assertEquals(all.size(), new HashSet<AreaFace>(all).size(), "faces found twice");
+    for (int i = 0; i < 200; i++) {
+      Rectangle2D bounds =
+          new Rectangle2D.Double(
+              random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), random.nextInt(2000), 500);
+      List<AreaFace> found = ocean.getFaces(bounds);
+      Set<AreaFace> foundSet = new HashSet<AreaFace>(found);
+      assertEquals(found.size(), foundSet.size(), "faces found twice in " + bounds);
+      for (AreaFace face : all) {
+        if (bounds.intersectsLine(face.getLine())) {
+          assertTrue(foundSet.contains(face), face + " not found in " + bounds);
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test the visible segments within bounds are fewer than for the whole map.")
+  void testSegmentsInBounds() {
+    Random random = new Random(3);
+    AreaTree tree = new AreaTree(createTopology(random, 2000, 20));
+    int segments = 0;
+    int limitedSegments = 0;
+    for (int i = 0; i < 20; i++) {
+      Point2D point = new Point2D.Double(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE));
+      AreaOcean at = tree.getOceanAt(point);
+      if (at == null) {
+        continue;
+      }
+      int all = at.getVisibleAreaSegments(point).size();
+      Rectangle2D bounds =
+          new Rectangle2D.Double(point.getX() - 1000, point.getY() - 1000, 2000, 2000);
+      int limited = at.getVisibleAreaSegments(point, bounds).size();
+      assertTrue(limited <= all, "more segments within bounds from " + point);
+      segments += all;
+      limitedSegments += limited;
+    }
+    assertTrue(segments > 0);
+    assertTrue(limitedSegments < segments);
+  }
+}
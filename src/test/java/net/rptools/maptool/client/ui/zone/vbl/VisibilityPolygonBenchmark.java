@@ -0,0 +1,59 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Point;
+import java.awt.geom.Area;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.FogUtil;
+
+/**
+ * Compares the cost of the shadows and of the {@link VisibilityPolygon} on a map with over 5000
+ * faces. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class VisibilityPolygonBenchmark {
+
+  public static void run(PrintStream out) {
+    Random random = new Random(5);
+    AreaTree topology = new AreaTree(VisibilityPolygonTest.createTopology(random, 1100));
+    List<Point> origins = VisibilityPolygonTest.createOrigins(random, topology, 100);
+    Area vision = VisibilityPolygonTest.VISION;
+
+    // Warm up both
+    for (Point origin : origins.subList(0, 10)) {
+      FogUtil.calculateVisibilityShadows(origin.x, origin.y, vision, topology);
+      FogUtil.calculateVisibilityPolygon(origin.x, origin.y, vision, topology);
+    }
+    long start = System.nanoTime();
+    for (Point origin : origins) {
+      FogUtil.calculateVisibilityShadows(origin.x, origin.y, vision, topology);
+    }
+    long shadowTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (Point origin : origins) {
+      FogUtil.calculateVisibilityPolygon(origin.x, origin.y, vision, topology);
+    }
+    long polygonTime = System.nanoTime() - start;
+
+    out.printf(
+        "%d faces, %d origins: shadows %.2f ms per origin, polygon %.2f ms per origin%n",
+        VisibilityPolygonTest.countFaces(topology),
+        origins.size(),
+        shadowTime / 1e6 / origins.size(),
+        polygonTime / 1e6 / origins.size());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.FogUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class VisibilityPolygonTest {
+
+  private static final int MAP_SIZE = 4000;
+  static final Area VISION = new Area(new Ellipse2D.Double(-1000, -1000, 2000, 2000));
+
+  /**
+   * A walled map with rooms split off by long walls, pillars in the open and a few pillars with
+   * rooms of their own inside them.
+   */
+  static Area createTopology(Random random, int pillars) {
+    Area vbl = new Area(new Rectangle(-20, -20, MAP_SIZE + 40, MAP_SIZE + 40));
+    vbl.subtract(new Area(new Rectangle(0, 0, MAP_SIZE, MAP_SIZE)));
+    for (int i = 0; i < 10; i++) {
+      int x = random.nextInt(MAP_SIZE);
+      int y = random.nextInt(MAP_SIZE);
+      int length = 300 + random.nextInt(1000);
+      vbl.add(
+          new Area(
+              i % 2 == 0 ? new Rectangle(x, y, length, 15) : new Rectangle(x, y, 15, length)));
+    }
+    for (int i = 0; i < pillars; i++) {
+      int x = random.nextInt(MAP_SIZE);
+      int y = random.nextInt(MAP_SIZE);
+      int size = 10 + random.nextInt(30);
+      if (i % 3 == 0) {
+        vbl.add(new Area(new Rectangle(x, y, size, size)));
+      } else {
+        AffineTransform rotate = AffineTransform.getRotateInstance(random.nextDouble(), x, y);
+        vbl.add(new Area(rotate.createTransformedShape(new Rectangle(x, y, size, size / 2))));
+      }
+    }
+    for (int i = 0; i < 5; i++) {
+      int x = random.nextInt(MAP_SIZE - 300);
+      int y = random.nextInt(MAP_SIZE - 300);
+      Area vault = new Area(new Rectangle(x, y, 300, 300));
+      vault.subtract(new Area(new Rectangle(x + 20, y + 20, 260, 260)));
+      vault.add(new Area(new Rectangle(x + 140, y + 140, 20, 20)));
+      vbl.add(vault);
+    }
+    return vbl;
+  }
+
+  /** @return points on the map that are not inside the VBL. */
+  static List<Point> createOrigins(Random random, AreaTree topology, int count) {
+    List<Point> origins = new ArrayList<Point>();
+    while (origins.size() < count) {
+      Point origin = new Point(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE));
+      if (topology.getOceanAt(origin) != null && !topology.getArea().contains(origin)) {
+        origins.add(origin);
+      }
+    }
+    return origins;
+  }
+
+  static int countFaces(AreaTree topology) {
+    int count = 0;
+    for (PathIterator it = topology.getArea().getPathIterator(null); !it.isDone(); it.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  private static void assertSameArea(Area expected, Area actual, Point origin) {
+    // Allow for slivers where the two engines cut the same edge at slightly different points
+    double size = measure(expected);
+    assertEquals(size, measure(actual), Math.max(1, size / 10000), "size from " + origin);
+    Area difference = new Area(expected);
+    difference.exclusiveOr(actual);
+    assertTrue(measure(difference) < Math.max(1, size / 1000), "difference from " + origin);
+  }
+
+  /** @return the size of an area, in square pixels. */
+  private static double measure(Area area) {
+    double size = 0;
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.1); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          size += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        default:
+          size += lastX * startY - startX * lastY;
+          lastX = startX;
+          lastY = startY;
+      }
+    }
+    return Math.abs(size / 2);
+  }
+
+  @Test
+  @DisplayName("Test the polygon sees the same as the shadows.")
+  void testSameVisibility() {
+    Random random = new Random(21);
+    AreaTree topology = new AreaTree(createTopology(random, 150));
+    for (Point origin : createOrigins(random, topology, 100)) {
+      Area shadows = FogUtil.calculateVisibilityShadows(origin.x, origin.y, VISION, topology);
+      Area polygon = FogUtil.calculateVisibilityPolygon(origin.x, origin.y, VISION, topology);
+      assertSameArea(shadows, polygon, origin);
+    }
+  }
+
+  @Test
+  @DisplayName("Test the polygon in an empty room and with walls through the origin's axis.")
+  void testSimpleRooms() {
+    Area room = new Area(new Rectangle(-500, -500, 1000, 1000));
+    room.subtract(new Area(new Rectangle(-400, -400, 800, 800)));
+    // A pillar straddling the axis the sweep starts on, and one whose corner is on it
+    room.add(new Area(new Rectangle(-200, -50, 20, 100)));
+    room.add(new Area(new Rectangle(-100, 0, 30, 30)));
+    AreaTree topology = new AreaTree(room);
+    Area vision = new Area(new Rectangle(-450, -450, 900, 900));
+    for (Point origin : List.of(new Point(0, 0), new Point(-300, 0), new Point(250, -390))) {
+      Area shadows = FogUtil.calculateVisibilityShadows(origin.x, origin.y, vision, topology);
+      Area polygon = FogUtil.calculateVisibilityPolygon(origin.x, origin.y, vision, topology);
+      assertSameArea(shadows, polygon, origin);
+    }
+    assertNull(FogUtil.calculateVisibilityPolygon(-190, 0, vision, topology));
+  }
+
+  @Test
+  @DisplayName("Test the polygon sees the same as the shadows on a map with over 5000 faces.")
+  void testDenseMap() {
+    Random random = new Random(5);
+    AreaTree topology = new AreaTree(createTopology(random, 1100));
+    assertTrue(countFaces(topology) > 5000);
+    for (Point origin : createOrigins(random, topology, 20)) {
+      Area shadows = FogUtil.calculateVisibilityShadows(origin.x, origin.y, VISION, topology);
+      Area polygon = FogUtil.calculateVisibilityPolygon(origin.x, origin.y, VISION, topology);
+      assertSameArea(shadows, polygon, origin);
+    }
+  }
+}
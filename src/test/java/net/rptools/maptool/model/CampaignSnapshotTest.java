@@ -0,0 +1,158 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import net.rptools.maptool.model.InitiativeList.TokenInitiative;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.model.drawing.Rectangle;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CampaignSnapshotTest {
+
+  private static Zone createZone(String name) {
+    Zone zone = new Zone();
+    zone.setGrid(new SquareGrid());
+    zone.setName(name);
+    for (int i = 0; i < 3; i++) {
+      Token token = new Token(name + " " + i, null);
+      token.setZOrder(i);
+      zone.putToken(token);
+    }
+    return zone;
+  }
+
+  /**
+   * Takes a snapshot after changing a zone, and checks that the zone was copied for it while the
+   * other zone was carried over.
+   */
+  private static void assertCopied(
+      CampaignSnapshot snapshot, Campaign campaign, Zone changed, Runnable change) {
+    Zone other = campaign.getZones().stream().filter(z -> z != changed).findFirst().get();
+    // Starts over with a full copy, so it is not due while checking
+    snapshot.clear();
+    Campaign before = snapshot.take(campaign);
+
+    change.run();
+
+    Campaign after = snapshot.take(campaign);
+    assertNotSame(before.getZone(changed.getId()), after.getZone(changed.getId()));
+    assertTrue(snapshot.isCopied(after.getZone(changed.getId())));
+    assertSame(before.getZone(other.getId()), after.getZone(other.getId()));
+    assertEquals(1, snapshot.getCopiedCount());
+  }
+
+  @Test
+  @DisplayName("Test zones that did not change are shared between snapshots.")
+  void testShared() {
+    Campaign campaign = new Campaign();
+    Zone first = createZone("First");
+    Zone second = createZone("Second");
+    campaign.putZone(first);
+    campaign.putZone(second);
+    CampaignSnapshot snapshot = new CampaignSnapshot();
+
+    Campaign taken = snapshot.take(campaign);
+    assertEquals(2, snapshot.getCopiedCount());
+    assertNotSame(first, taken.getZone(first.getId()));
+    assertEquals(first.getName(), taken.getZone(first.getId()).getName());
+    assertEquals(3, taken.getZone(first.getId()).getAllTokens().size());
+
+    Campaign again = snapshot.take(campaign);
+    assertEquals(0, snapshot.getCopiedCount());
+    assertSame(taken.getZone(first.getId()), again.getZone(first.getId()));
+    assertSame(taken.getZone(second.getId()), again.getZone(second.getId()));
+    assertFalse(snapshot.isCopied(again.getZone(first.getId())));
+
+    // Zones that are gone are not kept
+    campaign.removeZone(first.getId());
+    Campaign removed = snapshot.take(campaign);
+    assertNull(removed.getZone(first.getId()));
+    assertSame(taken.getZone(second.getId()), removed.getZone(second.getId()));
+  }
+
+  @Test
+  @DisplayName("Test a zone is copied again once it, its tokens, drawings or initiative change.")
+  void testChanged() {
+    Campaign campaign = new Campaign();
+    Zone zone = createZone("First");
+    campaign.putZone(zone);
+    campaign.putZone(createZone("Second"));
+    CampaignSnapshot snapshot = new CampaignSnapshot();
+
+    assertCopied(snapshot, campaign, zone, () -> zone.setName("Renamed"));
+
+    Token token = zone.getAllTokens().get(0);
+    assertCopied(
+        snapshot,
+        campaign,
+        zone,
+        () -> {
+          token.setX(100);
+          zone.putToken(token);
+        });
+    assertCopied(
+        snapshot,
+        campaign,
+        zone,
+        () -> {
+          token.setZOrder(10);
+          zone.updateZOrder(Collections.singletonList(token));
+        });
+
+    DrawnElement drawing = new DrawnElement(new Rectangle(0, 0, 50, 50), new Pen());
+    assertCopied(snapshot, campaign, zone, () -> zone.addDrawable(drawing));
+    assertCopied(
+        snapshot,
+        campaign,
+        zone,
+        () -> {
+          drawing.getPen().setThickness(5);
+          zone.drawableChanged(drawing.getDrawable().getId());
+        });
+
+    // Without a zone yet, so the list does not try to tell the server
+    InitiativeList list = new InitiativeList(null);
+    list.insertToken(-1, token);
+    list.setZone(zone);
+    assertCopied(snapshot, campaign, zone, () -> zone.setInitiativeList(list));
+    // As an update of the initiative received from the server
+    TokenInitiative initiative = list.getTokenInitiative(0);
+    assertCopied(snapshot, campaign, zone, () -> initiative.update(true, "12"));
+  }
+
+  @Test
+  @DisplayName("Test all zones are copied again every so many snapshots.")
+  void testFullCopy() {
+    Campaign campaign = new Campaign();
+    campaign.putZone(createZone("First"));
+    campaign.putZone(createZone("Second"));
+    CampaignSnapshot snapshot = new CampaignSnapshot();
+
+    for (int i = 0; i < CampaignSnapshot.FULL_COPY_INTERVAL * 2; i++) {
+      snapshot.take(campaign);
+      int expected = i % CampaignSnapshot.FULL_COPY_INTERVAL == 0 ? 2 : 0;
+      assertEquals(expected, snapshot.getCopiedCount(), "Snapshot " + i);
+    }
+
+    snapshot.clear();
+    snapshot.take(campaign);
+    assertEquals(2, snapshot.getCopiedCount());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Compares finding the drawings of a chunk by scanning all of them with asking the zone, which uses
+ * its {@link DrawnElementIndex}. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class DrawnElementIndexBenchmark {
+  private static final int ROUNDS = 3;
+
+  public static void run(PrintStream out) {
+    int size = DrawnElementIndexTest.MAP_SIZE;
+    for (int count : new int[] {100, 1000, 10000}) {
+      Random random = new Random(count);
+      Zone zone = DrawnElementIndexTest.createZone(count, random);
+      // Chunks of 256 pixels, as the renderers draw them at full scale
+      Rectangle[] chunks = new Rectangle[1000];
+      for (int i = 0; i < chunks.length; i++) {
+        chunks[i] =
+            new Rectangle(
+                (random.nextInt(size) - size / 2) / 256 * 256,
+                (random.nextInt(size) - size / 2) / 256 * 256,
+                256,
+                256);
+      }
+      // The rounds before the last build the index and warm up
+      for (int round = 1; round <= ROUNDS; round++) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (Rectangle chunk : chunks) {
+          for (Zone.Layer layer : DrawnElementIndexTest.LAYERS) {
+            found += DrawnElementIndexTest.scan(zone, layer, chunk).size();
+          }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        long indexed = 0;
+        start = System.nanoTime();
+        for (Rectangle chunk : chunks) {
+          for (Zone.Layer layer : DrawnElementIndexTest.LAYERS) {
+            indexed += zone.getDrawnElements(layer, chunk).size();
+          }
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        if (found != indexed) {
+          throw new IllegalStateException(
+              "The index found " + indexed + " drawings, the scan " + found);
+        }
+        if (round == ROUNDS) {
+          out.printf(
+              "%d drawings: %.1f us per chunk scanning, %.1f us per chunk indexed%n",
+              count, scanNanos / 1000.0 / chunks.length, indexNanos / 1000.0 / chunks.length);
+        }
+      }
+    }
+  }
+}
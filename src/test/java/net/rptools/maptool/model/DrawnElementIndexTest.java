@@ -0,0 +1,149 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.model.drawing.DrawablesGroup;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.model.drawing.ShapeDrawable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class DrawnElementIndexTest {
+
+  static final int MAP_SIZE = 20000;
+  static final Zone.Layer[] LAYERS = {
+    Zone.Layer.TOKEN, Zone.Layer.GM, Zone.Layer.OBJECT, Zone.Layer.BACKGROUND
+  };
+
+  private static DrawnElement createDrawing(Zone.Layer layer, Random random) {
+    int size = random.nextInt(50) == 0 ? 8000 : 400;
+    ShapeDrawable shape =
+        new ShapeDrawable(
+            new Rectangle(
+                random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+                random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+                1 + random.nextInt(size),
+                1 + random.nextInt(size)));
+    shape.setLayer(layer);
+    Pen pen = new Pen();
+    pen.setThickness(1 + random.nextInt(20));
+    return new DrawnElement(shape, pen);
+  }
+
+  static Zone createZone(int drawingCount, Random random) {
+    Zone zone = new Zone();
+    for (int i = 0; i < drawingCount; i++) {
+      Zone.Layer layer = LAYERS[i % LAYERS.length];
+      if (i % 20 == 0) {
+        List<DrawnElement> members = new ArrayList<DrawnElement>();
+        members.add(createDrawing(layer, random));
+        members.add(createDrawing(layer, random));
+        DrawablesGroup group = new DrawablesGroup(members);
+        group.setLayer(layer);
+        zone.addDrawable(new DrawnElement(group, new Pen()));
+      } else if (i % 3 == 0) {
+        zone.addDrawableRear(createDrawing(layer, random));
+      } else {
+        zone.addDrawable(createDrawing(layer, random));
+      }
+    }
+    return zone;
+  }
+
+  static List<DrawnElement> scan(Zone zone, Zone.Layer layer, Rectangle area) {
+    List<DrawnElement> drawn = new ArrayList<DrawnElement>();
+    for (DrawnElement element : zone.getDrawnElements(layer)) {
+      Rectangle extent = DrawnElementIndex.getExtent(element);
+      if (extent != null && TokenSpatialIndex.overlaps(extent, area)) {
+        drawn.add(element);
+      }
+    }
+    return drawn;
+  }
+
+  private static Rectangle randomRectangle(Random random) {
+    return new Rectangle(
+        random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+        random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+        random.nextInt(2000),
+        random.nextInt(2000));
+  }
+
+  private static void assertSameAsScan(Zone zone, Random random) {
+    for (int i = 0; i < 50; i++) {
+      Rectangle rect = randomRectangle(random);
+      for (Zone.Layer layer : LAYERS) {
+        assertEquals(scan(zone, layer, rect), zone.getDrawnElements(layer, rect));
+      }
+    }
+    for (DrawnElement element : zone.getAllDrawnElements()) {
+      assertSame(element, zone.getDrawnElement(element.getDrawable().getId()));
+    }
+  }
+
+  @Test
+  @DisplayName("Test the index finds the same drawings, in the same order, as scanning them.")
+  void testQueries() {
+    Random random = new Random(42);
+    Zone zone = createZone(2000, random);
+    assertSameAsScan(zone, random);
+
+    // Remove, widen and add some drawings, at the top of a layer and inside groups
+    List<DrawnElement> drawn = new ArrayList<DrawnElement>(zone.getAllDrawnElements());
+    for (int i = 0; i < 300; i++) {
+      DrawnElement element = drawn.get(random.nextInt(drawn.size()));
+      if (element.getDrawable() instanceof DrawablesGroup) {
+        List<DrawnElement> members = ((DrawablesGroup) element.getDrawable()).getDrawableList();
+        if (!members.isEmpty()) {
+          GUID id = members.get(0).getDrawable().getId();
+          zone.removeDrawable(id);
+          assertNull(zone.getDrawnElement(id));
+        }
+      } else if (i % 3 == 0) {
+        Pen pen = new Pen(element.getPen());
+        pen.setThickness(200);
+        zone.updateDrawable(new DrawnElement(element.getDrawable(), element.getPen()), pen);
+      } else {
+        GUID id = element.getDrawable().getId();
+        zone.removeDrawable(id);
+        assertNull(zone.getDrawnElement(id));
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      Zone.Layer layer = LAYERS[i % LAYERS.length];
+      if (i % 2 == 0) {
+        zone.addDrawableRear(createDrawing(layer, random));
+      } else {
+        zone.addDrawable(createDrawing(layer, random));
+      }
+    }
+    assertSameAsScan(zone, random);
+
+    // Moving a drawing to another layer takes it out and puts it back
+    DrawnElement element = zone.getDrawnElements(Zone.Layer.OBJECT).get(0);
+    zone.removeDrawable(element.getDrawable().getId());
+    element.getDrawable().setLayer(Zone.Layer.GM);
+    zone.addDrawable(element);
+    assertSameAsScan(zone, random);
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Compares six months of exposed fog held in one {@link Area} with the same fog held in a {@link
+ * TiledArea}. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class TiledAreaBenchmark {
+
+  public static void run(PrintStream out) {
+    int size = TiledAreaTest.MAP_SIZE;
+    // 26 weekly sessions, each walking a party through a part of the map and exposing as they go
+    int sessions = 26;
+    int steps = 100;
+    Random random = new Random(6);
+    Area[] exposures = new Area[sessions * steps];
+    for (int session = 0; session < sessions; session++) {
+      double x = random.nextInt(size);
+      double y = random.nextInt(size);
+      for (int step = 0; step < steps; step++) {
+        x += random.nextGaussian() * 50;
+        y += random.nextGaussian() * 50;
+        exposures[session * steps + step] = TiledAreaTest.createVision(x, y, random);
+      }
+    }
+    Rectangle[] tokens = new Rectangle[1000];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = new Rectangle(random.nextInt(size), random.nextInt(size), 50, 50);
+    }
+    Rectangle screen = new Rectangle(size / 2, size / 2, 1920, 1080);
+
+    // The walk is long enough to warm up both before the last exposure is timed
+    Area area = new Area();
+    long start = System.nanoTime();
+    for (Area exposure : exposures) {
+      area.add(exposure);
+    }
+    long areaAdd = System.nanoTime() - start;
+    start = System.nanoTime();
+    int areaVisible = 0;
+    for (Rectangle token : tokens) {
+      areaVisible += area.intersects(token) ? 1 : 0;
+    }
+    long areaQuery = System.nanoTime() - start;
+    start = System.nanoTime();
+    Area areaScreen = new Area(area);
+    areaScreen.intersect(new Area(screen));
+    long areaView = System.nanoTime() - start;
+
+    TiledArea tiled = new TiledArea();
+    start = System.nanoTime();
+    for (Area exposure : exposures) {
+      tiled.add(exposure);
+    }
+    long tiledAdd = System.nanoTime() - start;
+    start = System.nanoTime();
+    int tiledVisible = 0;
+    for (Rectangle token : tokens) {
+      tiledVisible += tiled.intersects(token) ? 1 : 0;
+    }
+    long tiledQuery = System.nanoTime() - start;
+    start = System.nanoTime();
+    Area tiledScreen = tiled.getArea(screen);
+    tiledScreen.intersect(new Area(screen));
+    long tiledView = System.nanoTime() - start;
+    start = System.nanoTime();
+    tiled.getArea();
+    long tiledWhole = System.nanoTime() - start;
+
+    if (areaVisible != tiledVisible) {
+      throw new IllegalStateException(
+          "The tiles see " + tiledVisible + " tokens, the Area " + areaVisible);
+    }
+    out.printf(
+        "Area:  %d exposures in %.0f ms (%.2f ms for the last), %d segments, "
+            + "%.1f us per token check, %.2f ms for the screen%n",
+        exposures.length,
+        areaAdd / 1e6,
+        time(area, exposures[exposures.length - 1]) / 1e6,
+        countSegments(area),
+        areaQuery / 1e3 / tokens.length,
+        areaView / 1e6);
+    out.printf(
+        "Tiles: %d exposures in %.0f ms (%.2f ms for the last), %d tiles, "
+            + "%.1f us per token check, %.2f ms for the screen, %.0f ms for all of it%n",
+        exposures.length,
+        tiledAdd / 1e6,
+        time(tiled, exposures[exposures.length - 1]) / 1e6,
+        tiled.getTileCount(),
+        tiledQuery / 1e3 / tokens.length,
+        tiledView / 1e6,
+        tiledWhole / 1e6);
+  }
+
+  private static int countSegments(Area area) {
+    int count = 0;
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  private static long time(Area area, Area exposure) {
+    long start = System.nanoTime();
+    area.add(exposure);
+    return System.nanoTime() - start;
+  }
+
+  private static long time(TiledArea area, Area exposure) {
+    long start = System.nanoTime();
+    area.add(exposure);
+    return System.nanoTime() - start;
+  }
+}
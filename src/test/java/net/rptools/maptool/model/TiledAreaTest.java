@@ -0,0 +1,153 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TiledAreaTest {
+
+  static final int MAP_SIZE = 40000;
+
+  /** Token vision seen from one step of a token's walk, with a wall in the way. */
+  static Area createVision(double x, double y, Random random) {
+    Area vision = new Area(new Ellipse2D.Double(x - 300, y - 300, 600, 600));
+    vision.subtract(
+        new Area(new Rectangle((int) x + random.nextInt(200) - 100, (int) y - 400, 20, 300)));
+    return vision;
+  }
+
+  private static void assertSameArea(Area expected, Area actual) {
+    // Allow for the curves being cut up differently where the tiles meet
+    double size = measure(expected);
+    assertEquals(size, measure(actual), Math.max(1, size / 10000), "size");
+    Rectangle bounds = expected.getBounds();
+    assertEquals(bounds, actual.getBounds(), "bounds");
+    Random random = new Random(bounds.hashCode());
+    for (int i = 0; i < 500; i++) {
+      double x = bounds.x + random.nextDouble() * bounds.width;
+      double y = bounds.y + random.nextDouble() * bounds.height;
+      assertEquals(expected.contains(x, y), actual.contains(x, y), "contains " + x + "," + y);
+    }
+  }
+
+  /** @return the size of an area, in square pixels. */
+  private static double measure(Area area) {
+    double size = 0;
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.1); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          size += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        default:
+          size += lastX * startY - startX * lastY;
+          lastX = startX;
+          lastY = startY;
+      }
+    }
+    return Math.abs(size / 2);
+  }
+
+  @Test
+  @DisplayName("Test the tiles hold the same area as a single Area.")
+  void testSameArea() {
+    Random random = new Random(42);
+    Area area = new Area();
+    TiledArea tiled = new TiledArea(512);
+    for (int i = 0; i < 100; i++) {
+      Area change =
+          createVision(random.nextInt(4000) - 2000, random.nextInt(4000) - 2000, random);
+      if (i % 5 == 4) {
+        area.subtract(change);
+        tiled.subtract(change);
+      } else {
+        area.add(change);
+        tiled.add(change);
+      }
+      if (i % 20 == 0) {
+        assertSameArea(area, tiled.getArea());
+      }
+    }
+    assertSameArea(area, tiled.getArea());
+    assertSameArea(area, new TiledArea(tiled).getArea());
+
+    for (int i = 0; i < 200; i++) {
+      int x = random.nextInt(5000) - 2500;
+      int y = random.nextInt(5000) - 2500;
+      Rectangle rect = new Rectangle(x, y, random.nextInt(100), random.nextInt(100));
+      assertEquals(area.intersects(rect), tiled.intersects(rect), "intersects " + rect);
+      Area part = new Area(area);
+      part.intersect(new Area(rect));
+      assertSameArea(part, intersect(tiled.getArea(rect), rect));
+    }
+
+    tiled.subtract(new Area(new Rectangle(-10000, -10000, 20000, 20000)));
+    assertTrue(tiled.isEmpty());
+    assertTrue(tiled.getArea().isEmpty());
+  }
+
+  private static Area intersect(Area area, Rectangle rect) {
+    Area result = new Area(area);
+    result.intersect(new Area(rect));
+    return result;
+  }
+
+  @Test
+  @DisplayName("Test the tiles hold the same exposed fog as one Area over many sessions.")
+  void testSessions() {
+    // Weekly sessions, each walking a party through a part of the map and exposing as they go
+    int sessions = 8;
+    int steps = 50;
+    Random random = new Random(6);
+    Area area = new Area();
+    TiledArea tiled = new TiledArea();
+    for (int session = 0; session < sessions; session++) {
+      double x = random.nextInt(MAP_SIZE);
+      double y = random.nextInt(MAP_SIZE);
+      for (int step = 0; step < steps; step++) {
+        x += random.nextGaussian() * 50;
+        y += random.nextGaussian() * 50;
+        Area exposure = createVision(x, y, random);
+        area.add(exposure);
+        tiled.add(exposure);
+      }
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      Rectangle token = new Rectangle(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), 50, 50);
+      assertEquals(area.intersects(token), tiled.intersects(token), "intersects " + token);
+    }
+    Rectangle screen = new Rectangle(MAP_SIZE / 2, MAP_SIZE / 2, 1920, 1080);
+    Area areaScreen = new Area(area);
+    areaScreen.intersect(new Area(screen));
+    assertSameArea(areaScreen, intersect(tiled.getArea(screen), screen));
+    assertSameArea(area, tiled.getArea());
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenLookupTest {
+
+  private static final String[] NAMES = {"Goblin", "GOBLIN", "Orc", "lib:Tools", "Lib:Tools", ""};
+  private static final String[] PLAYERS = {"alice", "bob", "carol"};
+
+  private static void randomize(Token token, Random random) {
+    token.setName(NAMES[random.nextInt(NAMES.length)] + (random.nextBoolean() ? "" : " 1"));
+    token.setZOrder(random.nextInt(50));
+    token.setHasSight(random.nextInt(3) == 0);
+    token.setVBL(random.nextInt(4) == 0 ? new Area(new Rectangle(0, 0, 10, 10)) : null);
+    token.setTerrainModifierOperation(
+        random.nextInt(5) == 0
+            ? TerrainModifierOperation.MULTIPLY
+            : TerrainModifierOperation.NONE);
+    token.clearLightSources();
+    if (random.nextInt(4) == 0) {
+      token.addLightSource(new LightSource("Torch"), Direction.CENTER);
+    }
+    token.clearAllOwners();
+    token.setOwnedByAll(random.nextInt(6) == 0);
+    if (!token.isOwnedByAll() && random.nextBoolean()) {
+      token.addOwner(PLAYERS[random.nextInt(PLAYERS.length)]);
+    }
+  }
+
+  private static List<Token> scan(Zone zone, Predicate<Token> test) {
+    List<Token> tokens = new ArrayList<Token>();
+    for (Token token : zone.getAllTokens()) {
+      if (test.test(token)) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  private static void assertSameAsScan(Zone zone) {
+    for (String name : new String[] {"goblin", "Goblin 1", "LIB:TOOLS", "orc", "", "troll"}) {
+      List<Token> byName = scan(zone, t -> t.getName().equalsIgnoreCase(name));
+      assertEquals(byName, zone.getTokensByName(name));
+      assertEquals(byName.isEmpty() ? null : byName.get(0), zone.getTokenByName(name));
+    }
+    assertEquals(
+        scan(zone, t -> t.getName().toLowerCase().startsWith("lib:")), zone.getLibTokens());
+    assertEquals(scan(zone, Token::hasVBL), zone.getTokensWithVBL());
+    assertEquals(scan(zone, Token::getHasSight), zone.getTokensWithSight());
+    assertEquals(scan(zone, Token::hasLightSources), zone.getTokensWithLights());
+    assertEquals(
+        scan(zone, t -> t.getTerrainModifierOperation() != TerrainModifierOperation.NONE),
+        zone.getTokensWithTerrainModifiers());
+    for (String player : PLAYERS) {
+      assertEquals(scan(zone, t -> t.isOwner(player)), zone.getTokensOwnedBy(player));
+    }
+  }
+
+  @Test
+  @DisplayName("Test the lookups follow tokens being put, changed and removed.")
+  void testLookups() {
+    Random random = new Random(5);
+    Zone zone = new Zone();
+    List<Token> tokens = new ArrayList<Token>();
+    for (int i = 0; i < 300; i++) {
+      Token token = new Token("", null);
+      randomize(token, random);
+      tokens.add(token);
+    }
+    zone.putTokens(tokens);
+    assertSameAsScan(zone);
+
+    for (int i = 0; i < 500; i++) {
+      Token token = tokens.get(random.nextInt(tokens.size()));
+      switch (random.nextInt(3)) {
+        case 0:
+          randomize(token, random);
+          zone.putToken(token);
+          break;
+        case 1:
+          randomize(token, random);
+          zone.tokenChanged(token);
+          break;
+        default:
+          zone.removeToken(token.getId());
+          tokens.remove(token);
+          token = new Token("", null);
+          randomize(token, random);
+          zone.putToken(token);
+          tokens.add(token);
+      }
+      if (i % 50 == 0) {
+        assertSameAsScan(zone);
+      }
+    }
+    assertSameAsScan(zone);
+  }
+
+  @Test
+  @DisplayName("Test a token put again as a new copy replaces the old one.")
+  void testReplacedToken() {
+    Zone zone = new Zone();
+    Token token = new Token("Goblin", null);
+    zone.putToken(token);
+    assertSame(token, zone.getTokenByName("goblin"));
+
+    // The way a token arrives from the server
+    Token copy = new Token(token, true);
+    copy.setName("Hobgoblin");
+    zone.putToken(copy);
+    assertNull(zone.getTokenByName("goblin"));
+    assertSame(copy, zone.getTokenByName("HOBGOBLIN"));
+  }
+
+  @Test
+  @DisplayName("Test GM names are looked up whoever is asking, Zone checks the permission.")
+  void testGMName() {
+    Token token = new Token("Goblin", null);
+    token.setGMName("Boss");
+    TokenLookup lookup = new TokenLookup(List.of(token));
+    assertEquals(List.of(token), lookup.getByGMName("BOSS"));
+    assertTrue(lookup.getByGMName("Goblin").isEmpty());
+
+    token.setGMName(null);
+    lookup.put(token);
+    assertTrue(lookup.getByGMName("boss").isEmpty());
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.caucho.hessian.io.HessianInput;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenPatchTest {
+
+  private static Token createToken() {
+    Token token = new Token("Goblin", null);
+    for (int i = 0; i < 200; i++) {
+      token.setProperty("Prop" + i, "value " + i);
+    }
+    token.setNotes("Some notes");
+    return token;
+  }
+
+  /** Sends a patch the way the server does, Hessian drops the declared types of its values. */
+  private static TokenPatch send(TokenPatch patch) throws IOException {
+    byte[] call = HessianUtils.methodToBytes("patchToken", new GUID(), patch);
+    HessianInput in = HessianUtils.createSafeHessianInput(new ByteArrayInputStream(call));
+    in.startCall();
+    in.readObject();
+    TokenPatch received = (TokenPatch) in.readObject();
+    in.completeCall();
+    return received;
+  }
+
+  @Test
+  @DisplayName("Test a token is only sent whole the first time it is put.")
+  void testFirstDiffIsWhole() {
+    TokenVersionTracker tracker = new TokenVersionTracker();
+    Token token = createToken();
+
+    assertNull(tracker.diff(token));
+    assertEquals(1, tracker.getVersion(token.getId()));
+
+    TokenPatch patch = tracker.diff(token);
+    assertNotNull(patch);
+    assertTrue(patch.isEmpty());
+    assertEquals(1, tracker.getVersion(token.getId()));
+  }
+
+  @Test
+  @DisplayName("Test only changed fields and properties are in the patch.")
+  void testPatchRoundTrip() {
+    TokenVersionTracker tracker = new TokenVersionTracker();
+    Token token = createToken();
+    Token remote = new Token(token, true);
+    tracker.diff(token);
+
+    token.setName("Hobgoblin");
+    token.setProperty("Prop7", "changed");
+    token.resetProperty("Prop8");
+    token.setLayer(Zone.Layer.GM);
+
+    TokenPatch patch = tracker.diff(token);
+    assertEquals(1, patch.getBaseVersion());
+    assertEquals(2, patch.getVersion());
+    assertEquals(Set.of("name", "propertyMapCI", "layer"), patch.getChangedFields());
+
+    // The remote copy caches its layer, the patch has to drop that
+    assertEquals(Zone.Layer.TOKEN, remote.getLayer());
+    assertTrue(patch.applyTo(remote));
+    assertEquals("Hobgoblin", remote.getName());
+    assertEquals("changed", remote.getProperty("Prop7"));
+    assertNull(remote.getProperty("Prop8"));
+    assertEquals("value 9", remote.getProperty("Prop9"));
+    assertEquals("Some notes", remote.getNotes());
+    assertEquals(Zone.Layer.GM, remote.getLayer());
+  }
+
+  @Test
+  @DisplayName("Test patches received from the server move the version on.")
+  void testPatched() {
+    TokenVersionTracker sender = new TokenVersionTracker();
+    TokenVersionTracker receiver = new TokenVersionTracker();
+    Token token = createToken();
+    Token remote = new Token(token, true);
+    // Both have put the token once, at version 1
+    sender.diff(token);
+    receiver.diff(remote);
+
+    token.setNotes("Other notes");
+    TokenPatch patch = sender.diff(token);
+    assertEquals(receiver.getVersion(remote.getId()), patch.getBaseVersion());
+    assertTrue(patch.applyTo(remote));
+    receiver.patched(remote, patch);
+
+    assertEquals(2, receiver.getVersion(remote.getId()));
+    assertEquals("Other notes", remote.getNotes());
+    // The receiver's own next change must not resend the notes
+    remote.setProperty("Prop1", "mine");
+    assertEquals(Set.of("propertyMapCI"), receiver.diff(remote).getChangedFields());
+  }
+
+  @Test
+  @DisplayName("Test a patch of every kind of field survives being sent.")
+  void testSentPatch() throws Exception {
+    TokenVersionTracker tracker = new TokenVersionTracker();
+    Token token = createToken();
+    Token remote = new Token(token, true);
+    tracker.diff(token);
+
+    token.setTokenOpacity(0.25f);
+    token.setX(42);
+    token.setSizeScale(1.5);
+    token.setFacing(90);
+    token.setFlippedX(true);
+    token.setFlippedIso(true);
+    token.setName("Hobgoblin");
+    token.setTerrainModifierOperation(Token.TerrainModifierOperation.MULTIPLY);
+    token.addOwner("player");
+    token.setTerrainModifiersIgnored(
+        new HashSet<Token.TerrainModifierOperation>(Set.of(Token.TerrainModifierOperation.ADD)));
+    token.addLightSource(new LightSource("Torch"), Direction.CENTER);
+    token.setPortraitImage(new MD5Key("portrait".getBytes()));
+    token.setVBL(new Area(new Rectangle(0, 0, 10, 10)));
+    token.setState("Dead", Boolean.TRUE);
+    token.setState("Health", new BigDecimal("0.5"));
+    token.setProperty("Prop3", 7);
+    token.setImageAsset("alt", new MD5Key("alt".getBytes()));
+
+    TokenPatch patch = send(tracker.diff(token));
+    assertTrue(patch.getChangedFields().contains("tokenOpacity"));
+    assertTrue(patch.applyTo(remote));
+    assertEquals(0.25f, remote.getTokenOpacity());
+    for (Field field : TokenPatch.FIELDS.values()) {
+      Object expected = field.get(token);
+      Object actual = field.get(remote);
+      if (expected instanceof Map) {
+        // Compared per entry, the order of a map depends on its history
+        assertEquals(((Map<?, ?>) expected).keySet(), ((Map<?, ?>) actual).keySet());
+        for (Object key : ((Map<?, ?>) expected).keySet()) {
+          assertArrayEquals(
+              HessianUtils.objectToBytes(((Map<?, ?>) expected).get(key)),
+              HessianUtils.objectToBytes(((Map<?, ?>) actual).get(key)),
+              field.getName() + " " + key);
+        }
+      } else {
+        assertArrayEquals(
+            HessianUtils.objectToBytes(expected),
+            HessianUtils.objectToBytes(actual),
+            field.getName());
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test a patch that doesn't fit the token leaves it untouched.")
+  void testBadPatch() {
+    Token token = createToken();
+    TokenPatch patch = new TokenPatch(token.getId(), 1, 2);
+    patch.setField("name", "Hobgoblin");
+    patch.setField("tokenOpacity", 0.5);
+    patch.setField("x", "not a number");
+    patch.putEntry("propertyMapCI", "Prop1", "changed");
+    patch.removeEntry("propertyMapCI", "Prop2");
+
+    assertFalse(patch.applyTo(token));
+    assertEquals("Goblin", token.getName());
+    assertEquals(1.0f, token.getTokenOpacity());
+    assertEquals(0, token.getX());
+    assertEquals("value 1", token.getProperty("Prop1"));
+    assertEquals("value 2", token.getProperty("Prop2"));
+
+    patch = new TokenPatch(token.getId(), 1, 2);
+    patch.setField("tokenOpacity", 0.5);
+    patch.setField("x", 3L);
+    assertTrue(patch.applyTo(token));
+    assertEquals(0.5f, token.getTokenOpacity());
+    assertEquals(3, token.getX());
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Compares finding the tokens under a point by scanning all of them with asking the zone, which
+ * uses its {@link TokenSpatialIndex}. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class TokenSpatialIndexBenchmark {
+  private static final int ROUNDS = 3;
+
+  public static void run(PrintStream out) {
+    int size = TokenSpatialIndexTest.MAP_SIZE;
+    for (int count : new int[] {100, 1000, 10000}) {
+      Random random = new Random(count);
+      Zone zone = TokenSpatialIndexTest.createZone(count, random);
+      int[][] points = new int[1000][];
+      for (int i = 0; i < points.length; i++) {
+        points[i] = new int[] {random.nextInt(size) - size / 2, random.nextInt(size) - size / 2};
+      }
+      // The rounds before the last build the index and warm up
+      for (int round = 1; round <= ROUNDS; round++) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (int[] p : points) {
+          for (Token token : zone.getAllTokens()) {
+            if (token.getBounds(zone).contains(p[0], p[1])) {
+              found++;
+            }
+          }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        long indexed = 0;
+        start = System.nanoTime();
+        for (int[] p : points) {
+          indexed += zone.getTokensAt(p[0], p[1]).size();
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        if (round == ROUNDS) {
+          // The index counts the room turned tokens need, so it finds at least as many
+          out.printf(
+              "%d tokens: %.1f us per point scanning (%d found), %.1f us per point indexed (%d)%n",
+              count,
+              scanNanos / 1000.0 / points.length,
+              found,
+              indexNanos / 1000.0 / points.length,
+              indexed);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenSpatialIndexTest {
+
+  static final int MAP_SIZE = 20000;
+
+  static Zone createZone(int tokenCount, Random random) {
+    Zone zone = new Zone();
+    zone.setGrid(new SquareGrid());
+    List<Token> tokens = new ArrayList<Token>();
+    for (int i = 0; i < tokenCount; i++) {
+      Token token = new Token("Token " + i, null);
+      token.setX(random.nextInt(MAP_SIZE) - MAP_SIZE / 2);
+      token.setY(random.nextInt(MAP_SIZE) - MAP_SIZE / 2);
+      if (i % 10 == 0) {
+        // A stamp of any size
+        token.setSnapToScale(false);
+        token.setWidth(1 + random.nextInt(i % 100 == 0 ? 8000 : 800));
+        token.setHeight(1 + random.nextInt(800));
+      }
+      if (i % 7 == 0) {
+        token.setFacing(random.nextInt(360));
+      }
+      tokens.add(token);
+    }
+    zone.putTokens(tokens);
+    return zone;
+  }
+
+  private static List<Token> scan(Zone zone, Predicate<Rectangle> test) {
+    List<Token> tokens = new ArrayList<Token>();
+    for (Token token : zone.getAllTokens()) {
+      if (test.test(TokenSpatialIndex.getExtent(token, zone))) {
+        tokens.add(token);
+      }
+    }
+    tokens.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+    return tokens;
+  }
+
+  private static Rectangle randomRectangle(Random random) {
+    return new Rectangle(
+        random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+        random.nextInt(MAP_SIZE) - MAP_SIZE / 2,
+        random.nextInt(2000),
+        random.nextInt(2000));
+  }
+
+  private static void assertSameAsScan(Zone zone, Random random) {
+    for (int i = 0; i < 50; i++) {
+      Rectangle rect = randomRectangle(random);
+      assertEquals(
+          scan(zone, e -> TokenSpatialIndex.overlaps(e, rect)), zone.getTokensIntersecting(rect));
+
+      int x = rect.x;
+      int y = rect.y;
+      assertEquals(scan(zone, e -> e.contains(x, y)), zone.getTokensAt(x, y));
+
+      double radius = rect.width;
+      Predicate<Rectangle> inCircle =
+          e -> {
+            double dx = Math.max(0, Math.max(e.x - x, x - e.getMaxX()));
+            double dy = Math.max(0, Math.max(e.y - y, y - e.getMaxY()));
+            return dx * dx + dy * dy <= radius * radius;
+          };
+      assertEquals(scan(zone, inCircle), zone.getTokensWithin(x, y, radius));
+
+      Area area = new Area(rect);
+      area.subtract(new Area(new Rectangle(x, y, rect.width / 2, rect.height / 2)));
+      assertEquals(scan(zone, area::intersects), zone.getTokensIntersecting(area));
+    }
+  }
+
+  @Test
+  @DisplayName("Test the index finds the same tokens as scanning all of them.")
+  void testQueries() {
+    Random random = new Random(42);
+    Zone zone = createZone(2000, random);
+    assertSameAsScan(zone, random);
+
+    // Move, turn and remove some tokens
+    List<Token> tokens = zone.getAllTokens();
+    for (int i = 0; i < 500; i++) {
+      Token token = tokens.get(i);
+      token.setX(token.getX() + random.nextInt(1000) - 500);
+      token.setFacing(random.nextInt(360));
+      zone.putToken(token);
+    }
+    for (int i = 500; i < 700; i++) {
+      zone.removeToken(tokens.get(i).getId());
+    }
+    assertSameAsScan(zone, random);
+
+    // A new grid size changes every token's bounds
+    zone.getGrid().setSize(37);
+    assertSameAsScan(zone, random);
+  }
+
+
+  @Test
+  @DisplayName("Test the index finds every token whose bounds hold the point.")
+  void testTokensAt() {
+    Random random = new Random(7);
+    Zone zone = createZone(1000, random);
+    for (int i = 0; i < 1000; i++) {
+      int x = random.nextInt(MAP_SIZE) - MAP_SIZE / 2;
+      int y = random.nextInt(MAP_SIZE) - MAP_SIZE / 2;
+      List<Token> found = zone.getTokensAt(x, y);
+      for (Token token : zone.getAllTokens()) {
+        if (token.getBounds(zone).contains(x, y)) {
+          // The index counts the room turned tokens need, so it may find more
+          assertTrue(found.contains(token), token.getName());
+        }
+      }
+    }
+  }
+}
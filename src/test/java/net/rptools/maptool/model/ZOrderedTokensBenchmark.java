@@ -0,0 +1,62 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares dragging tokens around a sorted list, which is what putToken used to do, with putting
+ * them in the {@link ZOrderedTokens}. See {@link net.rptools.maptool.Benchmarks}.
+ */
+public class ZOrderedTokensBenchmark {
+  private static final int ROUNDS = 3;
+
+  public static void run(PrintStream out) {
+    for (int count : new int[] {1000, 10000}) {
+      Random random = new Random(count);
+      List<Token> tokens = ZOrderedTokensTest.createTokens(count, random);
+      List<Token> moved = tokens.subList(0, 300);
+
+      List<Token> list = new LinkedList<Token>(tokens);
+      list.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+      ZOrderedTokens ordered = new ZOrderedTokens(tokens);
+      // The rounds before the last warm up
+      for (int round = 1; round <= ROUNDS; round++) {
+        long start = System.nanoTime();
+        for (Token token : moved) {
+          list.remove(token);
+          list.add(token);
+          list.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+        }
+        long listNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Token token : moved) {
+          ordered.put(token);
+        }
+        long orderedNanos = System.nanoTime() - start;
+
+        if (round == ROUNDS) {
+          out.printf(
+              "%d tokens: %.1f us per put with a sorted list, %.1f us per put ordered%n",
+              count, listNanos / 1000.0 / moved.size(), orderedNanos / 1000.0 / moved.size());
+        }
+      }
+    }
+  }
+}
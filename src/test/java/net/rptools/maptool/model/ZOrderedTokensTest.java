@@ -0,0 +1,149 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.thoughtworks.xstream.XStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import net.rptools.lib.XStreamRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZOrderedTokensTest {
+
+  static List<Token> createTokens(int count, Random random) {
+    List<Token> tokens = new ArrayList<Token>();
+    for (int i = 0; i < count; i++) {
+      Token token = new Token("Token " + i, null);
+      // Plenty of ties, those are ordered by id
+      token.setZOrder(random.nextInt(count / 2 + 1));
+      token.setLayer(Zone.Layer.values()[random.nextInt(Zone.Layer.values().length)]);
+      tokens.add(token);
+    }
+    return tokens;
+  }
+
+  private static void assertSameAsSorted(List<Token> tokens, ZOrderedTokens ordered) {
+    List<Token> sorted = new ArrayList<Token>(tokens);
+    sorted.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+    assertEquals(sorted, ordered.getAll());
+    assertEquals(sorted.size(), ordered.size());
+    for (Zone.Layer layer : Zone.Layer.values()) {
+      List<Token> onLayer =
+          sorted.stream().filter(t -> t.getLayer() == layer).collect(Collectors.toList());
+      assertEquals(onLayer, ordered.getLayer(layer), layer.name());
+    }
+  }
+
+  @Test
+  @DisplayName("Test the tokens stay in z-order as they are put, changed and removed.")
+  void testOrder() {
+    Random random = new Random(12);
+    List<Token> tokens = createTokens(500, random);
+    ZOrderedTokens ordered = new ZOrderedTokens(tokens);
+    assertSameAsSorted(tokens, ordered);
+
+    for (int i = 0; i < 2000; i++) {
+      Token token = tokens.get(random.nextInt(tokens.size()));
+      switch (random.nextInt(4)) {
+        case 0:
+          token.setZOrder(random.nextInt(1000) - 250);
+          break;
+        case 1:
+          token.setLayer(Zone.Layer.values()[random.nextInt(Zone.Layer.values().length)]);
+          break;
+        case 2:
+          assertSame(token, ordered.remove(token.getId()));
+          tokens.remove(token);
+          token = createTokens(1, random).get(0);
+          tokens.add(token);
+          break;
+        default:
+          // Put again unchanged
+      }
+      ordered.put(token);
+      if (i % 100 == 0) {
+        assertSameAsSorted(tokens, ordered);
+      }
+    }
+    assertSameAsSorted(tokens, ordered);
+    assertNull(ordered.remove(new GUID()));
+  }
+
+  @Test
+  @DisplayName("Test the zone answers from the ordered tokens.")
+  void testZone() {
+    Random random = new Random(3);
+    Zone zone = new Zone();
+    List<Token> tokens = createTokens(200, random);
+    zone.putTokens(tokens);
+    tokens.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+
+    assertEquals(tokens, zone.getAllTokens());
+    assertEquals(tokens.get(0).getZOrder(), zone.getSmallestZOrder());
+    assertEquals(tokens.get(tokens.size() - 1).getZOrder(), zone.getLargestZOrder());
+    assertEquals(
+        tokens.stream().filter(Token::isObjectStamp).collect(Collectors.toList()),
+        zone.getStampTokens());
+
+    // Bring one to the front the way the server does
+    Token token = tokens.get(50);
+    token.setZOrder(zone.getLargestZOrder() + 1);
+    zone.updateZOrder(List.of(token));
+    assertSame(token, zone.getAllTokens().get(tokens.size() - 1));
+
+    token.setLayer(Zone.Layer.BACKGROUND);
+    zone.tokenChanged(token);
+    assertTrue(zone.getBackgroundStamps().contains(token));
+    assertFalse(zone.getTokens().contains(token));
+
+    zone.removeToken(token.getId());
+    assertEquals(tokens.size() - 1, zone.getTokenCount());
+    assertFalse(zone.getAllTokens().contains(token));
+  }
+
+  @Test
+  @DisplayName("Test zones are still written with the token list older versions read.")
+  void testWrittenForOlderVersions() {
+    Zone zone = new Zone();
+    List<Token> tokens = createTokens(50, new Random(3));
+    for (int i = 0; i < tokens.size(); i++) {
+      // Distinct, or reading the zone back repairs the order
+      tokens.get(i).setZOrder(i + 1);
+      zone.putToken(tokens.get(i));
+    }
+    XStream xstream = XStreamRegistry.getForFiles();
+    String xml = xstream.toXML(zone);
+    assertTrue(xml.contains("<tokenOrderedList"));
+
+    Zone read = (Zone) xstream.fromXML(xml);
+    List<GUID> ids = zone.getAllTokens().stream().map(Token::getId).collect(Collectors.toList());
+    assertEquals(ids, read.getAllTokens().stream().map(Token::getId).collect(Collectors.toList()));
+
+    // Only the written copy has the list, the zone itself doesn't keep it
+    Zone written = (Zone) zone.writeReplace();
+    assertNotSame(zone, written);
+    assertSame(written, written.writeReplace());
+    assertNotSame(zone, zone.writeReplace());
+    String name = "<name>" + tokens.get(0).getName() + "</name>";
+    assertTrue(xml.contains(name));
+    zone.removeToken(tokens.get(0).getId());
+    assertFalse(xstream.toXML(zone).contains(name));
+  }
+}
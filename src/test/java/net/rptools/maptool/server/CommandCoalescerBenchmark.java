@@ -0,0 +1,183 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.clientserver.hessian.AbstractMethodHandler;
+import net.rptools.clientserver.hessian.server.ServerConnection;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.server.ServerObserver;
+
+/**
+ * Simulates 30 players each dragging a token at 60 updates a second and compares forwarding every
+ * <code>updateTokenMove</code> with forwarding them through the {@link CommandCoalescer}: the
+ * traffic the players receive and the latency of the updates. See {@link
+ * net.rptools.maptool.Benchmarks}.
+ */
+public class CommandCoalescerBenchmark {
+
+  private static final int PLAYERS = 30;
+  private static final int UPDATES_PER_SECOND = 60;
+  private static final int DRAG_MILLIS = 2000;
+  private static final String METHOD = "updateTokenMove";
+
+  public static void run(PrintStream out) throws Exception {
+    out.println("direct:    " + drag(false));
+    out.println("coalesced: " + drag(true));
+  }
+
+  private static Result drag(boolean coalesce) throws Exception {
+    ServerConnection server = new ServerConnection(0);
+    CommandCoalescer coalescer = new CommandCoalescer(server);
+    CountDownLatch connected = new CountDownLatch(PLAYERS);
+    List<String> ids = new ArrayList<String>();
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            synchronized (ids) {
+              ids.add(conn.getId());
+            }
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    List<DragReceiver> receivers = new ArrayList<DragReceiver>();
+    try {
+      for (int i = 0; i < PLAYERS; i++) {
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "player-" + i);
+        DragReceiver receiver = new DragReceiver();
+        client.addMessageHandler(receiver);
+        client.start();
+        clients.add(client);
+        receivers.add(receiver);
+      }
+      if (!connected.await(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Players did not connect");
+      }
+
+      // Every player moves its own token one step per frame, this stands in for the server
+      // handler receiving the updates
+      long frameNanos = TimeUnit.SECONDS.toNanos(1) / UPDATES_PER_SECOND;
+      int frames = DRAG_MILLIS * UPDATES_PER_SECOND / 1000;
+      long start = System.nanoTime();
+      for (int frame = 0; frame < frames; frame++) {
+        long due = start + frame * frameNanos;
+        while (System.nanoTime() < due) {
+          Thread.onSpinWait();
+        }
+        for (int p = 0; p < PLAYERS; p++) {
+          String sender = ids.get(p);
+          String token = "token-" + p;
+          Object[] parameters = {"zone", token, frame, frame, System.nanoTime()};
+          if (coalesce) {
+            coalescer.enqueue(sender, false, METHOD + ":" + token, METHOD, parameters);
+          } else {
+            server.broadcastCallMethod(ServerConnection.excluding(sender), METHOD, parameters);
+          }
+        }
+      }
+      coalescer.flushAll();
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      // Everyone has to end up with everyone else's final position
+      long deadline = System.currentTimeMillis() + 30000;
+      for (DragReceiver receiver : receivers) {
+        while (!receiver.hasFinalPositions(frames - 1) && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        if (!receiver.hasFinalPositions(frames - 1)) {
+          throw new IllegalStateException("Final positions were not delivered");
+        }
+      }
+
+      Result result = new Result();
+      List<Long> latencies = new ArrayList<Long>();
+      for (DragReceiver receiver : receivers) {
+        result.bytes += receiver.bytes.get();
+        result.messages += receiver.messages.get();
+        synchronized (receiver.latencies) {
+          latencies.addAll(receiver.latencies);
+        }
+      }
+      long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+      Arrays.sort(sorted);
+      // Over the length of the drag, i.e. the rate the clients have to keep up with
+      result.bytesPerSecond = result.bytes / seconds;
+      result.p50 = sorted[sorted.length / 2] / 1e6;
+      result.p99 = sorted[(int) (sorted.length * 0.99)] / 1e6;
+      return result;
+    } finally {
+      coalescer.shutdown();
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+
+  private static class DragReceiver extends AbstractMethodHandler {
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final List<Long> latencies = new ArrayList<Long>();
+    private final Map<Object, Integer> positions = new ConcurrentHashMap<Object, Integer>();
+
+    @Override
+    public void handleMessage(String id, byte[] message) {
+      bytes.addAndGet(message.length);
+      messages.incrementAndGet();
+      super.handleMessage(id, message);
+    }
+
+    public void handleMethod(String id, String method, Object... parameters) {
+      long latency = System.nanoTime() - ((Number) parameters[4]).longValue();
+      synchronized (latencies) {
+        latencies.add(latency);
+      }
+      positions.put(parameters[1], ((Number) parameters[2]).intValue());
+    }
+
+    boolean hasFinalPositions(int position) {
+      return positions.size() == PLAYERS - 1
+          && positions.values().stream().allMatch(p -> p == position);
+    }
+  }
+
+  private static class Result {
+    long bytes;
+    long messages;
+    double bytesPerSecond;
+    double p50;
+    double p99;
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d messages, %d bytes, %.0f bytes/s received, latency p50 %.1f ms p99 %.1f ms",
+          messages, bytes, bytesPerSecond, p50, p99);
+    }
+  }
+}
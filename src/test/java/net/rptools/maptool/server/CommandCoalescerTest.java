@@ -0,0 +1,149 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.clientserver.hessian.AbstractMethodHandler;
+import net.rptools.clientserver.hessian.server.ServerConnection;
+import net.rptools.clientserver.simple.client.ClientConnection;
+import net.rptools.clientserver.simple.server.ServerObserver;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Simulates 30 players each dragging a token at 60 updates a second and compares forwarding every
+ * <code>updateTokenMove</code> with forwarding them through the {@link CommandCoalescer}.
+ */
+class CommandCoalescerTest {
+
+  private static final int PLAYERS = 30;
+  private static final int UPDATES_PER_SECOND = 60;
+  private static final int DRAG_MILLIS = 2000;
+  private static final String METHOD = "updateTokenMove";
+
+  @Test
+  @DisplayName("Test coalesced token drags deliver the final positions with less traffic.")
+  void testDrag() throws Exception {
+    long direct = drag(false);
+    long coalesced = drag(true);
+    assertTrue(coalesced < direct, "coalescing did not reduce the traffic");
+  }
+
+  /** Returns the number of bytes the players received. */
+  private long drag(boolean coalesce) throws Exception {
+    ServerConnection server = new ServerConnection(0);
+    CommandCoalescer coalescer = new CommandCoalescer(server);
+    CountDownLatch connected = new CountDownLatch(PLAYERS);
+    List<String> ids = new ArrayList<String>();
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(ClientConnection conn) {
+            synchronized (ids) {
+              ids.add(conn.getId());
+            }
+            connected.countDown();
+          }
+
+          public void connectionRemoved(ClientConnection conn) {}
+        });
+
+    List<ClientConnection> clients = new ArrayList<ClientConnection>();
+    List<DragReceiver> receivers = new ArrayList<DragReceiver>();
+    try {
+      for (int i = 0; i < PLAYERS; i++) {
+        ClientConnection client =
+            new ClientConnection("localhost", server.getLocalPort(), "player-" + i);
+        DragReceiver receiver = new DragReceiver();
+        client.addMessageHandler(receiver);
+        client.start();
+        clients.add(client);
+        receivers.add(receiver);
+      }
+      assertTrue(connected.await(30, TimeUnit.SECONDS), "players did not connect");
+
+      // Every player moves its own token one step per frame, this stands in for the server
+      // handler receiving the updates
+      long frameNanos = TimeUnit.SECONDS.toNanos(1) / UPDATES_PER_SECOND;
+      int frames = DRAG_MILLIS * UPDATES_PER_SECOND / 1000;
+      long start = System.nanoTime();
+      for (int frame = 0; frame < frames; frame++) {
+        long due = start + frame * frameNanos;
+        while (System.nanoTime() < due) {
+          Thread.onSpinWait();
+        }
+        for (int p = 0; p < PLAYERS; p++) {
+          String sender = ids.get(p);
+          String token = "token-" + p;
+          Object[] parameters = {"zone", token, frame, frame};
+          if (coalesce) {
+            coalescer.enqueue(sender, false, METHOD + ":" + token, METHOD, parameters);
+          } else {
+            server.broadcastCallMethod(ServerConnection.excluding(sender), METHOD, parameters);
+          }
+        }
+      }
+      coalescer.flushAll();
+
+      // Everyone has to end up with everyone else's final position
+      long deadline = System.currentTimeMillis() + 30000;
+      for (DragReceiver receiver : receivers) {
+        while (!receiver.hasFinalPositions(frames - 1) && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertTrue(receiver.hasFinalPositions(frames - 1), "final positions were not delivered");
+      }
+
+      long bytes = 0;
+      for (DragReceiver receiver : receivers) {
+        bytes += receiver.bytes.get();
+      }
+      return bytes;
+    } finally {
+      coalescer.shutdown();
+      for (ClientConnection client : clients) {
+        client.close();
+      }
+      server.close();
+    }
+  }
+
+  private static class DragReceiver extends AbstractMethodHandler {
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<Object, Integer> positions = new ConcurrentHashMap<Object, Integer>();
+
+    @Override
+    public void handleMessage(String id, byte[] message) {
+      bytes.addAndGet(message.length);
+      super.handleMessage(id, message);
+    }
+
+    public void handleMethod(String id, String method, Object... parameters) {
+      positions.put(parameters[1], ((Number) parameters[2]).intValue());
+    }
+
+    boolean hasFinalPositions(int position) {
+      return positions.size() == PLAYERS - 1
+          && positions.values().stream().allMatch(p -> p == position);
+    }
+  }
+}
@@ -0,0 +1,566 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import com.caucho.hessian.io.HessianInput;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.clientserver.hessian.client.ClientConnection;
+import net.rptools.clientserver.hessian.server.MethodStatistics;
+import net.rptools.clientserver.simple.MessageHandler;
+import net.rptools.clientserver.simple.server.ServerObserver;
+import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Player;
+import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenPatch;
+import net.rptools.maptool.model.TokenVersionTracker;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.drawing.LineSegment;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.util.PersistenceUtil;
+
+/**
+ * Replays traffic written by a {@link TrafficRecorder}, or a synthetic session when no recording
+ * is given, against an in-process {@link MapToolServer} with a number of simulated clients and no
+ * GUI. Each call is sent by the client standing in for its original sender and handled by the
+ * server's {@link ServerMethodHandler}, so recipients, coalescing and token versions are those of a
+ * real game. Commands the server handles by reaching into the hosting client's frame or campaign
+ * are left out.
+ *
+ * <p>The report has, per command, the client's encoding time, the bytes on the wire, the
+ * compression ratio, the server's time to send it on, the receiving client's decoding time and the
+ * latency from the client queuing a call to another client receiving it. Calls are matched by
+ * their parameters, without the versions the server stamps on patches, so a call the server
+ * dropped or rewrote has no latency.
+ *
+ * <p>Run through <code>gradlew replayTraffic -Ptraffic=file -Pclients=n -Pspeed=x
+ * -Pcampaign=file</code>, a speed of 0 sends as fast as possible. A recording needs the campaign it
+ * was made with, the zones and tokens it refers to have to exist on the server.
+ */
+public class TrafficReplay {
+  private static final int DEFAULT_CLIENTS = 10;
+  private static final int SYNTHETIC_PLAYERS = 6;
+  private static final int SYNTHETIC_SECONDS = 10;
+  private static final long TIMEOUT_MILLIS = 120000;
+  private static final long QUIET_MILLIS = 1000;
+  private static final String GM_PASSWORD = "gm";
+  private static final String PLAYER_PASSWORD = "player";
+
+  private final int clients;
+  private final double speed;
+
+  public TrafficReplay(int clients, double speed) {
+    if (clients < 2) {
+      throw new IllegalArgumentException("At least two clients are needed, not " + clients);
+    }
+    this.clients = clients;
+    this.speed = speed;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Campaign campaign;
+    List<TrafficRecorder.Entry> entries;
+    if (args.length > 0 && !args[0].isEmpty()) {
+      entries = TrafficRecorder.read(new File(args[0]));
+      campaign =
+          args.length > 3 && !args[3].isEmpty()
+              ? PersistenceUtil.loadCampaign(new File(args[3])).campaign
+              : new Campaign();
+    } else {
+      campaign = new Campaign();
+      Zone zone = new Zone();
+      campaign.putZone(zone);
+      entries = synthesize(zone.getId(), SYNTHETIC_PLAYERS, SYNTHETIC_SECONDS);
+    }
+    int clients =
+        args.length > 1 && !args[1].isEmpty() ? Integer.parseInt(args[1]) : DEFAULT_CLIENTS;
+    double speed = args.length > 2 && !args[2].isEmpty() ? Double.parseDouble(args[2]) : 1;
+
+    new TrafficReplay(clients, speed).replay(campaign, entries).print(System.out);
+    // The server's dispatch thread outlives the connection
+    System.exit(0);
+  }
+
+  /**
+   * Builds a session of players moving tokens and pointers, chatting, drawing and editing tokens
+   * at the rates a busy game sees. Edits are sent the way the client sends them, the whole token
+   * the first time and a patch after that.
+   *
+   * @param zone the zone the session takes place on, it has to be in the replayed campaign
+   * @param players the number of players sending traffic
+   * @param seconds the length of the session
+   * @return the session, as if it had been recorded
+   */
+  public static List<TrafficRecorder.Entry> synthesize(GUID zone, int players, int seconds) {
+    TokenVersionTracker versions = new TokenVersionTracker();
+    List<Token> tokens = new ArrayList<Token>();
+    for (int p = 0; p < players; p++) {
+      Token token = new Token("Token " + p, null);
+      for (int i = 0; i < 50; i++) {
+        token.setProperty("Prop" + i, "value " + i);
+      }
+      tokens.add(token);
+    }
+
+    List<TrafficRecorder.Entry> entries = new ArrayList<TrafficRecorder.Entry>();
+    long frameNanos = TimeUnit.SECONDS.toNanos(1) / 30;
+    for (int frame = 0; frame < seconds * 30; frame++) {
+      for (int p = 0; p < players; p++) {
+        // Spread the players over the frame
+        long offset = frame * frameNanos + p * frameNanos / players;
+        String id = "player-" + p;
+        Token token = tokens.get(p);
+        entries.add(entry(offset, id, "updateTokenMove", zone, token.getId(), frame, p));
+        if (frame % 2 == 0) {
+          entries.add(entry(offset, id, "movePointer", id, frame * 10, p * 10));
+        }
+        if (frame % 60 == p % 60) {
+          entries.add(
+              entry(offset, id, "message", TextMessage.say(null, "Player " + p + " attacks!")));
+        }
+        if (frame % 30 == p % 30) {
+          token.setProperty("HP", String.valueOf(frame));
+          TokenPatch patch = versions.diff(token);
+          if (patch == null) {
+            entries.add(entry(offset, id, "putToken", zone, token));
+          } else if (!patch.isEmpty()) {
+            entries.add(entry(offset, id, "patchToken", zone, patch));
+          }
+        }
+        if (frame % 150 == p) {
+          LineSegment line = new LineSegment(3, false);
+          for (int i = 0; i < 200; i++) {
+            line.getPoints().add(new Point(frame + i, p + (i % 10)));
+          }
+          entries.add(entry(offset, id, "draw", zone, new Pen(), line));
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static TrafficRecorder.Entry entry(
+      long offset, String id, String method, Object... parameters) {
+    return new TrafficRecorder.Entry(
+        offset, id, method, HessianUtils.methodToFrame(method, parameters));
+  }
+
+  /**
+   * Replays a session.
+   *
+   * @param campaign the campaign the server starts with, the session may change it
+   * @param entries the recorded messages
+   * @return the numbers
+   * @throws IOException if the connections can't be set up or a message can't be decoded
+   * @throws InterruptedException if interrupted while waiting for the clients
+   */
+  public Report replay(Campaign campaign, List<TrafficRecorder.Entry> entries)
+      throws IOException, InterruptedException {
+    Report report = new Report();
+    // Decode everything up front, only the encoding done by the clients is measured
+    List<TrafficRecorder.Entry> calls = new ArrayList<TrafficRecorder.Entry>();
+    List<Object[]> parameters = new ArrayList<Object[]>();
+    List<Long> fingerprints = new ArrayList<Long>();
+    for (TrafficRecorder.Entry entry : entries) {
+      String method = entry.getMethod();
+      if (!isServerCommand(method)) {
+        continue;
+      }
+      Object[] p = entry.getParameters();
+      if (isHostCommand(method, p)) {
+        report.skipped++;
+        continue;
+      }
+      calls.add(entry);
+      parameters.add(p);
+      fingerprints.add(fingerprint(method, p));
+      report.get(method).parameters = p.length;
+    }
+
+    ServerConfig config = new ServerConfig(null, GM_PASSWORD, PLAYER_PASSWORD, 0, null);
+    MapToolServer server = new MapToolServer(config, new ServerPolicy());
+    server.setCampaign(campaign);
+    Semaphore connected = new Semaphore(0);
+    server.addObserver(
+        new ServerObserver() {
+          public void connectionAdded(net.rptools.clientserver.simple.client.ClientConnection c) {
+            connected.release();
+          }
+
+          public void connectionRemoved(
+              net.rptools.clientserver.simple.client.ClientConnection c) {}
+        });
+
+    List<ReplayClient> connections = new ArrayList<ReplayClient>();
+    List<Receiver> receivers = new ArrayList<Receiver>();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < clients; i++) {
+        ReplayClient client =
+            new ReplayClient(server.getConnection().getLocalPort(), "client-" + i);
+        Receiver receiver = new Receiver();
+        client.addMessageHandler(receiver);
+        client.start();
+        connections.add(client);
+        receivers.add(receiver);
+        if (!connected.tryAcquire(30, TimeUnit.SECONDS)) {
+          throw new IOException("Client " + i + " did not connect");
+        }
+      }
+
+      Map<String, Integer> senders = new HashMap<String, Integer>();
+      long first = calls.isEmpty() ? 0 : calls.get(0).getOffsetNanos();
+      start = System.nanoTime();
+      for (int i = 0; i < calls.size(); i++) {
+        TrafficRecorder.Entry entry = calls.get(i);
+        if (speed > 0) {
+          long due = start + (long) ((entry.getOffsetNanos() - first) / speed);
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            LockSupport.parkNanos(wait);
+          }
+        }
+        int sender =
+            senders.computeIfAbsent(entry.getConnectionId(), id -> senders.size() % clients);
+        String method = entry.getMethod();
+
+        long encodeStart = System.nanoTime();
+        byte[] call = HessianUtils.methodToBytes(method, parameters.get(i));
+        byte[] message = HessianUtils.frame(call);
+        long sent = System.nanoTime();
+
+        CommandStats stats = report.get(method);
+        stats.calls++;
+        stats.encodeNanos += sent - encodeStart;
+        stats.rawBytes += call.length;
+        stats.wireBytes += message.length;
+        report.sent.computeIfAbsent(fingerprints.get(i), f -> new ArrayList<Long>()).add(sent);
+        connections.get(sender).sendMessage(ServerCommand.getPriority(method), message);
+      }
+
+      // The server drops superseded updates, so wait for the clients to go quiet instead of
+      // counting
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      long received = -1;
+      while (System.currentTimeMillis() < deadline) {
+        Thread.sleep(QUIET_MILLIS);
+        long count = receivers.stream().mapToLong(Receiver::getCount).sum();
+        if (count == received) {
+          break;
+        }
+        received = count;
+      }
+
+      for (MethodStatistics forwarded : server.getConnection().getMethodStatistics()) {
+        CommandStats stats = report.commands.get(forwarded.getMethod());
+        if (stats != null) {
+          stats.forwarded = forwarded;
+        }
+      }
+      report.coalescedUpdates = server.getCoalescer().getReceivedCount();
+      report.forwardedUpdates = server.getCoalescer().getForwardedCount();
+    } finally {
+      for (ReplayClient client : connections) {
+        client.close();
+      }
+      server.stop();
+    }
+
+    long last = start;
+    for (Receiver receiver : receivers) {
+      last = Math.max(last, receiver.match(report));
+    }
+    report.durationNanos = last - start;
+    return report;
+  }
+
+  private static boolean isServerCommand(String method) {
+    try {
+      ServerCommand.COMMAND.valueOf(method);
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /** @return true for calls {@link ServerMethodHandler} handles with the hosting client's UI. */
+  private static boolean isHostCommand(String method, Object[] parameters) {
+    switch (ServerCommand.COMMAND.valueOf(method)) {
+      case exposePCArea:
+      case setServerPolicy:
+      case updateCampaignMacros:
+      case updateGmMacros:
+        return true;
+      case updateInitiative:
+        // Without a list it sets the owner permission on the host's initiative panel
+        return parameters[0] == null;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Identifies a call by its method and parameters. Patches are taken without their versions, the
+   * server replaces those when it sends them on.
+   *
+   * @param method the method
+   * @param parameters the parameters as the sender passed them
+   * @return the fingerprint
+   */
+  private static long fingerprint(String method, Object[] parameters) {
+    Object[] normalized = parameters.clone();
+    for (int i = 0; i < normalized.length; i++) {
+      if (normalized[i] instanceof TokenPatch) {
+        normalized[i] = ((TokenPatch) normalized[i]).withVersions(0, 0);
+      }
+    }
+    byte[] bytes = HessianUtils.methodToBytes(method, normalized);
+    return ((long) bytes.length << 32) | (Arrays.hashCode(bytes) & 0xffffffffL);
+  }
+
+  /** A client that logs in the way MapTool does, as a player. */
+  private static class ReplayClient extends ClientConnection {
+    ReplayClient(int port, String name) throws IOException {
+      super("localhost", port, name);
+      setMethodPriorities(ServerCommand::getPriority);
+    }
+
+    @Override
+    public boolean sendHandshake(Socket s) throws IOException {
+      Handshake.Response response;
+      try {
+        response =
+            Handshake.sendHandshake(
+                new Handshake.Request(
+                    getId(), PLAYER_PASSWORD, Player.Role.PLAYER, MapTool.getVersion()),
+                s);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Could not encrypt the handshake", e);
+      }
+      if (response.code != Handshake.Code.OK) {
+        throw new IOException("Handshake failed: " + response.message);
+      }
+      setFramedCompression(response.framedCompression);
+      return true;
+    }
+  }
+
+  /** One simulated client, keeps what it receives to be matched once the replay is over. */
+  private static class Receiver implements MessageHandler {
+    private final List<Long> times = new ArrayList<Long>();
+    private final List<byte[]> messages = new ArrayList<byte[]>();
+
+    public synchronized void handleMessage(String id, byte[] message) {
+      times.add(System.nanoTime());
+      messages.add(message);
+    }
+
+    synchronized long getCount() {
+      return messages.size();
+    }
+
+    /**
+     * Adds the calls received to the report, matching each to when it was sent.
+     *
+     * @param report the report
+     * @return when the last call was received
+     * @throws IOException if a call can't be decoded
+     */
+    synchronized long match(Report report) throws IOException {
+      long last = 0;
+      for (int i = 0; i < messages.size(); i++) {
+        long start = System.nanoTime();
+        HessianInput in =
+            HessianUtils.createSafeHessianInput(HessianUtils.openMessage(messages.get(i)));
+        in.startCall();
+        String method = in.getMethod();
+        CommandStats stats = report.commands.get(method);
+        if (stats == null) {
+          // Not replayed, such as the campaign the server sends on connecting
+          continue;
+        }
+        List<Object> parameters = new ArrayList<Object>();
+        while (!in.isEnd()) {
+          parameters.add(in.readObject());
+        }
+        in.completeCall();
+        stats.decodeNanos += System.nanoTime() - start;
+
+        long received = times.get(i);
+        stats.deliveries++;
+        report.delivered++;
+        report.receivedBytes += messages.get(i).length;
+        last = Math.max(last, received);
+        // The server may add parameters, such as the version of a token
+        Object[] sent =
+            parameters.subList(0, Math.min(parameters.size(), stats.parameters)).toArray();
+        List<Long> sendTimes = report.sent.get(fingerprint(method, sent));
+        if (sendTimes != null) {
+          Long queued = null;
+          for (long time : sendTimes) {
+            if (time > received) {
+              break;
+            }
+            queued = time;
+          }
+          if (queued != null) {
+            stats.latencies.add(received - queued);
+          }
+        }
+      }
+      return last;
+    }
+  }
+
+  /** The numbers for one command. */
+  public static class CommandStats {
+    private int parameters;
+    private long calls;
+    private long deliveries;
+    private long encodeNanos;
+    private long decodeNanos;
+    private long rawBytes;
+    private long wireBytes;
+    private final List<Long> latencies = new ArrayList<Long>();
+    private MethodStatistics forwarded;
+
+    public long getCalls() {
+      return calls;
+    }
+
+    /** @return the number of times the call was received by a client. */
+    public long getDeliveries() {
+      return deliveries;
+    }
+
+    /** @return the uncompressed size over the size on the wire. */
+    public double getCompressionRatio() {
+      return wireBytes == 0 ? 1 : (double) rawBytes / wireBytes;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency from sending to receiving in nanoseconds, 0 if nothing was matched
+     */
+    public long getLatency(double percentile) {
+      long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+      if (sorted.length == 0) {
+        return 0;
+      }
+      Arrays.sort(sorted);
+      return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static double average(long total, long count) {
+      return count == 0 ? 0 : (double) total / count;
+    }
+  }
+
+  /** The result of a replay. */
+  public static class Report {
+    private final Map<String, CommandStats> commands = new HashMap<String, CommandStats>();
+    // Per call fingerprint, when the calls were queued by their sender
+    private final Map<Long, List<Long>> sent = new HashMap<Long, List<Long>>();
+    private long delivered;
+    private long receivedBytes;
+    private long skipped;
+    private long coalescedUpdates;
+    private long forwardedUpdates;
+    private long durationNanos;
+
+    private CommandStats get(String method) {
+      return commands.computeIfAbsent(method, m -> new CommandStats());
+    }
+
+    public Map<String, CommandStats> getCommands() {
+      return new TreeMap<String, CommandStats>(commands);
+    }
+
+    /** @return the number of calls received by the clients. */
+    public long getDelivered() {
+      return delivered;
+    }
+
+    /** @return the number of calls left out as they need the hosting client's UI. */
+    public long getSkipped() {
+      return skipped;
+    }
+
+    /** @return the number of updates the server held back to forward only the latest. */
+    public long getCoalescedUpdates() {
+      return coalescedUpdates;
+    }
+
+    /** @return the number of those updates the server forwarded. */
+    public long getForwardedUpdates() {
+      return forwardedUpdates;
+    }
+
+    public void print(PrintStream out) {
+      out.printf(
+          "%-22s %7s %7s %10s %10s %6s %9s %9s %9s %9s %9s%n",
+          "command",
+          "calls",
+          "recvd",
+          "raw B",
+          "wire B",
+          "ratio",
+          "enc us",
+          "fwd us",
+          "dec us",
+          "p50 ms",
+          "p99 ms");
+      for (Map.Entry<String, CommandStats> e : getCommands().entrySet()) {
+        CommandStats stats = e.getValue();
+        out.printf(
+            "%-22s %7d %7d %10.0f %10.0f %6.2f %9.1f %9.1f %9.1f %9.2f %9.2f%n",
+            e.getKey(),
+            stats.calls,
+            stats.deliveries,
+            CommandStats.average(stats.rawBytes, stats.calls),
+            CommandStats.average(stats.wireBytes, stats.calls),
+            stats.getCompressionRatio(),
+            CommandStats.average(stats.encodeNanos, stats.calls) / 1000,
+            stats.forwarded == null ? 0 : stats.forwarded.getAverageCpuNanos() / 1000.0,
+            CommandStats.average(stats.decodeNanos, stats.deliveries) / 1000,
+            stats.getLatency(0.5) / 1e6,
+            stats.getLatency(0.99) / 1e6);
+      }
+      out.printf(
+          "%d calls delivered, %d bytes received by the clients in %.1f s%n",
+          delivered, receivedBytes, durationNanos / 1e9);
+      out.printf(
+          "%d of %d coalesced updates forwarded, %d calls for the host's UI left out%n",
+          forwardedUpdates, coalescedUpdates, skipped);
+    }
+  }
+}
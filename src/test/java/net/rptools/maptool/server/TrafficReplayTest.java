@@ -0,0 +1,87 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import net.rptools.clientserver.hessian.HessianUtils;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TrafficReplayTest {
+
+  @Test
+  @DisplayName("Test recorded messages are read back in order with their parameters.")
+  void testRecording() throws Exception {
+    File file = File.createTempFile("traffic", ".mtrf");
+    file.deleteOnExit();
+    try (TrafficRecorder recorder = new TrafficRecorder(file)) {
+      recorder.handleMessage("ip-1", HessianUtils.methodToFrame("movePointer", "player", 1, 2));
+      recorder.handleMessage("ip-2", HessianUtils.methodToBytesGZ("hidePointer", "player"));
+    }
+
+    List<TrafficRecorder.Entry> entries = TrafficRecorder.read(file);
+    assertEquals(2, entries.size());
+    assertEquals("ip-1", entries.get(0).getConnectionId());
+    assertEquals("movePointer", entries.get(0).getMethod());
+    assertArrayEquals(new Object[] {"player", 1, 2}, entries.get(0).getParameters());
+    assertEquals("hidePointer", entries.get(1).getMethod());
+    assertArrayEquals(new Object[] {"player"}, entries.get(1).getParameters());
+    assertTrue(entries.get(0).getOffsetNanos() <= entries.get(1).getOffsetNanos());
+  }
+
+  @Test
+  @DisplayName("Test a replay goes through the server's handler to the other clients.")
+  void testReplay() throws Exception {
+    Campaign campaign = new Campaign();
+    Zone zone = new Zone();
+    campaign.putZone(zone);
+    List<TrafficRecorder.Entry> entries = TrafficReplay.synthesize(zone.getId(), 4, 2);
+    TrafficReplay.Report report = new TrafficReplay(5, 0).replay(campaign, entries);
+    Map<String, TrafficReplay.CommandStats> commands = report.getCommands();
+
+    // Tokens are put whole once, then patched on top of the version the server gave them
+    TrafficReplay.CommandStats putToken = commands.get("putToken");
+    assertEquals(4, putToken.getCalls());
+    assertEquals(16, putToken.getDeliveries());
+    assertTrue(putToken.getCompressionRatio() > 1);
+    assertEquals(4, commands.get("patchToken").getCalls());
+    assertEquals(16, commands.get("patchToken").getDeliveries());
+    assertEquals(4, zone.getAllTokens().size());
+    for (Token token : zone.getAllTokens()) {
+      // Player p last edited its token in frame 30 + p
+      int player = Integer.parseInt(token.getName().substring("Token ".length()));
+      assertEquals(String.valueOf(30 + player), token.getProperty("HP"));
+    }
+
+    // Drawings go back to the sender as well
+    assertEquals(20, commands.get("draw").getDeliveries());
+    assertEquals(16, commands.get("message").getDeliveries());
+
+    // Drags and pointers are coalesced, the latest of each still gets through
+    assertEquals(240 + 120, report.getCoalescedUpdates());
+    assertTrue(report.getForwardedUpdates() <= report.getCoalescedUpdates());
+    long moves = commands.get("updateTokenMove").getDeliveries();
+    assertTrue(moves >= 16 && moves <= 240 * 4);
+    long pointers = commands.get("movePointer").getDeliveries();
+    assertTrue(pointers >= 20 && pointers <= 120 * 5);
+  }
+}
@@ -20,6 +20,9 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Random;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
@@ -76,6 +79,97 @@ void testBasicTransfer() throws Exception {
     consumer.getFilename().delete();
   }
 
+  @Test
+  @DisplayName("Test an asset arrives intact in growing chunks.")
+  void testManagerTransfer() throws Exception {
+    byte[] data = new byte[3 * 1024 * 1024 + 123];
+    new Random(1).nextBytes(data);
+    File tmpFile = createTempFile(data);
+
+    AssetTransferManager sender = new AssetTransferManager();
+    AssetProducer producer = new AssetProducer("Testing", "onetwo", tmpFile);
+    sender.addProducer(producer);
+
+    AssetTransferManager receiver = new AssetTransferManager();
+    File[] received = new File[1];
+    receiver.addConsumerListener(
+        new ConsumerListener() {
+          public void assetAdded(Serializable id) {}
+
+          public void assetComplete(Serializable id, String name, File data) {
+            received[0] = data;
+          }
+
+          public void assetUpdated(Serializable id) {}
+        });
+    receiver.addConsumer(new AssetConsumer(new File("."), producer.getHeader()));
+
+    int chunks = 0;
+    AssetChunk chunk;
+    while ((chunk = sender.nextChunk()) != null) {
+      assertTrue(chunk.getData().length <= AssetTransferManager.MAX_CHUNK_SIZE);
+      receiver.update(chunk);
+      chunks++;
+    }
+    // 64K, 128K, 256K and then the largest size
+    assertEquals(9, chunks);
+    assertTrue(producer.isComplete());
+    assertNotNull(received[0]);
+    assertArrayEquals(data, Files.readAllBytes(received[0].toPath()));
+
+    // CLEANUP
+    tmpFile.delete();
+    received[0].delete();
+  }
+
+  @Test
+  @DisplayName("Test the chunk size backs off down to the minimum and grows back.")
+  void testBackOff() throws Exception {
+    AssetTransferManager manager = new AssetTransferManager();
+    assertEquals(AssetTransferManager.INITIAL_CHUNK_SIZE, manager.getChunkSize());
+    for (int i = 0; i < 10; i++) {
+      manager.backOff();
+    }
+    assertEquals(AssetTransferManager.MIN_CHUNK_SIZE, manager.getChunkSize());
+
+    byte[] data = new byte[AssetTransferManager.MIN_CHUNK_SIZE * 3];
+    File tmpFile = createTempFile(data);
+    manager.addProducer(new AssetProducer("Testing", "onetwo", tmpFile));
+    assertEquals(AssetTransferManager.MIN_CHUNK_SIZE, manager.nextChunk().getData().length);
+    assertEquals(AssetTransferManager.MIN_CHUNK_SIZE * 2, manager.nextChunk().getData().length);
+    assertNull(manager.nextChunk());
+    assertEquals(AssetTransferManager.MIN_CHUNK_SIZE * 4, manager.getChunkSize());
+
+    // CLEANUP
+    tmpFile.delete();
+  }
+
+  @Test
+  @DisplayName("Test flushing drops the transfers that are under way.")
+  void testFlush() throws Exception {
+    byte[] data = new byte[1024];
+    File tmpFile = createTempFile(data);
+    AssetProducer producer = new AssetProducer("Testing", "onetwo", tmpFile);
+    AssetConsumer consumer = new AssetConsumer(new File("."), producer.getHeader());
+
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addProducer(producer);
+    manager.addConsumer(consumer);
+    consumer.update(manager.nextChunk(10));
+    assertFalse(consumer.isComplete());
+
+    manager.flush();
+    assertNull(manager.nextChunk());
+    assertTrue(manager.getAssetConsumers().isEmpty());
+    // The same asset can be asked for again
+    manager.addConsumer(new AssetConsumer(new File("."), producer.getHeader()));
+
+    // CLEANUP
+    manager.flush();
+    tmpFile.delete();
+    consumer.getFilename().delete();
+  }
+
   @Test
   @DisplayName("Test Create Temporary File.")
   File createTempFile(byte[] data) throws IOException {
@@ -0,0 +1,280 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.imageio.ImageIO;
+import net.rptools.lib.ModelVersionManager;
+import net.rptools.lib.io.PackedFile;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.PersistenceUtil.PersistedCampaign;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalCampaignWriterTest {
+
+  @BeforeAll
+  static void setUp() {
+    // The assets of the tests are only needed in memory
+    AssetManager.setUsePersistentCache(false);
+  }
+
+  private static Zone createZone(String name, int tokens) {
+    Zone zone = new Zone();
+    // Copying a zone copies its grid
+    zone.setGrid(new SquareGrid());
+    zone.setName(name);
+    for (int i = 0; i < tokens; i++) {
+      Token token = new Token(name + " " + i, null);
+      token.setX(i * 50);
+      token.setY(i * 25);
+      zone.putToken(token);
+    }
+    zone.exposeArea(new Area(new Rectangle2D.Double(0, 0, 300, 200)), (Token) null);
+    return zone;
+  }
+
+  private static PersistedCampaign persist(Zone... zones) {
+    PersistedCampaign persistedCampaign = new PersistedCampaign();
+    persistedCampaign.campaign = new Campaign();
+    for (Zone zone : zones) {
+      persistedCampaign.campaign.putZone(zone);
+    }
+    return persistedCampaign;
+  }
+
+  private static Asset createAsset() throws IOException {
+    BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+    image.setRGB(1, 2, 0xff336699);
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", png);
+    Asset asset = new Asset("image", png.toByteArray());
+    AssetManager.putAsset(asset);
+    return asset;
+  }
+
+  private static PersistedCampaign read(File file, ModelVersionManager versionManager)
+      throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try (PackedFile pakFile = new PackedFile(file)) {
+      String version = (String) pakFile.getProperty(PersistenceUtil.PROP_CAMPAIGN_VERSION);
+      IncrementalCampaignWriter.readZoneEntries(
+          pakFile, versionManager, version, pool, new PhaseTimings("Read " + file.getName()));
+      return (PersistedCampaign) pakFile.getContent(version);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static Set<String> zoneEntries(File file) throws IOException {
+    Set<String> names = new HashSet<String>();
+    try (ZipFile zip = new ZipFile(file)) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        if (entry.getName().startsWith("zones/")) {
+          names.add(entry.getName());
+        }
+      }
+    }
+    return names;
+  }
+
+  private static void assertSameZone(Zone expected, Zone actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getName(), actual.getName());
+    List<Token> expectedTokens = expected.getAllTokens();
+    List<Token> actualTokens = actual.getAllTokens();
+    assertEquals(expectedTokens.size(), actualTokens.size());
+    for (Token token : expectedTokens) {
+      Token read = actual.getToken(token.getId());
+      assertNotNull(read, token.getName());
+      assertEquals(token.getName(), read.getName());
+      assertEquals(token.getX(), read.getX());
+      assertEquals(token.getY(), read.getY());
+    }
+    assertTrue(expected.getExposedArea().equals(actual.getExposedArea()));
+  }
+
+  @Test
+  @DisplayName("Test a campaign reads back as it was written.")
+  void testSaveAndLoad(@TempDir File tempDir) throws IOException {
+    Zone first = createZone("First", 20);
+    Zone second = createZone("Second", 3);
+    PersistedCampaign written = persist(first, second);
+    Asset asset = createAsset();
+    written.assetMap.put(asset.getId(), null);
+    File file = new File(tempDir, "test.cmpgn");
+
+    new IncrementalCampaignWriter(false).write(written, file);
+
+    assertEquals(2, zoneEntries(file).size());
+    try (PackedFile pakFile = new PackedFile(file)) {
+      assertEquals(
+          PersistenceUtil.CAMPAIGN_VERSION,
+          pakFile.getProperty(PersistenceUtil.PROP_CAMPAIGN_VERSION));
+      assertEquals(Boolean.TRUE, pakFile.getProperty(IncrementalCampaignWriter.PROP_ZONE_ENTRIES));
+    }
+    PersistedCampaign read = read(file, new ModelVersionManager());
+    List<Zone> zones = read.campaign.getZones();
+    assertEquals(2, zones.size());
+    assertSameZone(first, zones.get(0));
+    assertSameZone(second, zones.get(1));
+    assertEquals(Collections.singleton(asset.getId()), read.assetMap.keySet());
+  }
+
+  @Test
+  @DisplayName("Test the transforms for older versions are applied to the zone entries.")
+  void testTransformed(@TempDir File tempDir) throws IOException {
+    File file = new File(tempDir, "test.cmpgn");
+    new IncrementalCampaignWriter(false).write(persist(createZone("Old name", 2)), file);
+
+    // As if the file had been written before a transform that is yet to come
+    ModelVersionManager versionManager = new ModelVersionManager();
+    versionManager.registerTransformation(
+        "99.0", xml -> xml.replace("<name>Old name</name>", "<name>New name</name>"));
+
+    Zone zone = read(file, versionManager).campaign.getZones().get(0);
+    assertEquals("New name", zone.getName());
+    assertEquals(2, zone.getAllTokens().size());
+  }
+
+  @Test
+  @DisplayName("Test zones written before are carried over, changed zones are written again.")
+  void testCarriedOver(@TempDir File tempDir) throws IOException {
+    Zone kept = createZone("Kept", 5);
+    Zone changed = createZone("Changed", 5);
+    File file = new File(tempDir, "test.cmpgn");
+    IncrementalCampaignWriter writer = new IncrementalCampaignWriter(true);
+    writer.write(persist(kept, changed), file);
+    Set<String> before = zoneEntries(file);
+
+    // A snapshot copies the zones that changed and shares the others
+    Zone copy = new Zone(changed, true);
+    copy.setName("Changed again");
+    // Snapshots are never changed once written, so this is not looked at
+    kept.setName("Not written");
+    writer.write(persist(kept, copy), file);
+
+    Set<String> after = zoneEntries(file);
+    assertEquals(2, after.size());
+    Set<String> carried = new HashSet<String>(after);
+    carried.retainAll(before);
+    assertEquals(1, carried.size());
+
+    List<Zone> zones = read(file, null).campaign.getZones();
+    assertEquals("Kept", zones.get(0).getName());
+    assertEquals("Changed again", zones.get(1).getName());
+
+    // Without snapshots every zone is written again
+    new IncrementalCampaignWriter(false).write(persist(kept, copy), file);
+    assertEquals("Not written", read(file, null).campaign.getZones().get(0).getName());
+  }
+
+  @Test
+  @DisplayName("Test the zones and asset images are stored without compressing them again.")
+  void testStored(@TempDir File tempDir) throws IOException {
+    PersistedCampaign written = persist(createZone("First", 5), createZone("Second", 5));
+    Asset asset = createAsset();
+    written.assetMap.put(asset.getId(), null);
+    File file = new File(tempDir, "test.cmpgn");
+    IncrementalCampaignWriter writer = new IncrementalCampaignWriter(true);
+    writer.write(written, file);
+    // Written again from the entries of the first save
+    writer.write(written, file);
+
+    try (ZipFile zip = new ZipFile(file)) {
+      List<String> stored = new ArrayList<String>();
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        if (entry.getMethod() == ZipEntry.STORED) {
+          stored.add(entry.getName());
+        }
+      }
+      Set<String> expected = new HashSet<String>(zoneEntries(file));
+      expected.add("assets/" + asset.getId() + ".png");
+      assertEquals(expected, new HashSet<String>(stored));
+
+      ZipEntry image = zip.getEntry("assets/" + asset.getId() + ".png");
+      try (InputStream is = zip.getInputStream(image)) {
+        assertArrayEquals(asset.getImage(), IOUtils.toByteArray(is));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Test the file is replaced as a whole, and left alone if writing fails.")
+  void testReplaced(@TempDir File tempDir) throws IOException {
+    File file = new File(tempDir, "test.cmpgn");
+    IncrementalCampaignWriter writer = new IncrementalCampaignWriter(false);
+    writer.write(persist(createZone("First", 5)), file);
+    writer.write(persist(createZone("Second", 5)), file);
+    // No temporary file is left next to it
+    assertArrayEquals(new String[] {file.getName()}, tempDir.list());
+    assertEquals("Second", read(file, null).campaign.getZones().get(0).getName());
+
+    byte[] old = Files.readAllBytes(file.toPath());
+    assertThrows(NullPointerException.class, () -> writer.write(new PersistedCampaign(), file));
+    assertArrayEquals(old, Files.readAllBytes(file.toPath()));
+    assertArrayEquals(new String[] {file.getName()}, tempDir.list());
+  }
+
+  @Test
+  @DisplayName("Test saving for an older version keeps the zones in content.xml.")
+  void testOlderVersion(@TempDir File tempDir) throws IOException {
+    Zone zone = createZone("First", 5);
+    File file = new File(tempDir, "test.cmpgn");
+    try (PackedFile pakFile = new PackedFile(file)) {
+      CampaignExport.stripContent(pakFile, persist(zone), "1.5.1").save();
+    }
+
+    assertTrue(zoneEntries(file).isEmpty());
+    try (ZipFile zip = new ZipFile(file);
+        InputStream is = zip.getInputStream(zip.getEntry("content.xml"))) {
+      String content = IOUtils.toString(is, StandardCharsets.UTF_8);
+      // The way older versions read the exposed area
+      assertTrue(content.contains("<exposedArea>"));
+      assertFalse(content.contains("exposedTiles"));
+    }
+    try (PackedFile pakFile = new PackedFile(file)) {
+      assertNull(pakFile.getProperty(IncrementalCampaignWriter.PROP_ZONE_ENTRIES));
+    }
+    assertSameZone(zone, read(file, null).campaign.getZones().get(0));
+  }
+}
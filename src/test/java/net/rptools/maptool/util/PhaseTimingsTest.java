@@ -0,0 +1,58 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class PhaseTimingsTest {
+
+  @Test
+  @DisplayName("Test phases recorded from several threads add up.")
+  void testRecord() throws Exception {
+    PhaseTimings timings = new PhaseTimings("Load");
+    timings.record("Read content", System.nanoTime(), 0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int j = 0; j < 1000; j++) {
+                  timings.record("Read zones", System.nanoTime(), 1);
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    timings.finish();
+
+    Map<String, PhaseTimings.Phase> phases = timings.getPhases();
+    assertEquals(List.of("Read content", "Read zones"), new ArrayList<String>(phases.keySet()));
+    assertEquals(0, phases.get("Read content").getCount());
+    assertEquals(8000, phases.get("Read zones").getCount());
+    long elapsed = timings.getElapsedMillis();
+    Thread.sleep(20);
+    assertEquals(elapsed, timings.getElapsedMillis(), "the elapsed time stops at finish");
+    assertTrue(timings.toString().contains("Read zones (8000)"));
+  }
+}